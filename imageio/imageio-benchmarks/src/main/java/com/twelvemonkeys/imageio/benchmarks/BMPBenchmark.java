@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.benchmarks;
+
+import com.twelvemonkeys.image.ImageUtil;
+import org.openjdk.jmh.annotations.Param;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Benchmarks for the BMP and ICO plugin, covering read, region read, subsampled read
+ * and metadata-only parsing, as well as writing.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: BMPBenchmark.java,v 1.0 18.10.2020 haraldk Exp$
+ */
+public final class BMPBenchmark {
+    private BMPBenchmark() {}
+
+    public static class Read extends ImageReaderBenchmark {
+        @Param({"/bmpsuite/g/pal8.bmp", "/bmpsuite/g/pal8rle.bmp", "/bmpsuite/g/rgb16-565.bmp", "/bmpsuite/g/rgb24.bmp", "/bmpsuite/g/rgb32.bmp", "/ico/favicon.ico"})
+        public String resource;
+
+        @Override
+        protected String getResource() {
+            return resource;
+        }
+    }
+
+    public static class Write extends ImageWriterBenchmark {
+        @Param({"/bmpsuite/g/rgb24.bmp"})
+        public String resource;
+
+        @Override
+        protected String getResource() {
+            return resource;
+        }
+
+        @Override
+        protected String getFormatName() {
+            return "BMP";
+        }
+
+        @Override
+        protected BufferedImage convertImage(final BufferedImage image) {
+            return ImageUtil.toBuffered(image, BufferedImage.TYPE_4BYTE_ABGR);
+        }
+    }
+
+    public static class WriteICO extends ImageWriterBenchmark {
+        @Param({"/ico/favicon.ico"})
+        public String resource;
+
+        @Override
+        protected String getResource() {
+            return resource;
+        }
+
+        @Override
+        protected String getFormatName() {
+            return "ICO";
+        }
+
+        @Override
+        protected BufferedImage convertImage(final BufferedImage image) {
+            return ImageUtil.toBuffered(image, BufferedImage.TYPE_4BYTE_ABGR);
+        }
+    }
+}
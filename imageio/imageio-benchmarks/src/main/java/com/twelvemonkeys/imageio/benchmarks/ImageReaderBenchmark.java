@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.benchmarks;
+
+import com.twelvemonkeys.imageio.stream.ByteArrayImageInputStream;
+import com.twelvemonkeys.io.FileUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Abstract base class for {@code ImageReader} benchmarks.
+ * <p>
+ * Measures full read, region read, subsampled read and metadata-only parsing
+ * of a single image, fully buffered in memory to keep I/O out of the results.
+ * Subclasses provide the resource to read, typically using a JMH {@code @Param}
+ * over the plugin's test resources.
+ * </p>
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: ImageReaderBenchmark.java,v 1.0 18.10.2020 haraldk Exp$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class ImageReaderBenchmark {
+    static final int SUBSAMPLING = 4;
+
+    private byte[] data;
+    private ImageReader reader;
+    private Rectangle region;
+
+    /**
+     * Returns the class path resource to read.
+     *
+     * @return the resource name, like {@code "/tiff/marbles.tif"}.
+     */
+    protected abstract String getResource();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = readResource(getResource());
+        reader = createReader(data);
+
+        // Center quarter of the image
+        reader.setInput(createInput());
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        region = new Rectangle(width / 4, height / 4, Math.max(1, width / 2), Math.max(1, height / 2));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        reader.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage read() throws IOException {
+        reader.setInput(createInput());
+
+        return reader.read(0, null);
+    }
+
+    @Benchmark
+    public BufferedImage readRegion() throws IOException {
+        reader.setInput(createInput());
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(region);
+
+        return reader.read(0, param);
+    }
+
+    @Benchmark
+    public BufferedImage readSubsampled() throws IOException {
+        reader.setInput(createInput());
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(SUBSAMPLING, SUBSAMPLING, 0, 0);
+
+        return reader.read(0, param);
+    }
+
+    @Benchmark
+    public void readMetadata(final Blackhole blackhole) throws IOException {
+        reader.setInput(createInput());
+
+        blackhole.consume(reader.getWidth(0));
+        blackhole.consume(reader.getHeight(0));
+        blackhole.consume(reader.getImageMetadata(0));
+    }
+
+    private ImageInputStream createInput() {
+        return new ByteArrayImageInputStream(data);
+    }
+
+    static byte[] readResource(final String resource) throws IOException {
+        InputStream stream = ImageReaderBenchmark.class.getResourceAsStream(resource);
+
+        if (stream == null) {
+            throw new FileNotFoundException("Resource not found: " + resource);
+        }
+
+        try {
+            return FileUtil.read(stream);
+        }
+        finally {
+            stream.close();
+        }
+    }
+
+    static ImageReader createReader(final byte[] data) throws IOException {
+        ImageReader reader = firstTwelveMonkeysPlugin(ImageIO.getImageReaders(new ByteArrayImageInputStream(data)));
+
+        if (reader == null) {
+            throw new IllegalArgumentException("No TwelveMonkeys ImageReader for input");
+        }
+
+        return reader;
+    }
+
+    // The JRE (and other plugins on the class path) may provide readers/writers for the same formats
+    static <T> T firstTwelveMonkeysPlugin(final Iterator<T> plugins) {
+        while (plugins.hasNext()) {
+            T plugin = plugins.next();
+
+            if (plugin.getClass().getName().startsWith("com.twelvemonkeys.")) {
+                return plugin;
+            }
+        }
+
+        return null;
+    }
+}
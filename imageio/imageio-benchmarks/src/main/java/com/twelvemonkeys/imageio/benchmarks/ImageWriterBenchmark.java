@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.benchmarks;
+
+import com.twelvemonkeys.imageio.stream.ByteArrayImageInputStream;
+import com.twelvemonkeys.io.FastByteArrayOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.twelvemonkeys.imageio.benchmarks.ImageReaderBenchmark.*;
+
+/**
+ * Abstract base class for {@code ImageWriter} benchmarks.
+ * <p>
+ * The source image is decoded once, during setup, from one of the plugin's test resources.
+ * The benchmark measures encoding only, writing to an in-memory stream.
+ * </p>
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: ImageWriterBenchmark.java,v 1.0 18.10.2020 haraldk Exp$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class ImageWriterBenchmark {
+    private BufferedImage image;
+    private ImageWriter writer;
+    private FastByteArrayOutputStream buffer;
+
+    /**
+     * Returns the class path resource to use as source image.
+     *
+     * @return the resource name, like {@code "/tiff/marbles.tif"}.
+     */
+    protected abstract String getResource();
+
+    /**
+     * Returns the format name of the writer to benchmark.
+     *
+     * @return the format name, like {@code "TIFF"}.
+     */
+    protected abstract String getFormatName();
+
+    /**
+     * Creates the write param used for all writes. Subclasses may override to set compression etc.
+     *
+     * @param writer the writer.
+     * @return the param to use, or {@code null} to use the writer defaults.
+     */
+    protected ImageWriteParam createWriteParam(final ImageWriter writer) {
+        return null;
+    }
+
+    /**
+     * Converts the decoded source image to a layout supported by the writer.
+     * The default implementation returns the image as-is.
+     *
+     * @param image the decoded image.
+     * @return the image to write.
+     */
+    protected BufferedImage convertImage(final BufferedImage image) {
+        return image;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] data = readResource(getResource());
+
+        ImageReader reader = createReader(data);
+
+        try {
+            reader.setInput(new ByteArrayImageInputStream(data));
+            image = convertImage(reader.read(0));
+        }
+        finally {
+            reader.dispose();
+        }
+
+        writer = firstTwelveMonkeysPlugin(ImageIO.getImageWritersByFormatName(getFormatName()));
+
+        if (writer == null) {
+            throw new IllegalArgumentException("No TwelveMonkeys ImageWriter for format: " + getFormatName());
+        }
+
+        buffer = new FastByteArrayOutputStream(data.length * 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        writer.dispose();
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        buffer.reset();
+
+        ImageOutputStream output = new MemoryCacheImageOutputStream(buffer);
+
+        try {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), createWriteParam(writer));
+        }
+        finally {
+            output.close();
+        }
+
+        return buffer.size();
+    }
+}
@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.color;
+
+import com.twelvemonkeys.lang.Validate;
+
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_ColorSpace;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.*;
+import java.util.Arrays;
+
+/**
+ * Fast CMYK to sRGB conversion, using a color lookup table.
+ * <p>
+ * Instead of converting every pixel through the color management module, the CMYK color space
+ * is sampled into a 4D grid once, and pixels are converted using tetrahedral interpolation
+ * between the grid points. The result is close to, but not exactly the same as,
+ * the result of a {@link ColorConvertOp}. Differences are typically less than one level,
+ * but may be larger for out of gamut colors, near the gamut boundary.
+ * </p>
+ * <p>
+ * Creating the lookup table is expensive, use {@link ColorSpaces#getCMYKToRGBConverter(ColorSpace)}
+ * to obtain a cached instance.
+ * </p>
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: CMYKToRGBConverter.java,v 1.0 18.10.2020 haraldk Exp$
+ * @see ColorSpaces#getCMYKToRGBConverter(ColorSpace)
+ */
+public final class CMYKToRGBConverter implements RasterOp {
+    // Grid points fall on every 15th 8 bit value, 255 / 15 = 17 intervals
+    private static final int GRID_STEP = 15;
+    private static final int GRID_POINTS = 255 / GRID_STEP + 1;
+
+    // Index of the grid interval and the fraction into the interval, for each 8 bit value
+    private static final int[] INDEX = new int[256];
+    private static final int[] FRACTION = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int index = Math.min(i / GRID_STEP, GRID_POINTS - 2);
+            INDEX[i] = index;
+            FRACTION[i] = i - index * GRID_STEP;
+        }
+    }
+
+    // 16 bit RGB values for each grid point, C varying fastest and K slowest
+    private final short[] table;
+
+    CMYKToRGBConverter(final ColorSpace cmykCS) {
+        Validate.notNull(cmykCS, "cmykCS");
+        Validate.isTrue(cmykCS.getNumComponents() == 4, cmykCS.getNumComponents(), "CMYK color space must have 4 components: %s");
+
+        table = cmykCS instanceof ICC_ColorSpace ? createTable((ICC_ColorSpace) cmykCS) : createTable(cmykCS);
+    }
+
+    private static short[] createTable(final ICC_ColorSpace cmykCS) {
+        // Lay out all grid points in a raster, and convert them in a single call to the color management module
+        int size = GRID_POINTS * GRID_POINTS;
+        WritableRaster grid = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, size, size, 4, null);
+        byte[] cmyk = ((DataBufferByte) grid.getDataBuffer()).getData();
+
+        for (int k = 0, offset = 0; k < GRID_POINTS; k++) {
+            for (int y = 0; y < GRID_POINTS; y++) {
+                for (int m = 0; m < GRID_POINTS; m++) {
+                    for (int c = 0; c < GRID_POINTS; c++) {
+                        cmyk[offset++] = (byte) (c * GRID_STEP);
+                        cmyk[offset++] = (byte) (m * GRID_STEP);
+                        cmyk[offset++] = (byte) (y * GRID_STEP);
+                        cmyk[offset++] = (byte) (k * GRID_STEP);
+                    }
+                }
+            }
+        }
+
+        WritableRaster rgb = Raster.createInterleavedRaster(DataBuffer.TYPE_USHORT, size, size, 3, null);
+        new ColorConvertOp(cmykCS, ColorSpace.getInstance(ColorSpace.CS_sRGB), null).filter(grid, rgb);
+
+        return ((DataBufferUShort) rgb.getDataBuffer()).getData();
+    }
+
+    private static short[] createTable(final ColorSpace cmykCS) {
+        // Non-ICC color spaces can't be used with ColorConvertOp (efficiently), convert each grid point instead
+        short[] table = new short[GRID_POINTS * GRID_POINTS * GRID_POINTS * GRID_POINTS * 3];
+        float[] cmyk = new float[4];
+
+        for (int k = 0, offset = 0; k < GRID_POINTS; k++) {
+            for (int y = 0; y < GRID_POINTS; y++) {
+                for (int m = 0; m < GRID_POINTS; m++) {
+                    for (int c = 0; c < GRID_POINTS; c++) {
+                        cmyk[0] = normalize(cmykCS, 0, c);
+                        cmyk[1] = normalize(cmykCS, 1, m);
+                        cmyk[2] = normalize(cmykCS, 2, y);
+                        cmyk[3] = normalize(cmykCS, 3, k);
+
+                        float[] rgb = cmykCS.toRGB(cmyk);
+
+                        for (int i = 0; i < 3; i++) {
+                            table[offset++] = (short) Math.round(Math.max(0, Math.min(1, rgb[i])) * 65535);
+                        }
+                    }
+                }
+            }
+        }
+
+        return table;
+    }
+
+    private static float normalize(final ColorSpace cs, final int component, final int gridPoint) {
+        float min = cs.getMinValue(component);
+        return min + (cs.getMaxValue(component) - min) * gridPoint / (GRID_POINTS - 1);
+    }
+
+    /**
+     * Converts a single CMYK value to sRGB.
+     *
+     * @param c cyan, {@code 0-255}.
+     * @param m magenta, {@code 0-255}.
+     * @param y yellow, {@code 0-255}.
+     * @param k black, {@code 0-255}.
+     * @return the RGB value, packed as in {@code TYPE_INT_RGB}.
+     */
+    public int convert(final int c, final int m, final int y, final int k) {
+        return lookup(table, c & 0xff, m & 0xff, y & 0xff, k & 0xff);
+    }
+
+    /**
+     * Converts a row of pixel interleaved CMYK samples to sRGB.
+     *
+     * @param cmyk the CMYK samples, 4 per pixel.
+     * @param rgb the RGB values, packed as in {@code TYPE_INT_RGB}. Must have room for {@code width} values.
+     * @param width the number of pixels to convert.
+     */
+    public void convert(final byte[] cmyk, final int[] rgb, final int width) {
+        final short[] table = this.table;
+
+        // Consecutive pixels are often equal, so we keep the last converted value
+        int lastCMYK = 0;
+        int lastRGB = lookup(table, 0, 0, 0, 0);
+
+        for (int x = 0, offset = 0; x < width; x++, offset += 4) {
+            int packed = (cmyk[offset] & 0xff) << 24 | (cmyk[offset + 1] & 0xff) << 16 | (cmyk[offset + 2] & 0xff) << 8 | cmyk[offset + 3] & 0xff;
+
+            if (packed != lastCMYK) {
+                lastCMYK = packed;
+                lastRGB = lookup(table, packed >>> 24, packed >> 16 & 0xff, packed >> 8 & 0xff, packed & 0xff);
+            }
+
+            rgb[x] = lastRGB;
+        }
+    }
+
+    private static int lookup(final short[] table, final int c, final int m, final int y, final int k) {
+        final int stride = 3;
+
+        // Fraction and table stride of each dimension packed together, so they can be sorted as one value
+        int f0 = FRACTION[c] << 16 | stride;
+        int f1 = FRACTION[m] << 16 | stride * GRID_POINTS;
+        int f2 = FRACTION[y] << 16 | stride * GRID_POINTS * GRID_POINTS;
+        int f3 = FRACTION[k] << 16 | stride * GRID_POINTS * GRID_POINTS * GRID_POINTS;
+
+        // Sort in descending order of fraction, using a sorting network
+        int t;
+        if (f0 < f1) { t = f0; f0 = f1; f1 = t; }
+        if (f2 < f3) { t = f2; f2 = f3; f3 = t; }
+        if (f0 < f2) { t = f0; f0 = f2; f2 = t; }
+        if (f1 < f3) { t = f1; f1 = f3; f3 = t; }
+        if (f1 < f2) { t = f1; f1 = f2; f2 = t; }
+
+        // The vertices of the simplex containing the sample, walking from the base vertex along the dimensions with the largest fractions first
+        int v0 = stride * (INDEX[c] + GRID_POINTS * (INDEX[m] + GRID_POINTS * (INDEX[y] + GRID_POINTS * INDEX[k])));
+        int v1 = v0 + (f0 & 0xffff);
+        int v2 = v1 + (f1 & 0xffff);
+        int v3 = v2 + (f2 & 0xffff);
+        int v4 = v3 + (f3 & 0xffff);
+
+        // The vertex weights, in units of 1 / GRID_STEP
+        int w0 = GRID_STEP - (f0 >>> 16);
+        int w1 = (f0 >>> 16) - (f1 >>> 16);
+        int w2 = (f1 >>> 16) - (f2 >>> 16);
+        int w3 = (f2 >>> 16) - (f3 >>> 16);
+        int w4 = f3 >>> 16;
+
+        int rgb = 0;
+
+        for (int i = 0; i < 3; i++) {
+            int value = w0 * (table[v0 + i] & 0xffff) + w1 * (table[v1 + i] & 0xffff) + w2 * (table[v2 + i] & 0xffff)
+                    + w3 * (table[v3 + i] & 0xffff) + w4 * (table[v4 + i] & 0xffff);
+
+            // Scale from 16 bit values, in units of 1 / GRID_STEP, to 8 bit
+            rgb = rgb << 8 | (value + GRID_STEP * 257 / 2) / (GRID_STEP * 257);
+        }
+
+        return rgb;
+    }
+
+    /**
+     * Converts the CMYK source raster to the destination RGB raster.
+     * If the source has a fifth band, and the destination has an alpha band, the fifth band is copied as alpha.
+     *
+     * @param src the source raster, 8 or 16 bit CMYK, with optional alpha.
+     * @param dest raster, in either 3 byte BGR/RGB, 4 byte ABGR or int RGB/ARGB format, or {@code null}.
+     * @return {@code dest}, or a new {@link WritableRaster} if {@code dest} is {@code null}.
+     * @throws IllegalArgumentException if {@code src} and {@code dest} refer to the same object,
+     * or the rasters are not in a supported format.
+     */
+    @Override
+    public WritableRaster filter(final Raster src, WritableRaster dest) {
+        Validate.notNull(src, "src may not be null");
+        Validate.isTrue(src != dest, "src and dest raster may not be same");
+        Validate.isTrue(src.getTransferType() == DataBuffer.TYPE_BYTE || src.getTransferType() == DataBuffer.TYPE_USHORT, src, "only TYPE_BYTE or TYPE_USHORT rasters supported as src: %s");
+        Validate.isTrue(src.getNumBands() >= 4, src.getNumBands(), "CMYK raster must have at least 4 bands: %s");
+
+        if (dest == null) {
+            dest = createCompatibleDestRaster(src);
+        }
+        else {
+            Validate.isTrue(
+                    dest.getTransferType() == DataBuffer.TYPE_BYTE && dest.getNumBands() >= 3 ||
+                            dest.getTransferType() == DataBuffer.TYPE_INT && dest.getNumDataElements() == 1,
+                    dest,
+                    "only 3 or 4 band TYPE_BYTE or 1 int TYPE_INT rasters supported as dest: %s"
+            );
+        }
+
+        final int width = Math.min(src.getWidth(), dest.getWidth());
+        final int height = Math.min(src.getHeight(), dest.getHeight());
+        final int bands = src.getNumBands();
+
+        // Fast path for the common 4 byte pixel interleaved CMYK layout, otherwise we use getPixels
+        boolean interleaved = src.getTransferType() == DataBuffer.TYPE_BYTE && src.getNumDataElements() == 4 && bands == 4
+                && src.getSampleModel() instanceof PixelInterleavedSampleModel
+                && Arrays.equals(((PixelInterleavedSampleModel) src.getSampleModel()).getBandOffsets(), new int[] {0, 1, 2, 3});
+        int shift = src.getSampleModel().getSampleSize(0) - 8;
+
+        byte[] cmyk = new byte[width * 4];
+        int[] samples = interleaved ? null : new int[width * bands];
+        int[] alpha = bands > 4 ? new int[width] : null;
+        int[] rgb = new int[width];
+        RowWriter writer = new RowWriter(dest, width);
+
+        for (int y = 0; y < height; y++) {
+            if (interleaved) {
+                src.getDataElements(src.getMinX(), src.getMinY() + y, width, 1, cmyk);
+            }
+            else {
+                src.getPixels(src.getMinX(), src.getMinY() + y, width, 1, samples);
+
+                for (int x = 0, i = 0, o = 0; x < width; x++, i += bands, o += 4) {
+                    cmyk[o] = (byte) (samples[i] >> shift);
+                    cmyk[o + 1] = (byte) (samples[i + 1] >> shift);
+                    cmyk[o + 2] = (byte) (samples[i + 2] >> shift);
+                    cmyk[o + 3] = (byte) (samples[i + 3] >> shift);
+
+                    if (alpha != null) {
+                        alpha[x] = samples[i + 4] >> shift;
+                    }
+                }
+            }
+
+            convert(cmyk, rgb, width);
+            writer.write(rgb, alpha, y);
+        }
+
+        return dest;
+    }
+
+    /**
+     * Writes packed RGB rows to the destination, directly into the data buffer for the common raster layouts.
+     */
+    private static final class RowWriter {
+        private final WritableRaster dest;
+        private final int width;
+
+        private final byte[] bytes;
+        private final int[] ints;
+        private final int scanlineStride;
+        private final int pixelStride;
+        private final int origin;
+        private final int[] bandOffsets;
+        private final int[] bitOffsets;
+        private final int alphaMask;
+        private final int[] pixels;
+
+        RowWriter(final WritableRaster dest, final int width) {
+            this.dest = dest;
+            this.width = width;
+
+            SampleModel sampleModel = dest.getSampleModel();
+            DataBuffer buffer = dest.getDataBuffer();
+
+            if (sampleModel instanceof PixelInterleavedSampleModel && buffer instanceof DataBufferByte && buffer.getNumBanks() == 1) {
+                PixelInterleavedSampleModel interleaved = (PixelInterleavedSampleModel) sampleModel;
+                bytes = ((DataBufferByte) buffer).getData();
+                ints = null;
+                scanlineStride = interleaved.getScanlineStride();
+                pixelStride = interleaved.getPixelStride();
+                bandOffsets = interleaved.getBandOffsets();
+                bitOffsets = null;
+                alphaMask = 0xff;
+                pixels = null;
+            }
+            else if (sampleModel instanceof SinglePixelPackedSampleModel && buffer instanceof DataBufferInt) {
+                SinglePixelPackedSampleModel packed = (SinglePixelPackedSampleModel) sampleModel;
+                bytes = null;
+                ints = ((DataBufferInt) buffer).getData();
+                scanlineStride = packed.getScanlineStride();
+                pixelStride = 1;
+                bandOffsets = null;
+                bitOffsets = packed.getBitOffsets();
+                alphaMask = bitOffsets.length > 3 ? packed.getBitMasks()[3] : 0;
+                pixels = null;
+            }
+            else {
+                bytes = null;
+                ints = null;
+                scanlineStride = 0;
+                pixelStride = 0;
+                bandOffsets = null;
+                bitOffsets = null;
+                alphaMask = (1 << sampleModel.getSampleSize(0)) - 1;
+                pixels = new int[width * dest.getNumBands()];
+            }
+
+            origin = buffer.getOffset() - dest.getSampleModelTranslateY() * scanlineStride - dest.getSampleModelTranslateX() * pixelStride;
+        }
+
+        void write(final int[] rgb, final int[] alpha, final int y) {
+            int rowOffset = origin + (dest.getMinY() + y) * scanlineStride + dest.getMinX() * pixelStride;
+
+            if (bytes != null) {
+                int r = bandOffsets[0];
+                int g = bandOffsets[1];
+                int b = bandOffsets[2];
+                int a = bandOffsets.length > 3 ? bandOffsets[3] : -1;
+
+                for (int x = 0, offset = rowOffset; x < width; x++, offset += pixelStride) {
+                    int value = rgb[x];
+                    bytes[offset + r] = (byte) (value >> 16);
+                    bytes[offset + g] = (byte) (value >> 8);
+                    bytes[offset + b] = (byte) value;
+
+                    if (a >= 0) {
+                        bytes[offset + a] = (byte) (alpha != null ? alpha[x] : alphaMask);
+                    }
+                }
+            }
+            else if (ints != null) {
+                int r = bitOffsets[0];
+                int g = bitOffsets[1];
+                int b = bitOffsets[2];
+                int a = bitOffsets.length > 3 ? bitOffsets[3] : 0;
+
+                for (int x = 0, offset = rowOffset; x < width; x++, offset++) {
+                    int value = rgb[x];
+                    ints[offset] = (alpha != null ? alpha[x] << a & alphaMask : alphaMask)
+                            | (value >> 16 & 0xff) << r | (value >> 8 & 0xff) << g | (value & 0xff) << b;
+                }
+            }
+            else {
+                int bands = dest.getNumBands();
+
+                for (int x = 0, offset = 0; x < width; x++, offset += bands) {
+                    int value = rgb[x];
+                    pixels[offset] = value >> 16 & 0xff;
+                    pixels[offset + 1] = value >> 8 & 0xff;
+                    pixels[offset + 2] = value & 0xff;
+
+                    if (bands > 3) {
+                        pixels[offset + 3] = alpha != null ? alpha[x] : alphaMask;
+                    }
+                }
+
+                dest.setPixels(dest.getMinX(), dest.getMinY() + y, width, 1, pixels);
+            }
+        }
+    }
+
+    @Override
+    public Rectangle2D getBounds2D(final Raster src) {
+        return src.getBounds();
+    }
+
+    @Override
+    public WritableRaster createCompatibleDestRaster(final Raster src) {
+        return Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, src.getWidth(), src.getHeight(), src.getNumBands() > 4 ? 4 : 3, null);
+    }
+
+    @Override
+    public Point2D getPoint2D(final Point2D srcPt, Point2D dstPt) {
+        if (dstPt == null) {
+            dstPt = new Point2D.Double(srcPt.getX(), srcPt.getY());
+        }
+        else {
+            dstPt.setLocation(srcPt);
+        }
+
+        return dstPt;
+    }
+
+    @Override
+    public RenderingHints getRenderingHints() {
+        return null;
+    }
+}
@@ -47,6 +47,7 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Properties;
+import java.util.WeakHashMap;
 
 /**
  * A helper class for working with ICC color profiles and color spaces.
@@ -103,6 +104,9 @@ public final class ColorSpaces {
     // Cache for the latest used color spaces
     private static final Map<Key, ICC_ColorSpace> cache = new LRUHashMap<>(10);
 
+    // Cache for the CMYK to RGB lookup tables, kept as long as the color space is in use
+    private static final Map<ColorSpace, CMYKToRGBConverter> cmykConverters = new WeakHashMap<>();
+
     static {
         try {
             // Force invocation of ProfileDeferralMgr.activateProfiles() to avoid JDK-6986863
@@ -232,6 +236,33 @@ public final class ColorSpaces {
         cs.getProfile().getData();
     }
 
+    /**
+     * Returns a converter from the given CMYK color space to sRGB, using a color lookup table.
+     * <p>
+     * The lookup table is created on first request, and cached for as long as the color space is in use.
+     * As color spaces created by {@link #createColorSpace(ICC_Profile)} are cached per profile,
+     * images sharing the same profile will share the same converter.
+     * </p>
+     *
+     * @param cmykCS a 4 component (CMYK) color space. May not be {@code null}.
+     * @return a converter from {@code cmykCS} to sRGB.
+     * @throws IllegalArgumentException if {@code cmykCS} is {@code null} or does not have 4 components.
+     */
+    public static CMYKToRGBConverter getCMYKToRGBConverter(final ColorSpace cmykCS) {
+        Validate.notNull(cmykCS, "cmykCS");
+
+        synchronized (cmykConverters) {
+            CMYKToRGBConverter converter = cmykConverters.get(cmykCS);
+
+            if (converter == null) {
+                converter = new CMYKToRGBConverter(cmykCS);
+                cmykConverters.put(cmykCS, converter);
+            }
+
+            return converter;
+        }
+    }
+
     /**
      * Tests whether an ICC color profile is equal to the default sRGB profile.
      *
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.color;
+
+import org.junit.Test;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * CMYKToRGBConverterTest.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: CMYKToRGBConverterTest.java,v 1.0 18.10.2020 haraldk Exp$
+ */
+public class CMYKToRGBConverterTest {
+    private final ColorSpace cmykCS = CMYKColorSpace.getInstance();
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetConverterNull() {
+        ColorSpaces.getCMYKToRGBConverter(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetConverterNonCMYK() {
+        ColorSpaces.getCMYKToRGBConverter(ColorSpace.getInstance(ColorSpace.CS_sRGB));
+    }
+
+    @Test
+    public void testGetConverterCached() {
+        assertSame(ColorSpaces.getCMYKToRGBConverter(cmykCS), ColorSpaces.getCMYKToRGBConverter(cmykCS));
+    }
+
+    @Test
+    public void testConvertSameAsColorSpace() {
+        CMYKToRGBConverter converter = ColorSpaces.getCMYKToRGBConverter(cmykCS);
+        float[] cmyk = new float[4];
+
+        for (int c = 0; c < 256; c += 17) {
+            for (int m = 0; m < 256; m += 23) {
+                for (int y = 0; y < 256; y += 29) {
+                    for (int k = 0; k < 256; k += 31) {
+                        cmyk[0] = c / 255f;
+                        cmyk[1] = m / 255f;
+                        cmyk[2] = y / 255f;
+                        cmyk[3] = k / 255f;
+                        float[] expected = cmykCS.toRGB(cmyk);
+
+                        int rgb = converter.convert(c, m, y, k);
+
+                        // The color space is close to linear, so interpolation should be accurate
+                        assertEquals(expected[0] * 255, rgb >> 16 & 0xff, 2);
+                        assertEquals(expected[1] * 255, rgb >> 8 & 0xff, 2);
+                        assertEquals(expected[2] * 255, rgb & 0xff, 2);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConvertWhiteAndBlack() {
+        CMYKToRGBConverter converter = ColorSpaces.getCMYKToRGBConverter(cmykCS);
+
+        assertEquals(0xffffff, converter.convert(0, 0, 0, 0));
+        assertEquals(0x000000, converter.convert(0, 0, 0, 255));
+        assertEquals(0x000000, converter.convert(255, 255, 255, 255));
+    }
+
+    @Test
+    public void testConvertRowSameAsConvert() {
+        CMYKToRGBConverter converter = ColorSpaces.getCMYKToRGBConverter(cmykCS);
+        byte[] cmyk = new byte[256 * 4];
+
+        for (int i = 0; i < cmyk.length; i++) {
+            cmyk[i] = (byte) (i * 7 / 4);
+        }
+
+        int[] rgb = new int[256];
+        converter.convert(cmyk, rgb, 256);
+
+        for (int x = 0; x < 256; x++) {
+            assertEquals(converter.convert(cmyk[x * 4], cmyk[x * 4 + 1], cmyk[x * 4 + 2], cmyk[x * 4 + 3]), rgb[x]);
+        }
+    }
+
+    @Test
+    public void testFilterByte() {
+        WritableRaster input = createCMYKRaster(DataBuffer.TYPE_BYTE, 4);
+        CMYKToRGBConverter converter = ColorSpaces.getCMYKToRGBConverter(cmykCS);
+
+        for (int type : new int[] {BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_BGR}) {
+            BufferedImage image = new BufferedImage(input.getWidth(), input.getHeight(), type);
+            converter.filter(input, image.getRaster());
+
+            assertConverted(converter, input, image, 8);
+        }
+    }
+
+    @Test
+    public void testFilterUShort() {
+        WritableRaster input = createCMYKRaster(DataBuffer.TYPE_USHORT, 4);
+        CMYKToRGBConverter converter = ColorSpaces.getCMYKToRGBConverter(cmykCS);
+
+        BufferedImage image = new BufferedImage(input.getWidth(), input.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+        converter.filter(input, image.getRaster());
+
+        assertConverted(converter, input, image, 16);
+    }
+
+    @Test
+    public void testFilterAlpha() {
+        WritableRaster input = createCMYKRaster(DataBuffer.TYPE_BYTE, 5);
+        CMYKToRGBConverter converter = ColorSpaces.getCMYKToRGBConverter(cmykCS);
+
+        for (int type : new int[] {BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_ARGB}) {
+            BufferedImage image = new BufferedImage(input.getWidth(), input.getHeight(), type);
+            converter.filter(input, image.getRaster());
+
+            assertConverted(converter, input, image, 8);
+
+            for (int y = 0; y < input.getHeight(); y++) {
+                for (int x = 0; x < input.getWidth(); x++) {
+                    assertEquals(input.getSample(x, y, 4), image.getRGB(x, y) >>> 24);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFilterNullDest() {
+        WritableRaster input = createCMYKRaster(DataBuffer.TYPE_BYTE, 4);
+        CMYKToRGBConverter converter = ColorSpaces.getCMYKToRGBConverter(cmykCS);
+
+        WritableRaster result = converter.filter(input, null);
+
+        assertNotNull(result);
+        assertEquals(input.getWidth(), result.getWidth());
+        assertEquals(input.getHeight(), result.getHeight());
+        assertEquals(3, result.getNumBands());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFilterSameRaster() {
+        WritableRaster input = createCMYKRaster(DataBuffer.TYPE_BYTE, 4);
+        ColorSpaces.getCMYKToRGBConverter(cmykCS).filter(input, input);
+    }
+
+    private static WritableRaster createCMYKRaster(final int dataType, final int bands) {
+        int width = 47;
+        int height = 31;
+        int bits = DataBuffer.getDataTypeSize(dataType);
+        WritableRaster raster = Raster.createInterleavedRaster(dataType, width, height, bands, null);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int b = 0; b < bands; b++) {
+                    raster.setSample(x, y, b, ((x * 37 + y * 11 + b * 101) * 0x10001) >>> 24 - bits + 8 & (1 << bits) - 1);
+                }
+            }
+        }
+
+        return raster;
+    }
+
+    private static void assertConverted(final CMYKToRGBConverter converter, final Raster input, final BufferedImage image, final int bits) {
+        int shift = bits - 8;
+
+        for (int y = 0; y < input.getHeight(); y++) {
+            for (int x = 0; x < input.getWidth(); x++) {
+                int expected = converter.convert(
+                        input.getSample(x, y, 0) >> shift, input.getSample(x, y, 1) >> shift,
+                        input.getSample(x, y, 2) >> shift, input.getSample(x, y, 3) >> shift
+                );
+
+                assertEquals(String.format("(%d, %d)", x, y), expected, image.getRGB(x, y) & 0xffffff);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.jpeg;
+
+import javax.imageio.IIOException;
+import java.util.Arrays;
+
+/**
+ * A Huffman decoding table, in a form suitable for fast decoding.
+ * <p>
+ * Codes up to {@link #LOOKAHEAD_BITS} bits long are decoded using a single table lookup,
+ * peeking the next {@code LOOKAHEAD_BITS} bits of input.
+ * Longer codes are decoded using the canonical code limits, as described in ITU T.81, F.2.2.3.
+ * </p>
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: HuffmanLookupTable.java,v 1.0 18.10.2020 haraldk Exp$
+ */
+final class HuffmanLookupTable {
+    static final int LOOKAHEAD_BITS = 9;
+
+    /** {@code (length << 8) | value} for codes up to {@code LOOKAHEAD_BITS} long, indexed by the peeked bits, or 0 */
+    final int[] lookup = new int[1 << LOOKAHEAD_BITS];
+
+    /** Largest code of each length (index 1-16), or -1 if there are no codes of that length */
+    final int[] maxCode = new int[17];
+
+    /** Offset to add to a code of each length (index 1-16), to get the index into {@code values} */
+    final int[] valueOffset = new int[17];
+
+    final int[] values;
+
+    /**
+     * Creates a lookup table from the code counts and values of a DHT segment.
+     *
+     * @param counts the number of codes of each length 1-16.
+     * @param values the values, in order of increasing code length.
+     * @throws IIOException if the table is not a valid Huffman table.
+     */
+    HuffmanLookupTable(final short[] counts, final short[] values) throws IIOException {
+        this.values = new int[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+            this.values[i] = values[i] & 0xff;
+        }
+
+        Arrays.fill(maxCode, -1);
+
+        int code = 0;
+        int index = 0;
+
+        for (int length = 1; length <= 16; length++) {
+            int count = counts[length - 1];
+
+            if (index + count > values.length) {
+                throw new IIOException("Bad JPEG Huffman table: Too few values");
+            }
+
+            if (code + count > 1 << length) {
+                throw new IIOException("Bad JPEG Huffman table: Code lengths overflow");
+            }
+
+            valueOffset[length] = index - code;
+
+            for (int i = 0; i < count; i++) {
+                if (length <= LOOKAHEAD_BITS) {
+                    int shift = LOOKAHEAD_BITS - length;
+                    int entry = length << 8 | this.values[index];
+                    Arrays.fill(lookup, code << shift, (code + 1) << shift, entry);
+                }
+
+                index++;
+                code++;
+            }
+
+            if (count > 0) {
+                maxCode[length] = code - 1;
+            }
+
+            code <<= 1;
+        }
+    }
+}
@@ -45,67 +45,10 @@ final class HuffmanTable extends Segment {
     private final short[][][][] v = new short[4][2][16][200]; // tables
     private final boolean[][] tc = new boolean[4][2]; // 1: this table is present
 
-    private static final int MSB = 0x80000000;
-
     private HuffmanTable() {
         super(JPEG.DHT);
    }
 
-    void buildHuffTables(final int[][][] huffTab) throws IOException {
-        for (int t = 0; t < 4; t++) {
-            for (int c = 0; c < 2; c++) {
-                if (tc[t][c]) {
-                    buildHuffTable(huffTab[t][c], l[t][c], v[t][c]);
-                }
-            }
-        }
-    }
-
-    //	Build_HuffTab()
-    //	Parameter:  t       table ID
-    //	            c       table class ( 0 for DC, 1 for AC )
-    //	            L[i]    # of codewords which length is i
-    //	            V[i][j] Huffman Value (length=i)
-    //	Effect:
-    //	    build up HuffTab[t][c] using L and V.
-    private void buildHuffTable(final int[] tab, final short[] L, final short[][] V) throws IOException {
-        int temp = 256;
-        int k = 0;
-
-        for (int i = 0; i < 8; i++) { // i+1 is Code length
-            for (int j = 0; j < L[i]; j++) {
-                for (int n = 0; n < (temp >> (i + 1)); n++) {
-                    tab[k] = V[i][j] | ((i + 1) << 8);
-                    k++;
-                }
-            }
-        }
-
-        for (int i = 1; k < 256; i++, k++) {
-            tab[k] = i | MSB;
-        }
-
-        int currentTable = 1;
-        k = 0;
-
-        for (int i = 8; i < 16; i++) { // i+1 is Code length
-            for (int j = 0; j < L[i]; j++) {
-                for (int n = 0; n < (temp >> (i - 7)); n++) {
-                    tab[(currentTable * 256) + k] = V[i][j] | ((i + 1) << 8);
-                    k++;
-                }
-                if (k >= 256) {
-                    if (k > 256) {
-                        throw new IIOException("JPEG Huffman Table error");
-                    }
-
-                    k = 0;
-                    currentTable++;
-                }
-            }
-        }
-    }
-
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder("DHT[");
@@ -178,12 +121,12 @@ final class HuffmanTable extends Segment {
         return tc[tableId][tableClass];
     }
 
-    private short[] lengths(int tableId, int tableClass) {
+    short[] lengths(int tableId, int tableClass) {
         // TODO: Consider stripping the 0s?
         return l[tableId][tableClass];
     }
 
-    private short[] tables(int tableId, int tableClass) {
+    short[] tables(int tableId, int tableClass) {
         // Find sum of lengths
         short[] lengths = lengths(tableId, tableClass);
 
@@ -207,6 +150,10 @@ final class HuffmanTable extends Segment {
         return tables;
     }
 
+    HuffmanLookupTable toLookupTable(int tableId, int tableClass) throws IIOException {
+        return new HuffmanLookupTable(lengths(tableId, tableClass), tables(tableId, tableClass));
+    }
+
     JPEGHuffmanTable toNativeTable(int tableId, int tableClass) {
         return new JPEGHuffmanTable(lengths(tableId, tableClass), tables(tableId, tableClass));
     }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.jpeg;
+
+import com.twelvemonkeys.imageio.color.CMYKToRGBConverter;
+import com.twelvemonkeys.imageio.color.ColorSpaces;
+import com.twelvemonkeys.lang.Validate;
+
+import java.awt.*;
+import java.awt.color.ICC_ColorSpace;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.*;
+
+/**
+ * This class performs a row by row conversion of the source image, from CMYK (or YCCK) to sRGB,
+ * using an ICC CMYK color space.
+ * <p>
+ * The conversion uses the cached lookup table of {@link ColorSpaces#getCMYKToRGBConverter(java.awt.color.ColorSpace)}.
+ * Any YCCK to CMYK or Adobe CMYK inversion is applied to each row before the lookup,
+ * so that the raw decoded samples can be converted in a single pass.
+ * </p>
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: ICCCMYKToRGB.java,v 1.0 18.10.2020 haraldk Exp$
+ * @see FastCMYKToRGB
+ * @see CMYKToRGBConverter
+ */
+final class ICCCMYKToRGB implements RasterOp {
+    private final CMYKToRGBConverter converter;
+    private final JPEGColorSpace sourceCSType;
+
+    /**
+     * Creates a conversion from the given CMYK color space to sRGB.
+     *
+     * @param cmykCS the CMYK color space of the source.
+     * @param sourceCSType the encoding of the source samples, either {@code YCCK}, (Adobe, inverted) {@code CMYK},
+     *                     or {@code null} for samples already in normal CMYK.
+     * @throws IllegalArgumentException if {@code cmykCS} is not a 4 component color space.
+     */
+    ICCCMYKToRGB(final ICC_ColorSpace cmykCS, final JPEGColorSpace sourceCSType) {
+        Validate.isTrue(sourceCSType == null || sourceCSType == JPEGColorSpace.CMYK || sourceCSType == JPEGColorSpace.YCCK, sourceCSType, "Unsupported source color space: %s");
+
+        this.converter = ColorSpaces.getCMYKToRGBConverter(cmykCS);
+        this.sourceCSType = sourceCSType;
+    }
+
+    /**
+     * Converts the source raster to the destination RGB raster.
+     *
+     * @param src assumed to be 4 byte CMYK or YCCK, as given by the source color space type
+     * @param dest raster, in either 3 byte BGR/RGB, 4 byte ABGR or int RGB/ARGB format, or {@code null}
+     * @return {@code dest}, or a new {@link WritableRaster} if {@code dest} is {@code null}.
+     * @throws IllegalArgumentException if {@code src} and {@code dest} refer to the same object
+     */
+    @Override
+    public WritableRaster filter(final Raster src, WritableRaster dest) {
+        Validate.notNull(src, "src may not be null");
+        Validate.isTrue(src != dest, "src and dest raster may not be same");
+        Validate.isTrue(src.getTransferType() == DataBuffer.TYPE_BYTE, src, "only TYPE_BYTE rasters supported as src: %s");
+        Validate.isTrue(src.getNumBands() == 4, src.getNumBands(), "CMYK raster must have 4 bands: %s");
+
+        if (sourceCSType == null) {
+            return converter.filter(src, dest);
+        }
+
+        if (dest == null) {
+            dest = createCompatibleDestRaster(src);
+        }
+
+        final int width = Math.min(src.getWidth(), dest.getWidth());
+        final int height = Math.min(src.getHeight(), dest.getHeight());
+
+        // Transform the source one row at a time, and convert it straight into the destination
+        WritableRaster row = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, width, 1, 4, null);
+        byte[] cmyk = ((DataBufferByte) row.getDataBuffer()).getData();
+
+        for (int y = 0; y < height; y++) {
+            src.getDataElements(src.getMinX(), src.getMinY() + y, width, 1, cmyk);
+            JPEGDCTDecoder.convertRow(cmyk, width, sourceCSType);
+            converter.filter(row, dest.createWritableChild(dest.getMinX(), dest.getMinY() + y, width, 1, 0, 0, null));
+        }
+
+        return dest;
+    }
+
+    @Override
+    public Rectangle2D getBounds2D(final Raster src) {
+        return src.getBounds();
+    }
+
+    @Override
+    public WritableRaster createCompatibleDestRaster(final Raster src) {
+        return converter.createCompatibleDestRaster(src);
+    }
+
+    @Override
+    public Point2D getPoint2D(final Point2D srcPt, Point2D dstPt) {
+        return converter.getPoint2D(srcPt, dstPt);
+    }
+
+    @Override
+    public RenderingHints getRenderingHints() {
+        return null;
+    }
+}
@@ -0,0 +1,1622 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.jpeg;
+
+import com.twelvemonkeys.imageio.color.YCbCrConverter;
+import com.twelvemonkeys.imageio.metadata.jpeg.JPEG;
+
+import javax.imageio.IIOException;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * A pure Java decoder for Huffman coded DCT JPEG streams with 8 bit precision,
+ * either sequential (baseline and extended) or progressive.
+ * <p>
+ * Supports decoding the image at full size, or at 1/2, 1/4 or 1/8 of the full size,
+ * using a reduced size inverse DCT.
+ * When scaling, only the low frequency coefficients of each block are used,
+ * producing approximately the same result as averaging the corresponding pixels of the full size image,
+ * at a fraction of the cost.
+ * </p>
+ * <p>
+ * Decoding is done in two steps: {@link #decode()} decodes all scans into component planes,
+ * then {@link #copyTo(WritableRaster, Rectangle, int, int, JPEGColorSpace)} upsamples subsampled components,
+ * applies the source region and subsampling and converts the color space in a single pass,
+ * writing the samples directly into the destination.
+ * Sequential scans are decoded directly into the component planes, while
+ * progressive scans are accumulated in a coefficient buffer, that is transformed when all scans are decoded.
+ * For lossless transformations, the decoder may instead decode only the quantized coefficients of all scans.
+ * The decoder does not share any state, so separate instances may decode concurrently.
+ * If the stream contains restart markers, and an {@link #setExecutor(Executor) executor} is set,
+ * the restart intervals of each scan are also decoded concurrently.
+ * </p>
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: JPEGDCTDecoder.java,v 1.0 18.10.2020 haraldk Exp$
+ */
+final class JPEGDCTDecoder {
+    /** Natural (row major) order index of the coefficient at each zigzag position */
+    static final int[] NATURAL_ORDER = {
+             0,  1,  8, 16,  9,  2,  3, 10,
+            17, 24, 32, 25, 18, 11,  4,  5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13,  6,  7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    /** Quantization table for decoding the quantized coefficients as-is */
+    private static final int[] UNIT_QUANTIZATION = new int[64];
+    static {
+        Arrays.fill(UNIT_QUANTIZATION, 1);
+    }
+
+    private static final int NO_MARKER = -1;
+    private static final int RST0 = 0xFFD0;
+    private static final int RST7 = 0xFFD7;
+
+    // Scan types
+    private static final int SEQUENTIAL = 0;
+    private static final int DC_FIRST = 1;
+    private static final int DC_REFINE = 2;
+    private static final int AC_FIRST = 3;
+    private static final int AC_REFINE = 4;
+
+    // Concurrent decoding of restart intervals
+    private static final int CONCURRENT_BATCH_SIZE = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+    private static final int CONCURRENT_MCUS_PER_TASK = 1024;
+
+    private final ImageInputStream input;
+    private final JPEGImageReader reader;
+    private final int scale;
+    private final int blockSize;
+
+    private final HuffmanLookupTable[][] huffmanTables = new HuffmanLookupTable[2][4]; // [class][id]
+    private final int[][] quantizationTables = new int[4][]; // Natural order
+    private int restartInterval;
+
+    private Frame frame;
+    private boolean progressive;
+    private Component[] components;
+    private int maxH;
+    private int maxV;
+    private int mcusX;
+    private int mcusY;
+    private int width;
+    private int height;
+    private int componentsDecoded;
+    private int scansDecoded;
+
+    private int marker = NO_MARKER; // The marker terminating the last scan
+
+    private Executor executor;
+    private Rectangle region;
+    private boolean coefficientsOnly;
+
+    /**
+     * Creates a decoder.
+     *
+     * @param input the input stream, positioned at the SOI marker.
+     * @param scale the scale denominator, must be 1, 2, 4 or 8.
+     * @param reader the reader, for warnings, progress and abort.
+     */
+    JPEGDCTDecoder(final ImageInputStream input, final int scale, final JPEGImageReader reader) {
+        if (scale != 1 && scale != 2 && scale != 4 && scale != 8) {
+            throw new IllegalArgumentException("Unsupported scale, expected 1, 2, 4 or 8: " + scale);
+        }
+
+        this.input = input;
+        this.reader = reader;
+        this.scale = scale;
+        this.blockSize = 8 / scale;
+    }
+
+    /**
+     * Tests if the given frame can be decoded by this decoder.
+     *
+     * @param frame the frame.
+     * @return {@code true} if the frame is a sequential or progressive Huffman coded DCT frame with 8 bit precision.
+     */
+    static boolean canDecode(final Frame frame) {
+        if (frame.marker != JPEG.SOF0 && frame.marker != JPEG.SOF1 && frame.marker != JPEG.SOF2 || frame.samplePrecision != 8) {
+            return false;
+        }
+
+        int numComponents = frame.componentsInFrame();
+        if (numComponents < 1 || numComponents > 4) {
+            return false;
+        }
+
+        for (Frame.Component component : frame.components) {
+            if (component.hSub < 1 || component.hSub > 4 || component.vSub < 1 || component.vSub > 4) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the size of the decoded image along one axis, the full size divided by the scale, rounded up.
+     *
+     * @param size the full size.
+     * @param scale the scale denominator.
+     * @return the scaled size.
+     */
+    static int scaledSize(final int size, final int scale) {
+        return (size + scale - 1) / scale;
+    }
+
+    /**
+     * Sets the executor used for decoding restart intervals concurrently.
+     * Only scans with restart markers can be decoded concurrently, other scans are always decoded on the calling thread.
+     *
+     * @param executor the executor, or {@code null} to decode on the calling thread only.
+     */
+    void setExecutor(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the region of interest, in full size image coordinates.
+     * Only the MCU rows intersecting the region are decoded, and for images with restart markers,
+     * the restart intervals before the region are skipped without decoding.
+     * Samples outside the region are undefined.
+     * Must be invoked before {@link #decode()}.
+     *
+     * @param region the region of interest, or {@code null} to decode the entire image.
+     */
+    void setRegion(final Rectangle region) {
+        this.region = region != null ? new Rectangle(region) : null;
+    }
+
+    /**
+     * Sets whether only the quantized DCT coefficients should be decoded, without the inverse DCT.
+     * When set, the coefficients of all scans are accumulated in a coefficient buffer, and are available through
+     * {@link #getCoefficients(int)} after {@link #decode()}, but no samples are decoded.
+     * Used for lossless transformations.
+     * Must be invoked before {@link #decode()}.
+     *
+     * @param coefficientsOnly {@code true} if only the coefficients should be decoded.
+     */
+    void setCoefficientsOnly(final boolean coefficientsOnly) {
+        this.coefficientsOnly = coefficientsOnly;
+    }
+
+    /**
+     * Returns the frame of the decoded image.
+     *
+     * @return the frame, or {@code null} if no frame is decoded yet.
+     */
+    Frame getFrame() {
+        return frame;
+    }
+
+    /**
+     * Returns the quantized DCT coefficients of a component.
+     * The coefficients of each block are stored in natural (row major) order, and the blocks are stored in
+     * row major order, padded to a full MCU, with {@link #getBlocksPerLine(int)} blocks per line.
+     *
+     * @param component the index of the component in the frame.
+     * @return the coefficients, or {@code null} unless decoding {@link #setCoefficientsOnly(boolean) coefficients only}
+     * or a progressive image.
+     */
+    short[] getCoefficients(final int component) {
+        return components[component].coefficients;
+    }
+
+    /**
+     * Returns the number of blocks per line of a component, padded to a full MCU.
+     *
+     * @param component the index of the component in the frame.
+     * @return the number of blocks per line.
+     */
+    int getBlocksPerLine(final int component) {
+        return components[component].blocksPerLine;
+    }
+
+    /**
+     * Returns the number of block lines of a component, padded to a full MCU.
+     *
+     * @param component the index of the component in the frame.
+     * @return the number of block lines.
+     */
+    int getBlocksPerColumn(final int component) {
+        return components[component].blocksPerColumn;
+    }
+
+    /**
+     * Returns the quantization table used for a component.
+     *
+     * @param component the index of the component in the frame.
+     * @return the quantization table, in natural (row major) order, or {@code null} if the table is not defined.
+     */
+    int[] getQuantizationTable(final int component) {
+        Component c = components[component];
+
+        return c.quantizationTable != null ? c.quantizationTable : quantizationTables[c.qtSel];
+    }
+
+    /**
+     * Returns the number of components (bands) of the decoded image.
+     *
+     * @return the number of components.
+     */
+    int getNumComponents() {
+        return components.length;
+    }
+
+    /**
+     * Decodes the image.
+     * When this method returns, the decoded samples are available through
+     * {@link #copyTo(WritableRaster, Rectangle, int, int, JPEGColorSpace)}.
+     * If the read is aborted, the image will be partially decoded.
+     *
+     * @throws IOException if an I/O exception occurs, or the stream is not a supported JPEG stream.
+     */
+    void decode() throws IOException {
+        if (input.readUnsignedShort() != JPEG.SOI) {
+            throw new IIOException("Not a JPEG stream, does not start with SOI marker");
+        }
+
+        int current = nextMarker();
+
+        while (current != JPEG.EOI) {
+            if (current == JPEG.SOS) {
+                if (frame == null) {
+                    throw new IIOException("Corrupt JPEG data: SOS before SOF");
+                }
+
+                decodeScan((Scan) readSegment(current));
+
+                if (reader.abortRequested() || !progressive && componentsDecoded >= components.length) {
+                    // Aborted, or all components of a sequential image decoded, no need to look for more scans
+                    break;
+                }
+
+                current = marker != NO_MARKER ? marker : nextMarker();
+                marker = NO_MARKER;
+
+                continue;
+            }
+
+            switch (current) {
+                case JPEG.SOF0:
+                case JPEG.SOF1:
+                case JPEG.SOF2:
+                    if (frame != null) {
+                        throw new IIOException("Corrupt JPEG data: Multiple SOF markers");
+                    }
+
+                    initFrame((Frame) readSegment(current));
+                    break;
+                case JPEG.SOF3:
+                case JPEG.SOF5:
+                case JPEG.SOF6:
+                case JPEG.SOF7:
+                case JPEG.SOF9:
+                case JPEG.SOF10:
+                case JPEG.SOF11:
+                case JPEG.SOF13:
+                case JPEG.SOF14:
+                case JPEG.SOF15:
+                    throw new IIOException(String.format("Unsupported JPEG process: SOF%d", current & 0xf));
+                case JPEG.DHT:
+                    installHuffmanTables((HuffmanTable) readSegment(current));
+                    break;
+                case JPEG.DQT:
+                    installQuantizationTables((QuantizationTable) readSegment(current));
+                    break;
+                case JPEG.DRI:
+                    restartInterval = ((RestartInterval) readSegment(current)).interval;
+                    break;
+                default:
+                    // Skip APPn, COM, DNL etc.
+                    input.skipBytes(input.readUnsignedShort() - 2);
+            }
+
+            current = nextMarker();
+        }
+
+        if (frame == null) {
+            throw new IIOException("No SOF segment in stream");
+        }
+
+        if (!reader.abortRequested() && (progressive ? scansDecoded == 0 : componentsDecoded < components.length)) {
+            reader.processWarningOccurred("Corrupt JPEG data: Premature end of image, missing scans");
+        }
+
+        if (progressive && !coefficientsOnly) {
+            inverseDCTAll();
+        }
+    }
+
+    private Segment readSegment(final int marker) throws IOException {
+        int length = input.readUnsignedShort();
+
+        if (length < 2) {
+            throw new IIOException(String.format("Corrupt JPEG data: Bad segment length: %d", length));
+        }
+
+        byte[] data = new byte[length - 2];
+        input.readFully(data);
+
+        return Segment.read(marker, null, length, new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private int nextMarker() throws IOException {
+        int skipped = 0;
+        int value = input.readUnsignedByte();
+
+        while (true) {
+            // Skip any garbage before the marker
+            while (value != 0xff) {
+                value = input.readUnsignedByte();
+                skipped++;
+            }
+
+            // Skip fill bytes
+            do {
+                value = input.readUnsignedByte();
+            }
+            while (value == 0xff);
+
+            if (value != 0) {
+                break;
+            }
+
+            skipped += 2;
+        }
+
+        if (skipped > 0) {
+            reader.processWarningOccurred(String.format("Corrupt JPEG data: %d extraneous bytes before marker 0x%02x", skipped, value));
+        }
+
+        return 0xff00 | value;
+    }
+
+    private void initFrame(final Frame frame) throws IIOException {
+        if (!canDecode(frame)) {
+            throw new IIOException("Unsupported JPEG frame: " + frame);
+        }
+
+        this.frame = frame;
+        progressive = frame.marker == JPEG.SOF2;
+
+        if (frame.lines <= 0 || frame.samplesPerLine <= 0) {
+            // NOTE: DNL is not supported, neither is the JRE decoder
+            throw new IIOException(String.format("Unsupported JPEG frame size: %dx%d", frame.samplesPerLine, frame.lines));
+        }
+
+        for (Frame.Component component : frame.components) {
+            maxH = Math.max(maxH, component.hSub);
+            maxV = Math.max(maxV, component.vSub);
+        }
+
+        mcusX = (frame.samplesPerLine + 8 * maxH - 1) / (8 * maxH);
+        mcusY = (frame.lines + 8 * maxV - 1) / (8 * maxV);
+        width = scaledSize(frame.samplesPerLine, scale);
+        height = scaledSize(frame.lines, scale);
+
+        components = new Component[frame.components.length];
+
+        for (int i = 0; i < components.length; i++) {
+            components[i] = new Component(frame.components[i], this);
+        }
+    }
+
+    private void installHuffmanTables(final HuffmanTable table) throws IIOException {
+        for (int tableClass = 0; tableClass < 2; tableClass++) {
+            for (int id = 0; id < 4; id++) {
+                if (table.isPresent(id, tableClass)) {
+                    huffmanTables[tableClass][id] = table.toLookupTable(id, tableClass);
+                }
+            }
+        }
+    }
+
+    private void installQuantizationTables(final QuantizationTable table) {
+        for (int id = 0; id < 4; id++) {
+            if (table.isPresent(id)) {
+                quantizationTables[id] = table.toNativeTable(id).getTable();
+            }
+        }
+    }
+
+    private void decodeScan(final Scan scan) throws IOException {
+        int type = scanType(scan);
+        Component[] scanComponents = new Component[scan.components.length];
+
+        for (int i = 0; i < scanComponents.length; i++) {
+            Scan.Component scanComponent = scan.components[i];
+            Component component = findComponent(scanComponent.scanCompSel, scanComponents);
+
+            component.dcTable = huffmanTables[0][scanComponent.dcTabSel];
+            component.acTable = huffmanTables[1][scanComponent.acTabSel];
+
+            if ((type == SEQUENTIAL || type == DC_FIRST) && component.dcTable == null
+                    || (type == SEQUENTIAL || type == AC_FIRST || type == AC_REFINE) && component.acTable == null) {
+                throw new IIOException("Corrupt JPEG data: Missing Huffman table for component " + component.id);
+            }
+
+            // Tables are latched at the first scan of a component
+            if (component.quantizationTable == null) {
+                component.quantizationTable = quantizationTables[component.qtSel];
+
+                if (component.quantizationTable == null) {
+                    throw new IIOException("Corrupt JPEG data: Missing quantization table for component " + component.id);
+                }
+            }
+
+            scanComponents[i] = component;
+        }
+
+        if (type == AC_FIRST || type == AC_REFINE) {
+            if (scanComponents.length != 1) {
+                throw new IIOException("Corrupt JPEG data: Progressive AC scan with multiple components");
+            }
+        }
+
+        int mcusPerLine = scanComponents.length == 1 ? scanComponents[0].blocksX : mcusX;
+        int mcus = scanComponents.length == 1 ? mcusPerLine * scanComponents[0].blocksY : mcusPerLine * mcusY;
+
+        // Only the MCU rows intersecting the region of interest needs to be decoded
+        int startMCU = mcusPerLine * firstMCURow(scanComponents);
+        int endMCU = Math.min(mcus, mcusPerLine * endMCURow(scanComponents));
+
+        if (executor != null && restartInterval > 0 && mcus > restartInterval) {
+            decodeScanConcurrently(type, scan, scanComponents, mcus, startMCU, endMCU);
+        }
+        else {
+            EntropyDecoder entropy = new EntropyDecoder(input, reader, scanComponents.length);
+
+            // With restart markers, the intervals before the region of interest can be skipped without decoding
+            int firstMCU = 0;
+            if (restartInterval > 0 && startMCU >= restartInterval) {
+                firstMCU = entropy.skipRestartIntervals(startMCU / restartInterval) * restartInterval;
+            }
+
+            decodeMCUs(entropy, type, scan, scanComponents, firstMCU, endMCU - firstMCU, true);
+
+            if (!reader.abortRequested()) {
+                marker = entropy.finish();
+            }
+        }
+
+        if (reader.abortRequested()) {
+            return;
+        }
+
+        componentsDecoded += scanComponents.length;
+        scansDecoded++;
+    }
+
+    private int firstMCURow(final Component[] scanComponents) {
+        if (scanComponents.length == 1) {
+            return scanComponents[0].firstBlockY;
+        }
+
+        int row = mcusY;
+        for (Component component : scanComponents) {
+            row = Math.min(row, component.firstBlockY / component.vSub);
+        }
+
+        return row;
+    }
+
+    private int endMCURow(final Component[] scanComponents) {
+        if (scanComponents.length == 1) {
+            return scanComponents[0].endBlockY;
+        }
+
+        int row = 0;
+        for (Component component : scanComponents) {
+            row = Math.max(row, (component.endBlockY + component.vSub - 1) / component.vSub);
+        }
+
+        return row;
+    }
+
+    private void decodeMCUs(final EntropyDecoder entropy, final int type, final Scan scan, final Component[] scanComponents,
+                            final int firstMCU, final int count, final boolean reportProgress) throws IOException {
+        int[] coefficients = new int[64];
+        int[] workspace = new int[64];
+
+        // Non-interleaved scans have one block per MCU, and only the blocks inside the component are coded
+        int mcusPerLine = scanComponents.length == 1 ? scanComponents[0].blocksX : mcusX;
+        int mcuRows = scanComponents.length == 1 ? scanComponents[0].blocksY : mcusY;
+
+        for (int mcu = firstMCU; mcu < firstMCU + count; mcu++) {
+            if (restartInterval > 0 && mcu > firstMCU && mcu % restartInterval == 0) {
+                entropy.processRestart();
+            }
+
+            int mcuX = mcu % mcusPerLine;
+            int mcuY = mcu / mcusPerLine;
+
+            if (scanComponents.length == 1) {
+                decodeBlock(entropy, type, scan, scanComponents[0], 0, mcuX, mcuY, coefficients, workspace);
+            }
+            else {
+                for (int i = 0; i < scanComponents.length; i++) {
+                    Component component = scanComponents[i];
+
+                    for (int v = 0; v < component.vSub; v++) {
+                        for (int h = 0; h < component.hSub; h++) {
+                            decodeBlock(entropy, type, scan, component, i, mcuX * component.hSub + h, mcuY * component.vSub + v, coefficients, workspace);
+                        }
+                    }
+                }
+            }
+
+            if (reportProgress && mcuX == mcusPerLine - 1) {
+                if (reader.abortRequested()) {
+                    return;
+                }
+
+                reportProgress(scanComponents.length, mcuY + 1, mcuRows);
+            }
+        }
+    }
+
+    private void decodeBlock(final EntropyDecoder entropy, final int type, final Scan scan, final Component component, final int index,
+                             final int blockX, final int blockY, final int[] coefficients, final int[] workspace) throws IOException {
+        switch (type) {
+            case SEQUENTIAL:
+                if (coefficientsOnly) {
+                    entropy.decodeBlockSequential(component, index, coefficients, UNIT_QUANTIZATION);
+
+                    short[] buffer = component.coefficients;
+                    int offset = component.blockOffset(blockX, blockY);
+                    for (int i = 0; i < 64; i++) {
+                        buffer[offset + i] = (short) coefficients[i];
+                    }
+                }
+                else {
+                    entropy.decodeBlockSequential(component, index, coefficients, component.quantizationTable);
+                    inverseDCT(component, coefficients, workspace, blockX, blockY);
+                }
+                break;
+            case DC_FIRST:
+                entropy.decodeBlockDCFirst(component, index, component.blockOffset(blockX, blockY), scan.approxLow);
+                break;
+            case DC_REFINE:
+                entropy.decodeBlockDCRefine(component, component.blockOffset(blockX, blockY), scan.approxLow);
+                break;
+            case AC_FIRST:
+                entropy.decodeBlockACFirst(component, component.blockOffset(blockX, blockY), scan.spectralSelStart, scan.spectralSelEnd, scan.approxLow);
+                break;
+            default:
+                entropy.decodeBlockACRefine(component, component.blockOffset(blockX, blockY), scan.spectralSelStart, scan.spectralSelEnd, scan.approxLow);
+        }
+    }
+
+    private void decodeScanConcurrently(final int type, final Scan scan, final Component[] scanComponents, final int mcus,
+                                        final int startMCU, final int endMCU) throws IOException {
+        // The entropy coded data is read and split at the RSTn markers on this thread, as the stream isn't thread safe.
+        // Each task decodes a run of restart intervals, into disjoint areas of the component planes.
+        // To keep memory usage bounded, we wait for each batch of tasks to complete, before reading the next.
+        final List<Future<Void>> tasks = new ArrayList<>(CONCURRENT_BATCH_SIZE);
+        final int intervalsPerTask = Math.max(1, (CONCURRENT_MCUS_PER_TASK + restartInterval - 1) / restartInterval);
+
+        byte[] buffer = new byte[8192];
+        long bufferStreamPos = input.getStreamPosition();
+        int bufferPos = 0;
+        int bufferLength = 0;
+        int spanStart = 0;
+        boolean afterFF = false;
+
+        byte[] data = new byte[8192];
+        int dataLength = 0;
+        int intervals = 0;
+        int firstMCU = 0;
+        int endMarker;
+
+        while (true) {
+            if (bufferPos == bufferLength) {
+                data = append(data, dataLength, buffer, spanStart, bufferPos - spanStart);
+                dataLength += bufferPos - spanStart;
+
+                bufferStreamPos += bufferLength;
+                bufferPos = 0;
+                spanStart = 0;
+                bufferLength = Math.max(0, input.read(buffer, 0, buffer.length));
+
+                if (bufferLength == 0) {
+                    // Let the last task report the premature end of data
+                    endMarker = JPEG.EOI;
+                    break;
+                }
+            }
+
+            if (!afterFF) {
+                // Fast forward to the next 0xff
+                while (bufferPos < bufferLength && buffer[bufferPos] != (byte) 0xff) {
+                    bufferPos++;
+                }
+
+                if (bufferPos < bufferLength) {
+                    bufferPos++;
+                    afterFF = true;
+                }
+
+                continue;
+            }
+
+            int value = buffer[bufferPos++] & 0xff;
+
+            if (value == 0xff) {
+                continue; // Fill byte
+            }
+
+            afterFF = false;
+
+            if (value == 0) {
+                continue; // Stuffed zero byte
+            }
+
+            if ((0xff00 | value) < RST0 || (0xff00 | value) > RST7) {
+                // Any other marker ends the scan, include it so the last task sees the end of the data
+                data = append(data, dataLength, buffer, spanStart, bufferPos - spanStart);
+                dataLength += bufferPos - spanStart;
+                endMarker = 0xff00 | value;
+                break;
+            }
+
+            if (++intervals == intervalsPerTask) {
+                data = append(data, dataLength, buffer, spanStart, bufferPos - spanStart);
+                dataLength += bufferPos - spanStart;
+                spanStart = bufferPos;
+
+                int count = Math.min(intervals * restartInterval, mcus - firstMCU);
+
+                // Intervals outside the region of interest are not decoded
+                if (firstMCU < endMCU && firstMCU + count > startMCU) {
+                    submitDecodeTask(tasks, type, scan, scanComponents, data, dataLength, firstMCU, Math.min(count, endMCU - firstMCU));
+                }
+
+                firstMCU += Math.max(0, count);
+
+                data = new byte[Math.max(8192, dataLength)];
+                dataLength = 0;
+                intervals = 0;
+
+                if (tasks.size() >= CONCURRENT_BATCH_SIZE) {
+                    awaitCompletion(tasks);
+                    reportProgress(scanComponents.length, firstMCU, mcus);
+
+                    if (reader.abortRequested()) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        if (firstMCU < endMCU) {
+            submitDecodeTask(tasks, type, scan, scanComponents, data, dataLength, firstMCU, endMCU - firstMCU);
+        }
+
+        awaitCompletion(tasks);
+        reportProgress(scanComponents.length, mcus, mcus);
+
+        // Position the stream right after the marker
+        input.seek(bufferStreamPos + bufferPos);
+        marker = endMarker;
+    }
+
+    private void submitDecodeTask(final List<Future<Void>> tasks, final int type, final Scan scan, final Component[] scanComponents,
+                                  final byte[] data, final int length, final int firstMCU, final int count) {
+        FutureTask<Void> task = new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                // Each task needs its own entropy decoder state
+                EntropyDecoder entropy = new EntropyDecoder(data, length, reader, scanComponents.length);
+                decodeMCUs(entropy, type, scan, scanComponents, firstMCU, count, false);
+
+                return null;
+            }
+        });
+
+        executor.execute(task);
+        tasks.add(task);
+    }
+
+    private static byte[] append(final byte[] data, final int length, final byte[] bytes, final int offset, final int count) {
+        byte[] result = length + count > data.length ? Arrays.copyOf(data, Math.max(length + count, data.length * 2)) : data;
+        System.arraycopy(bytes, offset, result, length, count);
+
+        return result;
+    }
+
+    private static void awaitCompletion(final List<Future<Void>> tasks) throws IOException {
+        try {
+            for (Future<Void> task : tasks) {
+                task.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decoding restart intervals");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IIOException("Could not decode restart interval: " + cause.getMessage(), cause);
+        }
+        finally {
+            for (Future<Void> task : tasks) {
+                task.cancel(false);
+            }
+
+            tasks.clear();
+        }
+    }
+
+
+    private int scanType(final Scan scan) throws IIOException {
+        if (!progressive) {
+            return SEQUENTIAL;
+        }
+
+        int start = scan.spectralSelStart;
+        int end = scan.spectralSelEnd;
+
+        if (start == 0 ? end != 0 : end < start || end > 63 || scan.approxLow > 13 || scan.approxHigh > 13) {
+            throw new IIOException(String.format("Corrupt JPEG data: Invalid progressive parameters Ss=%d Se=%d Ah=%d Al=%d",
+                    start, end, scan.approxHigh, scan.approxLow));
+        }
+
+        if (start == 0) {
+            return scan.approxHigh == 0 ? DC_FIRST : DC_REFINE;
+        }
+
+        return scan.approxHigh == 0 ? AC_FIRST : AC_REFINE;
+    }
+
+    private Component findComponent(final int id, final Component[] scanComponents) throws IIOException {
+        for (Component component : components) {
+            // Skip components already in this scan, to handle duplicate component ids in the frame by position
+            if (component.id == id && !Arrays.asList(scanComponents).contains(component)) {
+                return component;
+            }
+        }
+
+        throw new IIOException("Corrupt JPEG data: No such component id: " + id);
+    }
+
+    private void reportProgress(final int scanComponents, final int row, final int rows) {
+        if (!progressive) {
+            reader.processImageProgress(100f * (componentsDecoded + scanComponents * row / (float) rows) / components.length);
+        }
+    }
+
+
+    // Inverse DCT
+
+    private void inverseDCTAll() {
+        int[] coefficients = new int[64];
+        int[] workspace = new int[64];
+
+        int blockRows = 0;
+        for (Component component : components) {
+            blockRows += component.blocksPerColumn;
+        }
+
+        int blockRowsDone = 0;
+        for (Component component : components) {
+            if (component.quantizationTable == null) {
+                continue; // Component not present in any scan, leave as 0
+            }
+
+            int[] quantizationTable = component.quantizationTable;
+            short[] buffer = component.coefficients;
+
+            for (int blockY = 0; blockY < component.blocksPerColumn; blockY++) {
+                for (int blockX = 0; blockX < component.blocksPerLine; blockX++) {
+                    int offset = component.blockOffset(blockX, blockY);
+
+                    for (int i = 0; i < 64; i++) {
+                        coefficients[i] = buffer[offset + i] * quantizationTable[i];
+                    }
+
+                    inverseDCT(component, coefficients, workspace, blockX, blockY);
+                }
+
+                if (reader.abortRequested()) {
+                    return;
+                }
+
+                reader.processImageProgress(100f * ++blockRowsDone / blockRows);
+            }
+        }
+    }
+
+    private void inverseDCT(final Component component, final int[] coefficients, final int[] workspace, final int blockX, final int blockY) {
+        int x = blockX * blockSize;
+        int y = blockY * blockSize;
+
+        if (x >= component.planeWidth || y >= component.planeHeight) {
+            return; // Outside plane (inconsistent sampling factors), just ignore
+        }
+
+        if (blockX < component.firstBlockX || blockX >= component.endBlockX || blockY < component.firstBlockY || blockY >= component.endBlockY) {
+            return; // Outside region of interest, no need to transform
+        }
+
+        byte[] plane = component.plane;
+        int stride = component.planeWidth;
+        int offset = y * stride + x;
+
+        switch (blockSize) {
+            case 8:
+                JPEGInverseDCT.inverseDCT8x8(coefficients, workspace, plane, offset, stride);
+                break;
+            case 4:
+                JPEGInverseDCT.inverseDCT4x4(coefficients, workspace, plane, offset, stride);
+                break;
+            case 2:
+                JPEGInverseDCT.inverseDCT2x2(coefficients, workspace, plane, offset, stride);
+                break;
+            default:
+                JPEGInverseDCT.inverseDCT1x1(coefficients, plane, offset);
+        }
+    }
+
+    // Output
+
+    /**
+     * Creates a raster with the decoded samples of the source region, subsampled.
+     *
+     * @param sourceRegion the source region, in full size image coordinates.
+     * @param xSub the horizontal subsampling, in full size image pixels.
+     * @param ySub the vertical subsampling, in full size image pixels.
+     * @param csType the source color space to convert from, or {@code null} to return the samples as-is.
+     * @return a new pixel interleaved raster with one band per component.
+     */
+    WritableRaster createRaster(final Rectangle sourceRegion, final int xSub, final int ySub, final JPEGColorSpace csType) {
+        int numComponents = components.length;
+        int[] bandOffsets = new int[numComponents];
+
+        for (int i = 0; i < numComponents; i++) {
+            bandOffsets[i] = i;
+        }
+
+        int rasterWidth = (sourceRegion.width + xSub - 1) / xSub;
+        int rasterHeight = (sourceRegion.height + ySub - 1) / ySub;
+
+        WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, rasterWidth, rasterHeight, rasterWidth * numComponents, numComponents, bandOffsets, null);
+        copyTo(raster, sourceRegion, xSub, ySub, csType);
+
+        return raster;
+    }
+
+    /**
+     * Writes the decoded samples of the source region, subsampled, into the destination.
+     * Subsampled components are upsampled and the color conversion is applied, one row at a time,
+     * so no intermediate image is created.
+     *
+     * @param destination the destination, must have byte transfer type and one data element per component.
+     *                    Samples are written starting at {@code (0, 0)}, the destination must be large enough
+     *                    to hold the subsampled source region.
+     * @param sourceRegion the source region, in full size image coordinates.
+     * @param xSub the horizontal subsampling, in full size image pixels.
+     * @param ySub the vertical subsampling, in full size image pixels.
+     * @param csType the source color space to convert from, or {@code null} to write the samples as-is.
+     *               YCbCr is converted to RGB, YCCK to CMYK and (Adobe, inverted) CMYK to CMYK.
+     */
+    void copyTo(final WritableRaster destination, final Rectangle sourceRegion, final int xSub, final int ySub, final JPEGColorSpace csType) {
+        int numComponents = components.length;
+        int rowWidth = (sourceRegion.width + xSub - 1) / xSub;
+        int rows = (sourceRegion.height + ySub - 1) / ySub;
+
+        // Columns of the (scaled) image to sample for each destination column
+        int[] columns = new int[rowWidth];
+        for (int x = 0; x < rowWidth; x++) {
+            columns[x] = Math.min((sourceRegion.x + x * xSub) / scale, width - 1);
+        }
+
+        int minColumn = columns[0];
+        int maxColumn = columns[rowWidth - 1];
+
+        byte[][] componentRows = new byte[numComponents][width + 1]; // Upsampling may write one extra sample
+        byte[] row = new byte[rowWidth * numComponents];
+
+        // Fast path for pixel interleaved byte rasters, otherwise we use setDataElements, which is slow
+        SampleModel sampleModel = destination.getSampleModel();
+        boolean interleaved = sampleModel instanceof PixelInterleavedSampleModel && destination.getDataBuffer() instanceof DataBufferByte;
+        byte[] data = interleaved ? ((DataBufferByte) destination.getDataBuffer()).getData() : null;
+        int scanlineStride = interleaved ? ((PixelInterleavedSampleModel) sampleModel).getScanlineStride() : 0;
+        int pixelStride = interleaved ? ((PixelInterleavedSampleModel) sampleModel).getPixelStride() : 0;
+        int[] bandOffsets = interleaved ? ((PixelInterleavedSampleModel) sampleModel).getBandOffsets() : null;
+        int origin = interleaved
+                     ? destination.getDataBuffer().getOffset() - destination.getSampleModelTranslateY() * scanlineStride - destination.getSampleModelTranslateX() * pixelStride
+                     : 0;
+        boolean sequentialBands = interleaved && pixelStride == numComponents;
+
+        for (int c = 0; sequentialBands && c < numComponents; c++) {
+            sequentialBands = bandOffsets[c] == c;
+        }
+
+        for (int y = 0; y < rows; y++) {
+            int sourceRow = Math.min((sourceRegion.y + y * ySub) / scale, height - 1);
+
+            for (int c = 0; c < numComponents; c++) {
+                components[c].upsampleRow(sourceRow, componentRows[c], minColumn, maxColumn);
+            }
+
+            if (numComponents == 3) {
+                // Interleave and convert in one pass, for the common case
+                byte[] row0 = componentRows[0];
+                byte[] row1 = componentRows[1];
+                byte[] row2 = componentRows[2];
+                boolean ycc = csType == JPEGColorSpace.YCbCr;
+
+                for (int x = 0, offset = 0; x < rowWidth; x++, offset += 3) {
+                    int column = columns[x];
+                    row[offset] = row0[column];
+                    row[offset + 1] = row1[column];
+                    row[offset + 2] = row2[column];
+
+                    if (ycc) {
+                        YCbCrConverter.convertYCbCr2RGB(row, row, offset);
+                    }
+                }
+            }
+            else {
+                for (int c = 0; c < numComponents; c++) {
+                    byte[] componentRow = componentRows[c];
+
+                    for (int x = 0, offset = c; x < rowWidth; x++, offset += numComponents) {
+                        row[offset] = componentRow[columns[x]];
+                    }
+                }
+
+                convertRow(row, rowWidth, csType);
+            }
+
+            if (interleaved) {
+                int rowOffset = origin + (destination.getMinY() + y) * scanlineStride + destination.getMinX() * pixelStride;
+
+                if (sequentialBands) {
+                    System.arraycopy(row, 0, data, rowOffset, row.length);
+                }
+                else if (numComponents == 3) {
+                    int band0 = bandOffsets[0];
+                    int band1 = bandOffsets[1];
+                    int band2 = bandOffsets[2];
+
+                    for (int i = 0, offset = rowOffset, length = row.length; i < length; i += 3, offset += pixelStride) {
+                        data[offset + band0] = row[i];
+                        data[offset + band1] = row[i + 1];
+                        data[offset + band2] = row[i + 2];
+                    }
+                }
+                else {
+                    for (int c = 0; c < numComponents; c++) {
+                        for (int x = 0, offset = rowOffset + bandOffsets[c], i = c; x < rowWidth; x++, offset += pixelStride, i += numComponents) {
+                            data[offset] = row[i];
+                        }
+                    }
+                }
+            }
+            else {
+                destination.setDataElements(0, y, rowWidth, 1, row);
+            }
+        }
+    }
+
+    static void convertRow(final byte[] row, final int rowWidth, final JPEGColorSpace csType) {
+        if (csType == JPEGColorSpace.YCbCr) {
+            for (int x = 0, offset = 0; x < rowWidth; x++, offset += 3) {
+                YCbCrConverter.convertYCbCr2RGB(row, row, offset);
+            }
+        }
+        else if (csType == JPEGColorSpace.YCbCrA) {
+            for (int x = 0, offset = 0; x < rowWidth; x++, offset += 4) {
+                YCbCrConverter.convertYCbCr2RGB(row, row, offset);
+            }
+        }
+        else if (csType == JPEGColorSpace.YCCK) {
+            for (int x = 0, offset = 0; x < rowWidth; x++, offset += 4) {
+                // YCC -> CMY, inverse K
+                YCbCrConverter.convertYCbCr2RGB(row, row, offset);
+                row[offset + 3] = (byte) (0xff - row[offset + 3] & 0xff);
+            }
+        }
+        else if (csType == JPEGColorSpace.CMYK) {
+            for (int i = 0, length = rowWidth * 4; i < length; i++) {
+                row[i] = (byte) (255 - row[i] & 0xff);
+            }
+        }
+    }
+
+    /**
+     * The entropy decoder state of a scan, or a run of restart intervals of a scan.
+     * Reads either directly from the stream, or from an in-memory copy of the entropy coded data.
+     * Also used by the lossless decoder.
+     */
+    static final class EntropyDecoder {
+        private final ImageInputStream input;
+        private final JPEGImageReader reader;
+        private final byte[] buffer;
+        private int bufferPos;
+        private int bufferLength;
+        private long bufferStreamPos;
+
+        private long bits;
+        private int bitCount;
+        private int marker = NO_MARKER;
+        private int endOfBandRun;
+        private final int[] dcPredictors; // Indexed by component in scan
+
+        EntropyDecoder(final ImageInputStream input, final JPEGImageReader reader, final int scanComponents) throws IOException {
+            this.input = input;
+            this.reader = reader;
+            this.buffer = new byte[8192];
+            this.bufferStreamPos = input.getStreamPosition();
+            this.dcPredictors = new int[scanComponents];
+        }
+
+        EntropyDecoder(final byte[] data, final int length, final JPEGImageReader reader, final int scanComponents) {
+            this.input = null;
+            this.reader = reader;
+            this.buffer = data;
+            this.bufferLength = length;
+            this.dcPredictors = new int[scanComponents];
+        }
+
+        private int readByte() throws IOException {
+            if (bufferPos == bufferLength) {
+                if (input == null) {
+                    return -1; // End of in-memory data
+                }
+
+                bufferStreamPos += bufferLength;
+                bufferPos = 0;
+                bufferLength = Math.max(0, input.read(buffer, 0, buffer.length));
+
+                if (bufferLength == 0) {
+                    return -1;
+                }
+            }
+
+            return buffer[bufferPos++] & 0xff;
+        }
+
+        private void fillBits() throws IOException {
+            while (bitCount <= 56) {
+                int value = 0;
+
+                if (marker == NO_MARKER) {
+                    value = readByte();
+
+                    if (value == 0xff) {
+                        int next;
+                        do {
+                            next = readByte();
+                        }
+                        while (next == 0xff);
+
+                        if (next != 0) {
+                            // A marker, no more entropy coded data in this segment. Feed zeros from now on
+                            marker = next < 0 ? JPEG.EOI : 0xff00 | next;
+                            value = 0;
+                        }
+                    }
+                    else if (value < 0) {
+                        reader.processWarningOccurred("Corrupt JPEG data: Premature end of data segment");
+                        marker = JPEG.EOI;
+                        value = 0;
+                    }
+                }
+
+                bits = bits << 8 | value;
+                bitCount += 8;
+            }
+        }
+
+        int decodeHuffman(final HuffmanLookupTable table) throws IOException {
+            if (bitCount < 16) {
+                fillBits();
+            }
+
+            int entry = table.lookup[(int) (bits >>> bitCount - HuffmanLookupTable.LOOKAHEAD_BITS) & (1 << HuffmanLookupTable.LOOKAHEAD_BITS) - 1];
+
+            if (entry != 0) {
+                bitCount -= entry >> 8;
+                return entry & 0xff;
+            }
+
+            // Slow path, code is longer than the lookahead
+            int peek = (int) (bits >>> bitCount - 16) & 0xffff;
+
+            for (int length = HuffmanLookupTable.LOOKAHEAD_BITS + 1; length <= 16; length++) {
+                int code = peek >>> 16 - length;
+
+                if (code <= table.maxCode[length]) {
+                    bitCount -= length;
+                    return table.values[code + table.valueOffset[length]];
+                }
+            }
+
+            // Bad code, skip a bit and hope for the best (like libjpeg)
+            reader.processWarningOccurred("Corrupt JPEG data: Bad Huffman code");
+            bitCount--;
+
+            return 0;
+        }
+
+        private int readBits(final int count) throws IOException {
+            if (bitCount < count) {
+                fillBits();
+            }
+
+            bitCount -= count;
+
+            return (int) (bits >>> bitCount) & (1 << count) - 1;
+        }
+
+        int receiveExtend(final int size) throws IOException {
+            int value = readBits(size);
+
+            return value < 1 << size - 1 ? value - (1 << size) + 1 : value;
+        }
+
+        void decodeBlockSequential(final Component component, final int index, final int[] coefficients, final int[] quantizationTable) throws IOException {
+            Arrays.fill(coefficients, 0);
+
+            int size = decodeHuffman(component.dcTable);
+            if (size != 0) {
+                dcPredictors[index] += receiveExtend(size);
+            }
+
+            coefficients[0] = dcPredictors[index] * quantizationTable[0];
+
+            HuffmanLookupTable acTable = component.acTable;
+
+            for (int k = 1; k < 64; k++) {
+                int rs = decodeHuffman(acTable);
+                int run = rs >> 4;
+                size = rs & 0xf;
+
+                if (size != 0) {
+                    k += run;
+
+                    if (k > 63) {
+                        break;
+                    }
+
+                    int natural = NATURAL_ORDER[k];
+                    coefficients[natural] = receiveExtend(size) * quantizationTable[natural];
+                }
+                else if (run == 15) {
+                    k += 15;
+                }
+                else {
+                    break; // EOB
+                }
+            }
+        }
+
+        // Progressive decoding, as described in ITU T.81, G.1.2, and implemented in libjpeg jdphuff.c
+
+        void decodeBlockDCFirst(final Component component, final int index, final int offset, final int approxLow) throws IOException {
+            int size = decodeHuffman(component.dcTable);
+            if (size != 0) {
+                dcPredictors[index] += receiveExtend(size);
+            }
+
+            component.coefficients[offset] = (short) (dcPredictors[index] << approxLow);
+        }
+
+        void decodeBlockDCRefine(final Component component, final int offset, final int approxLow) throws IOException {
+            if (readBits(1) != 0) {
+                component.coefficients[offset] |= 1 << approxLow;
+            }
+        }
+
+        void decodeBlockACFirst(final Component component, final int offset, final int start, final int end, final int approxLow) throws IOException {
+            if (endOfBandRun > 0) {
+                endOfBandRun--;
+                return;
+            }
+
+            short[] coefficients = component.coefficients;
+            HuffmanLookupTable acTable = component.acTable;
+
+            for (int k = start; k <= end; k++) {
+                int rs = decodeHuffman(acTable);
+                int run = rs >> 4;
+                int size = rs & 0xf;
+
+                if (size != 0) {
+                    k += run;
+
+                    if (k > 63) {
+                        break;
+                    }
+
+                    coefficients[offset + NATURAL_ORDER[k]] = (short) (receiveExtend(size) << approxLow);
+                }
+                else if (run == 15) {
+                    k += 15;
+                }
+                else {
+                    // EOBr, this block and the next (2^r - 1 + bits) blocks end here
+                    endOfBandRun = (1 << run) - 1;
+
+                    if (run != 0) {
+                        endOfBandRun += readBits(run);
+                    }
+
+                    break;
+                }
+            }
+        }
+
+        void decodeBlockACRefine(final Component component, final int offset, final int start, final int end, final int approxLow) throws IOException {
+            short[] coefficients = component.coefficients;
+            int plus = 1 << approxLow;
+            int minus = -1 << approxLow;
+            int k = start;
+
+            if (endOfBandRun == 0) {
+                HuffmanLookupTable acTable = component.acTable;
+
+                for (; k <= end; k++) {
+                    int rs = decodeHuffman(acTable);
+                    int run = rs >> 4;
+                    int size = rs & 0xf;
+                    int value = 0;
+
+                    if (size != 0) {
+                        if (size != 1) {
+                            reader.processWarningOccurred("Corrupt JPEG data: Bad Huffman code in progressive refinement scan");
+                        }
+
+                        value = readBits(1) != 0 ? plus : minus;
+                    }
+                    else if (run != 15) {
+                        endOfBandRun = 1 << run;
+
+                        if (run != 0) {
+                            endOfBandRun += readBits(run);
+                        }
+
+                        break;
+                    }
+
+                    // Skip run zero coefficients, refining the non-zero coefficients passed on the way
+                    while (k <= end) {
+                        int index = offset + NATURAL_ORDER[k];
+
+                        if (coefficients[index] != 0) {
+                            refine(coefficients, index, plus, minus);
+                        }
+                        else if (--run < 0) {
+                            break;
+                        }
+
+                        k++;
+                    }
+
+                    if (value != 0 && k <= end) {
+                        coefficients[offset + NATURAL_ORDER[k]] = (short) value;
+                    }
+                }
+            }
+
+            if (endOfBandRun > 0) {
+                // Refine the remaining non-zero coefficients in the band
+                for (; k <= end; k++) {
+                    int index = offset + NATURAL_ORDER[k];
+
+                    if (coefficients[index] != 0) {
+                        refine(coefficients, index, plus, minus);
+                    }
+                }
+
+                endOfBandRun--;
+            }
+        }
+
+        private void refine(final short[] coefficients, final int index, final int plus, final int minus) throws IOException {
+            if (readBits(1) != 0 && (coefficients[index] & plus) == 0) {
+                coefficients[index] += coefficients[index] >= 0 ? plus : minus;
+            }
+        }
+
+        void processRestart() throws IOException {
+            // Discard any remaining bits of the current byte, and find the RSTn marker
+            bits = 0;
+            bitCount = 0;
+            endOfBandRun = 0;
+
+            if (marker == NO_MARKER) {
+                marker = readMarker();
+            }
+
+            if (marker >= RST0 && marker <= RST7) {
+                marker = NO_MARKER;
+            }
+            else {
+                // Leave the marker in place, all remaining blocks will be decoded as zeros
+                reader.processWarningOccurred(String.format("Corrupt JPEG data: Expected RST marker, found 0x%04x", marker));
+            }
+
+            Arrays.fill(dcPredictors, 0);
+        }
+
+        private int readMarker() throws IOException {
+            int value;
+
+            do {
+                value = readByte();
+
+                if (value == 0xff) {
+                    do {
+                        value = readByte();
+                    }
+                    while (value == 0xff);
+
+                    if (value > 0) {
+                        return 0xff00 | value;
+                    }
+                }
+            }
+            while (value >= 0);
+
+            return JPEG.EOI;
+        }
+
+        /**
+         * Skips the entropy coded data of the given number of restart intervals, without decoding.
+         *
+         * @param intervals the number of restart intervals to skip.
+         * @return the number of restart intervals skipped, less than {@code intervals} only if the scan ended.
+         */
+        int skipRestartIntervals(final int intervals) throws IOException {
+            int skipped = 0;
+
+            while (skipped < intervals) {
+                int value = readMarker();
+
+                if (value < RST0 || value > RST7) {
+                    marker = value;
+                    break;
+                }
+
+                skipped++;
+            }
+
+            bits = 0;
+            bitCount = 0;
+            endOfBandRun = 0;
+            Arrays.fill(dcPredictors, 0);
+
+            return skipped;
+        }
+
+        /**
+         * Finds the marker terminating the scan, skipping any data not decoded, and positions the stream right after it.
+         *
+         * @return the marker.
+         */
+        int finish() throws IOException {
+            while (marker == NO_MARKER || marker >= RST0 && marker <= RST7) {
+                marker = readMarker();
+            }
+
+            input.seek(bufferStreamPos + bufferPos);
+
+            return marker;
+        }
+    }
+
+    private static final class Component {
+        final int id;
+        final int hSub;
+        final int vSub;
+        final int qtSel;
+
+        // Number of blocks in a non-interleaved scan
+        final int blocksX;
+        final int blocksY;
+
+        // Number of blocks, padded to a full MCU
+        final int blocksPerLine;
+        final int blocksPerColumn;
+
+        // Decoded samples, padded to a full MCU
+        final int planeWidth;
+        final int planeHeight;
+        final byte[] plane;
+
+        // Size of the actual samples in the plane, at the current scale
+        final int sampleWidth;
+        final int sampleHeight;
+
+        // Upsampling
+        final int maxH;
+        final int maxV;
+        final boolean fancyUpsampling;
+        final int[] columnSums;
+
+        // Coefficients (progressive or coefficients only)
+        final short[] coefficients;
+
+        // Blocks intersecting the region of interest
+        int firstBlockX;
+        int firstBlockY;
+        int endBlockX;
+        int endBlockY;
+
+        HuffmanLookupTable dcTable;
+        HuffmanLookupTable acTable;
+        int[] quantizationTable;
+
+        Component(final Frame.Component component, final JPEGDCTDecoder decoder) {
+            id = component.id;
+            hSub = component.hSub;
+            vSub = component.vSub;
+            qtSel = component.qtSel;
+
+            maxH = decoder.maxH;
+            maxV = decoder.maxV;
+
+            Frame frame = decoder.frame;
+            int fullWidth = (frame.samplesPerLine * hSub + maxH - 1) / maxH;
+            int fullHeight = (frame.lines * vSub + maxV - 1) / maxV;
+            blocksX = (fullWidth + 7) / 8;
+            blocksY = (fullHeight + 7) / 8;
+
+            blocksPerLine = decoder.mcusX * hSub;
+            blocksPerColumn = decoder.mcusY * vSub;
+
+            planeWidth = blocksPerLine * decoder.blockSize;
+            planeHeight = blocksPerColumn * decoder.blockSize;
+            plane = decoder.coefficientsOnly ? null : new byte[planeWidth * planeHeight];
+
+            sampleWidth = Math.min(planeWidth, (decoder.width * hSub + maxH - 1) / maxH);
+            sampleHeight = Math.min(planeHeight, (decoder.height * vSub + maxV - 1) / maxV);
+
+            // Like libjpeg, use triangle filter for the common 2:1 cases, unless we only have 1 sample per block
+            fancyUpsampling = decoder.blockSize > 1 && maxH == 2 * hSub && (maxV == vSub || maxV == 2 * vSub);
+            columnSums = fancyUpsampling && maxV == 2 * vSub ? new int[sampleWidth] : null;
+
+            coefficients = decoder.progressive || decoder.coefficientsOnly ? new short[blocksPerLine * blocksPerColumn * 64] : null;
+
+            Rectangle region = decoder.region != null ? decoder.region : new Rectangle(frame.samplesPerLine, frame.lines);
+
+            // Include one block on each side, for the upsampling filter
+            firstBlockX = Math.max(0, region.x * hSub / maxH / 8 - 1);
+            firstBlockY = Math.max(0, region.y * vSub / maxV / 8 - 1);
+            endBlockX = Math.min(blocksPerLine, ((region.x + region.width) * hSub + maxH * 8 - 1) / (maxH * 8) + 1);
+            endBlockY = Math.min(blocksPerColumn, ((region.y + region.height) * vSub + maxV * 8 - 1) / (maxV * 8) + 1);
+        }
+
+        int blockOffset(final int blockX, final int blockY) {
+            return (blockY * blocksPerLine + blockX) * 64;
+        }
+
+        /**
+         * Upsamples a row of this component, to full (scaled) image resolution.
+         *
+         * @param y the row, in image coordinates.
+         * @param row the destination row.
+         * @param from the first column to upsample, in image coordinates.
+         * @param to the last column to upsample, in image coordinates, inclusive.
+         */
+        void upsampleRow(final int y, final byte[] row, final int from, final int to) {
+            if (hSub == maxH && vSub == maxV) {
+                System.arraycopy(plane, y * planeWidth + from, row, from, to - from + 1);
+            }
+            else if (!fancyUpsampling) {
+                // Pixel replication
+                int offset = Math.min(y * vSub / maxV, sampleHeight - 1) * planeWidth;
+
+                for (int x = from; x <= to; x++) {
+                    row[x] = plane[offset + Math.min(x * hSub / maxH, sampleWidth - 1)];
+                }
+            }
+            else if (maxV == vSub) {
+                upsampleH2V1(y, row, from, to);
+            }
+            else {
+                upsampleH2V2(y, row, from, to);
+            }
+        }
+
+        // Triangle filter, as libjpeg h2v1_fancy_upsample: 3/4 * nearer sample + 1/4 * further sample
+        private void upsampleH2V1(final int y, final byte[] row, final int from, final int to) {
+            int offset = Math.min(y, sampleHeight - 1) * planeWidth;
+            int last = sampleWidth - 1;
+
+            for (int column = from >> 1, end = to >> 1; column <= end; column++) {
+                int value = (plane[offset + column] & 0xff) * 3;
+                int left = column == 0 ? value + (plane[offset] & 0xff) + 1 : value + (plane[offset + column - 1] & 0xff) + 1;
+                int right = column == last ? value + (plane[offset + last] & 0xff) + 2 : value + (plane[offset + column + 1] & 0xff) + 2;
+
+                row[2 * column] = (byte) (left >> 2);
+                row[2 * column + 1] = (byte) (right >> 2);
+            }
+        }
+
+        // Triangle filter in both directions, as libjpeg h2v2_fancy_upsample
+        private void upsampleH2V2(final int y, final byte[] row, final int from, final int to) {
+            int inputRow = Math.min(y >> 1, sampleHeight - 1);
+            int neighbourRow = Math.max(0, Math.min((y & 1) == 0 ? inputRow - 1 : inputRow + 1, sampleHeight - 1));
+            int offset = inputRow * planeWidth;
+            int neighbourOffset = neighbourRow * planeWidth;
+
+            int last = sampleWidth - 1;
+            int start = from >> 1;
+            int end = to >> 1;
+
+            int[] sums = columnSums;
+            for (int column = Math.max(0, start - 1), sumsEnd = Math.min(end + 1, last); column <= sumsEnd; column++) {
+                sums[column] = (plane[offset + column] & 0xff) * 3 + (plane[neighbourOffset + column] & 0xff);
+            }
+
+            for (int column = start; column <= end; column++) {
+                int sum = sums[column] * 3;
+                int left = column == 0 ? sum + sums[0] + 8 : sum + sums[column - 1] + 8;
+                int right = column == last ? sum + sums[last] + 7 : sum + sums[column + 1] + 7;
+
+                row[2 * column] = (byte) (left >> 4);
+                row[2 * column + 1] = (byte) (right >> 4);
+            }
+        }
+    }
+}
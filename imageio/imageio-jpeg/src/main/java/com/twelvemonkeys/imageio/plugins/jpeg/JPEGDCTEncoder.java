@@ -0,0 +1,1061 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.jpeg;
+
+import com.twelvemonkeys.imageio.metadata.jpeg.JPEG;
+
+import javax.imageio.IIOException;
+import javax.imageio.plugins.jpeg.JPEGHuffmanTable;
+import javax.imageio.plugins.jpeg.JPEGQTable;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import static com.twelvemonkeys.imageio.plugins.jpeg.JPEGDCTDecoder.NATURAL_ORDER;
+
+/**
+ * Pure Java JPEG encoder, for baseline sequential and progressive Huffman coded images with 8 bit precision.
+ * <p>
+ * Gray images are encoded as a single component, RGB images are converted to YCbCr, with 2x2 (4:2:0)
+ * chroma subsampling, like the native JRE encoder.
+ * Samples are read directly from the raster, and color converted and subsampled for one MCU row at a time,
+ * without converting or copying the image.
+ * The color conversion, forward DCT and quantization are the same as in the Independent JPEG Group's libjpeg,
+ * and the quantization tables are the standard tables (ITU-T T.81 Annex K.1), scaled by the quality
+ * the same way as the native JRE encoder.
+ * </p>
+ * <p>
+ * Sequential images are entropy coded using the standard Huffman tables (Annex K.3), or optimal tables,
+ * created from statistics gathered in a separate pass.
+ * Unless optimal tables are requested, coefficients are only kept for a run of MCU rows at a time.
+ * Progressive images use the same scan script as libjpeg's {@code jpeg_simple_progression},
+ * and are always coded using optimal tables for each scan.
+ * </p>
+ * <p>
+ * If an {@link #setExecutor(Executor) executor} is set, the forward DCT of runs of MCU rows is
+ * computed concurrently. Sequential images are then written with restart markers,
+ * and each run of restart intervals is also entropy coded as a separate task.
+ * The output stream is always written on the calling thread.
+ * </p>
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: JPEGDCTEncoder.java,v 1.0 18.10.2020 haraldk Exp$
+ */
+final class JPEGDCTEncoder {
+    /** The default quality, same as the native JRE encoder. */
+    static final float DEFAULT_QUALITY = 0.75f;
+
+    // Concurrent encoding
+    private static final int CONCURRENT_BATCH_SIZE = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+    private static final int MCUS_PER_TASK = 1024;
+
+    // Progressive scan scripts, as in libjpeg's jpeg_simple_progression: {component (-1 for all), Ss, Se, Ah, Al}
+    private static final int[][] PROGRESSIVE_SCRIPT_YCBCR = {
+            {-1, 0, 0, 0, 1}, // Initial DC scan
+            {0, 1, 5, 0, 2},  // Initial AC scan: get some luma data out in a hurry
+            {2, 1, 63, 0, 1}, // Chroma data is too small to be worth expending many scans on
+            {1, 1, 63, 0, 1},
+            {0, 6, 63, 0, 2}, // Complete spectral selection for luma AC
+            {0, 1, 63, 2, 1}, // Refine next bit of luma AC
+            {-1, 0, 0, 1, 0}, // Finish DC successive approximation
+            {2, 1, 63, 1, 0}, // Finish AC successive approximation
+            {1, 1, 63, 1, 0},
+            {0, 1, 63, 1, 0}  // Luma bottom bit comes last since it's usually largest scan
+    };
+    private static final int[][] PROGRESSIVE_SCRIPT_GRAY = {
+            {-1, 0, 0, 0, 1},
+            {0, 1, 5, 0, 2},
+            {0, 6, 63, 0, 2},
+            {0, 1, 63, 2, 1},
+            {-1, 0, 0, 1, 0},
+            {0, 1, 63, 1, 0}
+    };
+
+    // Fixed point RGB to YCbCr conversion, as in libjpeg
+    private static final int SCALE_BITS = 16;
+    private static final int CBCR_OFFSET = 128 << SCALE_BITS;
+    private static final int ONE_HALF = 1 << SCALE_BITS - 1;
+    private static final int FIX_0_29900 = fix(0.29900);
+    private static final int FIX_0_58700 = fix(0.58700);
+    private static final int FIX_0_11400 = fix(0.11400);
+    private static final int FIX_0_16874 = fix(0.16874);
+    private static final int FIX_0_33126 = fix(0.33126);
+    private static final int FIX_0_50000 = fix(0.50000);
+    private static final int FIX_0_41869 = fix(0.41869);
+    private static final int FIX_0_08131 = fix(0.08131);
+
+    private final ImageOutputStream output;
+    private final JPEGImageWriter writer;
+
+    private float quality = DEFAULT_QUALITY;
+    private boolean optimizeHuffmanTables;
+    private boolean progressive;
+    private int restartIntervalRows;
+    private Executor executor;
+
+    // Per image state
+    private Raster raster;
+    private Rectangle region;
+    private Component[] components;
+    private int mcuWidth;
+    private int mcuHeight;
+    private int mcusX;
+    private int mcusY;
+    private int restartRows;
+
+    // Direct access to the raster data, if possible
+    private byte[] byteData;
+    private int[] intData;
+    private int dataOffset;
+    private int pixelStride;
+    private int scanlineStride;
+    private int[] bandOffsets;
+    private int[] bitMasks;
+    private int[] bitOffsets;
+
+    /**
+     * Creates an encoder.
+     *
+     * @param output the stream to write the encoded image to.
+     * @param writer the writer, for progress and abort.
+     */
+    JPEGDCTEncoder(final ImageOutputStream output, final JPEGImageWriter writer) {
+        this.output = output;
+        this.writer = writer;
+    }
+
+    private static int fix(final double value) {
+        return (int) (value * (1 << SCALE_BITS) + 0.5);
+    }
+
+    /**
+     * Sets the quality, as for {@link javax.imageio.ImageWriteParam#setCompressionQuality(float)}.
+     *
+     * @param quality the quality, in the range {@code 0...1}.
+     */
+    void setQuality(final float quality) {
+        this.quality = quality;
+    }
+
+    /**
+     * Sets whether sequential images should be coded using optimal Huffman tables, rather than the standard tables.
+     *
+     * @param optimize {@code true} to create optimal tables.
+     */
+    void setOptimizeHuffmanTables(final boolean optimize) {
+        optimizeHuffmanTables = optimize;
+    }
+
+    /**
+     * Sets whether the image should be encoded as a progressive JPEG.
+     *
+     * @param progressive {@code true} to encode a progressive image.
+     */
+    void setProgressive(final boolean progressive) {
+        this.progressive = progressive;
+    }
+
+    /**
+     * Sets the restart interval, in MCU rows, for sequential images.
+     *
+     * @param rows the number of MCU rows in each restart interval, or {@code 0} for no restart markers,
+     *             unless encoding concurrently.
+     */
+    void setRestartIntervalRows(final int rows) {
+        restartIntervalRows = rows;
+    }
+
+    /**
+     * Sets the executor used for encoding concurrently.
+     * If no restart interval is set, sequential images are written with a restart marker after every MCU row.
+     *
+     * @param executor the executor, or {@code null} to encode on the calling thread only.
+     */
+    void setExecutor(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Encodes the given region of a raster.
+     * The raster must have 1 (gray) or 3 (RGB) bands, with 8 bit samples.
+     *
+     * @param raster the raster.
+     * @param region the region of the raster to encode.
+     * @throws IOException if an I/O exception occurs.
+     */
+    void encode(final Raster raster, final Rectangle region) throws IOException {
+        this.raster = raster;
+        this.region = region;
+
+        setupComponents(raster.getNumBands());
+        setupDataAccess();
+
+        int[][] quantizationTables = createQuantizationTables(components.length > 1 ? 2 : 1);
+
+        for (Component component : components) {
+            component.divisors = JPEGForwardDCT.createDivisors(quantizationTables[component.table]);
+        }
+
+        restartRows = progressive ? 0 : restartIntervalRows > 0 || executor == null ? restartIntervalRows : 1;
+        restartRows = Math.min(restartRows, Math.max(1, 0xffff / mcusX));
+
+        writeHeader(quantizationTables);
+
+        try {
+            if (progressive) {
+                encodeProgressive(computeAllCoefficients());
+            }
+            else if (optimizeHuffmanTables) {
+                encodeSequentialOptimized(computeAllCoefficients());
+            }
+            else {
+                encodeSequential();
+            }
+        }
+        finally {
+            this.raster = null;
+            byteData = null;
+            intData = null;
+        }
+
+        if (!writer.abortRequested()) {
+            output.writeShort(JPEG.EOI);
+        }
+    }
+
+    private void setupComponents(final int bands) throws IIOException {
+        if (bands == 1) {
+            components = new Component[] {new Component(1, 1, 1, 0)};
+            mcuWidth = 8;
+            mcuHeight = 8;
+        }
+        else if (bands == 3) {
+            components = new Component[] {new Component(1, 2, 2, 0), new Component(2, 1, 1, 1), new Component(3, 1, 1, 1)};
+            mcuWidth = 16;
+            mcuHeight = 16;
+        }
+        else {
+            throw new IIOException("Unsupported number of bands for JPEG encoding: " + bands);
+        }
+
+        mcusX = (region.width + mcuWidth - 1) / mcuWidth;
+        mcusY = (region.height + mcuHeight - 1) / mcuHeight;
+
+        int maxH = components[0].h;
+        int maxV = components[0].v;
+
+        for (Component component : components) {
+            component.blocksX = mcusX * component.h;
+            component.scanBlocksX = ((region.width * component.h + maxH - 1) / maxH + 7) / 8;
+            component.scanBlocksY = ((region.height * component.v + maxV - 1) / maxV + 7) / 8;
+        }
+    }
+
+    private void setupDataAccess() {
+        SampleModel sampleModel = raster.getSampleModel();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        int translateX = raster.getSampleModelTranslateX();
+        int translateY = raster.getSampleModelTranslateY();
+
+        byteData = null;
+        intData = null;
+
+        if (sampleModel instanceof ComponentSampleModel && dataBuffer instanceof DataBufferByte && dataBuffer.getNumBanks() == 1) {
+            ComponentSampleModel componentSampleModel = (ComponentSampleModel) sampleModel;
+
+            for (int bank : componentSampleModel.getBankIndices()) {
+                if (bank != 0) {
+                    return;
+                }
+            }
+
+            byteData = ((DataBufferByte) dataBuffer).getData();
+            pixelStride = componentSampleModel.getPixelStride();
+            scanlineStride = componentSampleModel.getScanlineStride();
+            bandOffsets = componentSampleModel.getBandOffsets();
+            dataOffset = dataBuffer.getOffset() - translateY * scanlineStride - translateX * pixelStride;
+        }
+        else if (sampleModel instanceof SinglePixelPackedSampleModel && dataBuffer instanceof DataBufferInt) {
+            SinglePixelPackedSampleModel packedSampleModel = (SinglePixelPackedSampleModel) sampleModel;
+
+            intData = ((DataBufferInt) dataBuffer).getData();
+            pixelStride = 1;
+            scanlineStride = packedSampleModel.getScanlineStride();
+            bitMasks = packedSampleModel.getBitMasks();
+            bitOffsets = packedSampleModel.getBitOffsets();
+            dataOffset = dataBuffer.getOffset() + packedSampleModel.getOffset(-translateX, -translateY);
+        }
+    }
+
+    private int[][] createQuantizationTables(final int count) {
+        // Linear scale factor, as in libjpeg and the native JRE encoder
+        float clamped = Math.max(0.01f, Math.min(quality, 1f));
+        float scale = clamped < 0.5f ? 0.5f / clamped : 2f - clamped * 2f;
+
+        int[][] tables = new int[count][];
+        tables[0] = JPEGQTable.K1Luminance.getScaledInstance(scale, true).getTable();
+
+        if (count > 1) {
+            tables[1] = JPEGQTable.K2Chrominance.getScaledInstance(scale, true).getTable();
+        }
+
+        return tables;
+    }
+
+    private void writeHeader(final int[][] quantizationTables) throws IOException {
+        output.writeShort(JPEG.SOI);
+
+        // JFIF APP0, version 1.02, no units, 1:1 aspect ratio, no thumbnail
+        output.writeShort(JPEG.APP0);
+        output.writeShort(16);
+        output.write(new byte[] {'J', 'F', 'I', 'F', 0});
+        output.writeShort(0x0102);
+        output.writeByte(0);
+        output.writeShort(1);
+        output.writeShort(1);
+        output.writeByte(0);
+        output.writeByte(0);
+
+        output.writeShort(JPEG.DQT);
+        output.writeShort(2 + 65 * quantizationTables.length);
+
+        for (int id = 0; id < quantizationTables.length; id++) {
+            output.writeByte(id); // 8 bit precision, as the tables are limited to baseline values
+
+            for (int k = 0; k < 64; k++) {
+                output.writeByte(quantizationTables[id][NATURAL_ORDER[k]]);
+            }
+        }
+
+        output.writeShort(progressive ? JPEG.SOF2 : JPEG.SOF0);
+        output.writeShort(8 + 3 * components.length);
+        output.writeByte(8);
+        output.writeShort(region.height);
+        output.writeShort(region.width);
+        output.writeByte(components.length);
+
+        for (Component component : components) {
+            output.writeByte(component.id);
+            output.writeByte(component.h << 4 | component.v);
+            output.writeByte(component.table);
+        }
+
+        if (restartRows > 0) {
+            output.writeShort(JPEG.DRI);
+            output.writeShort(4);
+            output.writeShort(restartRows * mcusX);
+        }
+    }
+
+    private void writeSOS(final Component[] scanComponents, final int start, final int end, final int approxHigh, final int approxLow) throws IOException {
+        output.writeShort(JPEG.SOS);
+        output.writeShort(6 + 2 * scanComponents.length);
+        output.writeByte(scanComponents.length);
+
+        for (Component component : scanComponents) {
+            output.writeByte(component.id);
+            output.writeByte(component.table << 4 | component.table);
+        }
+
+        output.writeByte(start);
+        output.writeByte(end);
+        output.writeByte(approxHigh << 4 | approxLow);
+    }
+
+    private void writeDHT(final JPEGEntropyEncoder.Table[] dcTables, final JPEGEntropyEncoder.Table[] acTables) throws IOException {
+        if (dcTables != null) {
+            JPEGEntropyEncoder.writeDHT(output, dcTables, 0);
+        }
+        if (acTables != null) {
+            JPEGEntropyEncoder.writeDHT(output, acTables, 1);
+        }
+    }
+
+    // Sequential, standard tables: Coefficients are computed and entropy coded one run of MCU rows at a time
+    private void encodeSequential() throws IOException {
+        final JPEGEntropyEncoder.Table[] dcTables = new JPEGEntropyEncoder.Table[components.length > 1 ? 2 : 1];
+        final JPEGEntropyEncoder.Table[] acTables = new JPEGEntropyEncoder.Table[dcTables.length];
+
+        dcTables[0] = new JPEGEntropyEncoder.Table(JPEGHuffmanTable.StdDCLuminance.getLengths(), JPEGHuffmanTable.StdDCLuminance.getValues());
+        acTables[0] = new JPEGEntropyEncoder.Table(JPEGHuffmanTable.StdACLuminance.getLengths(), JPEGHuffmanTable.StdACLuminance.getValues());
+
+        if (dcTables.length > 1) {
+            dcTables[1] = new JPEGEntropyEncoder.Table(JPEGHuffmanTable.StdDCChrominance.getLengths(), JPEGHuffmanTable.StdDCChrominance.getValues());
+            acTables[1] = new JPEGEntropyEncoder.Table(JPEGHuffmanTable.StdACChrominance.getLengths(), JPEGHuffmanTable.StdACChrominance.getValues());
+        }
+
+        writeDHT(dcTables, acTables);
+        writeSOS(components, 0, 63, 0, 0);
+
+        final int rowsPerTask = rowsPerTask();
+
+        if (executor == null) {
+            JPEGEntropyEncoder encoder = new JPEGEntropyEncoder(output, components.length);
+            short[][] coefficients = allocateCoefficients(rowsPerTask);
+
+            for (int firstRow = 0; firstRow < mcusY; firstRow += rowsPerTask) {
+                int endRow = Math.min(firstRow + rowsPerTask, mcusY);
+
+                computeCoefficients(coefficients, firstRow, firstRow, endRow);
+                encodeRows(encoder, coefficients, firstRow, firstRow, endRow, dcTables, acTables);
+                reportProgress(endRow / (float) mcusY);
+
+                if (writer.abortRequested()) {
+                    return;
+                }
+            }
+
+            encoder.finish();
+
+            return;
+        }
+
+        // Each task computes the coefficients for, and entropy codes, a run of restart intervals
+        List<Future<byte[]>> tasks = new ArrayList<>(CONCURRENT_BATCH_SIZE);
+
+        for (int firstRow = 0; firstRow < mcusY; firstRow += rowsPerTask) {
+            final int first = firstRow;
+            final int endRow = Math.min(firstRow + rowsPerTask, mcusY);
+
+            tasks.add(submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    short[][] coefficients = allocateCoefficients(endRow - first);
+                    computeCoefficients(coefficients, first, first, endRow);
+
+                    return encodeRowsToBytes(coefficients, first, first, endRow, dcTables, acTables);
+                }
+            }));
+
+            if (tasks.size() >= CONCURRENT_BATCH_SIZE || endRow == mcusY) {
+                writeCompleted(tasks);
+                reportProgress(endRow / (float) mcusY);
+
+                if (writer.abortRequested()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Sequential, optimal tables: Statistics are gathered from the coefficients, before entropy coding
+    private void encodeSequentialOptimized(final short[][] coefficients) throws IOException {
+        if (coefficients == null) {
+            return; // Aborted
+        }
+
+        int numTables = components.length > 1 ? 2 : 1;
+        final JPEGEntropyEncoder.Table[] dcTables = new JPEGEntropyEncoder.Table[numTables];
+        final JPEGEntropyEncoder.Table[] acTables = new JPEGEntropyEncoder.Table[numTables];
+
+        int[][] dcFrequencies = new int[numTables][256];
+        int[][] acFrequencies = new int[numTables][256];
+        final int rowsPerTask = rowsPerTask();
+
+        if (executor == null) {
+            gatherStatistics(coefficients, 0, mcusY, dcFrequencies, acFrequencies);
+        }
+        else {
+            List<Future<int[][][]>> tasks = new ArrayList<>();
+
+            for (int firstRow = 0; firstRow < mcusY; firstRow += rowsPerTask) {
+                final int first = firstRow;
+                final int endRow = Math.min(firstRow + rowsPerTask, mcusY);
+                final int tables = numTables;
+
+                tasks.add(submit(new Callable<int[][][]>() {
+                    @Override
+                    public int[][][] call() throws IOException {
+                        int[][][] frequencies = new int[2][tables][256];
+                        gatherStatistics(coefficients, first, endRow, frequencies[0], frequencies[1]);
+
+                        return frequencies;
+                    }
+                }));
+            }
+
+            try {
+                for (Future<int[][][]> task : tasks) {
+                    int[][][] frequencies = get(task);
+
+                    for (int i = 0; i < numTables; i++) {
+                        for (int symbol = 0; symbol < 256; symbol++) {
+                            dcFrequencies[i][symbol] += frequencies[0][i][symbol];
+                            acFrequencies[i][symbol] += frequencies[1][i][symbol];
+                        }
+                    }
+                }
+            }
+            finally {
+                cancel(tasks);
+            }
+        }
+
+        for (int i = 0; i < numTables; i++) {
+            dcTables[i] = JPEGEntropyEncoder.Table.createOptimal(dcFrequencies[i]);
+            acTables[i] = JPEGEntropyEncoder.Table.createOptimal(acFrequencies[i]);
+        }
+
+        writeDHT(dcTables, acTables);
+        writeSOS(components, 0, 63, 0, 0);
+
+        if (executor == null) {
+            JPEGEntropyEncoder encoder = new JPEGEntropyEncoder(output, components.length);
+            encodeRows(encoder, coefficients, 0, 0, mcusY, dcTables, acTables);
+            encoder.finish();
+        }
+        else {
+            List<Future<byte[]>> tasks = new ArrayList<>(CONCURRENT_BATCH_SIZE);
+
+            for (int firstRow = 0; firstRow < mcusY; firstRow += rowsPerTask) {
+                final int first = firstRow;
+                final int endRow = Math.min(firstRow + rowsPerTask, mcusY);
+
+                tasks.add(submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        return encodeRowsToBytes(coefficients, 0, first, endRow, dcTables, acTables);
+                    }
+                }));
+
+                if (tasks.size() >= CONCURRENT_BATCH_SIZE || endRow == mcusY) {
+                    writeCompleted(tasks);
+                }
+            }
+        }
+
+        reportProgress(1);
+    }
+
+    private void gatherStatistics(final short[][] coefficients, final int firstRow, final int endRow,
+                                  final int[][] dcFrequencies, final int[][] acFrequencies) throws IOException {
+        JPEGEntropyEncoder.Table[] dcTables = new JPEGEntropyEncoder.Table[dcFrequencies.length];
+        JPEGEntropyEncoder.Table[] acTables = new JPEGEntropyEncoder.Table[acFrequencies.length];
+
+        for (int i = 0; i < dcTables.length; i++) {
+            dcTables[i] = JPEGEntropyEncoder.Table.createStatistics();
+            acTables[i] = JPEGEntropyEncoder.Table.createStatistics();
+        }
+
+        encodeRows(new JPEGEntropyEncoder(null, components.length), coefficients, 0, firstRow, endRow, dcTables, acTables);
+
+        for (int i = 0; i < dcTables.length; i++) {
+            for (int symbol = 0; symbol < 256; symbol++) {
+                dcFrequencies[i][symbol] += dcTables[i].frequencies[symbol];
+                acFrequencies[i][symbol] += acTables[i].frequencies[symbol];
+            }
+        }
+    }
+
+    private void encodeProgressive(final short[][] coefficients) throws IOException {
+        if (coefficients == null) {
+            return; // Aborted
+        }
+
+        int[][] script = components.length > 1 ? PROGRESSIVE_SCRIPT_YCBCR : PROGRESSIVE_SCRIPT_GRAY;
+
+        for (int i = 0; i < script.length; i++) {
+            int[] scan = script[i];
+            Component[] scanComponents = scan[0] < 0 ? components : new Component[] {components[scan[0]]};
+            boolean dc = scan[1] == 0;
+
+            // Optimal tables for each scan, DC refinement scans need no tables
+            JPEGEntropyEncoder.Table[] tables = null;
+
+            if (!dc || scan[3] == 0) {
+                tables = new JPEGEntropyEncoder.Table[scanComponents[scanComponents.length - 1].table + 1];
+
+                for (Component component : scanComponents) {
+                    tables[component.table] = JPEGEntropyEncoder.Table.createStatistics();
+                }
+
+                JPEGEntropyEncoder statistics = new JPEGEntropyEncoder(null, scanComponents.length);
+                encodeProgressiveScan(statistics, coefficients, scanComponents, scan, tables);
+                statistics.finish();
+
+                for (int id = 0; id < tables.length; id++) {
+                    if (tables[id] != null) {
+                        tables[id] = JPEGEntropyEncoder.Table.createOptimal(tables[id].frequencies);
+                    }
+                }
+
+                writeDHT(dc ? tables : null, dc ? null : tables);
+            }
+
+            writeSOS(scanComponents, scan[1], scan[2], scan[3], scan[4]);
+
+            JPEGEntropyEncoder encoder = new JPEGEntropyEncoder(output, scanComponents.length);
+            encodeProgressiveScan(encoder, coefficients, scanComponents, scan, tables);
+            encoder.finish();
+
+            reportProgress(0.5f + 0.5f * (i + 1) / script.length);
+
+            if (writer.abortRequested()) {
+                return;
+            }
+        }
+    }
+
+    private void encodeProgressiveScan(final JPEGEntropyEncoder encoder, final short[][] coefficients, final Component[] scanComponents,
+                                       final int[] scan, final JPEGEntropyEncoder.Table[] tables) throws IOException {
+        int start = scan[1];
+        int end = scan[2];
+        int approxHigh = scan[3];
+        int approxLow = scan[4];
+
+        if (scanComponents.length > 1) {
+            // Interleaved DC scan, in MCU order
+            for (int row = 0; row < mcusY; row++) {
+                for (int mcuX = 0; mcuX < mcusX; mcuX++) {
+                    for (int c = 0; c < scanComponents.length; c++) {
+                        Component component = scanComponents[c];
+
+                        for (int v = 0; v < component.v; v++) {
+                            for (int h = 0; h < component.h; h++) {
+                                int offset = ((row * component.v + v) * component.blocksX + mcuX * component.h + h) * 64;
+
+                                if (approxHigh == 0) {
+                                    encoder.encodeBlockDCFirst(coefficients[c], offset, c, approxLow, tables[component.table]);
+                                }
+                                else {
+                                    encoder.encodeBlockDCRefine(coefficients[c], offset, approxLow);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+
+            return;
+        }
+
+        // Non-interleaved scan, blocks in row order, excluding the blocks only used for padding the MCUs
+        Component component = scanComponents[0];
+        short[] componentCoefficients = coefficients[indexOf(component)];
+        JPEGEntropyEncoder.Table table = tables != null ? tables[component.table] : null;
+
+        for (int blockY = 0; blockY < component.scanBlocksY; blockY++) {
+            for (int blockX = 0; blockX < component.scanBlocksX; blockX++) {
+                int offset = (blockY * component.blocksX + blockX) * 64;
+
+                if (start == 0) {
+                    if (approxHigh == 0) {
+                        encoder.encodeBlockDCFirst(componentCoefficients, offset, 0, approxLow, table);
+                    }
+                    else {
+                        encoder.encodeBlockDCRefine(componentCoefficients, offset, approxLow);
+                    }
+                }
+                else if (approxHigh == 0) {
+                    encoder.encodeBlockACFirst(componentCoefficients, offset, start, end, approxLow, table);
+                }
+                else {
+                    encoder.encodeBlockACRefine(componentCoefficients, offset, start, end, approxLow, table);
+                }
+            }
+        }
+    }
+
+    private int indexOf(final Component component) {
+        for (int i = 0; i < components.length; i++) {
+            if (components[i] == component) {
+                return i;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown component: " + component.id);
+    }
+
+    private void encodeRows(final JPEGEntropyEncoder encoder, final short[][] coefficients, final int coefficientsRow,
+                            final int firstRow, final int endRow,
+                            final JPEGEntropyEncoder.Table[] dcTables, final JPEGEntropyEncoder.Table[] acTables) throws IOException {
+        for (int row = firstRow; row < endRow; row++) {
+            int localRow = row - coefficientsRow;
+
+            for (int mcuX = 0; mcuX < mcusX; mcuX++) {
+                for (int c = 0; c < components.length; c++) {
+                    Component component = components[c];
+                    JPEGEntropyEncoder.Table dcTable = dcTables[component.table];
+                    JPEGEntropyEncoder.Table acTable = acTables[component.table];
+
+                    for (int v = 0; v < component.v; v++) {
+                        int offset = ((localRow * component.v + v) * component.blocksX + mcuX * component.h) * 64;
+
+                        for (int h = 0; h < component.h; h++) {
+                            encoder.encodeBlock(coefficients[c], offset + h * 64, c, dcTable, acTable);
+                        }
+                    }
+                }
+            }
+
+            if (restartRows > 0 && (row + 1) % restartRows == 0 && row + 1 < mcusY) {
+                encoder.restart((row + 1) / restartRows - 1);
+            }
+        }
+    }
+
+    private byte[] encodeRowsToBytes(final short[][] coefficients, final int coefficientsRow, final int firstRow, final int endRow,
+                                     final JPEGEntropyEncoder.Table[] dcTables, final JPEGEntropyEncoder.Table[] acTables) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        JPEGEntropyEncoder encoder = new JPEGEntropyEncoder(new DataOutputStream(bytes), components.length);
+
+        encodeRows(encoder, coefficients, coefficientsRow, firstRow, endRow, dcTables, acTables);
+        encoder.finish();
+
+        return bytes.toByteArray();
+    }
+
+    private int rowsPerTask() {
+        int rows = Math.max(1, (MCUS_PER_TASK + mcusX - 1) / mcusX);
+
+        // Tasks must start at a restart interval, for the DC predictors to be reset
+        return restartRows > 0 ? (rows + restartRows - 1) / restartRows * restartRows : rows;
+    }
+
+    private short[][] allocateCoefficients(final int rows) {
+        short[][] coefficients = new short[components.length][];
+
+        for (int c = 0; c < components.length; c++) {
+            Component component = components[c];
+            coefficients[c] = new short[rows * component.v * component.blocksX * 64];
+        }
+
+        return coefficients;
+    }
+
+    private short[][] computeAllCoefficients() throws IOException {
+        final short[][] coefficients = allocateCoefficients(mcusY);
+        final int rowsPerTask = rowsPerTask();
+
+        if (executor == null) {
+            for (int firstRow = 0; firstRow < mcusY; firstRow += rowsPerTask) {
+                int endRow = Math.min(firstRow + rowsPerTask, mcusY);
+
+                computeCoefficients(coefficients, 0, firstRow, endRow);
+                reportProgress(0.5f * endRow / mcusY);
+
+                if (writer.abortRequested()) {
+                    return null;
+                }
+            }
+
+            return coefficients;
+        }
+
+        List<Future<Void>> tasks = new ArrayList<>(CONCURRENT_BATCH_SIZE);
+
+        for (int firstRow = 0; firstRow < mcusY; firstRow += rowsPerTask) {
+            final int first = firstRow;
+            final int endRow = Math.min(firstRow + rowsPerTask, mcusY);
+
+            tasks.add(submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    computeCoefficients(coefficients, 0, first, endRow);
+                    return null;
+                }
+            }));
+
+            if (tasks.size() >= CONCURRENT_BATCH_SIZE || endRow == mcusY) {
+                try {
+                    for (Future<Void> task : tasks) {
+                        get(task);
+                    }
+                }
+                finally {
+                    cancel(tasks);
+                }
+
+                reportProgress(0.5f * endRow / mcusY);
+
+                if (writer.abortRequested()) {
+                    return null;
+                }
+            }
+        }
+
+        return coefficients;
+    }
+
+    /**
+     * Reads, color converts and downsamples the samples of the given MCU rows, and computes the quantized
+     * coefficients. Safe to invoke concurrently, for disjoint rows.
+     */
+    private void computeCoefficients(final short[][] coefficients, final int coefficientsRow, final int firstRow, final int endRow) {
+        int width = mcusX * mcuWidth;
+        int[] pixels = new int[region.width];
+        int[][] planes = new int[components.length][mcuHeight * width];
+        int[] subsampled = components.length > 1 ? new int[mcuHeight / 2 * width / 2] : null;
+        int[] block = new int[64];
+
+        for (int row = firstRow; row < endRow; row++) {
+            int localRow = row - coefficientsRow;
+
+            for (int line = 0; line < mcuHeight; line++) {
+                // Rows below the image are padded by repeating the last row
+                int y = region.y + Math.min(row * mcuHeight + line, region.height - 1);
+
+                readRow(y, pixels);
+
+                if (components.length == 1) {
+                    convertGray(pixels, planes[0], line * width, width);
+                }
+                else {
+                    convertRGBToYCbCr(pixels, planes[0], planes[1], planes[2], line * width, width);
+                }
+            }
+
+            for (int c = 0; c < components.length; c++) {
+                Component component = components[c];
+                int[] plane = planes[c];
+                int planeWidth = width;
+
+                if (component.h < components[0].h) {
+                    downsample2x2(plane, width, mcuHeight, subsampled);
+                    plane = subsampled;
+                    planeWidth = width / 2;
+                }
+
+                for (int v = 0; v < component.v; v++) {
+                    for (int blockX = 0; blockX < component.blocksX; blockX++) {
+                        int in = v * 8 * planeWidth + blockX * 8;
+
+                        for (int i = 0; i < 64; i += 8, in += planeWidth) {
+                            for (int j = 0; j < 8; j++) {
+                                block[i + j] = plane[in + j] - 128;
+                            }
+                        }
+
+                        int offset = ((localRow * component.v + v) * component.blocksX + blockX) * 64;
+                        JPEGForwardDCT.forwardDCT8x8(block, component.divisors, coefficients[c], offset);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void convertGray(final int[] pixels, final int[] gray, final int offset, final int width) {
+        int count = pixels.length;
+        System.arraycopy(pixels, 0, gray, offset, count);
+
+        // Pad by repeating the last column
+        for (int x = count; x < width; x++) {
+            gray[offset + x] = pixels[count - 1];
+        }
+    }
+
+    private static void convertRGBToYCbCr(final int[] pixels, final int[] yPlane, final int[] cbPlane, final int[] crPlane,
+                                          final int offset, final int width) {
+        int count = pixels.length;
+
+        for (int x = 0; x < count; x++) {
+            int rgb = pixels[x];
+            int r = rgb >> 16 & 0xff;
+            int g = rgb >> 8 & 0xff;
+            int b = rgb & 0xff;
+
+            yPlane[offset + x] = FIX_0_29900 * r + FIX_0_58700 * g + FIX_0_11400 * b + ONE_HALF >> SCALE_BITS;
+            cbPlane[offset + x] = -FIX_0_16874 * r - FIX_0_33126 * g + FIX_0_50000 * b + CBCR_OFFSET + ONE_HALF - 1 >> SCALE_BITS;
+            crPlane[offset + x] = FIX_0_50000 * r - FIX_0_41869 * g - FIX_0_08131 * b + CBCR_OFFSET + ONE_HALF - 1 >> SCALE_BITS;
+        }
+
+        // Pad by repeating the last column
+        for (int x = count; x < width; x++) {
+            yPlane[offset + x] = yPlane[offset + count - 1];
+            cbPlane[offset + x] = cbPlane[offset + count - 1];
+            crPlane[offset + x] = crPlane[offset + count - 1];
+        }
+    }
+
+    private static void downsample2x2(final int[] plane, final int width, final int height, final int[] output) {
+        // Box filter, with alternating bias, as in libjpeg's h2v2_downsample
+        int outWidth = width / 2;
+
+        for (int y = 0; y < height / 2; y++) {
+            int in = 2 * y * width;
+            int out = y * outWidth;
+            int bias = 1;
+
+            for (int x = 0; x < outWidth; x++, in += 2) {
+                output[out + x] = plane[in] + plane[in + 1] + plane[in + width] + plane[in + width + 1] + bias >> 2;
+                bias ^= 3;
+            }
+        }
+    }
+
+    /**
+     * Reads a row of the source region, as packed RGB values or gray values.
+     */
+    private void readRow(final int y, final int[] pixels) {
+        int width = pixels.length;
+        int x = region.x;
+
+        if (byteData != null) {
+            int index = dataOffset + y * scanlineStride + x * pixelStride;
+
+            if (components.length == 1) {
+                int band = bandOffsets[0];
+
+                for (int i = 0; i < width; i++, index += pixelStride) {
+                    pixels[i] = byteData[index + band] & 0xff;
+                }
+            }
+            else {
+                int red = bandOffsets[0];
+                int green = bandOffsets[1];
+                int blue = bandOffsets[2];
+
+                for (int i = 0; i < width; i++, index += pixelStride) {
+                    pixels[i] = (byteData[index + red] & 0xff) << 16 | (byteData[index + green] & 0xff) << 8 | byteData[index + blue] & 0xff;
+                }
+            }
+        }
+        else if (intData != null) {
+            int index = dataOffset + y * scanlineStride + x;
+
+            if (components.length == 1) {
+                for (int i = 0; i < width; i++) {
+                    pixels[i] = (intData[index + i] & bitMasks[0]) >>> bitOffsets[0];
+                }
+            }
+            else {
+                int redMask = bitMasks[0];
+                int greenMask = bitMasks[1];
+                int blueMask = bitMasks[2];
+                int redShift = bitOffsets[0];
+                int greenShift = bitOffsets[1];
+                int blueShift = bitOffsets[2];
+
+                for (int i = 0; i < width; i++) {
+                    int pixel = intData[index + i];
+                    pixels[i] = ((pixel & redMask) >>> redShift) << 16 | ((pixel & greenMask) >>> greenShift) << 8 | (pixel & blueMask) >>> blueShift;
+                }
+            }
+        }
+        else if (components.length == 1) {
+            raster.getSamples(x, y, width, 1, 0, pixels);
+        }
+        else {
+            int[] samples = raster.getPixels(x, y, width, 1, (int[]) null);
+
+            for (int i = 0; i < width; i++) {
+                pixels[i] = samples[3 * i] << 16 | samples[3 * i + 1] << 8 | samples[3 * i + 2];
+            }
+        }
+    }
+
+    private void reportProgress(final float fraction) {
+        writer.processImageProgress(100f * fraction);
+    }
+
+    private <T> Future<T> submit(final Callable<T> callable) {
+        FutureTask<T> task = new FutureTask<>(callable);
+        executor.execute(task);
+
+        return task;
+    }
+
+    private void writeCompleted(final List<Future<byte[]>> tasks) throws IOException {
+        // Entropy coded data is written in order, on this thread, as the stream isn't thread safe
+        try {
+            for (Future<byte[]> task : tasks) {
+                output.write(get(task));
+            }
+        }
+        finally {
+            cancel(tasks);
+        }
+    }
+
+    private static <T> T get(final Future<T> task) throws IOException {
+        try {
+            return task.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while encoding");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IIOException("Could not encode MCU rows: " + cause.getMessage(), cause);
+        }
+    }
+
+    private static void cancel(final List<? extends Future<?>> tasks) {
+        for (Future<?> task : tasks) {
+            task.cancel(false);
+        }
+
+        tasks.clear();
+    }
+
+    private static final class Component {
+        final int id;
+        final int h; // Horizontal sampling factor
+        final int v; // Vertical sampling factor
+        final int table; // Quantization and Huffman table id
+
+        int blocksX; // Blocks per row, including blocks only used for padding the MCUs
+        int scanBlocksX; // Blocks per row in a non-interleaved scan
+        int scanBlocksY; // Block rows in a non-interleaved scan
+        int[] divisors;
+
+        Component(final int id, final int h, final int v, final int table) {
+            this.id = id;
+            this.h = h;
+            this.v = v;
+            this.table = table;
+        }
+    }
+}
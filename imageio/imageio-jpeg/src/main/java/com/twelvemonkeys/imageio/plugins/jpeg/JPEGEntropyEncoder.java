@@ -0,0 +1,657 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.jpeg;
+
+import com.twelvemonkeys.imageio.metadata.jpeg.JPEG;
+
+import javax.imageio.stream.ImageOutputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.twelvemonkeys.imageio.plugins.jpeg.JPEGDCTDecoder.NATURAL_ORDER;
+
+/**
+ * Huffman entropy encoder for sequential and progressive DCT scans.
+ * <p>
+ * Encodes blocks of quantized coefficients, in natural (row major) order, using the given
+ * Huffman tables, and writes the entropy coded data to the stream, with 0xFF bytes stuffed and
+ * restart markers inserted as requested.
+ * Progressive scans are encoded as in the Independent JPEG Group's libjpeg, including EOB runs
+ * and buffering of correction bits for successive approximation refinement.
+ * Optimal Huffman tables for the data may be created, from statistics gathered in a separate pass
+ * over the coefficients, using the procedure in ITU-T T.81 Annex K.2, with code lengths limited to 16 bits.
+ * Statistics are gathered either by {@link #countSymbols(short[], int, int, int[], int[])}, or by
+ * an encoder without output, using {@link Table#createStatistics() statistics tables}.
+ * </p>
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: JPEGEntropyEncoder.java,v 1.0 18.10.2020 haraldk Exp$
+ */
+final class JPEGEntropyEncoder {
+    // Max number of buffered correction bits, before the EOB run is ended, as in libjpeg
+    private static final int MAX_CORRECTION_BITS = 1000;
+
+    private final DataOutput output;
+    private final byte[] buffer = new byte[8192];
+    private int bufferPos;
+
+    private long bits;
+    private int bitCount;
+    private final int[] dcPredictors; // Indexed by component in scan
+
+    // Progressive AC state
+    private int eobRun;
+    private Table eobTable;
+    private final byte[] correctionBits = new byte[MAX_CORRECTION_BITS];
+    private int correctionBitCount; // Correction bits for the blocks in the current EOB run
+    private int[] absolutes;
+
+    /**
+     * Creates an encoder.
+     *
+     * @param output the stream to write the entropy coded data to,
+     *               or {@code null} to only gather statistics, using {@link Table#createStatistics() statistics tables}.
+     * @param scanComponents the number of components in the scan.
+     */
+    JPEGEntropyEncoder(final DataOutput output, final int scanComponents) {
+        this.output = output;
+        this.dcPredictors = new int[scanComponents];
+    }
+
+    /**
+     * Encodes a block of quantized coefficients.
+     *
+     * @param coefficients the coefficients, in natural (row major) order.
+     * @param offset the offset of the block in {@code coefficients}.
+     * @param index the index of the component in the scan.
+     * @param dcTable the DC Huffman table for the component.
+     * @param acTable the AC Huffman table for the component.
+     * @throws IOException if an I/O exception occurs.
+     */
+    void encodeBlock(final short[] coefficients, final int offset, final int index, final Table dcTable, final Table acTable) throws IOException {
+        int dc = coefficients[offset];
+        int diff = dc - dcPredictors[index];
+        dcPredictors[index] = dc;
+
+        int size = magnitudeCategory(diff);
+        emitSymbol(dcTable, size);
+
+        if (size != 0) {
+            writeBits(diff < 0 ? diff - 1 : diff, size);
+        }
+
+        int run = 0;
+
+        for (int k = 1; k < 64; k++) {
+            int value = coefficients[offset + NATURAL_ORDER[k]];
+
+            if (value == 0) {
+                run++;
+                continue;
+            }
+
+            while (run > 15) {
+                emitSymbol(acTable, 0xf0); // ZRL
+                run -= 16;
+            }
+
+            size = magnitudeCategory(value);
+            emitSymbol(acTable, run << 4 | size);
+            writeBits(value < 0 ? value - 1 : value, size);
+
+            run = 0;
+        }
+
+        if (run > 0) {
+            emitSymbol(acTable, 0); // EOB
+        }
+    }
+
+    /**
+     * Encodes the DC coefficient of a block, in the first scan of a progressive DC successive approximation.
+     *
+     * @param coefficients the coefficients, in natural (row major) order.
+     * @param offset the offset of the block in {@code coefficients}.
+     * @param index the index of the component in the scan.
+     * @param approxLow the successive approximation bit position low ({@code Al}).
+     * @param dcTable the DC Huffman table for the component.
+     * @throws IOException if an I/O exception occurs.
+     */
+    void encodeBlockDCFirst(final short[] coefficients, final int offset, final int index, final int approxLow, final Table dcTable) throws IOException {
+        int dc = coefficients[offset] >> approxLow;
+        int diff = dc - dcPredictors[index];
+        dcPredictors[index] = dc;
+
+        int size = magnitudeCategory(diff);
+        emitSymbol(dcTable, size);
+
+        if (size != 0) {
+            writeBits(diff < 0 ? diff - 1 : diff, size);
+        }
+    }
+
+    /**
+     * Encodes the DC coefficient of a block, in a refinement scan of a progressive DC successive approximation.
+     *
+     * @param coefficients the coefficients, in natural (row major) order.
+     * @param offset the offset of the block in {@code coefficients}.
+     * @param approxLow the successive approximation bit position low ({@code Al}).
+     * @throws IOException if an I/O exception occurs.
+     */
+    void encodeBlockDCRefine(final short[] coefficients, final int offset, final int approxLow) throws IOException {
+        writeBits(coefficients[offset] >> approxLow, 1);
+    }
+
+    /**
+     * Encodes a spectral band of the AC coefficients of a block, in the first scan of a progressive
+     * AC successive approximation.
+     *
+     * @param coefficients the coefficients, in natural (row major) order.
+     * @param offset the offset of the block in {@code coefficients}.
+     * @param start the spectral selection start ({@code Ss}), in zig-zag order.
+     * @param end the spectral selection end ({@code Se}), in zig-zag order.
+     * @param approxLow the successive approximation bit position low ({@code Al}).
+     * @param acTable the AC Huffman table for the component.
+     * @throws IOException if an I/O exception occurs.
+     */
+    void encodeBlockACFirst(final short[] coefficients, final int offset, final int start, final int end, final int approxLow,
+                            final Table acTable) throws IOException {
+        eobTable = acTable;
+        int run = 0;
+
+        for (int k = start; k <= end; k++) {
+            int value = coefficients[offset + NATURAL_ORDER[k]];
+            int magnitude = (value < 0 ? -value : value) >> approxLow;
+
+            if (magnitude == 0) {
+                run++;
+                continue;
+            }
+
+            emitEOBRun();
+
+            while (run > 15) {
+                emitSymbol(acTable, 0xf0); // ZRL
+                run -= 16;
+            }
+
+            int size = magnitudeCategory(magnitude);
+            emitSymbol(acTable, run << 4 | size);
+            writeBits(value < 0 ? ~magnitude : magnitude, size);
+
+            run = 0;
+        }
+
+        if (run > 0 && ++eobRun == 0x7fff) {
+            emitEOBRun();
+        }
+    }
+
+    /**
+     * Encodes a spectral band of the AC coefficients of a block, in a refinement scan of a progressive
+     * AC successive approximation.
+     *
+     * @param coefficients the coefficients, in natural (row major) order.
+     * @param offset the offset of the block in {@code coefficients}.
+     * @param start the spectral selection start ({@code Ss}), in zig-zag order.
+     * @param end the spectral selection end ({@code Se}), in zig-zag order.
+     * @param approxLow the successive approximation bit position low ({@code Al}).
+     * @param acTable the AC Huffman table for the component.
+     * @throws IOException if an I/O exception occurs.
+     */
+    void encodeBlockACRefine(final short[] coefficients, final int offset, final int start, final int end, final int approxLow,
+                             final Table acTable) throws IOException {
+        eobTable = acTable;
+
+        if (absolutes == null) {
+            absolutes = new int[64];
+        }
+
+        // Find the last coefficient that becomes non-zero in this scan
+        int last = 0;
+
+        for (int k = start; k <= end; k++) {
+            int value = coefficients[offset + NATURAL_ORDER[k]];
+            int magnitude = (value < 0 ? -value : value) >> approxLow;
+            absolutes[k] = magnitude;
+
+            if (magnitude == 1) {
+                last = k;
+            }
+        }
+
+        int run = 0;
+        int bufferedStart = correctionBitCount; // Correction bits for this block are appended to those of the EOB run
+        int buffered = 0;
+
+        for (int k = start; k <= end; k++) {
+            int magnitude = absolutes[k];
+
+            if (magnitude == 0) {
+                run++;
+                continue;
+            }
+
+            // Emit any required ZRLs, but not if they can be folded into EOB
+            while (run > 15 && k <= last) {
+                emitEOBRun();
+                emitSymbol(acTable, 0xf0);
+                run -= 16;
+
+                emitCorrectionBits(bufferedStart, buffered);
+                bufferedStart = 0;
+                buffered = 0;
+            }
+
+            if (magnitude > 1) {
+                // Previously non-zero coefficient, only the correction bit is needed
+                correctionBits[bufferedStart + buffered++] = (byte) (magnitude & 1);
+                continue;
+            }
+
+            // Newly non-zero coefficient
+            emitEOBRun();
+            emitSymbol(acTable, run << 4 | 1);
+            writeBits(coefficients[offset + NATURAL_ORDER[k]] < 0 ? 0 : 1, 1);
+
+            emitCorrectionBits(bufferedStart, buffered);
+            bufferedStart = 0;
+            buffered = 0;
+            run = 0;
+        }
+
+        if (run > 0 || buffered > 0) {
+            eobRun++;
+            correctionBitCount += buffered;
+
+            // Force out the EOB run, if it or the buffered correction bits are about to overflow
+            if (eobRun == 0x7fff || correctionBitCount > MAX_CORRECTION_BITS - 64 + 1) {
+                emitEOBRun();
+            }
+        }
+    }
+
+    private void emitEOBRun() throws IOException {
+        if (eobRun > 0) {
+            int size = magnitudeCategory(eobRun) - 1;
+            emitSymbol(eobTable, size << 4);
+
+            if (size != 0) {
+                writeBits(eobRun, size);
+            }
+
+            eobRun = 0;
+
+            emitCorrectionBits(0, correctionBitCount);
+            correctionBitCount = 0;
+        }
+    }
+
+    private void emitCorrectionBits(final int start, final int count) throws IOException {
+        for (int i = start; i < start + count; i++) {
+            writeBits(correctionBits[i], 1);
+        }
+    }
+
+    private void emitSymbol(final Table table, final int symbol) throws IOException {
+        if (table.frequencies != null) {
+            table.frequencies[symbol]++;
+        }
+        else {
+            writeBits(table.codes[symbol], table.sizes[symbol]);
+        }
+    }
+
+    /**
+     * Ends the current restart interval, by padding the last byte with 1 bits and writing a RSTn marker,
+     * and resets the DC predictors.
+     *
+     * @param interval the index of the restart interval ending, the marker written is {@code RST(interval % 8)}.
+     * @throws IOException if an I/O exception occurs.
+     */
+    void restart(final int interval) throws IOException {
+        emitEOBRun();
+
+        if (output != null) {
+            flushBits();
+
+            writeByte(0xff);
+            writeByte(0xd0 | interval & 7);
+        }
+
+        Arrays.fill(dcPredictors, 0);
+    }
+
+    /**
+     * Ends any pending EOB run, pads the last byte with 1 bits, and writes any buffered data to the stream.
+     *
+     * @throws IOException if an I/O exception occurs.
+     */
+    void finish() throws IOException {
+        emitEOBRun();
+
+        if (output != null) {
+            flushBits();
+
+            output.write(buffer, 0, bufferPos);
+            bufferPos = 0;
+        }
+    }
+
+    private void writeBits(final int value, final int size) throws IOException {
+        if (output == null) {
+            return; // Only gathering statistics
+        }
+
+        bits = bits << size | value & (1L << size) - 1;
+        bitCount += size;
+
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            int b = (int) (bits >> bitCount) & 0xff;
+            writeByte(b);
+
+            if (b == 0xff) {
+                writeByte(0); // Stuffed zero byte
+            }
+        }
+    }
+
+    private void flushBits() throws IOException {
+        if (bitCount > 0) {
+            writeBits(0x7f, 8 - bitCount);
+        }
+    }
+
+    private void writeByte(final int value) throws IOException {
+        if (bufferPos == buffer.length) {
+            output.write(buffer, 0, bufferPos);
+            bufferPos = 0;
+        }
+
+        buffer[bufferPos++] = (byte) value;
+    }
+
+    /**
+     * Counts the Huffman symbols needed to encode a block of quantized coefficients,
+     * for creating {@link Table#createOptimal(int[]) optimal} tables.
+     *
+     * @param coefficients the coefficients, in natural (row major) order.
+     * @param offset the offset of the block in {@code coefficients}.
+     * @param predictor the DC value of the previous block of the same component in the scan,
+     *                  or {@code 0} for the first block of a scan or restart interval.
+     * @param dcFrequencies the DC symbol frequencies, must have length {@code >= 256}.
+     * @param acFrequencies the AC symbol frequencies, must have length {@code >= 256}.
+     * @return the DC value of this block, to be used as predictor for the next block.
+     */
+    static int countSymbols(final short[] coefficients, final int offset, final int predictor,
+                            final int[] dcFrequencies, final int[] acFrequencies) {
+        int dc = coefficients[offset];
+        dcFrequencies[magnitudeCategory(dc - predictor)]++;
+
+        int run = 0;
+
+        for (int k = 1; k < 64; k++) {
+            int value = coefficients[offset + NATURAL_ORDER[k]];
+
+            if (value == 0) {
+                run++;
+                continue;
+            }
+
+            while (run > 15) {
+                acFrequencies[0xf0]++;
+                run -= 16;
+            }
+
+            acFrequencies[run << 4 | magnitudeCategory(value)]++;
+            run = 0;
+        }
+
+        if (run > 0) {
+            acFrequencies[0]++;
+        }
+
+        return dc;
+    }
+
+    private static int magnitudeCategory(final int value) {
+        return 32 - Integer.numberOfLeadingZeros(value < 0 ? -value : value);
+    }
+
+    /**
+     * Writes a DHT segment, containing the given tables.
+     *
+     * @param output the stream to write to.
+     * @param tables the tables, indexed by table id, {@code null} tables are not written.
+     * @param tableClass the table class, {@code 0} for DC or {@code 1} for AC.
+     * @throws IOException if an I/O exception occurs.
+     */
+    static void writeDHT(final ImageOutputStream output, final Table[] tables, final int tableClass) throws IOException {
+        int length = 2;
+        for (Table table : tables) {
+            if (table != null) {
+                length += 17 + table.values.length;
+            }
+        }
+
+        output.writeShort(JPEG.DHT);
+        output.writeShort(length);
+
+        for (int id = 0; id < tables.length; id++) {
+            Table table = tables[id];
+
+            if (table != null) {
+                output.writeByte(tableClass << 4 | id);
+
+                for (short count : table.lengths) {
+                    output.writeByte(count);
+                }
+                for (short value : table.values) {
+                    output.writeByte(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * A Huffman table for encoding.
+     */
+    static final class Table {
+        final short[] lengths; // Number of codes of each length 1-16
+        final short[] values; // Symbols, in order of increasing code length
+
+        final int[] codes = new int[256]; // Indexed by symbol
+        final int[] sizes = new int[256]; // Indexed by symbol
+
+        final int[] frequencies; // Indexed by symbol, only for statistics tables
+
+        private Table() {
+            lengths = null;
+            values = null;
+            frequencies = new int[256];
+        }
+
+        /**
+         * Creates a table, from the lists of code lengths and symbol values, as in a DHT segment.
+         *
+         * @param lengths the number of codes of each length 1-16.
+         * @param values the symbols, in order of increasing code length.
+         */
+        Table(final short[] lengths, final short[] values) {
+            this.lengths = lengths;
+            this.values = values;
+            this.frequencies = null;
+
+            // Generate the codes, as in ITU-T T.81 Annex C
+            int code = 0;
+            int k = 0;
+
+            for (int length = 1; length <= 16; length++) {
+                for (int i = 0; i < lengths[length - 1]; i++) {
+                    int symbol = values[k++];
+                    codes[symbol] = code++;
+                    sizes[symbol] = length;
+                }
+
+                code <<= 1;
+            }
+        }
+
+        /**
+         * Creates a table that counts the symbols encoded, instead of encoding them.
+         * The counts may be used to {@link #createOptimal(int[]) create optimal tables}.
+         *
+         * @return a new statistics table.
+         * @see #frequencies
+         */
+        static Table createStatistics() {
+            return new Table();
+        }
+
+        /**
+         * Creates an optimal table for the given symbol frequencies,
+         * as in ITU-T T.81 Annex K.2, with code lengths limited to 16 bits.
+         * No symbol is assigned the all 1s code.
+         *
+         * @param frequencies the symbol frequencies, must have length {@code >= 256}.
+         * @return a new table.
+         */
+        static Table createOptimal(final int[] frequencies) {
+            long[] freq = new long[257];
+            boolean empty = true;
+            for (int i = 0; i < 256; i++) {
+                freq[i] = frequencies[i];
+                empty &= frequencies[i] == 0;
+            }
+
+            if (empty) {
+                freq[0] = 1; // Table must have at least one code
+            }
+
+            freq[256] = 1; // Reserved symbol, ensures no real symbol gets the all 1s code
+
+            int[] codeSize = new int[257];
+            int[] others = new int[257];
+            Arrays.fill(others, -1);
+
+            while (true) {
+                // Find the two least frequent symbols, preferring the largest value on ties
+                int v1 = -1;
+                int v2 = -1;
+
+                for (int i = 0; i < 257; i++) {
+                    if (freq[i] > 0 && (v1 < 0 || freq[i] <= freq[v1])) {
+                        v1 = i;
+                    }
+                }
+
+                for (int i = 0; i < 257; i++) {
+                    if (freq[i] > 0 && i != v1 && (v2 < 0 || freq[i] <= freq[v2])) {
+                        v2 = i;
+                    }
+                }
+
+                if (v2 < 0) {
+                    break;
+                }
+
+                freq[v1] += freq[v2];
+                freq[v2] = 0;
+
+                codeSize[v1]++;
+                while (others[v1] >= 0) {
+                    v1 = others[v1];
+                    codeSize[v1]++;
+                }
+
+                others[v1] = v2;
+
+                codeSize[v2]++;
+                while (others[v2] >= 0) {
+                    v2 = others[v2];
+                    codeSize[v2]++;
+                }
+            }
+
+            int[] bits = new int[33];
+            for (int i = 0; i < 257; i++) {
+                if (codeSize[i] > 0) {
+                    bits[codeSize[i]]++;
+                }
+            }
+
+            // Limit code lengths to 16 bits (Annex K, Figure K.3)
+            for (int i = 32; i > 16; i--) {
+                while (bits[i] > 0) {
+                    int j = i - 2;
+                    while (bits[j] == 0) {
+                        j--;
+                    }
+
+                    bits[i] -= 2;
+                    bits[i - 1]++;
+                    bits[j + 1] += 2;
+                    bits[j]--;
+                }
+            }
+
+            // Remove the reserved symbol, which has the longest code
+            int i = 16;
+            while (bits[i] == 0) {
+                i--;
+            }
+            bits[i]--;
+
+            short[] lengths = new short[16];
+            int count = 0;
+            for (int length = 1; length <= 16; length++) {
+                lengths[length - 1] = (short) bits[length];
+                count += bits[length];
+            }
+
+            // Symbols sorted by code size, then by value (Annex K, Figure K.4)
+            short[] values = new short[count];
+            int k = 0;
+            for (int size = 1; size <= 32 && k < count; size++) {
+                for (int symbol = 0; symbol < 256 && k < count; symbol++) {
+                    if (codeSize[symbol] == size) {
+                        values[k++] = (short) symbol;
+                    }
+                }
+            }
+
+            return new Table(lengths, values);
+        }
+    }
+}
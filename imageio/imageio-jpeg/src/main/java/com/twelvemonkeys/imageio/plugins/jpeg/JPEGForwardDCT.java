@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.jpeg;
+
+/**
+ * Forward DCT and quantization, producing 8x8 quantized coefficients from 8x8 sample blocks.
+ * <p>
+ * The DCT is a port of the accurate integer forward DCT ({@code jpeg_fdct_islow}) of the
+ * Independent JPEG Group's libjpeg, and the quantization rounds the same way as libjpeg,
+ * so the results are identical.
+ * </p>
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: JPEGForwardDCT.java,v 1.0 18.10.2020 haraldk Exp$
+ */
+final class JPEGForwardDCT {
+    private static final int CONST_BITS = 13;
+    private static final int PASS1_BITS = 2;
+
+    private static final int FIX_0_298631336 = 2446;
+    private static final int FIX_0_390180644 = 3196;
+    private static final int FIX_0_541196100 = 4433;
+    private static final int FIX_0_765366865 = 6270;
+    private static final int FIX_0_899976223 = 7373;
+    private static final int FIX_1_175875602 = 9633;
+    private static final int FIX_1_501321110 = 12299;
+    private static final int FIX_1_847759065 = 15137;
+    private static final int FIX_1_961570560 = 16069;
+    private static final int FIX_2_053119869 = 16819;
+    private static final int FIX_2_562915447 = 20995;
+    private static final int FIX_3_072711026 = 25172;
+
+    private JPEGForwardDCT() {}
+
+    private static int descale(final int value, final int bits) {
+        return value + (1 << bits - 1) >> bits;
+    }
+
+    /**
+     * Creates the divisors used for quantization, from a quantization table.
+     * The DCT output is scaled up by a factor of 8, which is compensated for in the divisors.
+     *
+     * @param table the quantization table, in natural order.
+     * @return the divisors, in natural order.
+     */
+    static int[] createDivisors(final int[] table) {
+        int[] divisors = new int[64];
+
+        for (int i = 0; i < 64; i++) {
+            divisors[i] = table[i] << 3;
+        }
+
+        return divisors;
+    }
+
+    /**
+     * Full size forward DCT, followed by quantization.
+     *
+     * @param samples the samples, with {@code 128} subtracted (range {@code -128...127}), in row major order.
+     *                Used as workspace, so the content is destroyed.
+     * @param divisors the quantization divisors, as created by {@link #createDivisors(int[])}.
+     * @param output the quantized coefficients, in natural order.
+     * @param offset the offset of the first coefficient in {@code output}.
+     */
+    static void forwardDCT8x8(final int[] samples, final int[] divisors, final short[] output, final int offset) {
+        // Pass 1: Process rows, results are scaled up by sqrt(8) compared to a true DCT, and by 2^PASS1_BITS
+        for (int row = 0; row < 64; row += 8) {
+            int tmp0 = samples[row] + samples[row + 7];
+            int tmp7 = samples[row] - samples[row + 7];
+            int tmp1 = samples[row + 1] + samples[row + 6];
+            int tmp6 = samples[row + 1] - samples[row + 6];
+            int tmp2 = samples[row + 2] + samples[row + 5];
+            int tmp5 = samples[row + 2] - samples[row + 5];
+            int tmp3 = samples[row + 3] + samples[row + 4];
+            int tmp4 = samples[row + 3] - samples[row + 4];
+
+            // Even part
+            int tmp10 = tmp0 + tmp3;
+            int tmp13 = tmp0 - tmp3;
+            int tmp11 = tmp1 + tmp2;
+            int tmp12 = tmp1 - tmp2;
+
+            samples[row] = (tmp10 + tmp11) << PASS1_BITS;
+            samples[row + 4] = (tmp10 - tmp11) << PASS1_BITS;
+
+            int z1 = (tmp12 + tmp13) * FIX_0_541196100;
+            samples[row + 2] = descale(z1 + tmp13 * FIX_0_765366865, CONST_BITS - PASS1_BITS);
+            samples[row + 6] = descale(z1 - tmp12 * FIX_1_847759065, CONST_BITS - PASS1_BITS);
+
+            // Odd part
+            z1 = tmp4 + tmp7;
+            int z2 = tmp5 + tmp6;
+            int z3 = tmp4 + tmp6;
+            int z4 = tmp5 + tmp7;
+            int z5 = (z3 + z4) * FIX_1_175875602;
+
+            tmp4 *= FIX_0_298631336;
+            tmp5 *= FIX_2_053119869;
+            tmp6 *= FIX_3_072711026;
+            tmp7 *= FIX_1_501321110;
+            z1 *= -FIX_0_899976223;
+            z2 *= -FIX_2_562915447;
+            z3 = z3 * -FIX_1_961570560 + z5;
+            z4 = z4 * -FIX_0_390180644 + z5;
+
+            samples[row + 7] = descale(tmp4 + z1 + z3, CONST_BITS - PASS1_BITS);
+            samples[row + 5] = descale(tmp5 + z2 + z4, CONST_BITS - PASS1_BITS);
+            samples[row + 3] = descale(tmp6 + z2 + z3, CONST_BITS - PASS1_BITS);
+            samples[row + 1] = descale(tmp7 + z1 + z4, CONST_BITS - PASS1_BITS);
+        }
+
+        // Pass 2: Process columns, removing the PASS1_BITS scaling, results are scaled up by 8 compared to a true DCT
+        for (int col = 0; col < 8; col++) {
+            int tmp0 = samples[col] + samples[col + 56];
+            int tmp7 = samples[col] - samples[col + 56];
+            int tmp1 = samples[col + 8] + samples[col + 48];
+            int tmp6 = samples[col + 8] - samples[col + 48];
+            int tmp2 = samples[col + 16] + samples[col + 40];
+            int tmp5 = samples[col + 16] - samples[col + 40];
+            int tmp3 = samples[col + 24] + samples[col + 32];
+            int tmp4 = samples[col + 24] - samples[col + 32];
+
+            // Even part
+            int tmp10 = tmp0 + tmp3;
+            int tmp13 = tmp0 - tmp3;
+            int tmp11 = tmp1 + tmp2;
+            int tmp12 = tmp1 - tmp2;
+
+            samples[col] = descale(tmp10 + tmp11, PASS1_BITS);
+            samples[col + 32] = descale(tmp10 - tmp11, PASS1_BITS);
+
+            int z1 = (tmp12 + tmp13) * FIX_0_541196100;
+            samples[col + 16] = descale(z1 + tmp13 * FIX_0_765366865, CONST_BITS + PASS1_BITS);
+            samples[col + 48] = descale(z1 - tmp12 * FIX_1_847759065, CONST_BITS + PASS1_BITS);
+
+            // Odd part
+            z1 = tmp4 + tmp7;
+            int z2 = tmp5 + tmp6;
+            int z3 = tmp4 + tmp6;
+            int z4 = tmp5 + tmp7;
+            int z5 = (z3 + z4) * FIX_1_175875602;
+
+            tmp4 *= FIX_0_298631336;
+            tmp5 *= FIX_2_053119869;
+            tmp6 *= FIX_3_072711026;
+            tmp7 *= FIX_1_501321110;
+            z1 *= -FIX_0_899976223;
+            z2 *= -FIX_2_562915447;
+            z3 = z3 * -FIX_1_961570560 + z5;
+            z4 = z4 * -FIX_0_390180644 + z5;
+
+            samples[col + 56] = descale(tmp4 + z1 + z3, CONST_BITS + PASS1_BITS);
+            samples[col + 40] = descale(tmp5 + z2 + z4, CONST_BITS + PASS1_BITS);
+            samples[col + 24] = descale(tmp6 + z2 + z3, CONST_BITS + PASS1_BITS);
+            samples[col + 8] = descale(tmp7 + z1 + z4, CONST_BITS + PASS1_BITS);
+        }
+
+        // Quantize, rounding to nearest, with halfway values away from zero
+        for (int i = 0; i < 64; i++) {
+            int value = samples[i];
+            int divisor = divisors[i];
+
+            output[offset + i] = (short) (value < 0
+                                          ? -((divisor >> 1) - value) / divisor
+                                          : ((divisor >> 1) + value) / divisor);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.jpeg;
+
+import java.util.concurrent.Executor;
+
+/**
+ * JPEGImageReadParam.
+ * <p>
+ * In addition to the standard JPEG read parameters, allows the reader to decode a scaled down
+ * version of the image directly from the DCT coefficients, when subsampling,
+ * and to use the pure Java decoder instead of the native JRE decoder,
+ * optionally decoding the restart intervals of large images concurrently.
+ * The reader may also be instructed to return an embedded thumbnail instead of the main image,
+ * when the thumbnail is large enough.
+ * </p>
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: JPEGImageReadParam.java,v 1.0 18.10.20 haraldk Exp$
+ */
+public final class JPEGImageReadParam extends javax.imageio.plugins.jpeg.JPEGImageReadParam {
+    /**
+     * The default minimum number of pixels in an image, for it to be decoded concurrently.
+     */
+    public static final long DEFAULT_CONCURRENT_DECODING_THRESHOLD = 4000000;
+
+    private boolean dctScalingEnabled;
+    private boolean javaDecoderEnabled;
+    private boolean regionDecodingEnabled;
+    private Executor executor;
+    private long concurrentDecodingThreshold = DEFAULT_CONCURRENT_DECODING_THRESHOLD;
+    private int preferEmbeddedThumbnailMaxSize;
+
+    /**
+     * Returns whether the reader may decode a scaled down image directly from the DCT coefficients,
+     * when subsampling.
+     *
+     * @return {@code true} if DCT scaling is enabled.
+     */
+    public boolean isDCTScalingEnabled() {
+        return dctScalingEnabled;
+    }
+
+    /**
+     * Sets whether the reader may decode a scaled down image directly from the DCT coefficients,
+     * when subsampling.
+     * <p>
+     * If enabled, and the source subsampling is 2, 4, 8 or a multiple of these, the reader will
+     * decode the image at 1/2, 1/4 or 1/8 of the full size, using a reduced size inverse DCT.
+     * This is much faster than decoding the full image and discarding the unused pixels.
+     * Any remaining subsampling is applied to the scaled down image.
+     * The size of the resulting image is the same as for normal subsampling, but as the pixel values
+     * are (approximately) averaged over each sampling area, rather than sampled from a single pixel,
+     * the pixel values will differ.
+     * Scaled images are always decoded using the pure Java decoder, thus only baseline, extended sequential
+     * and progressive Huffman coded images with 8 bit precision are decoded this way.
+     * For all other images, normal subsampling is used.
+     * The default value is {@code false}.
+     * </p>
+     *
+     * @param enabled {@code true} to enable DCT scaling.
+     */
+    public void setDCTScalingEnabled(final boolean enabled) {
+        dctScalingEnabled = enabled;
+    }
+
+    /**
+     * Returns whether the reader should use the pure Java decoder, rather than the native JRE decoder.
+     *
+     * @return {@code true} if the Java decoder is enabled.
+     */
+    public boolean isJavaDecoderEnabled() {
+        return javaDecoderEnabled;
+    }
+
+    /**
+     * Sets whether the reader should use the pure Java decoder, rather than the native JRE decoder.
+     * <p>
+     * The Java decoder decodes baseline, extended sequential and progressive Huffman coded images
+     * with 8 bit precision, in Gray, RGB, YCbCr, CMYK or YCCK color spaces.
+     * Samples are upsampled and color converted in a single pass, and written directly into
+     * the destination image whenever possible.
+     * Unlike the native decoder, it does not use any global locks, so multiple readers
+     * may decode concurrently.
+     * Other images are always decoded using the native decoder.
+     * The default value is {@code false}.
+     * </p>
+     *
+     * @param enabled {@code true} to enable the Java decoder.
+     */
+    public void setJavaDecoderEnabled(final boolean enabled) {
+        javaDecoderEnabled = enabled;
+    }
+
+    /**
+     * Returns whether the reader may use the pure Java decoder to decode only the part of the image
+     * needed for the source region.
+     *
+     * @return {@code true} if region decoding is enabled.
+     */
+    public boolean isRegionDecodingEnabled() {
+        return regionDecodingEnabled;
+    }
+
+    /**
+     * Sets whether the reader may use the pure Java decoder to decode only the part of the image
+     * needed for the source region.
+     * <p>
+     * The Java decoder stops decoding after the last MCU row intersecting the source region,
+     * and for images with restart markers (a DRI segment), skips the data before the first restart interval
+     * intersecting the source region without decoding it.
+     * If enabled, and the image has restart markers, and the source region starts far enough down in the image
+     * that at least two thirds of the rows up to the end of the region can be skipped,
+     * the image is decoded using the pure Java decoder, even if the Java decoder is not explicitly enabled.
+     * Note that the Java decoder always decodes only the source region this way, regardless of this setting.
+     * The default value is {@code false}.
+     * </p>
+     *
+     * @param enabled {@code true} to enable region decoding.
+     * @see #setJavaDecoderEnabled(boolean)
+     */
+    public void setRegionDecodingEnabled(final boolean enabled) {
+        regionDecodingEnabled = enabled;
+    }
+
+    /**
+     * Returns the executor used for decoding restart intervals concurrently.
+     *
+     * @return the executor, or {@code null} if images are decoded on the calling thread only.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor used for decoding restart intervals concurrently.
+     * <p>
+     * Images that contain restart markers (a DRI segment) may be decoded concurrently,
+     * by splitting the entropy coded data at the restart markers, and decoding each run of
+     * restart intervals as a separate task.
+     * The stream is always read on the calling thread.
+     * Only images decoded using the pure Java decoder, that have at least
+     * {@link #getConcurrentDecodingThreshold()} pixels, are decoded concurrently.
+     * The default value is {@code null}, meaning all images are decoded on the calling thread.
+     * </p>
+     *
+     * @param executor the executor, or {@code null} to decode on the calling thread only.
+     * @see #setJavaDecoderEnabled(boolean)
+     */
+    public void setExecutor(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the minimum number of pixels in an image, for it to be decoded concurrently.
+     *
+     * @return the minimum number of pixels.
+     */
+    public long getConcurrentDecodingThreshold() {
+        return concurrentDecodingThreshold;
+    }
+
+    /**
+     * Sets the minimum number of pixels (width * height of the full image) in an image, for it to be decoded
+     * concurrently, if an {@link #setExecutor(Executor) executor} is set.
+     * For smaller images, the overhead of splitting the data outweighs the gain.
+     * The default value is {@link #DEFAULT_CONCURRENT_DECODING_THRESHOLD}.
+     *
+     * @param threshold the minimum number of pixels, must be {@code >= 0}.
+     */
+    public void setConcurrentDecodingThreshold(final long threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold < 0: " + threshold);
+        }
+
+        concurrentDecodingThreshold = threshold;
+    }
+
+    /**
+     * Returns the maximum render size for which an embedded thumbnail is preferred over the main image.
+     *
+     * @return the maximum render size, or {@code 0} if embedded thumbnails are never preferred.
+     */
+    public int getPreferEmbeddedThumbnail() {
+        return preferEmbeddedThumbnailMaxSize;
+    }
+
+    /**
+     * Sets the maximum render size for which an embedded thumbnail is preferred over the main image.
+     * <p>
+     * If {@code maxSize > 0}, and the image contains an EXIF, JFIF or JFXX thumbnail where the
+     * larger of width and height is at least {@code maxSize} pixels, the reader returns the smallest
+     * such thumbnail, without reading the main image data.
+     * Thumbnails are returned as decoded, with the same orientation as the main image.
+     * Thumbnails are only returned when reading the entire image, that is, when no source region,
+     * destination or destination type is set. The source subsampling is ignored.
+     * If no thumbnail is large enough, or the thumbnail can't be decoded, the main image is read as normal.
+     * The default value is {@code 0}.
+     * </p>
+     *
+     * @param maxSize the maximum render size, or {@code 0} to never prefer embedded thumbnails.
+     * Must be {@code >= 0}.
+     */
+    public void setPreferEmbeddedThumbnail(final int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0: " + maxSize);
+        }
+
+        preferEmbeddedThumbnailMaxSize = maxSize;
+    }
+}
@@ -326,6 +326,11 @@ public final class JPEGImageReader extends ImageReaderBase {
         checkBounds(imageIndex);
         initHeader(imageIndex);
 
+        BufferedImage thumbnail = readPreferredThumbnail(imageIndex, param);
+        if (thumbnail != null) {
+            return thumbnail;
+        }
+
         Frame sof = getSOF();
         ICC_Profile profile = getEmbeddedICCProfile(false);
         AdobeDCT adobeDCT = getAdobeDCT();
@@ -352,9 +357,8 @@ public final class JPEGImageReader extends ImageReaderBase {
                 System.out.println("Reading using Lossless decoder");
             }
 
-            // TODO: What about stream position?
             // TODO: Param handling: Source region, offset, subsampling, destination, destination type, etc....
-            BufferedImage bufferedImage = new JPEGLosslessDecoderWrapper(this).readImage(segments, imageInput);
+            BufferedImage bufferedImage = readLosslessImage();
 
             // TODO: This is QnD, move param handling to lossless wrapper
             // TODO: Create test!
@@ -367,6 +371,16 @@ public final class JPEGImageReader extends ImageReaderBase {
             return bufferedImage;
         }
 
+        int javaDecoderScale = getJavaDecoderScale(param, sof);
+
+        if (javaDecoderScale > 0 && isJavaDecoderSupported(sourceCSType)) {
+            if (DEBUG) {
+                System.out.println("Reading using Java decoder, scale: 1/" + javaDecoderScale);
+            }
+
+            return readImageAsRasterAndReplaceColorProfile(imageIndex, param, sof, sourceCSType, profile, javaDecoderScale);
+        }
+
         // We need to apply ICC profile unless the profile is sRGB/default gray (whatever that is)
         // - or only filter out the bad ICC profiles in the JPEGSegmentImageInputStream.
         else if (delegate.canReadRaster() && (
@@ -383,7 +397,7 @@ public final class JPEGImageReader extends ImageReaderBase {
             }
 
             // TODO: Possible to optimize slightly, to avoid readAsRaster for non-CMYK and other good types?
-            return readImageAsRasterAndReplaceColorProfile(imageIndex, param, sof, sourceCSType, profile);
+            return readImageAsRasterAndReplaceColorProfile(imageIndex, param, sof, sourceCSType, profile, 0);
         }
 
         if (DEBUG) {
@@ -393,7 +407,73 @@ public final class JPEGImageReader extends ImageReaderBase {
         return delegate.read(0, param);
     }
 
-    private BufferedImage readImageAsRasterAndReplaceColorProfile(int imageIndex, ImageReadParam param, Frame startOfFrame, JPEGColorSpace csType, ICC_Profile profile) throws IOException {
+    private BufferedImage readPreferredThumbnail(final int imageIndex, final ImageReadParam param) throws IOException {
+        if (!(param instanceof JPEGImageReadParam) || ((JPEGImageReadParam) param).getPreferEmbeddedThumbnail() <= 0
+                || param.getSourceRegion() != null || param.getDestination() != null || param.getDestinationType() != null) {
+            return null;
+        }
+
+        int maxSize = ((JPEGImageReadParam) param).getPreferEmbeddedThumbnail();
+        Frame sof = getSOF();
+
+        if (Math.max(sof.samplesPerLine, sof.lines) <= maxSize) {
+            return null; // The image itself is small enough
+        }
+
+        // Find the smallest thumbnail that is at least as large as the requested size
+        ThumbnailReader preferred = null;
+        long preferredArea = Long.MAX_VALUE;
+
+        for (ThumbnailReader thumbnail : getThumbnailReaders(imageIndex)) {
+            int width = thumbnail.getWidth();
+            int height = thumbnail.getHeight();
+            long area = (long) width * height;
+
+            if (Math.max(width, height) >= maxSize && area < preferredArea) {
+                preferred = thumbnail;
+                preferredArea = area;
+            }
+        }
+
+        if (preferred == null) {
+            return null;
+        }
+
+        if (DEBUG) {
+            System.out.println("Reading embedded thumbnail: " + preferred.getWidth() + "x" + preferred.getHeight());
+        }
+
+        processImageStarted(imageIndex);
+
+        BufferedImage image;
+        try {
+            image = preferred.read();
+        }
+        catch (IOException e) {
+            // NOTE: Listeners will be notified again, when the main image is read
+            processWarningOccurred("Could not read embedded thumbnail, reading main image instead: " + e.getMessage());
+            return null;
+        }
+
+        processImageComplete();
+
+        return image;
+    }
+
+    private List<ThumbnailReader> getThumbnailReaders(final int imageIndex) throws IOException {
+        try {
+            readThumbnailMetadata(imageIndex);
+        }
+        catch (IOException e) {
+            // Bad thumbnail metadata should not prevent reading the main image
+            processWarningOccurred("Could not read thumbnail metadata: " + e.getMessage());
+            return Collections.emptyList();
+        }
+
+        return thumbnails;
+    }
+
+    private BufferedImage readImageAsRasterAndReplaceColorProfile(int imageIndex, ImageReadParam param, Frame startOfFrame, JPEGColorSpace csType, ICC_Profile profile, int javaDecoderScale) throws IOException {
         int origWidth = getWidth(imageIndex);
         int origHeight = getHeight(imageIndex);
 
@@ -427,7 +507,7 @@ public final class JPEGImageReader extends ImageReaderBase {
                 ));
 
                 if (csType == JPEGColorSpace.CMYK && image.getColorModel().getColorSpace().getType() != ColorSpace.TYPE_CMYK) {
-                    convert = new ColorConvertOp(ColorSpaces.getColorSpace(ColorSpaces.CS_GENERIC_CMYK), image.getColorModel().getColorSpace(), null);
+                    convert = createCMYKConvertOp(ColorSpaces.getColorSpace(ColorSpaces.CS_GENERIC_CMYK), csType, image);
                 }
             }
             // NOTE: Avoid using CCOp if same color space, as it's more compatible that way
@@ -436,7 +516,9 @@ public final class JPEGImageReader extends ImageReaderBase {
                     System.err.println("Converting from " + intendedCS + " to " + (image.getColorModel().getColorSpace().isCS_sRGB() ? "sRGB" : image.getColorModel().getColorSpace()));
                 }
 
-                convert = new ColorConvertOp(intendedCS, image.getColorModel().getColorSpace(), null);
+                convert = csType == JPEGColorSpace.YCCK || csType == JPEGColorSpace.CMYK
+                          ? createCMYKConvertOp(intendedCS, csType, image)
+                          : new ColorConvertOp(intendedCS, image.getColorModel().getColorSpace(), null);
             }
             // Else, pass through with no conversion
         }
@@ -451,7 +533,7 @@ public final class JPEGImageReader extends ImageReaderBase {
 
                 // NOTE: Avoid using CCOp if same color space, as it's more compatible that way
                 if (cmykCS != image.getColorModel().getColorSpace()) {
-                    convert = new ColorConvertOp(cmykCS, image.getColorModel().getColorSpace(), null);
+                    convert = createCMYKConvertOp(cmykCS, csType, image);
                 }
             }
             else {
@@ -470,18 +552,29 @@ public final class JPEGImageReader extends ImageReaderBase {
 
         // We'll need a read param
         Rectangle origSourceRegion;
+        Point origDestinationOffset;
         if (param == null) {
             param = delegate.getDefaultReadParam();
             origSourceRegion = null;
+            origDestinationOffset = null;
         }
         else {
             origSourceRegion = param.getSourceRegion();
+            origDestinationOffset = param.getDestinationOffset();
         }
 
         Rectangle srcRegion = new Rectangle();
         Rectangle dstRegion = new Rectangle();
         computeRegions(param, origWidth, origHeight, image, srcRegion, dstRegion);
 
+        if (javaDecoderScale > 0) {
+            // The lookup conversion does the YCCK/CMYK source transform itself, as part of its single pass
+            JPEGColorSpace decoderCSType = convert instanceof ICCCMYKToRGB ? null : csType;
+            readImageUsingJavaDecoder(param, decoderCSType, javaDecoderScale, srcRegion, convert, destination.createWritableChild(dstRegion.x, dstRegion.y, dstRegion.width, dstRegion.height, 0, 0, param.getDestinationBands()));
+
+            return image;
+        }
+
         // Need to undo the subsampling offset translations, as they are applied again in delegate.readRaster
         int gridX = param.getSubsamplingXOffset();
         int gridY = param.getSubsamplingYOffset();
@@ -502,6 +595,9 @@ public final class JPEGImageReader extends ImageReaderBase {
             else if (csType == JPEGColorSpace.YCbCrA) {
                 convertYCbCr2RGB(raster, 4);
             }
+            else if (convert instanceof ICCCMYKToRGB) {
+                // The lookup conversion does the YCCK/CMYK source transform itself, as part of its single pass
+            }
             else if (csType == JPEGColorSpace.YCCK) {
                 // TODO: Need to rethink this (non-) inversion, see #147
                 // TODO: Allow param to specify inversion, or possibly the PDF decode array
@@ -526,11 +622,165 @@ public final class JPEGImageReader extends ImageReaderBase {
         finally {
             // NOTE: Would be cleaner to clone the param, unfortunately it can't be done easily...
             param.setSourceRegion(origSourceRegion);
+
+            // Some versions of the delegate reset the destination offset in readRaster, without restoring it
+            if (origDestinationOffset != null) {
+                param.setDestinationOffset(origDestinationOffset);
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * Creates the conversion from the CMYK source color space to the color space of the destination.
+     * When converting to sRGB, a single pass lookup table conversion is used,
+     * that also performs the YCCK or Adobe CMYK inversion of the source samples.
+     * Otherwise, a {@code ColorConvertOp} is used, and the source transform must be done up front.
+     */
+    private static RasterOp createCMYKConvertOp(final ColorSpace cmykCS, final JPEGColorSpace csType, final BufferedImage destination) {
+        ColorSpace destinationCS = destination.getColorModel().getColorSpace();
+        WritableRaster raster = destination.getRaster();
+
+        if (cmykCS instanceof ICC_ColorSpace && cmykCS.getType() == ColorSpace.TYPE_CMYK && destinationCS.isCS_sRGB()
+                && (raster.getTransferType() == DataBuffer.TYPE_BYTE || raster.getTransferType() == DataBuffer.TYPE_INT && raster.getNumDataElements() == 1)) {
+            return new ICCCMYKToRGB((ICC_ColorSpace) cmykCS, csType);
+        }
+
+        return new ColorConvertOp(cmykCS, destinationCS, null);
+    }
+
+    /**
+     * Returns the scale denominator to use with the Java decoder for the given param,
+     * or {@code 0} if the image should be read using the delegate.
+     */
+    private int getJavaDecoderScale(final ImageReadParam param, final Frame startOfFrame) {
+        if (!(param instanceof JPEGImageReadParam) || !JPEGDCTDecoder.canDecode(startOfFrame)) {
+            return 0;
+        }
+
+        JPEGImageReadParam jpegParam = (JPEGImageReadParam) param;
+
+        // Largest power of two (up to 8) that divides both subsampling factors
+        int scale = jpegParam.isDCTScalingEnabled()
+                    ? Math.min(8, Integer.lowestOneBit(param.getSourceXSubsampling() | param.getSourceYSubsampling()))
+                    : 1;
+
+        return scale > 1 || jpegParam.isJavaDecoderEnabled() || isRegionDecodingFaster(jpegParam, startOfFrame) ? scale : 0;
+    }
+
+    /**
+     * Returns {@code true} if the Java decoder can skip at least two thirds of the rows the delegate would decode for the source region.
+     * Both stop decoding after the last row of the region, but only the Java decoder can skip the rows before the region,
+     * and only if the stream has restart markers.
+     */
+    private boolean isRegionDecodingFaster(final JPEGImageReadParam param, final Frame startOfFrame) {
+        Rectangle region = param.getSourceRegion();
+
+        if (!param.isRegionDecodingEnabled() || region == null || !hasRestartMarkers()) {
+            return false;
+        }
+
+        int start = Math.max(0, region.y);
+        int end = Math.min(startOfFrame.lines, region.y + region.height);
+
+        return (end - start) * 3L <= end;
+    }
+
+    private boolean hasRestartMarkers() {
+        for (Segment segment : segments) {
+            if (segment instanceof RestartInterval && ((RestartInterval) segment).interval > 0) {
+                return true;
+            }
         }
 
+        return false;
+    }
+
+    private static boolean isJavaDecoderSupported(final JPEGColorSpace csType) {
+        switch (csType) {
+            case Gray:
+            case YCbCr:
+            case RGB:
+            case CMYK:
+            case YCCK:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private JPEGDCTDecoder decodeUsingJavaDecoder(final ImageReadParam param, final int scale, final Rectangle srcRegion) throws IOException {
+        clearAbortRequest();
+        processImageStarted(currentStreamIndex);
+
+        imageInput.seek(streamOffsets.get(currentStreamIndex));
+
+        JPEGDCTDecoder decoder = new JPEGDCTDecoder(imageInput, scale, this);
+        decoder.setRegion(srcRegion);
+
+        // Only large images are worth the overhead of decoding restart intervals concurrently
+        if (param instanceof JPEGImageReadParam && ((JPEGImageReadParam) param).getExecutor() != null) {
+            Frame sof = getSOF();
+
+            if ((long) sof.samplesPerLine * sof.lines >= ((JPEGImageReadParam) param).getConcurrentDecodingThreshold()) {
+                decoder.setExecutor(((JPEGImageReadParam) param).getExecutor());
+            }
+        }
+
+        decoder.decode();
+
+        return decoder;
+    }
+
+    private BufferedImage readLosslessImage() throws IOException {
+        clearAbortRequest();
+        processImageStarted(currentStreamIndex);
+
+        imageInput.seek(streamOffsets.get(currentStreamIndex));
+        BufferedImage image = new JPEGLosslessDecoderWrapper(this).readImage(segments, imageInput);
+
+        processImageCompleteOrAborted();
+
         return image;
     }
 
+    private void processImageCompleteOrAborted() {
+        if (abortRequested()) {
+            processReadAborted();
+        }
+        else {
+            processImageComplete();
+        }
+    }
+
+    private void readImageUsingJavaDecoder(final ImageReadParam param, final JPEGColorSpace csType, final int scale,
+                                           final Rectangle srcRegion, final RasterOp convert, final WritableRaster dest) throws IOException {
+        JPEGDCTDecoder decoder = decodeUsingJavaDecoder(param, scale, srcRegion);
+
+        int xSub = param.getSourceXSubsampling();
+        int ySub = param.getSourceYSubsampling();
+
+        if (convert == null && dest.getTransferType() == DataBuffer.TYPE_BYTE
+                && dest.getNumBands() == decoder.getNumComponents() && dest.getNumDataElements() == decoder.getNumComponents()) {
+            // Upsample, convert and write directly into the destination, no intermediate raster needed
+            decoder.copyTo(dest, srcRegion, xSub, ySub, csType);
+        }
+        else {
+            Raster raster = decoder.createRaster(srcRegion, xSub, ySub, csType);
+
+            // Apply further color conversion for explicit color space, or just copy the pixels into place
+            if (convert != null) {
+                convert.filter(raster, dest);
+            }
+            else {
+                dest.setRect(0, 0, raster);
+            }
+        }
+
+        processImageCompleteOrAborted();
+    }
+
     static JPEGColorSpace getSourceCSType(final JFIF jfif, final AdobeDCT adobeDCT, final Frame startOfFrame) throws IIOException {
         // Adapted from libjpeg jdapimin.c:
         // Guess the input colorspace
@@ -1053,9 +1303,21 @@ public final class JPEGImageReader extends ImageReaderBase {
         initHeader(imageIndex);
 
         if (isLossless()) {
-            // TODO: What about stream position?
             // TODO: Param handling: Reading as raster should support source region, subsampling etc.
-            return new JPEGLosslessDecoderWrapper(this).readRaster(segments, imageInput);
+            return readLosslessImage().getRaster();
+        }
+
+        int javaDecoderScale = getJavaDecoderScale(param, getSOF());
+
+        if (javaDecoderScale > 0) {
+            Rectangle srcRegion = new Rectangle();
+            computeRegions(param, getWidth(imageIndex), getHeight(imageIndex), null, srcRegion, new Rectangle());
+
+            JPEGDCTDecoder decoder = decodeUsingJavaDecoder(param, javaDecoderScale, srcRegion);
+            Raster raster = decoder.createRaster(srcRegion, param.getSourceXSubsampling(), param.getSourceYSubsampling(), null);
+            processImageCompleteOrAborted();
+
+            return raster;
         }
 
         try {
@@ -1081,7 +1343,7 @@ public final class JPEGImageReader extends ImageReaderBase {
 
     @Override
     public ImageReadParam getDefaultReadParam() {
-        return delegate.getDefaultReadParam();
+        return new JPEGImageReadParam();
     }
 
     @Override
@@ -1231,6 +1493,16 @@ public final class JPEGImageReader extends ImageReaderBase {
         super.processWarningOccurred(warning);
     }
 
+    @Override
+    protected void processImageProgress(float percentageDone) {
+        super.processImageProgress(percentageDone);
+    }
+
+    @Override
+    protected synchronized boolean abortRequested() {
+        return super.abortRequested();
+    }
+
     private static void invertCMYK(final Raster raster) {
         byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
 
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.jpeg;
+
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * JPEGImageWriteParam.
+ * <p>
+ * In addition to the standard JPEG write parameters, allows the writer to use the pure Java encoder
+ * instead of the native JRE encoder, optionally encoding large images concurrently.
+ * </p>
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: JPEGImageWriteParam.java,v 1.0 18.10.20 haraldk Exp$
+ */
+public final class JPEGImageWriteParam extends javax.imageio.plugins.jpeg.JPEGImageWriteParam {
+    /**
+     * The default minimum number of pixels in an image, for it to be encoded concurrently.
+     */
+    public static final long DEFAULT_CONCURRENT_ENCODING_THRESHOLD = 1000000;
+
+    private boolean javaEncoderEnabled;
+    private int restartIntervalRows;
+    private Executor executor;
+    private long concurrentEncodingThreshold = DEFAULT_CONCURRENT_ENCODING_THRESHOLD;
+
+    public JPEGImageWriteParam(final Locale locale) {
+        super(locale);
+    }
+
+    /**
+     * Returns whether the writer should use the pure Java encoder, rather than the native JRE encoder.
+     *
+     * @return {@code true} if the Java encoder is enabled.
+     */
+    public boolean isJavaEncoderEnabled() {
+        return javaEncoderEnabled;
+    }
+
+    /**
+     * Sets whether the writer should use the pure Java encoder, rather than the native JRE encoder.
+     * <p>
+     * The Java encoder writes baseline sequential or progressive JFIF images with 8 bit precision,
+     * from gray or sRGB images with 8 bit samples and no alpha, reading the samples directly
+     * from the raster, without any intermediate copy of the image.
+     * The compression quality, progressive mode and optimized Huffman tables settings are honored,
+     * and the source region may be set.
+     * Other images, and images written with metadata, thumbnails, explicit tables, source subsampling,
+     * source bands or a destination type, are always written using the native encoder.
+     * Unlike the native encoder, it does not use any global locks, so multiple writers
+     * may encode concurrently.
+     * The default value is {@code false}.
+     * </p>
+     *
+     * @param enabled {@code true} to enable the Java encoder.
+     */
+    public void setJavaEncoderEnabled(final boolean enabled) {
+        javaEncoderEnabled = enabled;
+    }
+
+    /**
+     * Returns the restart interval used by the Java encoder, in MCU rows.
+     *
+     * @return the number of MCU rows in each restart interval, or {@code 0} for no restart markers.
+     */
+    public int getRestartIntervalRows() {
+        return restartIntervalRows;
+    }
+
+    /**
+     * Sets the restart interval used by the Java encoder, in MCU rows.
+     * <p>
+     * If {@code rows > 0}, sequential images are written with a restart marker (RSTn) after every
+     * {@code rows} MCU rows, allowing decoders to resynchronize after corrupted data,
+     * or to decode the restart intervals concurrently.
+     * Progressive images are always written without restart markers.
+     * The default value is {@code 0}, meaning no restart markers, unless the image is encoded concurrently.
+     * </p>
+     *
+     * @param rows the number of MCU rows in each restart interval, must be {@code >= 0}.
+     * @see #setExecutor(Executor)
+     */
+    public void setRestartIntervalRows(final int rows) {
+        if (rows < 0) {
+            throw new IllegalArgumentException("rows < 0: " + rows);
+        }
+
+        restartIntervalRows = rows;
+    }
+
+    /**
+     * Returns the executor used for encoding concurrently.
+     *
+     * @return the executor, or {@code null} if images are encoded on the calling thread only.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor used for encoding concurrently.
+     * <p>
+     * The forward DCT of each run of MCU rows is computed as a separate task.
+     * Sequential images are written with restart markers, by default after every MCU row,
+     * and each run of restart intervals is also entropy coded as a separate task.
+     * The stream is always written on the calling thread.
+     * Only images encoded using the pure Java encoder, that have at least
+     * {@link #getConcurrentEncodingThreshold()} pixels, are encoded concurrently.
+     * The default value is {@code null}, meaning all images are encoded on the calling thread.
+     * </p>
+     *
+     * @param executor the executor, or {@code null} to encode on the calling thread only.
+     * @see #setJavaEncoderEnabled(boolean)
+     * @see #setRestartIntervalRows(int)
+     */
+    public void setExecutor(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the minimum number of pixels in an image, for it to be encoded concurrently.
+     *
+     * @return the minimum number of pixels.
+     */
+    public long getConcurrentEncodingThreshold() {
+        return concurrentEncodingThreshold;
+    }
+
+    /**
+     * Sets the minimum number of pixels (width * height of the source region) in an image, for it to be encoded
+     * concurrently, if an {@link #setExecutor(Executor) executor} is set.
+     * For smaller images, the overhead of splitting the work outweighs the gain.
+     * The default value is {@link #DEFAULT_CONCURRENT_ENCODING_THRESHOLD}.
+     *
+     * @param threshold the minimum number of pixels, must be {@code >= 0}.
+     */
+    public void setConcurrentEncodingThreshold(final long threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold < 0: " + threshold);
+        }
+
+        concurrentEncodingThreshold = threshold;
+    }
+}
@@ -115,7 +115,7 @@ public final class JPEGImageWriter extends ImageWriterBase {
 
     @Override
     public ImageWriteParam getDefaultWriteParam() {
-        return delegate.getDefaultWriteParam();
+        return new JPEGImageWriteParam(getLocale());
     }
 
     @Override
@@ -155,7 +155,10 @@ public final class JPEGImageWriter extends ImageWriterBase {
 
     @Override
     public void write(final IIOMetadata streamMetadata, final IIOImage image, final ImageWriteParam param) throws IOException {
-        if (isDestinationCMYK(image, param)) {
+        if (isJavaEncoderSupported(streamMetadata, image, param)) {
+            writeUsingJavaEncoder((BufferedImage) image.getRenderedImage(), (JPEGImageWriteParam) param);
+        }
+        else if (isDestinationCMYK(image, param)) {
             writeCMYK(streamMetadata, image, param);
         }
         else {
@@ -174,6 +177,81 @@ public final class JPEGImageWriter extends ImageWriterBase {
         }
     }
 
+    private static boolean isJavaEncoderSupported(final IIOMetadata streamMetadata, final IIOImage image, final ImageWriteParam param) {
+        if (!(param instanceof JPEGImageWriteParam) || !((JPEGImageWriteParam) param).isJavaEncoderEnabled()) {
+            return false;
+        }
+
+        // Metadata, thumbnails and explicit tables are left to the native encoder
+        if (streamMetadata != null || image.getMetadata() != null || image.getNumThumbnails() > 0 || ((JPEGImageWriteParam) param).areTablesSet()) {
+            return false;
+        }
+
+        // Without metadata, MODE_COPY_FROM_METADATA means default quality and non-progressive, as in the native encoder
+        if (param.getDestinationType() != null || param.getSourceBands() != null
+                || param.getSourceXSubsampling() != 1 || param.getSourceYSubsampling() != 1) {
+            return false;
+        }
+
+        if (image.hasRaster() || !(image.getRenderedImage() instanceof BufferedImage)) {
+            return false;
+        }
+
+        // Only 8 bit gray or sRGB without alpha
+        ColorModel colorModel = ((BufferedImage) image.getRenderedImage()).getColorModel();
+        ColorSpace colorSpace = colorModel.getColorSpace();
+
+        if (!(colorModel instanceof ComponentColorModel || colorModel instanceof DirectColorModel) || colorModel.hasAlpha()
+                || !(colorSpace.isCS_sRGB() && colorModel.getNumComponents() == 3
+                     || colorSpace == ColorSpace.getInstance(ColorSpace.CS_GRAY) && colorModel.getNumComponents() == 1)) {
+            return false;
+        }
+
+        for (int size : colorModel.getComponentSize()) {
+            if (size != 8) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void writeUsingJavaEncoder(final BufferedImage image, final JPEGImageWriteParam param) throws IOException {
+        assertOutput();
+        clearAbortRequest();
+
+        Rectangle region = getSourceRegion(param, image.getWidth(), image.getHeight());
+
+        if (region.isEmpty()) {
+            throw new IllegalArgumentException("Empty source region: " + param.getSourceRegion());
+        }
+
+        JPEGDCTEncoder encoder = new JPEGDCTEncoder(imageOutput, this);
+        encoder.setQuality(param.getCompressionMode() == ImageWriteParam.MODE_EXPLICIT
+                           ? param.getCompressionQuality()
+                           : JPEGDCTEncoder.DEFAULT_QUALITY);
+        encoder.setOptimizeHuffmanTables(param.getOptimizeHuffmanTables());
+        encoder.setProgressive(param.getProgressiveMode() == ImageWriteParam.MODE_DEFAULT);
+        encoder.setRestartIntervalRows(param.getRestartIntervalRows());
+
+        if (param.getExecutor() != null && (long) region.width * region.height >= param.getConcurrentEncodingThreshold()) {
+            encoder.setExecutor(param.getExecutor());
+        }
+
+        processImageStarted(0);
+
+        encoder.encode(image.getRaster(), region);
+
+        if (abortRequested()) {
+            processWriteAborted();
+        }
+        else {
+            processImageComplete();
+        }
+
+        imageOutput.flush();
+    }
+
     private boolean isDestinationCMYK(final IIOImage image, final ImageWriteParam param) {
         // If destination type != null, rendered image type doesn't matter
         return !image.hasRaster() && image.getRenderedImage().getColorModel().getColorSpace().getType() == ColorSpace.TYPE_CMYK
@@ -387,6 +465,16 @@ public final class JPEGImageWriter extends ImageWriterBase {
         delegate.endReplacePixels();
     }
 
+    @Override
+    protected void processImageProgress(final float percentageDone) {
+        super.processImageProgress(percentageDone);
+    }
+
+    @Override
+    protected synchronized boolean abortRequested() {
+        return super.abortRequested();
+    }
+
     @Override
     public void abort() {
         super.abort();
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.jpeg;
+
+/**
+ * Inverse DCT implementations, producing 8x8, 4x4, 2x2 or 1x1 pixel blocks from 8x8 dequantized coefficients.
+ * <p>
+ * The 8x8 version is a port of the accurate integer IDCT ({@code jpeg_idct_islow}) of the
+ * Independent JPEG Group's libjpeg, and produces identical results.
+ * The reduced size versions use only the low frequency coefficients, weighted so that the
+ * result equals the average of the corresponding full size samples (before rounding and clamping),
+ * and are used for decoding scaled down images.
+ * </p>
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: JPEGInverseDCT.java,v 1.0 18.10.2020 haraldk Exp$
+ */
+final class JPEGInverseDCT {
+    private static final int CONST_BITS = 13;
+    private static final int PASS1_BITS = 2;
+
+    private static final int FIX_0_298631336 = 2446;
+    private static final int FIX_0_390180644 = 3196;
+    private static final int FIX_0_541196100 = 4433;
+    private static final int FIX_0_765366865 = 6270;
+    private static final int FIX_0_899976223 = 7373;
+    private static final int FIX_1_175875602 = 9633;
+    private static final int FIX_1_501321110 = 12299;
+    private static final int FIX_1_847759065 = 15137;
+    private static final int FIX_1_961570560 = 16069;
+    private static final int FIX_2_053119869 = 16819;
+    private static final int FIX_2_562915447 = 20995;
+    private static final int FIX_3_072711026 = 25172;
+
+    // Reduced size IDCT basis matrices, scaled by 2^CONST_BITS
+    private static final int[] BASIS_4 = createBasis(4);
+    private static final int[] BASIS_2 = createBasis(2);
+
+    private JPEGInverseDCT() {}
+
+    private static int[] createBasis(final int size) {
+        // The average of the 8 point basis function u over S = 8 / N consecutive samples is
+        // cos((2x + 1) * u * PI / 2N) * sin(u * S * PI / 16) / (S * sin(u * PI / 16)),
+        // thus M[x * N + u] = C(u) / 2 * cos((2x + 1) * u * PI / 2N) * gain(u) gives the exact box filtered result
+        int factor = 8 / size;
+        int[] basis = new int[size * size];
+
+        for (int u = 0; u < size; u++) {
+            double c = u == 0 ? 1 / Math.sqrt(2) : 1;
+            double gain = u == 0 ? 1 : Math.sin(u * factor * Math.PI / 16) / (factor * Math.sin(u * Math.PI / 16));
+
+            for (int x = 0; x < size; x++) {
+                basis[x * size + u] = (int) Math.round(c / 2 * gain * Math.cos((2 * x + 1) * u * Math.PI / (2 * size)) * (1 << CONST_BITS));
+            }
+        }
+
+        return basis;
+    }
+
+    private static int descale(final int value, final int bits) {
+        return value + (1 << bits - 1) >> bits;
+    }
+
+    private static byte clamp(final int value) {
+        int sample = value + 128;
+        return (byte) (sample < 0 ? 0 : sample > 255 ? 255 : sample);
+    }
+
+    /**
+     * Full size inverse DCT.
+     *
+     * @param coefficients the dequantized coefficients, in natural order.
+     * @param workspace a workspace of at least 64 elements.
+     * @param output the output samples.
+     * @param offset the offset of the first output sample.
+     * @param stride the distance between output rows.
+     */
+    static void inverseDCT8x8(final int[] coefficients, final int[] workspace, final byte[] output, final int offset, final int stride) {
+        // Pass 1: Process columns from input, store into workspace
+        for (int col = 0; col < 8; col++) {
+            if (coefficients[col + 8] == 0 && coefficients[col + 16] == 0 && coefficients[col + 24] == 0 && coefficients[col + 32] == 0
+                    && coefficients[col + 40] == 0 && coefficients[col + 48] == 0 && coefficients[col + 56] == 0) {
+                // AC terms all zero, common case
+                int dc = coefficients[col] << PASS1_BITS;
+
+                for (int row = 0; row < 64; row += 8) {
+                    workspace[col + row] = dc;
+                }
+
+                continue;
+            }
+
+            // Even part
+            int z2 = coefficients[col + 16];
+            int z3 = coefficients[col + 48];
+
+            int z1 = (z2 + z3) * FIX_0_541196100;
+            int tmp2 = z1 - z3 * FIX_1_847759065;
+            int tmp3 = z1 + z2 * FIX_0_765366865;
+
+            z2 = coefficients[col];
+            z3 = coefficients[col + 32];
+
+            int tmp0 = (z2 + z3) << CONST_BITS;
+            int tmp1 = (z2 - z3) << CONST_BITS;
+
+            int tmp10 = tmp0 + tmp3;
+            int tmp13 = tmp0 - tmp3;
+            int tmp11 = tmp1 + tmp2;
+            int tmp12 = tmp1 - tmp2;
+
+            // Odd part
+            tmp0 = coefficients[col + 56];
+            tmp1 = coefficients[col + 40];
+            tmp2 = coefficients[col + 24];
+            tmp3 = coefficients[col + 8];
+
+            z1 = tmp0 + tmp3;
+            z2 = tmp1 + tmp2;
+            z3 = tmp0 + tmp2;
+            int z4 = tmp1 + tmp3;
+            int z5 = (z3 + z4) * FIX_1_175875602;
+
+            tmp0 *= FIX_0_298631336;
+            tmp1 *= FIX_2_053119869;
+            tmp2 *= FIX_3_072711026;
+            tmp3 *= FIX_1_501321110;
+            z1 *= -FIX_0_899976223;
+            z2 *= -FIX_2_562915447;
+            z3 = z3 * -FIX_1_961570560 + z5;
+            z4 = z4 * -FIX_0_390180644 + z5;
+
+            tmp0 += z1 + z3;
+            tmp1 += z2 + z4;
+            tmp2 += z2 + z3;
+            tmp3 += z1 + z4;
+
+            workspace[col] = descale(tmp10 + tmp3, CONST_BITS - PASS1_BITS);
+            workspace[col + 56] = descale(tmp10 - tmp3, CONST_BITS - PASS1_BITS);
+            workspace[col + 8] = descale(tmp11 + tmp2, CONST_BITS - PASS1_BITS);
+            workspace[col + 48] = descale(tmp11 - tmp2, CONST_BITS - PASS1_BITS);
+            workspace[col + 16] = descale(tmp12 + tmp1, CONST_BITS - PASS1_BITS);
+            workspace[col + 40] = descale(tmp12 - tmp1, CONST_BITS - PASS1_BITS);
+            workspace[col + 24] = descale(tmp13 + tmp0, CONST_BITS - PASS1_BITS);
+            workspace[col + 32] = descale(tmp13 - tmp0, CONST_BITS - PASS1_BITS);
+        }
+
+        // Pass 2: Process rows from workspace, store into output
+        final int bits = CONST_BITS + PASS1_BITS + 3;
+
+        for (int row = 0; row < 64; row += 8) {
+            int out = offset + (row >> 3) * stride;
+
+            // Even part
+            int z2 = workspace[row + 2];
+            int z3 = workspace[row + 6];
+
+            int z1 = (z2 + z3) * FIX_0_541196100;
+            int tmp2 = z1 - z3 * FIX_1_847759065;
+            int tmp3 = z1 + z2 * FIX_0_765366865;
+
+            int tmp0 = (workspace[row] + workspace[row + 4]) << CONST_BITS;
+            int tmp1 = (workspace[row] - workspace[row + 4]) << CONST_BITS;
+
+            int tmp10 = tmp0 + tmp3;
+            int tmp13 = tmp0 - tmp3;
+            int tmp11 = tmp1 + tmp2;
+            int tmp12 = tmp1 - tmp2;
+
+            // Odd part
+            tmp0 = workspace[row + 7];
+            tmp1 = workspace[row + 5];
+            tmp2 = workspace[row + 3];
+            tmp3 = workspace[row + 1];
+
+            z1 = tmp0 + tmp3;
+            z2 = tmp1 + tmp2;
+            z3 = tmp0 + tmp2;
+            int z4 = tmp1 + tmp3;
+            int z5 = (z3 + z4) * FIX_1_175875602;
+
+            tmp0 *= FIX_0_298631336;
+            tmp1 *= FIX_2_053119869;
+            tmp2 *= FIX_3_072711026;
+            tmp3 *= FIX_1_501321110;
+            z1 *= -FIX_0_899976223;
+            z2 *= -FIX_2_562915447;
+            z3 = z3 * -FIX_1_961570560 + z5;
+            z4 = z4 * -FIX_0_390180644 + z5;
+
+            tmp0 += z1 + z3;
+            tmp1 += z2 + z4;
+            tmp2 += z2 + z3;
+            tmp3 += z1 + z4;
+
+            output[out] = clamp(descale(tmp10 + tmp3, bits));
+            output[out + 7] = clamp(descale(tmp10 - tmp3, bits));
+            output[out + 1] = clamp(descale(tmp11 + tmp2, bits));
+            output[out + 6] = clamp(descale(tmp11 - tmp2, bits));
+            output[out + 2] = clamp(descale(tmp12 + tmp1, bits));
+            output[out + 5] = clamp(descale(tmp12 - tmp1, bits));
+            output[out + 3] = clamp(descale(tmp13 + tmp0, bits));
+            output[out + 4] = clamp(descale(tmp13 - tmp0, bits));
+        }
+    }
+
+    /**
+     * Reduced size inverse DCT, producing a 4x4 block from the 4x4 lowest frequency coefficients.
+     *
+     * @param coefficients the dequantized coefficients, in natural order.
+     * @param workspace a workspace of at least 64 elements.
+     * @param output the output samples.
+     * @param offset the offset of the first output sample.
+     * @param stride the distance between output rows.
+     */
+    static void inverseDCT4x4(final int[] coefficients, final int[] workspace, final byte[] output, final int offset, final int stride) {
+        inverseDCTReduced(BASIS_4, 4, coefficients, workspace, output, offset, stride);
+    }
+
+    /**
+     * Reduced size inverse DCT, producing a 2x2 block from the 2x2 lowest frequency coefficients.
+     *
+     * @param coefficients the dequantized coefficients, in natural order.
+     * @param workspace a workspace of at least 64 elements.
+     * @param output the output samples.
+     * @param offset the offset of the first output sample.
+     * @param stride the distance between output rows.
+     */
+    static void inverseDCT2x2(final int[] coefficients, final int[] workspace, final byte[] output, final int offset, final int stride) {
+        inverseDCTReduced(BASIS_2, 2, coefficients, workspace, output, offset, stride);
+    }
+
+    /**
+     * Reduced size inverse DCT, producing a single sample from the DC coefficient.
+     *
+     * @param coefficients the dequantized coefficients, in natural order.
+     * @param output the output samples.
+     * @param offset the offset of the output sample.
+     */
+    static void inverseDCT1x1(final int[] coefficients, final byte[] output, final int offset) {
+        output[offset] = clamp(descale(coefficients[0], 3));
+    }
+
+    private static void inverseDCTReduced(final int[] basis, final int size, final int[] coefficients, final int[] workspace, final byte[] output, final int offset, final int stride) {
+        // Pass 1: Process columns from input, store into workspace
+        for (int u = 0; u < size; u++) {
+            for (int y = 0; y < size; y++) {
+                int sum = 0;
+
+                for (int v = 0; v < size; v++) {
+                    sum += basis[y * size + v] * coefficients[v * 8 + u];
+                }
+
+                workspace[y * 8 + u] = descale(sum, CONST_BITS - PASS1_BITS);
+            }
+        }
+
+        // Pass 2: Process rows from workspace, store into output
+        for (int y = 0; y < size; y++) {
+            int out = offset + y * stride;
+
+            for (int x = 0; x < size; x++) {
+                int sum = 0;
+
+                for (int u = 0; u < size; u++) {
+                    sum += basis[x * size + u] * workspace[y * 8 + u];
+                }
+
+                output[out + x] = clamp(descale(sum, CONST_BITS + PASS1_BITS));
+            }
+        }
+    }
+}
@@ -31,8 +31,6 @@
 
 package com.twelvemonkeys.imageio.plugins.jpeg;
 
-import com.twelvemonkeys.imageio.stream.BufferedImageInputStream;
-
 import javax.imageio.IIOException;
 import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
@@ -77,118 +75,40 @@ final class JPEGLosslessDecoderWrapper {
      * @throws IOException is thrown if the decoder failed or a conversion is not supported
      */
     BufferedImage readImage(final List<Segment> segments, final ImageInputStream input) throws IOException {
-        JPEGLosslessDecoder decoder = new JPEGLosslessDecoder(segments, createBufferedInput(input), listenerDelegate);
+        JPEGLosslessDecoder decoder = new JPEGLosslessDecoder(segments, input, listenerDelegate);
+
+        // TODO: Param handling, subsampling etc.
+        BufferedImage image = createImage(decoder.getNumComponents(), decoder.getPrecision(), decoder.getDimX(), decoder.getDimY());
+
+        // Samples are decoded directly into the image data buffer
+        decoder.decode(image.getRaster());
 
-        // TODO: Allow 10/12/14 bit (using a ComponentColorModel with correct bits, as in TIFF)
-        // TODO: Rewrite this to pass a pre-allocated buffer of correct type (byte/short)/correct bands
-        // TODO: Progress callbacks
-        // TODO: Warning callbacks
-        // Callback can then do subsampling etc.
-        int[][] decoded = decoder.decode();
-        int width = decoder.getDimX();
-        int height = decoder.getDimY();
+        return image;
+    }
 
+    private BufferedImage createImage(final int numComponents, final int precision, final int width, final int height) throws IIOException {
         // Single component, assumed to be Gray
-        if (decoder.getNumComponents() == 1) {
-            switch (decoder.getPrecision()) {
+        if (numComponents == 1) {
+            switch (precision) {
                 case 8:
-                    return to8Bit1ComponentGrayScale(decoded, width, height);
+                    return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
                 case 10:
                 case 12:
                 case 14:
+                    ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), new int[] {precision}, false, false, Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+                    return new BufferedImage(colorModel, colorModel.createCompatibleWritableRaster(width, height), colorModel.isAlphaPremultiplied(), null);
                 case 16:
-                    return to16Bit1ComponentGrayScale(decoded, decoder.getPrecision(), width, height);
+                    return new BufferedImage(width, height, BufferedImage.TYPE_USHORT_GRAY);
             }
         }
         // 3 components, assumed to be RGB
-        else if (decoder.getNumComponents() == 3) {
-            switch (decoder.getPrecision()) {
+        else if (numComponents == 3) {
+            switch (precision) {
                 case 8:
-                    return to24Bit3ComponentRGB(decoded, width, height);
+                    return new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
             }
         }
 
-        throw new IIOException("JPEG Lossless with " + decoder.getPrecision() + " bit precision and " + decoder.getNumComponents() + " component(s) not supported");
-    }
-
-    private ImageInputStream createBufferedInput(final ImageInputStream input) throws IOException {
-        return input instanceof BufferedImageInputStream ? input : new BufferedImageInputStream(input);
-    }
-
-    Raster readRaster(final List<Segment> segments, final ImageInputStream input) throws IOException {
-        // TODO: Can perhaps be implemented faster
-        return readImage(segments, input).getRaster();
-    }
-
-    /**
-     * Converts the decoded buffer into a BufferedImage.
-     * precision: 16 bit, componentCount = 1
-     *
-     * @param decoded data buffer
-     * @param precision
-     * @param width   of the image
-     * @param height  of the image   @return a BufferedImage.TYPE_USHORT_GRAY
-     */
-    private BufferedImage to16Bit1ComponentGrayScale(int[][] decoded, int precision, int width, int height) {
-        BufferedImage image;
-        if (precision == 16) {
-            image = new BufferedImage(width, height, BufferedImage.TYPE_USHORT_GRAY);
-        }
-        else {
-            ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), new int[] {precision}, false, false, Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
-            image = new BufferedImage(colorModel, colorModel.createCompatibleWritableRaster(width, height), colorModel.isAlphaPremultiplied(), null);
-        }
-
-        short[] imageBuffer = ((DataBufferUShort) image.getRaster().getDataBuffer()).getData();
-
-        for (int i = 0; i < imageBuffer.length; i++) {
-            imageBuffer[i] = (short) decoded[0][i];
-        }
-
-        return image;
-    }
-
-    /**
-     * Converts the decoded buffer into a BufferedImage.
-     * precision: 8 bit, componentCount = 1
-     *
-     * @param decoded data buffer
-     * @param width   of the image
-     * @param height  of the image
-     * @return a BufferedImage.TYPE_BYTE_GRAY
-     */
-    private BufferedImage to8Bit1ComponentGrayScale(int[][] decoded, int width, int height) {
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
-        byte[] imageBuffer = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-
-        for (int i = 0; i < imageBuffer.length; i++) {
-            imageBuffer[i] = (byte) decoded[0][i];
-        }
-
-        return image;
+        throw new IIOException("JPEG Lossless with " + precision + " bit precision and " + numComponents + " component(s) not supported");
     }
-
-    /**
-     * Converts the decoded buffer into a BufferedImage.
-     * precision: 8 bit, componentCount = 3
-     *
-     * @param decoded data buffer
-     * @param width   of the image
-     * @param height  of the image
-     * @return a BufferedImage.TYPE_3BYTE_RGB
-     */
-    private BufferedImage to24Bit3ComponentRGB(int[][] decoded, int width, int height) {
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
-        byte[] imageBuffer = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-
-        for (int i = 0; i < imageBuffer.length / 3; i++) {
-            // Convert to RGB (BGR)
-            imageBuffer[i * 3 + 2] = (byte) decoded[0][i];
-            imageBuffer[i * 3 + 1] = (byte) decoded[1][i];
-            imageBuffer[i * 3] = (byte) decoded[2][i];
-        }
-
-        return image;
-    }
-
 }
@@ -0,0 +1,707 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.jpeg;
+
+import com.twelvemonkeys.imageio.metadata.jpeg.JPEG;
+import com.twelvemonkeys.lang.Validate;
+
+import javax.imageio.IIOException;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lossless transformations of JPEG images.
+ * <p>
+ * Rotates, flips or crops a JPEG image, by rearranging the quantized DCT coefficients,
+ * without decoding and re-encoding the samples. There is thus no generation loss, and the
+ * transformation is much faster than decoding, transforming and encoding the image.
+ * The result is written as a sequential JPEG stream, with optimized Huffman tables.
+ * Application (APPn) and comment (COM) segments, like JFIF, Exif, ICC profile and Adobe
+ * segments, are copied to the result as-is, with the exception of the Exif orientation tag,
+ * which is reset when {@link #applyEXIFOrientation(ImageInputStream, ImageOutputStream) applying the
+ * Exif orientation}, and the JFIF pixel density, which is swapped for transposing transforms.
+ * Embedded thumbnails are not transformed.
+ * </p>
+ * <p>
+ * As the DCT blocks can only be moved as whole MCUs (minimum coded units, 8 x 8 to 32 x 32 pixels,
+ * depending on the chroma subsampling), the partial MCU at the right and/or bottom edge of the image
+ * can not be flipped to the left and/or top edge, and is removed from the result
+ * (like the {@code -trim} option of {@code jpegtran}).
+ * Similarly, the top left corner of a crop region is moved to the nearest MCU boundary above and left of it.
+ * </p>
+ * <p>
+ * Only baseline, extended sequential and progressive Huffman coded images with 8 bit precision are supported.
+ * </p>
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: JPEGLosslessTransformer.java,v 1.0 18.10.2020 haraldk Exp$
+ */
+public final class JPEGLosslessTransformer {
+    private static final int RST0 = 0xFFD0;
+    private static final int RST7 = 0xFFD7;
+    private static final int TIFF_ORIENTATION = 0x0112;
+
+    private JPEGLosslessTransformer() {}
+
+    /**
+     * The lossless transforms.
+     * Rotations are clockwise.
+     */
+    public enum Transform {
+        NONE(false, false, false),
+        FLIP_HORIZONTAL(false, true, false),
+        FLIP_VERTICAL(false, false, true),
+        TRANSPOSE(true, false, false),
+        TRANSVERSE(true, true, true),
+        ROTATE_90(true, true, false),
+        ROTATE_180(false, true, true),
+        ROTATE_270(true, false, true);
+
+        // Any transform is a transpose, followed by horizontal and vertical flips
+        final boolean transpose;
+        final boolean flipX;
+        final boolean flipY;
+
+        Transform(final boolean transpose, final boolean flipX, final boolean flipY) {
+            this.transpose = transpose;
+            this.flipX = flipX;
+            this.flipY = flipY;
+        }
+
+        /**
+         * Returns the transform that displays an image with the given Exif (TIFF) orientation
+         * in normal orientation.
+         *
+         * @param orientation the Exif orientation, 1-8.
+         * @return the transform, or {@link #NONE} if the orientation is normal or unknown.
+         */
+        public static Transform fromEXIFOrientation(final int orientation) {
+            switch (orientation) {
+                case 2:
+                    return FLIP_HORIZONTAL;
+                case 3:
+                    return ROTATE_180;
+                case 4:
+                    return FLIP_VERTICAL;
+                case 5:
+                    return TRANSPOSE;
+                case 6:
+                    return ROTATE_90;
+                case 7:
+                    return TRANSVERSE;
+                case 8:
+                    return ROTATE_270;
+                default:
+                    return NONE;
+            }
+        }
+    }
+
+    /**
+     * Transforms a JPEG image.
+     *
+     * @param input the input stream, positioned at the SOI marker.
+     * @param output the output stream.
+     * @param transform the transform.
+     * @throws IOException if an I/O exception occurs, or the stream is not a supported JPEG stream.
+     */
+    public static void transform(final ImageInputStream input, final ImageOutputStream output, final Transform transform) throws IOException {
+        transform(input, output, transform, null);
+    }
+
+    /**
+     * Crops and transforms a JPEG image.
+     *
+     * @param input the input stream, positioned at the SOI marker.
+     * @param output the output stream.
+     * @param transform the transform.
+     * @param cropRegion the region to keep, in the coordinates of the input image, before the transform,
+     *                   or {@code null} to keep the entire image.
+     *                   The top left corner is moved to the nearest MCU boundary above and left of it.
+     * @throws IOException if an I/O exception occurs, or the stream is not a supported JPEG stream.
+     * @throws IllegalArgumentException if the crop region does not intersect the image.
+     */
+    public static void transform(final ImageInputStream input, final ImageOutputStream output, final Transform transform, final Rectangle cropRegion) throws IOException {
+        Validate.notNull(input, "input");
+        Validate.notNull(output, "output");
+        Validate.notNull(transform, "transform");
+
+        transform(input, output, transform, cropRegion, false);
+    }
+
+    /**
+     * Transforms a JPEG image to normal orientation, according to its Exif orientation tag,
+     * and resets the orientation tag.
+     * If the image has no Exif orientation, or it is normal, the image is copied as-is.
+     *
+     * @param input the input stream, positioned at the SOI marker.
+     * @param output the output stream.
+     * @return the transform applied.
+     * @throws IOException if an I/O exception occurs, or the stream is not a supported JPEG stream.
+     */
+    public static Transform applyEXIFOrientation(final ImageInputStream input, final ImageOutputStream output) throws IOException {
+        Validate.notNull(input, "input");
+        Validate.notNull(output, "output");
+
+        return transform(input, output, null, null, true);
+    }
+
+    private static Transform transform(final ImageInputStream input, final ImageOutputStream output, Transform transform,
+                                       final Rectangle cropRegion, final boolean applyOrientation) throws IOException {
+        long start = input.getStreamPosition();
+        List<byte[]> segments = readSegments(input);
+
+        int orientationOffset = -1;
+        if (applyOrientation) {
+            transform = Transform.NONE;
+
+            for (byte[] segment : segments) {
+                orientationOffset = findEXIFOrientation(segment);
+
+                if (orientationOffset >= 0) {
+                    transform = Transform.fromEXIFOrientation(readShort(segment, orientationOffset, isBigEndian(segment)));
+                    writeShort(segment, orientationOffset, isBigEndian(segment), 1);
+                    break;
+                }
+            }
+        }
+
+        input.seek(start);
+
+        if (transform == Transform.NONE && cropRegion == null) {
+            copy(input, output);
+            return transform;
+        }
+
+        JPEGDCTDecoder decoder = new JPEGDCTDecoder(input, 1, createReader());
+        decoder.setCoefficientsOnly(true);
+        decoder.decode();
+
+        if (transform.transpose) {
+            for (byte[] segment : segments) {
+                swapJFIFDensity(segment);
+            }
+        }
+
+        writeTransformed(decoder, segments, output, transform, cropRegion);
+
+        return transform;
+    }
+
+    private static void writeTransformed(final JPEGDCTDecoder decoder, final List<byte[]> segments, final ImageOutputStream output,
+                                         final Transform transform, final Rectangle cropRegion) throws IOException {
+        Frame frame = decoder.getFrame();
+
+        int maxH = 0;
+        int maxV = 0;
+        for (Frame.Component component : frame.components) {
+            maxH = Math.max(maxH, component.hSub);
+            maxV = Math.max(maxV, component.vSub);
+        }
+
+        // The region of the input image to transform, with the top left corner aligned to the MCU grid
+        Rectangle region = new Rectangle(frame.samplesPerLine, frame.lines);
+
+        if (cropRegion != null) {
+            Rectangle intersection = region.intersection(cropRegion);
+            Validate.isTrue(!intersection.isEmpty(), cropRegion, "crop region does not intersect image: %s");
+
+            int x = intersection.x - intersection.x % (8 * maxH);
+            int y = intersection.y - intersection.y % (8 * maxV);
+            region = new Rectangle(x, y, intersection.x + intersection.width - x, intersection.y + intersection.height - y);
+        }
+
+        // Transposing swaps the sampling factors, partial MCUs that would be flipped to the left or top are removed
+        int outMaxH = transform.transpose ? maxV : maxH;
+        int outMaxV = transform.transpose ? maxH : maxV;
+        int outWidth = transform.transpose ? region.height : region.width;
+        int outHeight = transform.transpose ? region.width : region.height;
+
+        if (transform.flipX) {
+            outWidth -= outWidth % (8 * outMaxH);
+        }
+        if (transform.flipY) {
+            outHeight -= outHeight % (8 * outMaxV);
+        }
+
+        if (outWidth == 0 || outHeight == 0) {
+            throw new IIOException(String.format("Image too small for lossless transform %s: %dx%d", transform, region.width, region.height));
+        }
+
+        int mcusX = (outWidth + 8 * outMaxH - 1) / (8 * outMaxH);
+        int mcusY = (outHeight + 8 * outMaxV - 1) / (8 * outMaxV);
+
+        OutputComponent[] components = new OutputComponent[frame.components.length];
+        int[][] quantizationTables = new int[4][];
+
+        for (int i = 0; i < components.length; i++) {
+            Frame.Component component = frame.components[i];
+            int[] quantizationTable = decoder.getQuantizationTable(i);
+
+            if (quantizationTable == null) {
+                throw new IIOException("Corrupt JPEG data: Missing quantization table for component " + component.id);
+            }
+
+            quantizationTables[component.qtSel] = transform.transpose ? transposeTable(quantizationTable) : quantizationTable;
+
+            int h = transform.transpose ? component.vSub : component.hSub;
+            int v = transform.transpose ? component.hSub : component.vSub;
+            OutputComponent outComponent = new OutputComponent(component.id, h, v, component.qtSel, i == 0 ? 0 : 1, mcusX, mcusY);
+            outComponent.blocksX = ((outWidth * h + outMaxH - 1) / outMaxH + 7) / 8;
+            outComponent.blocksY = ((outHeight * v + outMaxV - 1) / outMaxV + 7) / 8;
+
+            transformBlocks(decoder, i, region.x / (8 * maxH) * component.hSub, region.y / (8 * maxV) * component.vSub, transform, outComponent);
+
+            components[i] = outComponent;
+        }
+
+        // Gather statistics for optimal Huffman tables, one scan for all components if possible
+        OutputComponent[][] scans = createScans(components);
+        int numTables = components.length > 1 ? 2 : 1;
+        int[][] dcFrequencies = new int[numTables][256];
+        int[][] acFrequencies = new int[numTables][256];
+
+        for (OutputComponent[] scan : scans) {
+            processScan(scan, mcusX, mcusY, null, null, null, dcFrequencies, acFrequencies);
+        }
+
+        JPEGEntropyEncoder.Table[] dcTables = new JPEGEntropyEncoder.Table[numTables];
+        JPEGEntropyEncoder.Table[] acTables = new JPEGEntropyEncoder.Table[numTables];
+
+        for (int i = 0; i < numTables; i++) {
+            dcTables[i] = JPEGEntropyEncoder.Table.createOptimal(dcFrequencies[i]);
+            acTables[i] = JPEGEntropyEncoder.Table.createOptimal(acFrequencies[i]);
+        }
+
+        // Write the result
+        output.writeShort(JPEG.SOI);
+
+        for (byte[] segment : segments) {
+            output.write(segment);
+        }
+
+        boolean extended = writeDQT(output, quantizationTables);
+        writeSOF(output, extended ? JPEG.SOF1 : JPEG.SOF0, outWidth, outHeight, components);
+        JPEGEntropyEncoder.writeDHT(output, dcTables, 0);
+        JPEGEntropyEncoder.writeDHT(output, acTables, 1);
+
+        for (OutputComponent[] scan : scans) {
+            writeSOS(output, scan);
+
+            JPEGEntropyEncoder encoder = new JPEGEntropyEncoder(output, scan.length);
+            processScan(scan, mcusX, mcusY, encoder, dcTables, acTables, null, null);
+            encoder.finish();
+        }
+
+        output.writeShort(JPEG.EOI);
+        output.flush();
+    }
+
+    private static void transformBlocks(final JPEGDCTDecoder decoder, final int index, final int firstBlockX, final int firstBlockY,
+                                        final Transform transform, final OutputComponent component) {
+        short[] source = decoder.getCoefficients(index);
+        int sourceBlocksPerLine = decoder.getBlocksPerLine(index);
+        int sourceBlocksPerColumn = decoder.getBlocksPerColumn(index);
+
+        short[] destination = component.coefficients;
+        int blocksPerLine = component.blocksPerLine;
+        int blocksPerColumn = component.blocksPerColumn;
+
+        for (int blockY = 0; blockY < blocksPerColumn; blockY++) {
+            for (int blockX = 0; blockX < blocksPerLine; blockX++) {
+                // Flipped axes are always whole MCUs, so the blocks are mirrored around the center
+                int x = transform.flipX ? blocksPerLine - 1 - blockX : blockX;
+                int y = transform.flipY ? blocksPerColumn - 1 - blockY : blockY;
+                int sourceX = firstBlockX + (transform.transpose ? y : x);
+                int sourceY = firstBlockY + (transform.transpose ? x : y);
+
+                if (sourceX >= sourceBlocksPerLine || sourceY >= sourceBlocksPerColumn) {
+                    continue; // Padding outside the input, leave as 0
+                }
+
+                transformBlock(source, (sourceY * sourceBlocksPerLine + sourceX) * 64,
+                        destination, (blockY * blocksPerLine + blockX) * 64, transform);
+            }
+        }
+    }
+
+    private static void transformBlock(final short[] source, final int sourceOffset, final short[] destination, final int offset,
+                                       final Transform transform) {
+        // Mirroring a block negates the coefficients of the odd frequencies along the mirrored axis
+        for (int v = 0; v < 8; v++) {
+            for (int u = 0; u < 8; u++) {
+                int value = source[sourceOffset + (transform.transpose ? u * 8 + v : v * 8 + u)];
+
+                if (transform.flipX && (u & 1) != 0) {
+                    value = -value;
+                }
+                if (transform.flipY && (v & 1) != 0) {
+                    value = -value;
+                }
+
+                destination[offset + v * 8 + u] = (short) value;
+            }
+        }
+    }
+
+    private static int[] transposeTable(final int[] table) {
+        int[] transposed = new int[64];
+
+        for (int v = 0; v < 8; v++) {
+            for (int u = 0; u < 8; u++) {
+                transposed[v * 8 + u] = table[u * 8 + v];
+            }
+        }
+
+        return transposed;
+    }
+
+    private static OutputComponent[][] createScans(final OutputComponent[] components) {
+        int blocksInMCU = 0;
+        for (OutputComponent component : components) {
+            blocksInMCU += component.hSub * component.vSub;
+        }
+
+        if (components.length == 1 || blocksInMCU <= 10) {
+            return new OutputComponent[][] {components};
+        }
+
+        // Too many blocks for an interleaved scan, use one scan per component
+        OutputComponent[][] scans = new OutputComponent[components.length][];
+        for (int i = 0; i < components.length; i++) {
+            scans[i] = new OutputComponent[] {components[i]};
+        }
+
+        return scans;
+    }
+
+    private static void processScan(final OutputComponent[] scanComponents, final int mcusX, final int mcusY, final JPEGEntropyEncoder encoder,
+                                    final JPEGEntropyEncoder.Table[] dcTables, final JPEGEntropyEncoder.Table[] acTables,
+                                    final int[][] dcFrequencies, final int[][] acFrequencies) throws IOException {
+        int[] predictors = new int[scanComponents.length];
+
+        if (scanComponents.length == 1) {
+            // Non-interleaved scans have one block per MCU, and only the blocks inside the component are coded
+            OutputComponent component = scanComponents[0];
+
+            for (int blockY = 0; blockY < component.blocksY; blockY++) {
+                for (int blockX = 0; blockX < component.blocksX; blockX++) {
+                    processBlock(component, 0, blockX, blockY, predictors, encoder, dcTables, acTables, dcFrequencies, acFrequencies);
+                }
+            }
+        }
+        else {
+            for (int mcuY = 0; mcuY < mcusY; mcuY++) {
+                for (int mcuX = 0; mcuX < mcusX; mcuX++) {
+                    for (int i = 0; i < scanComponents.length; i++) {
+                        OutputComponent component = scanComponents[i];
+
+                        for (int v = 0; v < component.vSub; v++) {
+                            for (int h = 0; h < component.hSub; h++) {
+                                processBlock(component, i, mcuX * component.hSub + h, mcuY * component.vSub + v, predictors,
+                                        encoder, dcTables, acTables, dcFrequencies, acFrequencies);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void processBlock(final OutputComponent component, final int index, final int blockX, final int blockY, final int[] predictors,
+                                     final JPEGEntropyEncoder encoder, final JPEGEntropyEncoder.Table[] dcTables, final JPEGEntropyEncoder.Table[] acTables,
+                                     final int[][] dcFrequencies, final int[][] acFrequencies) throws IOException {
+        int offset = (blockY * component.blocksPerLine + blockX) * 64;
+
+        if (encoder != null) {
+            encoder.encodeBlock(component.coefficients, offset, index, dcTables[component.table], acTables[component.table]);
+        }
+        else {
+            predictors[index] = JPEGEntropyEncoder.countSymbols(component.coefficients, offset, predictors[index],
+                    dcFrequencies[component.table], acFrequencies[component.table]);
+        }
+    }
+
+    // Segments
+
+    private static List<byte[]> readSegments(final ImageInputStream input) throws IOException {
+        if (input.readUnsignedShort() != JPEG.SOI) {
+            throw new IIOException("Not a JPEG stream, does not start with SOI marker");
+        }
+
+        // Keep the APPn and COM segments before the first scan, the rest are re-created
+        List<byte[]> segments = new ArrayList<>();
+
+        while (true) {
+            int marker = input.readUnsignedByte();
+            if (marker != 0xff) {
+                throw new IIOException(String.format("Corrupt JPEG data: Expected marker, found 0x%02x", marker));
+            }
+
+            while (marker == 0xff) {
+                marker = input.readUnsignedByte(); // Skip fill bytes
+            }
+
+            marker |= 0xff00;
+
+            if (marker == JPEG.SOS || marker == JPEG.EOI) {
+                break;
+            }
+            if (marker >= RST0 && marker <= RST7 || marker == JPEG.TEM) {
+                continue; // Stand-alone markers without length
+            }
+
+            int length = input.readUnsignedShort();
+            if (length < 2) {
+                throw new IIOException(String.format("Corrupt JPEG data: Bad segment length: %d", length));
+            }
+
+            if (marker >= JPEG.APP0 && marker <= JPEG.APP15 || marker == JPEG.COM) {
+                byte[] segment = new byte[length + 2];
+                segment[0] = (byte) (marker >> 8);
+                segment[1] = (byte) marker;
+                segment[2] = (byte) (length >> 8);
+                segment[3] = (byte) length;
+                input.readFully(segment, 4, length - 2);
+
+                segments.add(segment);
+            }
+            else {
+                input.skipBytes(length - 2);
+            }
+        }
+
+        return segments;
+    }
+
+    private static int findEXIFOrientation(final byte[] segment) {
+        // APP1, length, "Exif\0\0", TIFF structure
+        if (segment.length < 4 + 6 + 8 || (segment[0] & 0xff) != 0xff || (segment[1] & 0xff) != (JPEG.APP1 & 0xff)
+                || segment[4] != 'E' || segment[5] != 'x' || segment[6] != 'i' || segment[7] != 'f' || segment[8] != 0) {
+            return -1;
+        }
+
+        int tiff = 10;
+        boolean bigEndian = isBigEndian(segment);
+        if (!bigEndian && (segment[tiff] != 'I' || segment[tiff + 1] != 'I')) {
+            return -1;
+        }
+
+        int ifd0 = tiff + readInt(segment, tiff + 4, bigEndian);
+        if (ifd0 < tiff || ifd0 + 2 > segment.length) {
+            return -1;
+        }
+
+        int entries = readShort(segment, ifd0, bigEndian);
+
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd0 + 2 + i * 12;
+
+            if (entry + 12 > segment.length) {
+                break;
+            }
+
+            // Orientation is SHORT, count 1, the value is stored in the first 2 bytes of the value field
+            if (readShort(segment, entry, bigEndian) == TIFF_ORIENTATION && readShort(segment, entry + 2, bigEndian) == 3) {
+                return entry + 8;
+            }
+        }
+
+        return -1;
+    }
+
+    private static boolean isBigEndian(final byte[] segment) {
+        return segment[10] == 'M' && segment[11] == 'M';
+    }
+
+    private static int readShort(final byte[] data, final int offset, final boolean bigEndian) {
+        return bigEndian
+               ? (data[offset] & 0xff) << 8 | data[offset + 1] & 0xff
+               : (data[offset + 1] & 0xff) << 8 | data[offset] & 0xff;
+    }
+
+    private static int readInt(final byte[] data, final int offset, final boolean bigEndian) {
+        return bigEndian
+               ? readShort(data, offset, true) << 16 | readShort(data, offset + 2, true)
+               : readShort(data, offset + 2, false) << 16 | readShort(data, offset, false);
+    }
+
+    private static void writeShort(final byte[] data, final int offset, final boolean bigEndian, final int value) {
+        data[offset + (bigEndian ? 0 : 1)] = (byte) (value >> 8);
+        data[offset + (bigEndian ? 1 : 0)] = (byte) value;
+    }
+
+    private static void swapJFIFDensity(final byte[] segment) {
+        // APP0, length, "JFIF\0", version (2), units (1), Xdensity (2), Ydensity (2)
+        if (segment.length >= 4 + 14 && (segment[1] & 0xff) == (JPEG.APP0 & 0xff)
+                && segment[4] == 'J' && segment[5] == 'F' && segment[6] == 'I' && segment[7] == 'F' && segment[8] == 0) {
+            for (int i = 12; i < 14; i++) {
+                byte temp = segment[i];
+                segment[i] = segment[i + 2];
+                segment[i + 2] = temp;
+            }
+        }
+    }
+
+    private static boolean writeDQT(final ImageOutputStream output, final int[][] tables) throws IOException {
+        int length = 2;
+        boolean extended = false;
+
+        for (int[] table : tables) {
+            if (table != null) {
+                boolean precision16 = false;
+                for (int value : table) {
+                    precision16 |= value > 255;
+                }
+
+                length += precision16 ? 129 : 65;
+                extended |= precision16;
+            }
+        }
+
+        output.writeShort(JPEG.DQT);
+        output.writeShort(length);
+
+        for (int id = 0; id < tables.length; id++) {
+            int[] table = tables[id];
+
+            if (table != null) {
+                boolean precision16 = false;
+                for (int value : table) {
+                    precision16 |= value > 255;
+                }
+
+                output.writeByte((precision16 ? 1 : 0) << 4 | id);
+
+                for (int k = 0; k < 64; k++) {
+                    int value = table[JPEGDCTDecoder.NATURAL_ORDER[k]];
+
+                    if (precision16) {
+                        output.writeShort(value);
+                    }
+                    else {
+                        output.writeByte(value);
+                    }
+                }
+            }
+        }
+
+        return extended;
+    }
+
+    private static void writeSOF(final ImageOutputStream output, final int marker, final int width, final int height,
+                                 final OutputComponent[] components) throws IOException {
+        output.writeShort(marker);
+        output.writeShort(8 + 3 * components.length);
+        output.writeByte(8);
+        output.writeShort(height);
+        output.writeShort(width);
+        output.writeByte(components.length);
+
+        for (OutputComponent component : components) {
+            output.writeByte(component.id);
+            output.writeByte(component.hSub << 4 | component.vSub);
+            output.writeByte(component.qtSel);
+        }
+    }
+
+    private static void writeSOS(final ImageOutputStream output, final OutputComponent[] components) throws IOException {
+        output.writeShort(JPEG.SOS);
+        output.writeShort(6 + 2 * components.length);
+        output.writeByte(components.length);
+
+        for (OutputComponent component : components) {
+            output.writeByte(component.id);
+            output.writeByte(component.table << 4 | component.table);
+        }
+
+        output.writeByte(0); // Ss
+        output.writeByte(63); // Se
+        output.writeByte(0); // Ah/Al
+    }
+
+    private static void copy(final ImageInputStream input, final ImageOutputStream output) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+
+        while ((read = input.read(buffer)) > 0) {
+            output.write(buffer, 0, read);
+        }
+
+        output.flush();
+    }
+
+    private static JPEGImageReader createReader() throws IOException {
+        // The decoder reports warnings through the reader
+        JPEGImageReaderSpi provider = IIORegistry.getDefaultInstance().getServiceProviderByClass(JPEGImageReaderSpi.class);
+
+        if (provider == null) {
+            throw new IIOException("No JPEGImageReaderSpi registered");
+        }
+
+        return (JPEGImageReader) provider.createReaderInstance(null);
+    }
+
+    private static final class OutputComponent {
+        final int id;
+        final int hSub;
+        final int vSub;
+        final int qtSel;
+        final int table; // Huffman table id
+
+        // Number of blocks, padded to a full MCU
+        final int blocksPerLine;
+        final int blocksPerColumn;
+        final short[] coefficients;
+
+        // Number of blocks in a non-interleaved scan
+        int blocksX;
+        int blocksY;
+
+        OutputComponent(final int id, final int hSub, final int vSub, final int qtSel, final int table, final int mcusX, final int mcusY) {
+            this.id = id;
+            this.hSub = hSub;
+            this.vSub = vSub;
+            this.qtSel = qtSel;
+            this.table = table;
+
+            blocksPerLine = mcusX * hSub;
+            blocksPerColumn = mcusY * vSub;
+            coefficients = new short[blocksPerLine * blocksPerColumn * 64];
+        }
+    }
+}
@@ -61,43 +61,6 @@ final class QuantizationTable extends Segment {
         super(JPEG.DQT);
     }
 
-    // TODO: Consider creating a copy for the decoder here, as we need to keep the original values for the metadata
-    void enhanceTables() {
-        for (int t = 0; t < 4; t++) {
-            if (tq[t]) {
-                enhanceQuantizationTable(quantTables[t], ZIGZAG);
-            }
-        }
-    }
-
-    private void enhanceQuantizationTable(final int[] qtab, final int[] table) {
-        for (int i = 0; i < 8; i++) {
-            qtab[table[          i]] *=  90;
-            qtab[table[(4 * 8) + i]] *=  90;
-            qtab[table[(2 * 8) + i]] *= 118;
-            qtab[table[(6 * 8) + i]] *=  49;
-            qtab[table[(5 * 8) + i]] *=  71;
-            qtab[table[(    8) + i]] *= 126;
-            qtab[table[(7 * 8) + i]] *=  25;
-            qtab[table[(3 * 8) + i]] *= 106;
-        }
-
-        for (int i = 0; i < 8; i++) {
-            qtab[table[(    8 * i)]] *=  90;
-            qtab[table[4 + (8 * i)]] *=  90;
-            qtab[table[2 + (8 * i)]] *= 118;
-            qtab[table[6 + (8 * i)]] *=  49;
-            qtab[table[5 + (8 * i)]] *=  71;
-            qtab[table[1 + (8 * i)]] *= 126;
-            qtab[table[7 + (8 * i)]] *=  25;
-            qtab[table[3 + (8 * i)]] *= 106;
-        }
-
-        for (int i = 0; i < 64; i++) {
-            qtab[i] >>= 6;
-        }
-    }
-
     @Override
     public String toString() {
         // TODO: Tables...
@@ -168,13 +131,8 @@ final class QuantizationTable extends Segment {
         return precision[tableId];
     }
 
-    int[] qTable(int tabelId) {
-        return quantTables[tabelId];
-    }
-
     JPEGQTable toNativeTable(int tableId) {
         // TODO: Should de-zigzag (ie. "natural order") while reading
-        // TODO: ...and make sure the table isn't "enhanced"...
         int[] qTable = new int[quantTables[tableId].length];
 
         for (int i = 0; i < qTable.length; i++) {
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.jpeg;
+
+import com.twelvemonkeys.imageio.metadata.jpeg.JPEG;
+import com.twelvemonkeys.imageio.metadata.jpeg.JPEGSegment;
+import com.twelvemonkeys.imageio.metadata.jpeg.JPEGSegmentUtil;
+import com.twelvemonkeys.io.FastByteArrayOutputStream;
+import com.twelvemonkeys.io.FileUtil;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * ICCCMYKToRGBTest
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: ICCCMYKToRGBTest.java,v 1.0 18.10.2020 haraldk Exp$
+ */
+public class ICCCMYKToRGBTest {
+    private static ICC_ColorSpace cmykCS;
+
+    @BeforeClass
+    public static void readCMYKColorSpace() throws IOException {
+        // US Web Coated (SWOP) v2 profile, embedded in an RGB image
+        try (ImageInputStream stream = ImageIO.createImageInputStream(ICCCMYKToRGBTest.class.getResource("/jpeg/no-image-types-rgb-us-web-coated-v2-ms-photogallery-exif.jpg"))) {
+            FastByteArrayOutputStream profile = new FastByteArrayOutputStream(1024);
+
+            for (JPEGSegment segment : JPEGSegmentUtil.readSegments(stream, JPEG.APP2, "ICC_PROFILE")) {
+                try (InputStream data = segment.data()) {
+                    data.skip(2); // Chunk number + count
+                    profile.write(FileUtil.read(data));
+                }
+            }
+
+            cmykCS = new ICC_ColorSpace(ICC_Profile.getInstance(profile.toByteArray()));
+        }
+    }
+
+    private static WritableRaster createCMYKRaster(final int width, final int height) {
+        WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, width, height, 4, null);
+        byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+        Random random = new Random(1532946877L);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int offset = (y * width + x) * 4;
+                data[offset] = (byte) (x * 255 / (width - 1));
+                data[offset + 1] = (byte) (y * 255 / (height - 1));
+                data[offset + 2] = (byte) random.nextInt(256);
+                data[offset + 3] = (byte) (x + y);
+            }
+        }
+
+        return raster;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateNull() {
+        new ICCCMYKToRGB(null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateNonCMYK() {
+        new ICCCMYKToRGB((ICC_ColorSpace) ColorSpace.getInstance(ColorSpace.CS_sRGB), null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateUnsupportedSourceType() {
+        new ICCCMYKToRGB(cmykCS, JPEGColorSpace.YCbCr);
+    }
+
+    @Test
+    public void testCreateCompatibleDestRaster() {
+        WritableRaster dest = new ICCCMYKToRGB(cmykCS, null).createCompatibleDestRaster(createCMYKRaster(7, 5));
+
+        assertEquals(7, dest.getWidth());
+        assertEquals(5, dest.getHeight());
+        assertEquals(3, dest.getNumBands());
+        assertEquals(DataBuffer.TYPE_BYTE, dest.getTransferType());
+    }
+
+    @Test
+    public void testFilterSameAsColorConvertOp() {
+        WritableRaster input = createCMYKRaster(256, 256);
+
+        BufferedImage expected = new BufferedImage(256, 256, BufferedImage.TYPE_3BYTE_BGR);
+        new ColorConvertOp(cmykCS, expected.getColorModel().getColorSpace(), null).filter(input, expected.getRaster());
+
+        BufferedImage actual = new BufferedImage(256, 256, BufferedImage.TYPE_3BYTE_BGR);
+        new ICCCMYKToRGB(cmykCS, null).filter(input, actual.getRaster());
+
+        long diff = 0;
+
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int expectedRGB = expected.getRGB(x, y);
+                int actualRGB = actual.getRGB(x, y);
+
+                for (int shift = 0; shift < 24; shift += 8) {
+                    diff += Math.abs((expectedRGB >> shift & 0xff) - (actualRGB >> shift & 0xff));
+                }
+            }
+        }
+
+        // Interpolation differs slightly from the CMM, mostly near the gamut boundary
+        double meanDiff = diff / (256.0 * 256 * 3);
+        assertTrue(String.format("Mean difference from ColorConvertOp too large: %.2f", meanDiff), meanDiff < 1);
+    }
+
+    @Test
+    public void testFilterWhiteAndBlack() {
+        WritableRaster input = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, 2, 1, 4, null);
+        input.setDataElements(1, 0, new byte[] {(byte) 255, (byte) 255, (byte) 255, (byte) 255});
+
+        BufferedImage expected = new BufferedImage(2, 1, BufferedImage.TYPE_3BYTE_BGR);
+        new ColorConvertOp(cmykCS, expected.getColorModel().getColorSpace(), null).filter(input, expected.getRaster());
+
+        BufferedImage actual = new BufferedImage(2, 1, BufferedImage.TYPE_3BYTE_BGR);
+        new ICCCMYKToRGB(cmykCS, null).filter(input, actual.getRaster());
+
+        // Grid points are converted exactly, except for rounding
+        for (int x = 0; x < 2; x++) {
+            for (int b = 0; b < 3; b++) {
+                assertEquals(expected.getRaster().getSample(x, 0, b), actual.getRaster().getSample(x, 0, b), 1);
+            }
+        }
+    }
+
+    @Test
+    public void testFilterYCCK() {
+        WritableRaster input = createCMYKRaster(64, 48);
+        WritableRaster converted = input.createCompatibleWritableRaster();
+        converted.setRect(input);
+        JPEGDCTDecoder.convertRow(((DataBufferByte) converted.getDataBuffer()).getData(), 64 * 48, JPEGColorSpace.YCCK);
+
+        WritableRaster expected = new ICCCMYKToRGB(cmykCS, null).filter(converted, null);
+        WritableRaster actual = new ICCCMYKToRGB(cmykCS, JPEGColorSpace.YCCK).filter(input, null);
+
+        assertArrayEquals(((DataBufferByte) expected.getDataBuffer()).getData(), ((DataBufferByte) actual.getDataBuffer()).getData());
+    }
+
+    @Test
+    public void testFilterInvertedCMYK() {
+        WritableRaster input = createCMYKRaster(64, 48);
+        WritableRaster inverted = input.createCompatibleWritableRaster();
+        byte[] data = ((DataBufferByte) input.getDataBuffer()).getData();
+        byte[] invertedData = ((DataBufferByte) inverted.getDataBuffer()).getData();
+
+        for (int i = 0; i < data.length; i++) {
+            invertedData[i] = (byte) ~data[i];
+        }
+
+        WritableRaster expected = new ICCCMYKToRGB(cmykCS, null).filter(input, null);
+        WritableRaster actual = new ICCCMYKToRGB(cmykCS, JPEGColorSpace.CMYK).filter(inverted, null);
+
+        assertArrayEquals(((DataBufferByte) expected.getDataBuffer()).getData(), ((DataBufferByte) actual.getDataBuffer()).getData());
+    }
+
+    @Test
+    public void testFilterIntRGBSameAsByteBGR() {
+        WritableRaster input = createCMYKRaster(64, 48);
+        ICCCMYKToRGB convert = new ICCCMYKToRGB(cmykCS, null);
+
+        BufferedImage expected = new BufferedImage(64, 48, BufferedImage.TYPE_3BYTE_BGR);
+        convert.filter(input, expected.getRaster());
+
+        for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_4BYTE_ABGR}) {
+            BufferedImage actual = new BufferedImage(64, 48, type);
+            convert.filter(input, actual.getRaster());
+
+            for (int y = 0; y < 48; y++) {
+                for (int x = 0; x < 64; x++) {
+                    assertEquals(String.format("Type %d, (%d, %d)", type, x, y), expected.getRGB(x, y), actual.getRGB(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFilterChildRaster() {
+        WritableRaster input = createCMYKRaster(64, 48);
+        ICCCMYKToRGB convert = new ICCCMYKToRGB(cmykCS, null);
+
+        BufferedImage expected = new BufferedImage(64, 48, BufferedImage.TYPE_3BYTE_BGR);
+        convert.filter(input, expected.getRaster());
+
+        BufferedImage actual = new BufferedImage(80, 60, BufferedImage.TYPE_3BYTE_BGR);
+        convert.filter(input.createChild(16, 8, 32, 24, 0, 0, null), actual.getRaster().createWritableChild(3, 5, 32, 24, 0, 0, null));
+
+        for (int y = 0; y < 24; y++) {
+            for (int x = 0; x < 32; x++) {
+                assertEquals(expected.getRGB(16 + x, 8 + y), actual.getRGB(3 + x, 5 + y));
+            }
+        }
+    }
+}
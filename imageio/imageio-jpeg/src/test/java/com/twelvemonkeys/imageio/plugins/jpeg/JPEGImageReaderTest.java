@@ -34,6 +34,7 @@ import com.twelvemonkeys.imageio.util.ImageReaderAbstractTest;
 import com.twelvemonkeys.lang.StringUtil;
 import org.hamcrest.core.IsInstanceOf;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.internal.matchers.GreaterThan;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
@@ -41,6 +42,7 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import javax.imageio.*;
+import javax.imageio.event.IIOReadProgressListener;
 import javax.imageio.event.IIOReadWarningListener;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.metadata.IIOMetadataFormatImpl;
@@ -50,20 +52,26 @@ import javax.imageio.plugins.jpeg.JPEGQTable;
 import javax.imageio.spi.IIORegistry;
 import javax.imageio.spi.ImageReaderSpi;
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.*;
 import java.awt.color.ColorSpace;
 import java.awt.color.ICC_Profile;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
 import java.io.*;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.twelvemonkeys.imageio.util.IIOUtil.lookupProviderByName;
 import static org.junit.Assert.*;
 import static org.junit.Assume.assumeNoException;
 import static org.junit.Assume.assumeNotNull;
 import static org.mockito.AdditionalMatchers.and;
+import static org.mockito.Matchers.anyFloat;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
@@ -897,6 +905,85 @@ public class JPEGImageReaderTest extends ImageReaderAbstractTest<JPEGImageReader
         assertEquals(120, exifThumb.getHeight());
     }
 
+    @Test
+    public void testReadPreferEmbeddedThumbnail() throws IOException {
+        JPEGImageReader reader = createReader();
+        reader.setInput(ImageIO.createImageInputStream(getClassLoaderResource("/jpeg/jfif-jfif-and-exif-thumbnail-sharpshot-iphone.jpg")));
+
+        JPEGImageReadParam param = (JPEGImageReadParam) reader.getDefaultReadParam();
+
+        // Both thumbnails are large enough, the smallest (131 x 122 JFIF) is preferred
+        param.setPreferEmbeddedThumbnail(100);
+        BufferedImage image = reader.read(0, param);
+        assertEquals(131, image.getWidth());
+        assertEquals(122, image.getHeight());
+
+        // Only the 160 x 120 EXIF thumbnail is large enough
+        param.setPreferEmbeddedThumbnail(150);
+        image = reader.read(0, param);
+        assertEquals(160, image.getWidth());
+        assertEquals(120, image.getHeight());
+
+        BufferedImage expected = reader.readThumbnail(0, 1);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals(String.format("Colors differ at (%d, %d)", x, y), expected.getRGB(x, y), image.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testReadPreferEmbeddedThumbnailProgressListener() throws IOException {
+        JPEGImageReader reader = createReader();
+        reader.setInput(ImageIO.createImageInputStream(getClassLoaderResource("/jpeg/jfif-jfif-and-exif-thumbnail-sharpshot-iphone.jpg")));
+
+        IIOReadProgressListener listener = mock(IIOReadProgressListener.class);
+        reader.addIIOReadProgressListener(listener);
+
+        JPEGImageReadParam param = (JPEGImageReadParam) reader.getDefaultReadParam();
+        param.setPreferEmbeddedThumbnail(100);
+        reader.read(0, param);
+
+        // Image started must be reported before the thumbnail is decoded
+        InOrder ordered = inOrder(listener);
+        ordered.verify(listener).imageStarted(reader, 0);
+        ordered.verify(listener).thumbnailComplete(reader);
+        ordered.verify(listener).imageComplete(reader);
+    }
+
+    @Test
+    public void testReadPreferEmbeddedThumbnailTooSmall() throws IOException {
+        JPEGImageReader reader = createReader();
+        reader.setInput(ImageIO.createImageInputStream(getClassLoaderResource("/jpeg/jfif-jfif-and-exif-thumbnail-sharpshot-iphone.jpg")));
+
+        JPEGImageReadParam param = (JPEGImageReadParam) reader.getDefaultReadParam();
+        param.setPreferEmbeddedThumbnail(161);
+
+        BufferedImage image = reader.read(0, param);
+        assertEquals(reader.getWidth(0), image.getWidth());
+        assertEquals(reader.getHeight(0), image.getHeight());
+    }
+
+    @Test
+    public void testReadPreferEmbeddedThumbnailSourceRegion() throws IOException {
+        JPEGImageReader reader = createReader();
+        reader.setInput(ImageIO.createImageInputStream(getClassLoaderResource("/jpeg/jfif-jfif-and-exif-thumbnail-sharpshot-iphone.jpg")));
+
+        JPEGImageReadParam param = (JPEGImageReadParam) reader.getDefaultReadParam();
+        param.setPreferEmbeddedThumbnail(100);
+        param.setSourceRegion(new Rectangle(10, 10, 200, 200));
+
+        // Source region is in main image coordinates, so the main image must be read
+        BufferedImage image = reader.read(0, param);
+        assertEquals(200, image.getWidth());
+        assertEquals(200, image.getHeight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetPreferEmbeddedThumbnailNegative() {
+        new JPEGImageReadParam().setPreferEmbeddedThumbnail(-1);
+    }
+
     // TODO: Test JFXX indexed thumbnail
     // TODO: Test JFXX RGB thumbnail
 
@@ -1975,4 +2062,535 @@ public class JPEGImageReaderTest extends ImageReaderAbstractTest<JPEGImageReader
             reader.dispose();
         }
     }
+
+    @Test
+    public void testDefaultReadParamDCTScalingDisabled() {
+        JPEGImageReader reader = createReader();
+
+        try {
+            ImageReadParam param = reader.getDefaultReadParam();
+
+            assertThat(param, new IsInstanceOf(JPEGImageReadParam.class));
+            assertFalse(((JPEGImageReadParam) param).isDCTScalingEnabled());
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadDCTScaled() throws IOException {
+        JPEGImageReader reader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/jpeg/gray-sample.jpg"))) {
+            reader.setInput(stream);
+
+            BufferedImage full = reader.read(0, null);
+
+            for (int subsampling : new int[] {2, 3, 4, 8, 16}) {
+                JPEGImageReadParam param = (JPEGImageReadParam) reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+                BufferedImage subsampled = reader.read(0, param);
+
+                param.setDCTScalingEnabled(true);
+                BufferedImage scaled = reader.read(0, param);
+
+                assertEquals(subsampled.getWidth(), scaled.getWidth());
+                assertEquals(subsampled.getHeight(), scaled.getHeight());
+                assertEquals(subsampled.getType(), scaled.getType());
+
+                if (subsampling != 3 && subsampling != 16) {
+                    assertBoxAveraged(full.getRaster(), new Rectangle(386, 396), scaled.getRaster(), subsampling, 1.5);
+                }
+            }
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadDCTScaledSourceRegion() throws IOException {
+        JPEGImageReader reader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/jpeg/cmm-exception-srgb.jpg"))) {
+            reader.setInput(stream);
+
+            Rectangle region = new Rectangle(96, 48, 800, 600);
+            JPEGImageReadParam param = (JPEGImageReadParam) reader.getDefaultReadParam();
+            param.setSourceRegion(region);
+
+            BufferedImage full = reader.read(0, param);
+
+            param.setSourceSubsampling(4, 4, 0, 0);
+            param.setDCTScalingEnabled(true);
+
+            BufferedImage scaled = reader.read(0, param);
+
+            assertEquals(200, scaled.getWidth());
+            assertEquals(150, scaled.getHeight());
+            assertEquals(region, param.getSourceRegion());
+
+            assertBoxAveraged(full.getRaster(), new Rectangle(region.getSize()), scaled.getRaster(), 4, 3);
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadRasterDCTScaled() throws IOException {
+        JPEGImageReader reader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/jpeg/cmyk-sample.jpg"))) {
+            reader.setInput(stream);
+
+            Raster full = reader.readRaster(0, null);
+
+            JPEGImageReadParam param = (JPEGImageReadParam) reader.getDefaultReadParam();
+            param.setSourceSubsampling(8, 8, 0, 0);
+            param.setDCTScalingEnabled(true);
+
+            Raster scaled = reader.readRaster(0, param);
+
+            assertEquals(20, scaled.getWidth());
+            assertEquals(29, scaled.getHeight());
+            assertEquals(4, scaled.getNumBands());
+
+            assertBoxAveraged(full, new Rectangle(160, 227), scaled, 8, 1);
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadJavaDecoderSameAsNative() throws IOException {
+        List<String> resources = Arrays.asList(
+                "/jpeg/cmm-exception-srgb.jpg", // YCbCr 4:2:0
+                "/jpeg/jfif-ycbcr-no-subsampling-intel.jpg", // YCbCr 4:4:4
+                "/jpeg/5dhtsegments.jpg", // Progressive
+                "/jpeg/jfif-16bit-dqt.jpg", // Extended sequential, 16 bit quantization tables
+                "/jpeg/gray-sample.jpg",
+                "/jpeg/cmyk-sample.jpg", // YCCK
+                "/jpeg/adobe-unknown-rgb-ids.jpg" // RGB
+        );
+
+        JPEGImageReader reader = createReader();
+
+        try {
+            for (String resource : resources) {
+                try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource(resource))) {
+                    reader.setInput(stream);
+
+                    BufferedImage expected = reader.read(0, null);
+
+                    JPEGImageReadParam param = (JPEGImageReadParam) reader.getDefaultReadParam();
+                    param.setJavaDecoderEnabled(true);
+                    BufferedImage actual = reader.read(0, param);
+
+                    assertEquals(resource, expected.getType(), actual.getType());
+                    assertRasterEquals(resource, expected.getRaster(), actual.getRaster());
+                    assertRasterEquals(resource, reader.readRaster(0, null), reader.readRaster(0, param));
+                }
+            }
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadJavaDecoderSourceRegionSameAsNative() throws IOException {
+        List<String> resources = Arrays.asList(
+                "/jpeg/gray-sample.jpg", // Restart markers
+                "/jpeg/cmm-exception-srgb.jpg", // YCbCr 4:2:0
+                "/jpeg/5dhtsegments.jpg" // Progressive
+        );
+
+        JPEGImageReader reader = createReader();
+
+        try {
+            for (String resource : resources) {
+                try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource(resource))) {
+                    reader.setInput(stream);
+
+                    int width = reader.getWidth(0);
+                    int height = reader.getHeight(0);
+
+                    Rectangle[] regions = {
+                            new Rectangle(0, 0, width / 3, height / 4),
+                            new Rectangle(width / 3, height / 2, width / 5, height / 7),
+                            new Rectangle(width / 2, height - height / 5, width / 2, height / 5),
+                            new Rectangle(1, 17, width - 2, 3)
+                    };
+
+                    for (Rectangle region : regions) {
+                        JPEGImageReadParam param = (JPEGImageReadParam) reader.getDefaultReadParam();
+                        param.setSourceRegion(region);
+                        Raster expected = reader.readRaster(0, param);
+
+                        param.setJavaDecoderEnabled(true);
+                        assertRasterEquals(resource + " " + region, expected, reader.readRaster(0, param));
+                    }
+                }
+            }
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testDefaultReadParamRegionDecodingDisabled() {
+        JPEGImageReader reader = createReader();
+
+        try {
+            assertFalse(((JPEGImageReadParam) reader.getDefaultReadParam()).isRegionDecodingEnabled());
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadRegionDecodingRestartMarkers() throws IOException {
+        JPEGImageReader reader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(createRestartIntervalJPEG(false)))) {
+            reader.setInput(stream);
+
+            // Region in the lower part of the image, most of the rows before it can be skipped
+            JPEGImageReadParam param = (JPEGImageReadParam) reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(100, 400, 300, 50));
+            param.setRegionDecodingEnabled(false);
+            BufferedImage expected = reader.read(0, param);
+
+            param.setRegionDecodingEnabled(true);
+            BufferedImage actual = reader.read(0, param);
+
+            assertEquals(300, actual.getWidth());
+            assertEquals(50, actual.getHeight());
+            assertRasterEquals("region decoding", expected.getRaster(), actual.getRaster());
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadJavaDecoderConcurrentSameAsNative() throws IOException {
+        List<String> resources = Arrays.asList(
+                "/jpeg/gray-sample.jpg", // DRI 49 MCUs
+                "/jpeg/warning-embedded-color-profile-invalid-ignored-cmyk.jpg" // DRI 23 MCUs
+        );
+
+        JPEGImageReader reader = createReader();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            for (String resource : resources) {
+                try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource(resource))) {
+                    reader.setInput(stream);
+
+                    Raster expected = reader.readRaster(0, null);
+
+                    JPEGImageReadParam param = (JPEGImageReadParam) reader.getDefaultReadParam();
+                    param.setJavaDecoderEnabled(true);
+                    param.setExecutor(executor);
+                    param.setConcurrentDecodingThreshold(0);
+
+                    assertRasterEquals(resource, expected, reader.readRaster(0, param));
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadJavaDecoderConcurrentRestartEveryMCU() throws IOException {
+        // Sequential and progressive, with more restart intervals than fit in a single task
+        for (boolean progressive : new boolean[] {false, true}) {
+            byte[] data = createRestartIntervalJPEG(progressive);
+
+            JPEGImageReader reader = createReader();
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+
+            try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+                reader.setInput(stream);
+
+                BufferedImage expected = reader.read(0, null);
+
+                JPEGImageReadParam param = (JPEGImageReadParam) reader.getDefaultReadParam();
+                param.setJavaDecoderEnabled(true);
+                param.setExecutor(executor);
+                param.setConcurrentDecodingThreshold(0);
+
+                BufferedImage actual = reader.read(0, param);
+
+                assertRasterEquals("progressive: " + progressive, expected.getRaster(), actual.getRaster());
+            }
+            finally {
+                executor.shutdown();
+                reader.dispose();
+            }
+        }
+    }
+
+    @Test
+    public void testReadJavaDecoderConcurrentBelowThreshold() throws IOException {
+        JPEGImageReader reader = createReader();
+        Executor executor = mock(Executor.class);
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/jpeg/gray-sample.jpg"))) {
+            reader.setInput(stream);
+
+            JPEGImageReadParam param = (JPEGImageReadParam) reader.getDefaultReadParam();
+            param.setJavaDecoderEnabled(true);
+            param.setExecutor(executor);
+            assertEquals(JPEGImageReadParam.DEFAULT_CONCURRENT_DECODING_THRESHOLD, param.getConcurrentDecodingThreshold());
+
+            reader.read(0, param);
+
+            verifyZeroInteractions(executor);
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    private static byte[] createRestartIntervalJPEG(final boolean progressive) throws IOException {
+        BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = image.createGraphics();
+
+        try {
+            g.setPaint(new GradientPaint(0, 0, Color.RED, 640, 480, Color.BLUE));
+            g.fillRect(0, 0, 640, 480);
+            g.setColor(Color.WHITE);
+            g.setFont(g.getFont().deriveFont(96f));
+            g.drawString("Restart", 40, 280);
+        }
+        finally {
+            g.dispose();
+        }
+
+        // Use the JRE writer, to write a DRI segment with a restart marker after every MCU
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(output);
+
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (progressive) {
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            }
+
+            IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), param);
+            IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree("javax_imageio_jpeg_image_1.0");
+            IIOMetadataNode dri = new IIOMetadataNode("dri");
+            dri.setAttribute("interval", "1");
+            IIOMetadataNode markerSequence = (IIOMetadataNode) root.getElementsByTagName("markerSequence").item(0);
+            markerSequence.insertBefore(dri, markerSequence.getFirstChild());
+            metadata.setFromTree("javax_imageio_jpeg_image_1.0", root);
+
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        }
+        finally {
+            writer.dispose();
+        }
+
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testReadJavaDecoderSourceRegionSubsamplingDestinationOffset() throws IOException {
+        JPEGImageReader reader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/jpeg/jfif-jfif-and-exif-thumbnail-sharpshot-iphone.jpg"))) {
+            reader.setInput(stream);
+
+            JPEGImageReadParam param = (JPEGImageReadParam) reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(101, 33, 611, 407));
+            param.setSourceSubsampling(3, 2, 1, 1);
+            param.setDestinationOffset(new Point(7, 5));
+
+            BufferedImage expected = reader.read(0, param);
+            assertEquals(new Point(7, 5), param.getDestinationOffset());
+
+            param.setJavaDecoderEnabled(true);
+            BufferedImage actual = reader.read(0, param);
+
+            assertEquals(211, actual.getWidth());
+            assertEquals(208, actual.getHeight());
+            assertEquals(expected.getWidth(), actual.getWidth());
+            assertEquals(expected.getHeight(), actual.getHeight());
+            assertRasterEquals(null, expected.getRaster(), actual.getRaster());
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadJavaDecoderProgressListener() throws IOException {
+        JPEGImageReader reader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/jpeg/gray-sample.jpg"))) {
+            reader.setInput(stream);
+
+            IIOReadProgressListener listener = mock(IIOReadProgressListener.class);
+            reader.addIIOReadProgressListener(listener);
+
+            JPEGImageReadParam param = (JPEGImageReadParam) reader.getDefaultReadParam();
+            param.setJavaDecoderEnabled(true);
+            reader.read(0, param);
+
+            verify(listener).imageStarted(reader, 0);
+            verify(listener, atLeastOnce()).imageProgress(eq(reader), anyFloat());
+            verify(listener).imageComplete(reader);
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadLosslessPointTransform() throws IOException {
+        JPEGImageReader reader = createReader();
+
+        // Encoded with point transform (Al) 1, samples must be scaled back up to the full 8 bit range
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/jpeg-lossless/testimg_rgb.jpg"))) {
+            reader.setInput(stream);
+
+            BufferedImage image = reader.read(0);
+            Raster raster = image.getRaster();
+
+            assertEquals(227, image.getWidth());
+            assertEquals(149, image.getHeight());
+            assertEquals(3, raster.getNumBands());
+
+            int max = 0;
+            int odd = 0;
+
+            for (int y = 0; y < raster.getHeight(); y++) {
+                for (int x = 0; x < raster.getWidth(); x++) {
+                    for (int b = 0; b < raster.getNumBands(); b++) {
+                        int sample = raster.getSample(x, y, b);
+                        max = Math.max(max, sample);
+                        odd |= sample & 1;
+                    }
+                }
+            }
+
+            assertTrue("Samples not scaled to full range: " + max, max > 191);
+            assertEquals("Lowest bit should be 0", 0, odd);
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadLossless16BitGray() throws IOException {
+        JPEGImageReader reader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/jpeg-lossless/16_ls.jpg"))) {
+            reader.setInput(stream);
+
+            BufferedImage image = reader.read(0);
+
+            assertEquals(BufferedImage.TYPE_USHORT_GRAY, image.getType());
+            assertEquals(800, image.getWidth());
+            assertEquals(535, image.getHeight());
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadLosslessRepeated() throws IOException {
+        JPEGImageReader reader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/jpeg-lossless/24_ls.jpg"))) {
+            reader.setInput(stream);
+
+            BufferedImage first = reader.read(0);
+            BufferedImage second = reader.read(0);
+            Raster raster = reader.readRaster(0, null);
+
+            assertRasterEquals("Second read", first.getRaster(), second.getRaster());
+            assertRasterEquals("Raster read", first.getRaster(), raster);
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadLosslessProgressListener() throws IOException {
+        JPEGImageReader reader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/jpeg-lossless/8_ls.jpg"))) {
+            reader.setInput(stream);
+
+            IIOReadProgressListener listener = mock(IIOReadProgressListener.class);
+            reader.addIIOReadProgressListener(listener);
+
+            reader.read(0);
+
+            verify(listener).imageStarted(reader, 0);
+            verify(listener, atLeastOnce()).imageProgress(eq(reader), anyFloat());
+            verify(listener).imageComplete(reader);
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    private static void assertRasterEquals(final String message, final Raster expected, final Raster actual) {
+        assertEquals(message, expected.getBounds(), actual.getBounds());
+        assertEquals(message, expected.getNumBands(), actual.getNumBands());
+
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                for (int b = 0; b < expected.getNumBands(); b++) {
+                    if (expected.getSample(x, y, b) != actual.getSample(x, y, b)) {
+                        fail(String.format("%s: Samples differ at (%d, %d), band %d: expected %d, was %d",
+                                message, x, y, b, expected.getSample(x, y, b), actual.getSample(x, y, b)));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertBoxAveraged(final Raster full, final Rectangle bounds, final Raster scaled, final int factor, final double maxMeanDiff) {
+        long diff = 0;
+
+        for (int y = 0; y < scaled.getHeight(); y++) {
+            for (int x = 0; x < scaled.getWidth(); x++) {
+                for (int b = 0; b < scaled.getNumBands(); b++) {
+                    int sum = 0;
+                    int count = 0;
+
+                    for (int yy = y * factor; yy < Math.min(bounds.height, (y + 1) * factor); yy++) {
+                        for (int xx = x * factor; xx < Math.min(bounds.width, (x + 1) * factor); xx++) {
+                            sum += full.getSample(bounds.x + xx, bounds.y + yy, b);
+                            count++;
+                        }
+                    }
+
+                    diff += Math.abs(scaled.getSample(x, y, b) - Math.round(sum / (float) count));
+                }
+            }
+        }
+
+        double meanDiff = diff / (double) (scaled.getWidth() * scaled.getHeight() * scaled.getNumBands());
+        assertTrue(String.format("Mean difference from box averaged image too large: %.2f", meanDiff), meanDiff <= maxMeanDiff);
+    }
 }
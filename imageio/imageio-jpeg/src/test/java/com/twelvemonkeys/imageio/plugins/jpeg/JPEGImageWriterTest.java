@@ -48,16 +48,20 @@ import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.*;
 import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.*;
 
 /**
  * JPEGImageWriterTest
@@ -176,4 +180,282 @@ public class JPEGImageWriterTest extends ImageWriterAbstractTest {
     }
 
     // TODO: YCCK
+
+    private BufferedImage readJavaEncoderTestImage(final int type) throws IOException {
+        BufferedImage original;
+        try (InputStream stream = getClassLoaderResource("/jpeg/jfif-jfif-and-exif-thumbnail-sharpshot-iphone.jpg").openStream()) {
+            original = ImageIO.read(stream);
+        }
+
+        // Odd size, to test padding of partial MCUs
+        BufferedImage image = new BufferedImage(original.getWidth() - 3, original.getHeight() - 5, type);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.drawImage(original, 0, 0, null);
+        }
+        finally {
+            g.dispose();
+        }
+
+        return image;
+    }
+
+    private JPEGImageWriteParam createJavaEncoderParam(final ImageWriter writer) {
+        JPEGImageWriteParam param = (JPEGImageWriteParam) writer.getDefaultWriteParam();
+        param.setJavaEncoderEnabled(true);
+
+        return param;
+    }
+
+    private byte[] writeJPEG(final ImageWriter writer, final RenderedImage image, final ImageWriteParam param) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+
+        try (ImageOutputStream output = new MemoryCacheImageOutputStream(bytes)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static BufferedImage readJPEG(final byte[] data) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(data));
+    }
+
+    private static int indexOfMarker(final byte[] data, final int marker) {
+        for (int i = 2; i < data.length - 1; i++) {
+            if ((data[i] & 0xff) == marker >> 8 && (data[i + 1] & 0xff) == (marker & 0xff)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static void assertSamplesEqual(final BufferedImage expected, final BufferedImage actual, final int tolerance) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int expectedRGB = expected.getRGB(x, y);
+                int actualRGB = actual.getRGB(x, y);
+
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int difference = Math.abs((expectedRGB >> shift & 0xff) - (actualRGB >> shift & 0xff));
+
+                    if (difference > tolerance) {
+                        fail(String.format("Sample difference %d > %d at (%d, %d): expected %08x, actual %08x",
+                                difference, tolerance, x, y, expectedRGB, actualRGB));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testJavaEncoderSameAsNative() throws IOException {
+        ImageWriter writer = createImageWriter();
+
+        for (int type : new int[] {BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_BYTE_GRAY}) {
+            BufferedImage image = readJavaEncoderTestImage(type);
+
+            byte[] expected = writeJPEG(writer, image, writer.getDefaultWriteParam());
+            byte[] actual = writeJPEG(writer, image, createJavaEncoderParam(writer));
+
+            // Same color conversion, DCT and quantization tables, only the padding of partial MCUs differ
+            assertEquals(expected.length, actual.length, expected.length / 100.0);
+            assertSamplesEqual(readJPEG(expected), readJPEG(actual), 2);
+        }
+    }
+
+    @Test
+    public void testJavaEncoderQuality() throws IOException {
+        ImageWriter writer = createImageWriter();
+        BufferedImage image = readJavaEncoderTestImage(BufferedImage.TYPE_3BYTE_BGR);
+
+        for (float quality : new float[] {0.1f, 0.5f, 0.95f}) {
+            ImageWriteParam nativeParam = writer.getDefaultWriteParam();
+            nativeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            nativeParam.setCompressionQuality(quality);
+
+            JPEGImageWriteParam javaParam = createJavaEncoderParam(writer);
+            javaParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            javaParam.setCompressionQuality(quality);
+
+            byte[] expected = writeJPEG(writer, image, nativeParam);
+            byte[] actual = writeJPEG(writer, image, javaParam);
+
+            assertEquals(expected.length, actual.length, expected.length / 100.0);
+            assertSamplesEqual(readJPEG(expected), readJPEG(actual), 2);
+        }
+    }
+
+    @Test
+    public void testJavaEncoderOptimizedHuffmanTables() throws IOException {
+        ImageWriter writer = createImageWriter();
+        BufferedImage image = readJavaEncoderTestImage(BufferedImage.TYPE_INT_RGB);
+
+        byte[] standard = writeJPEG(writer, image, createJavaEncoderParam(writer));
+
+        JPEGImageWriteParam param = createJavaEncoderParam(writer);
+        param.setOptimizeHuffmanTables(true);
+        byte[] optimized = writeJPEG(writer, image, param);
+
+        // Same coefficients, only the entropy coding differs
+        assertTrue(optimized.length < standard.length);
+        assertSamplesEqual(readJPEG(standard), readJPEG(optimized), 0);
+    }
+
+    @Test
+    public void testJavaEncoderProgressive() throws IOException {
+        ImageWriter writer = createImageWriter();
+
+        for (int type : new int[] {BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY}) {
+            BufferedImage image = readJavaEncoderTestImage(type);
+            byte[] sequential = writeJPEG(writer, image, createJavaEncoderParam(writer));
+
+            JPEGImageWriteParam param = createJavaEncoderParam(writer);
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            byte[] progressive = writeJPEG(writer, image, param);
+
+            assertTrue(indexOfMarker(progressive, 0xffc2) > 0); // SOF2
+            assertTrue(progressive.length < sequential.length);
+
+            BufferedImage expected = readJPEG(sequential);
+            assertSamplesEqual(expected, readJPEG(progressive), 0);
+
+            // Also decodable by the Java decoder
+            ImageReader reader = ImageIO.getImageReader(writer);
+            try {
+                reader.setInput(new ByteArrayImageInputStream(progressive));
+
+                JPEGImageReadParam readParam = (JPEGImageReadParam) reader.getDefaultReadParam();
+                readParam.setJavaDecoderEnabled(true);
+
+                assertSamplesEqual(expected, reader.read(0, readParam), 0);
+            }
+            finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    @Test
+    public void testJavaEncoderRestartInterval() throws IOException {
+        ImageWriter writer = createImageWriter();
+        BufferedImage image = readJavaEncoderTestImage(BufferedImage.TYPE_3BYTE_BGR);
+
+        byte[] expected = writeJPEG(writer, image, createJavaEncoderParam(writer));
+        assertEquals(-1, indexOfMarker(expected, 0xffdd)); // No DRI
+
+        JPEGImageWriteParam param = createJavaEncoderParam(writer);
+        param.setRestartIntervalRows(2);
+        byte[] actual = writeJPEG(writer, image, param);
+
+        int dri = indexOfMarker(actual, 0xffdd);
+        assertTrue(dri > 0);
+        assertEquals(2 * ((image.getWidth() + 15) / 16), (actual[dri + 4] & 0xff) << 8 | actual[dri + 5] & 0xff);
+        assertTrue(indexOfMarker(actual, 0xffd7) > dri); // RST7
+
+        assertSamplesEqual(readJPEG(expected), readJPEG(actual), 0);
+    }
+
+    @Test
+    public void testJavaEncoderConcurrent() throws IOException {
+        ImageWriter writer = createImageWriter();
+        BufferedImage image = readJavaEncoderTestImage(BufferedImage.TYPE_3BYTE_BGR);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            for (boolean optimize : new boolean[] {false, true}) {
+                for (int progressiveMode : new int[] {ImageWriteParam.MODE_DISABLED, ImageWriteParam.MODE_DEFAULT}) {
+                    JPEGImageWriteParam param = createJavaEncoderParam(writer);
+                    param.setOptimizeHuffmanTables(optimize);
+                    param.setProgressiveMode(progressiveMode);
+                    param.setRestartIntervalRows(1);
+
+                    byte[] expected = writeJPEG(writer, image, param);
+
+                    param.setExecutor(executor);
+                    param.setConcurrentEncodingThreshold(0);
+                    byte[] actual = writeJPEG(writer, image, param);
+
+                    // Same restart intervals and tables, regardless of how the work is split
+                    assertArrayEquals(expected, actual);
+                }
+            }
+
+            // Restart markers are inserted by default
+            JPEGImageWriteParam param = createJavaEncoderParam(writer);
+            byte[] expected = writeJPEG(writer, image, param);
+
+            param.setExecutor(executor);
+            param.setConcurrentEncodingThreshold(0);
+            byte[] actual = writeJPEG(writer, image, param);
+
+            assertTrue(indexOfMarker(actual, 0xffdd) > 0);
+            assertSamplesEqual(readJPEG(expected), readJPEG(actual), 0);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testJavaEncoderSourceRegion() throws IOException {
+        ImageWriter writer = createImageWriter();
+        BufferedImage image = readJavaEncoderTestImage(BufferedImage.TYPE_3BYTE_BGR);
+        Rectangle region = new Rectangle(13, 7, 101, 59);
+
+        JPEGImageWriteParam param = createJavaEncoderParam(writer);
+        param.setSourceRegion(region);
+        byte[] actual = writeJPEG(writer, image, param);
+
+        // A sub image shares the raster data, but has a translated sample model
+        byte[] subimage = writeJPEG(writer, image.getSubimage(region.x, region.y, region.width, region.height), createJavaEncoderParam(writer));
+        assertArrayEquals(subimage, actual);
+
+        BufferedImage copy = new BufferedImage(region.width, region.height, BufferedImage.TYPE_3BYTE_BGR);
+        copy.setData(image.getData(region).createTranslatedChild(0, 0));
+        assertArrayEquals(writeJPEG(writer, copy, createJavaEncoderParam(writer)), actual);
+    }
+
+    @Test
+    public void testJavaEncoderGenericRaster() throws IOException {
+        ImageWriter writer = createImageWriter();
+        BufferedImage image = readJavaEncoderTestImage(BufferedImage.TYPE_3BYTE_BGR);
+
+        // Banded raster, no direct data access
+        BufferedImage banded = ImageTypeSpecifier.createBanded(ColorSpace.getInstance(ColorSpace.CS_sRGB), new int[] {0, 1, 2}, new int[] {0, 0, 0},
+                DataBufferByte.TYPE_BYTE, false, false).createBufferedImage(image.getWidth(), image.getHeight());
+        banded.setData(image.getRaster());
+
+        assertArrayEquals(writeJPEG(writer, image, createJavaEncoderParam(writer)), writeJPEG(writer, banded, createJavaEncoderParam(writer)));
+    }
+
+    @Test
+    public void testJavaEncoderFallbackToNative() throws IOException {
+        ImageWriter writer = createImageWriter();
+        BufferedImage image = readJavaEncoderTestImage(BufferedImage.TYPE_3BYTE_BGR);
+
+        // Subsampling is not supported by the Java encoder
+        ImageWriteParam nativeParam = writer.getDefaultWriteParam();
+        nativeParam.setSourceSubsampling(2, 2, 0, 0);
+
+        JPEGImageWriteParam javaParam = createJavaEncoderParam(writer);
+        javaParam.setSourceSubsampling(2, 2, 0, 0);
+
+        assertArrayEquals(writeJPEG(writer, image, nativeParam), writeJPEG(writer, image, javaParam));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testJavaEncoderRestartIntervalNegative() {
+        new JPEGImageWriteParam(null).setRestartIntervalRows(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testJavaEncoderConcurrentThresholdNegative() {
+        new JPEGImageWriteParam(null).setConcurrentEncodingThreshold(-1);
+    }
 }
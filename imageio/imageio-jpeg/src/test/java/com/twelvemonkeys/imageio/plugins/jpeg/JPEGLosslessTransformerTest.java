@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.jpeg;
+
+import com.twelvemonkeys.imageio.plugins.jpeg.JPEGLosslessTransformer.Transform;
+import com.twelvemonkeys.io.FileUtil;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import static org.junit.Assert.*;
+
+/**
+ * JPEGLosslessTransformerTest
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: JPEGLosslessTransformerTest.java,v 1.0 18.10.2020 haraldk Exp$
+ */
+public class JPEGLosslessTransformerTest {
+
+    private static URL getResource(final String name) {
+        return JPEGLosslessTransformerTest.class.getResource(name);
+    }
+
+    private static byte[] transform(final URL resource, final Transform transform, final Rectangle cropRegion) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ImageInputStream input = ImageIO.createImageInputStream(resource.openStream());
+             ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+            JPEGLosslessTransformer.transform(input, output, transform, cropRegion);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static JPEGDCTDecoder decodeCoefficients(final ImageInputStream input) throws IOException {
+        JPEGDCTDecoder decoder = new JPEGDCTDecoder(input, 1, (JPEGImageReader) ImageIO.getImageReadersByFormatName("JPEG").next());
+        decoder.setCoefficientsOnly(true);
+        decoder.decode();
+
+        return decoder;
+    }
+
+    @Test
+    public void testTransformCoefficients() throws IOException {
+        // 4:2:0 subsampled YCbCr, 1168 x 1088, so all edges are whole MCUs
+        URL resource = getResource("/jpeg/jfif-jfif-and-exif-thumbnail-sharpshot-iphone.jpg");
+        JPEGDCTDecoder original = decodeCoefficients(ImageIO.createImageInputStream(resource.openStream()));
+
+        for (Transform transform : Transform.values()) {
+            JPEGDCTDecoder transformed = decodeCoefficients(ImageIO.createImageInputStream(new ByteArrayInputStream(transform(resource, transform, null))));
+
+            assertEquals(original.getNumComponents(), transformed.getNumComponents());
+
+            for (int c = 0; c < original.getNumComponents(); c++) {
+                short[] expected = original.getCoefficients(c);
+                short[] actual = transformed.getCoefficients(c);
+                int blocksPerLine = original.getBlocksPerLine(c);
+                int blocksPerColumn = original.getBlocksPerColumn(c);
+
+                assertEquals(transform.transpose ? blocksPerColumn : blocksPerLine, transformed.getBlocksPerLine(c));
+                assertEquals(transform.transpose ? blocksPerLine : blocksPerColumn, transformed.getBlocksPerColumn(c));
+
+                short[] transformedExpected = new short[actual.length];
+
+                for (int blockY = 0; blockY < transformed.getBlocksPerColumn(c); blockY++) {
+                    for (int blockX = 0; blockX < transformed.getBlocksPerLine(c); blockX++) {
+                        int x = transform.flipX ? transformed.getBlocksPerLine(c) - 1 - blockX : blockX;
+                        int y = transform.flipY ? transformed.getBlocksPerColumn(c) - 1 - blockY : blockY;
+                        int sourceOffset = ((transform.transpose ? x : y) * blocksPerLine + (transform.transpose ? y : x)) * 64;
+                        int offset = (blockY * transformed.getBlocksPerLine(c) + blockX) * 64;
+
+                        for (int v = 0; v < 8; v++) {
+                            for (int u = 0; u < 8; u++) {
+                                int value = expected[sourceOffset + (transform.transpose ? u * 8 + v : v * 8 + u)];
+                                int sign = (transform.flipX && (u & 1) != 0 ? -1 : 1) * (transform.flipY && (v & 1) != 0 ? -1 : 1);
+
+                                transformedExpected[offset + v * 8 + u] = (short) (sign * value);
+                            }
+                        }
+                    }
+                }
+
+                assertArrayEquals(String.format("%s: Coefficients of component %d differ", transform, c), transformedExpected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testTransformTrimsPartialMCUs() throws IOException {
+        // Gray, 386 x 396, partial blocks at the right and bottom edges
+        URL resource = getResource("/jpeg/gray-sample.jpg");
+
+        assertSize(386, 396, transform(resource, Transform.NONE, null));
+        assertSize(384, 396, transform(resource, Transform.FLIP_HORIZONTAL, null));
+        assertSize(386, 392, transform(resource, Transform.FLIP_VERTICAL, null));
+        assertSize(384, 392, transform(resource, Transform.ROTATE_180, null));
+        assertSize(396, 386, transform(resource, Transform.TRANSPOSE, null));
+        assertSize(392, 386, transform(resource, Transform.ROTATE_90, null));
+        assertSize(396, 384, transform(resource, Transform.ROTATE_270, null));
+        assertSize(392, 384, transform(resource, Transform.TRANSVERSE, null));
+    }
+
+    @Test
+    public void testTransformNoneCopiesStream() throws IOException {
+        URL resource = getResource("/jpeg/gray-sample.jpg");
+
+        try (InputStream stream = resource.openStream()) {
+            assertArrayEquals(FileUtil.read(stream), transform(resource, Transform.NONE, null));
+        }
+    }
+
+    @Test
+    public void testCrop() throws IOException {
+        // Gray, MCU is 8 x 8 pixels, top left corner is moved to (8, 16)
+        URL resource = getResource("/jpeg/gray-sample.jpg");
+        BufferedImage original = ImageIO.read(resource);
+        BufferedImage cropped = ImageIO.read(new ByteArrayInputStream(transform(resource, Transform.NONE, new Rectangle(10, 20, 100, 50))));
+
+        assertEquals(102, cropped.getWidth());
+        assertEquals(54, cropped.getHeight());
+
+        for (int y = 0; y < cropped.getHeight(); y++) {
+            for (int x = 0; x < cropped.getWidth(); x++) {
+                assertEquals(String.format("Pixel differs at (%d, %d)", x, y), original.getRGB(8 + x, 16 + y), cropped.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testCropAndRotate() throws IOException {
+        URL resource = getResource("/jpeg/gray-sample.jpg");
+        BufferedImage original = ImageIO.read(resource);
+        BufferedImage rotated = ImageIO.read(new ByteArrayInputStream(transform(resource, Transform.ROTATE_180, new Rectangle(8, 16, 64, 32))));
+
+        assertEquals(64, rotated.getWidth());
+        assertEquals(32, rotated.getHeight());
+
+        for (int y = 0; y < rotated.getHeight(); y++) {
+            for (int x = 0; x < rotated.getWidth(); x++) {
+                // Allow for rounding differences in the inverse DCT
+                assertRGBEquals(String.format("Pixel differs at (%d, %d)", x, y), original.getRGB(8 + 63 - x, 16 + 31 - y), rotated.getRGB(x, y), 2);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCropOutsideImage() throws IOException {
+        transform(getResource("/jpeg/gray-sample.jpg"), Transform.NONE, new Rectangle(400, 400, 10, 10));
+    }
+
+    @Test
+    public void testApplyEXIFOrientation() throws IOException {
+        BufferedImage expected = ImageIO.read(getResource("/exif/Landscape_1.jpg"));
+
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            URL resource = getResource(String.format("/exif/Landscape_%d.jpg", orientation));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+            try (ImageInputStream input = ImageIO.createImageInputStream(resource.openStream());
+                 ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+                assertEquals(Transform.fromEXIFOrientation(orientation), JPEGLosslessTransformer.applyEXIFOrientation(input, output));
+            }
+
+            byte[] data = bytes.toByteArray();
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+
+            // Partial MCUs flipped to the left or top are removed
+            int offsetX = expected.getWidth() - image.getWidth();
+            int offsetY = expected.getHeight() - image.getHeight();
+            assertTrue(offsetX >= 0 && offsetX < 16);
+            assertTrue(offsetY >= 0 && offsetY < 16);
+
+            // The images are encoded separately, so only compare the average difference
+            long difference = 0;
+            for (int y = 0; y < image.getHeight(); y += 4) {
+                for (int x = 0; x < image.getWidth(); x += 4) {
+                    difference += Math.abs((expected.getRGB(offsetX + x, offsetY + y) & 0xff) - (image.getRGB(x, y) & 0xff));
+                }
+            }
+
+            assertTrue(String.format("Orientation %d: Images differ", orientation), difference / (image.getWidth() / 4 * image.getHeight() / 4) < 5);
+
+            // Orientation tag is reset, so applying the orientation again does nothing
+            ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+                 ImageOutputStream output = ImageIO.createImageOutputStream(copy)) {
+                assertEquals(Transform.NONE, JPEGLosslessTransformer.applyEXIFOrientation(input, output));
+            }
+
+            assertArrayEquals(data, copy.toByteArray());
+        }
+    }
+
+    @Test
+    public void testFromEXIFOrientation() {
+        assertEquals(Transform.NONE, Transform.fromEXIFOrientation(0));
+        assertEquals(Transform.NONE, Transform.fromEXIFOrientation(1));
+        assertEquals(Transform.FLIP_HORIZONTAL, Transform.fromEXIFOrientation(2));
+        assertEquals(Transform.ROTATE_180, Transform.fromEXIFOrientation(3));
+        assertEquals(Transform.FLIP_VERTICAL, Transform.fromEXIFOrientation(4));
+        assertEquals(Transform.TRANSPOSE, Transform.fromEXIFOrientation(5));
+        assertEquals(Transform.ROTATE_90, Transform.fromEXIFOrientation(6));
+        assertEquals(Transform.TRANSVERSE, Transform.fromEXIFOrientation(7));
+        assertEquals(Transform.ROTATE_270, Transform.fromEXIFOrientation(8));
+        assertEquals(Transform.NONE, Transform.fromEXIFOrientation(9));
+    }
+
+    private static void assertSize(final int width, final int height, final byte[] data) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+    }
+
+    private static void assertRGBEquals(final String message, final int expected, final int actual, final int tolerance) {
+        for (int shift = 0; shift < 24; shift += 8) {
+            assertEquals(message, expected >> shift & 0xff, actual >> shift & 0xff, tolerance);
+        }
+    }
+}
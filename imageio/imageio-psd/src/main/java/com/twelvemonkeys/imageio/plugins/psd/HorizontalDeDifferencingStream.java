@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.psd;
+
+import com.twelvemonkeys.lang.Validate;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A decoder for PSD channel data stored using "ZIP with prediction".
+ * <p>
+ * Rows of 1, 8 and 16 bit samples uses the same horizontal differencing predictor as TIFF
+ * (see the TIFF plugin's {@code HorizontalDeDifferencingStream}).
+ * Rows of 32 bit samples are stored with the bytes of each sample split into four planes,
+ * most significant byte first, and the differencing is applied to the bytes of the entire row.
+ * </p>
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: HorizontalDeDifferencingStream.java,v 1.0 18.10.2020 haraldk Exp$
+ */
+final class HorizontalDeDifferencingStream extends InputStream {
+    private final int columns;
+    private final int bitsPerSample;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] planes;
+
+    HorizontalDeDifferencingStream(final InputStream stream, final int columns, final int bitsPerSample) {
+        this.columns = Validate.isTrue(columns > 0, columns, "width must be greater than 0");
+        this.bitsPerSample = Validate.isTrue(bitsPerSample == 1 || bitsPerSample == 8 || bitsPerSample == 16 || bitsPerSample == 32, bitsPerSample, "Unsupported bits per sample value: %s");
+
+        channel = Channels.newChannel(Validate.notNull(stream, "stream"));
+
+        buffer = ByteBuffer.allocate((columns * bitsPerSample + 7) / 8).order(ByteOrder.BIG_ENDIAN);
+        buffer.flip();
+
+        planes = bitsPerSample == 32 ? new byte[buffer.capacity()] : null;
+    }
+
+    @SuppressWarnings("StatementWithEmptyBody")
+    private boolean fetch() throws IOException {
+        buffer.clear();
+
+        // This *SHOULD* read an entire row of pixels (or nothing at all) into the buffer,
+        // otherwise we will throw EOFException below
+        while (channel.read(buffer) > 0);
+
+        if (buffer.position() > 0) {
+            if (buffer.hasRemaining()) {
+                throw new EOFException("Unexpected end of stream");
+            }
+
+            decodeRow();
+            buffer.flip();
+
+            return true;
+        }
+        else {
+            buffer.position(buffer.capacity());
+
+            return false;
+        }
+    }
+
+    private void decodeRow() {
+        // Un-apply horizontal predictor
+        final byte[] array = buffer.array();
+
+        switch (bitsPerSample) {
+            case 1:
+                byte original;
+                byte temp;
+                int sample = 0;
+
+                for (int b = 0; b < (columns + 7) / 8; b++) {
+                    original = array[b];
+                    sample += (original >> 7) & 0x1;
+                    temp = (byte) ((sample << 7) & 0x80);
+                    sample += (original >> 6) & 0x1;
+                    temp |= (byte) ((sample << 6) & 0x40);
+                    sample += (original >> 5) & 0x1;
+                    temp |= (byte) ((sample << 5) & 0x20);
+                    sample += (original >> 4) & 0x1;
+                    temp |= (byte) ((sample << 4) & 0x10);
+                    sample += (original >> 3) & 0x1;
+                    temp |= (byte) ((sample << 3) & 0x08);
+                    sample += (original >> 2) & 0x1;
+                    temp |= (byte) ((sample << 2) & 0x04);
+                    sample += (original >> 1) & 0x1;
+                    temp |= (byte) ((sample << 1) & 0x02);
+                    sample += original & 0x1;
+                    array[b] = (byte) (temp | sample & 0x1);
+                }
+                break;
+
+            case 8:
+                for (int x = 1; x < columns; x++) {
+                    array[x] = (byte) (array[x - 1] + array[x]);
+                }
+                break;
+
+            case 16:
+                for (int x = 1; x < columns; x++) {
+                    buffer.putShort(2 * x, (short) (buffer.getShort(2 * (x - 1)) + buffer.getShort(2 * x)));
+                }
+                break;
+
+            case 32:
+                // Differencing is done on the bytes of the planar row
+                for (int i = 1; i < array.length; i++) {
+                    array[i] = (byte) (array[i - 1] + array[i]);
+                }
+
+                // Interleave the byte planes back into big endian samples
+                System.arraycopy(array, 0, planes, 0, array.length);
+
+                for (int x = 0; x < columns; x++) {
+                    array[4 * x    ] = planes[x];
+                    array[4 * x + 1] = planes[columns + x];
+                    array[4 * x + 2] = planes[2 * columns + x];
+                    array[4 * x + 3] = planes[3 * columns + x];
+                }
+                break;
+
+            default:
+                throw new AssertionError(String.format("Unsupported bits per sample value: %d", bitsPerSample));
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!buffer.hasRemaining()) {
+            if (!fetch()) {
+                return -1;
+            }
+        }
+
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (!buffer.hasRemaining()) {
+            if (!fetch()) {
+                return -1;
+            }
+        }
+
+        int read = Math.min(buffer.remaining(), len);
+        buffer.get(b, off, read);
+
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n < 0) {
+            return 0;
+        }
+
+        if (!buffer.hasRemaining()) {
+            if (!fetch()) {
+                return 0; // SIC
+            }
+        }
+
+        int skipped = (int) Math.min(buffer.remaining(), n);
+        buffer.position(buffer.position() + skipped);
+
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        }
+        finally {
+            if (channel.isOpen()) {
+                channel.close();
+            }
+        }
+    }
+}
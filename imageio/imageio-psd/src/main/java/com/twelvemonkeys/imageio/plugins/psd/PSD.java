@@ -708,4 +708,35 @@ interface PSD extends com.twelvemonkeys.imageio.metadata.psd.PSD {
     int PxSD = 'P' << 24 | 'x' << 16 | 'S' << 8 | 'D';
     int luni = 'l' << 24 | 'u' << 16 | 'n' << 8 | 'i';
     int lyid = 'l' << 24 | 'y' << 16 | 'i' << 8 | 'd';
+    int lsct = 'l' << 24 | 's' << 16 | 'c' << 8 | 't';
+    int lsdk = 'l' << 24 | 's' << 16 | 'd' << 8 | 'k';
+
+    // Adjustment layers
+    int brit = 'b' << 24 | 'r' << 16 | 'i' << 8 | 't';
+    int levl = 'l' << 24 | 'e' << 16 | 'v' << 8 | 'l';
+    int curv = 'c' << 24 | 'u' << 16 | 'r' << 8 | 'v';
+    int expA = 'e' << 24 | 'x' << 16 | 'p' << 8 | 'A';
+    int vibA = 'v' << 24 | 'i' << 16 | 'b' << 8 | 'A';
+    int hue = 'h' << 24 | 'u' << 16 | 'e' << 8 | ' '; // NOTE: Key is "hue "
+    int hue2 = 'h' << 24 | 'u' << 16 | 'e' << 8 | '2';
+    int blnc = 'b' << 24 | 'l' << 16 | 'n' << 8 | 'c';
+    int blwh = 'b' << 24 | 'l' << 16 | 'w' << 8 | 'h';
+    int phfl = 'p' << 24 | 'h' << 16 | 'f' << 8 | 'l';
+    int mixr = 'm' << 24 | 'i' << 16 | 'x' << 8 | 'r';
+    int clrL = 'c' << 24 | 'l' << 16 | 'r' << 8 | 'L';
+    int nvrt = 'n' << 24 | 'v' << 16 | 'r' << 8 | 't';
+    int post = 'p' << 24 | 'o' << 16 | 's' << 8 | 't';
+    int thrs = 't' << 24 | 'h' << 16 | 'r' << 8 | 's';
+    int grdm = 'g' << 24 | 'r' << 16 | 'd' << 8 | 'm';
+    int selc = 's' << 24 | 'e' << 16 | 'l' << 8 | 'c';
+
+    // Section divider types, for the "lsct" additional layer information
+    /** Any other type of layer */
+    int DIVIDER_OTHER = 0;
+    /** Open folder (layer group) */
+    int DIVIDER_OPEN_FOLDER = 1;
+    /** Closed folder (layer group) */
+    int DIVIDER_CLOSED_FOLDER = 2;
+    /** Bounding section divider, hidden in the UI */
+    int DIVIDER_BOUNDING = 3;
 }
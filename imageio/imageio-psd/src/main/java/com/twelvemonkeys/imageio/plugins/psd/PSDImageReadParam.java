@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.psd;
+
+import javax.imageio.ImageReadParam;
+import java.util.concurrent.Executor;
+
+/**
+ * PSDImageReadParam.
+ * <p>
+ * In addition to the standard read parameters, allows specifying an {@link Executor} that will be used for
+ * decoding the channels of the composite image or a layer concurrently.
+ * The compressed channel data is still read sequentially from the input stream on the calling thread,
+ * and held in memory until the channel is decoded.
+ * Only the decompression and copying of samples into the destination is run concurrently.
+ * </p>
+ * <p>
+ * At most 256 MB of channel data is held in memory at any time. When this limit is reached,
+ * the reader waits for the oldest channels to be decoded, before reading more data.
+ * Channels with more data than the limit are decoded sequentially, on the calling thread.
+ * Only the rows from the first to the last row of the source region sampled are read,
+ * except for ZIP compressed layer channels, that are read in full.
+ * </p>
+ * <p>
+ * Composite image data using ZIP compression is stored as a single stream for all channels,
+ * and is always decoded on the calling thread.
+ * When rendering the composite from the layers, ZIP compressed layer channels are also decoded on the calling thread,
+ * each band continuing from the rows decoded for the previous band.
+ * </p>
+ * <p>
+ * Also allows rendering the composite image from the layers, rather than reading the merged image data
+ * stored in the file.
+ * </p>
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: PSDImageReadParam.java,v 1.0 18.10.2020 haraldk Exp$
+ */
+public final class PSDImageReadParam extends ImageReadParam {
+    private Executor executor;
+    private boolean layerCompositingEnabled;
+
+    /**
+     * Returns the executor used for decoding channels concurrently.
+     *
+     * @return the executor, or {@code null} if channels are decoded on the calling thread.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor used for decoding channels concurrently.
+     * <p>
+     * The default value is {@code null}, meaning all channels are decoded sequentially,
+     * on the calling thread.
+     * The reader will block until all tasks submitted to the executor are completed.
+     * </p>
+     *
+     * @param executor the executor, or {@code null} to decode on the calling thread.
+     */
+    public void setExecutor(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns whether the composite image (image index 0) is rendered from the layers.
+     *
+     * @return {@code true} if layer compositing is enabled.
+     */
+    public boolean isLayerCompositingEnabled() {
+        return layerCompositingEnabled;
+    }
+
+    /**
+     * Sets whether the composite image (image index 0) should be rendered from the layers.
+     * <p>
+     * The default value is {@code false}, meaning the merged image data stored in the file is read.
+     * Enabling compositing is useful for documents saved without "maximize compatibility",
+     * where the merged image data is not a real rendering of the layers
+     * (see {@code hasRealMergedData} of the version info resource).
+     * </p>
+     * <p>
+     * Visible layers are blended using the layer blend mode, opacity and layer mask, one band at a time,
+     * to keep memory usage bounded. Only RGB, Gray scale and CMYK documents with 8 or 16 bits per sample are supported.
+     * Vector masks, layer effects, adjustment layers and fill opacity are not rendered.
+     * If the document has no layers, the merged image data is read as normal.
+     * </p>
+     *
+     * @param layerCompositingEnabled {@code true} to render the composite image from the layers.
+     */
+    public void setLayerCompositingEnabled(final boolean layerCompositingEnabled) {
+        this.layerCompositingEnabled = layerCompositingEnabled;
+    }
+}
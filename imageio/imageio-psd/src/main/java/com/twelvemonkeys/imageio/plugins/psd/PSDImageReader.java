@@ -33,6 +33,7 @@ package com.twelvemonkeys.imageio.plugins.psd;
 import com.twelvemonkeys.image.ImageUtil;
 import com.twelvemonkeys.imageio.ImageReaderBase;
 import com.twelvemonkeys.imageio.color.ColorSpaces;
+import com.twelvemonkeys.imageio.stream.ByteArrayImageInputStream;
 import com.twelvemonkeys.imageio.util.ImageTypeSpecifiers;
 
 import javax.imageio.IIOException;
@@ -48,10 +49,13 @@ import java.awt.color.ICC_ColorSpace;
 import java.awt.color.ICC_Profile;
 import java.awt.image.*;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * ImageReader for Adobe Photoshop Document (PSD) format.
@@ -64,9 +68,7 @@ import java.util.*;
  */
 // TODO: Implement ImageIO meta data interface
 // TODO: Figure out of we should assume Adobe RGB (1998) color model, if no embedded profile?
-// TODO: Support for PSDVersionInfo hasRealMergedData=false (no real composite data, layers will be in index 0)
-// TODO: Consider Romain Guy's Java 2D implementation of PS filters for the blending modes in layers
-// http://www.curious-creature.org/2006/09/20/new-blendings-modes-for-java2d/
+// TODO: Render layers by default, if PSDVersionInfo hasRealMergedData=false (no real composite data)
 // See http://www.codeproject.com/KB/graphics/PSDParser.aspx
 // See http://www.adobeforums.com/webx?14@@.3bc381dc/0  
 // Done: Allow reading the extra alpha channels (index after composite data)
@@ -74,10 +76,22 @@ public final class PSDImageReader extends ImageReaderBase {
 
     final static boolean DEBUG = "true".equalsIgnoreCase(System.getProperty("com.twelvemonkeys.imageio.plugins.psd.debug"));
 
+    // Number of pixels in each band, when rendering the composite from layers
+    private static final int COMPOSITING_BAND_PIXELS = 256 * 1024;
+
+    // Maximum number of bytes of channel data held in memory, while decoding channels concurrently
+    private static final long CONCURRENT_DECODING_MAX_BYTES = 256L * 1024 * 1024;
+
     private PSDHeader header;
     private ICC_ColorSpace colorSpace;
     private PSDMetadata metadata;
 
+    // Per channel progress is not reported while rendering layers, progress is reported per band instead
+    private boolean renderingLayers;
+
+    // Open ZIP streams for the layer channels, per layer, kept across bands while rendering layers
+    private ZipChannel[][] zipChannels;
+
     PSDImageReader(final ImageReaderSpi originatingProvider) {
         super(originatingProvider);
     }
@@ -326,6 +340,18 @@ public final class PSDImageReader extends ImageReaderBase {
                 else if (rawType.getNumBands() == 5 && rawType.getBitsPerBand(0) == 16) {
                     types.add(ImageTypeSpecifiers.createInterleaved(cs, new int[] {4, 3, 2, 1, 0}, DataBuffer.TYPE_USHORT, true, false));
                 }
+
+                // We can also convert to RGB while reading, using the lookup table for the color space
+                if (rawType.getBitsPerBand(0) <= 16) {
+                    if (rawType.getNumBands() == 4) {
+                        types.add(ImageTypeSpecifiers.createFromBufferedImageType(BufferedImage.TYPE_3BYTE_BGR));
+                        types.add(ImageTypeSpecifiers.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB));
+                    }
+                    else if (rawType.getNumBands() == 5) {
+                        types.add(ImageTypeSpecifiers.createFromBufferedImageType(BufferedImage.TYPE_4BYTE_ABGR));
+                        types.add(ImageTypeSpecifiers.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB));
+                    }
+                }
                 break;
             default:
                 // Just stick to the raw type
@@ -355,6 +381,15 @@ public final class PSDImageReader extends ImageReaderBase {
         return colorSpace;
     }
 
+    @Override
+    public ImageReadParam getDefaultReadParam() {
+        return new PSDImageReadParam();
+    }
+
+    private static Executor getExecutor(final ImageReadParam param) {
+        return param instanceof PSDImageReadParam ? ((PSDImageReadParam) param).getExecutor() : null;
+    }
+
     public BufferedImage read(final int imageIndex, final ImageReadParam param) throws IOException {
         checkBounds(imageIndex);
 
@@ -362,12 +397,24 @@ public final class PSDImageReader extends ImageReaderBase {
 
         // Layer hacks... For now, any index above 0 is considered to be a layer...
         // TODO: Support layer in index 0, if "has real merged data" flag is false?
-        // TODO: Param support in layer code (more duping/cleanup..)
         if (imageIndex > 0) {
             return readLayerData(imageIndex - 1, param);
         }
 
+        if (param instanceof PSDImageReadParam && ((PSDImageReadParam) param).isLayerCompositingEnabled()) {
+            readLayerAndMaskInfo(true);
+
+            if (metadata.layerInfo != null && !metadata.layerInfo.isEmpty()) {
+                return renderLayers(param);
+            }
+        }
+
         BufferedImage image = getDestination(param, getImageTypes(imageIndex), header.width, header.height);
+
+        if (header.mode == PSD.COLOR_MODE_CMYK && image.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_RGB) {
+            return readCMYKAsRGB(imageIndex, param, image);
+        }
+
         ImageTypeSpecifier rawType = getRawImageType(imageIndex);
         checkReadParamBandSettings(param, rawType.getNumBands(), image.getSampleModel().getNumBands());
 
@@ -403,8 +450,8 @@ public final class PSDImageReader extends ImageReaderBase {
                 break;
             case PSD.COMPRESSION_ZIP:
             case PSD.COMPRESSION_ZIP_PREDICTION:
-                // TODO: Could probably use the ZIPDecoder (DeflateDecoder) here.. Look at TIFF prediction reading
-                throw new IIOException("PSD with ZIP compression not supported");
+                // NOTE: No byte counts, all channels are compressed in a single stream, running to the end of the file
+                break;
             default:
                 throw new IIOException(
                         String.format(
@@ -417,7 +464,7 @@ public final class PSDImageReader extends ImageReaderBase {
         processImageStarted(imageIndex);
 
         // What we read here is the "composite layer" of the PSD file
-        readImageData(image, rawType.getColorModel(), source, dest, xSub, ySub, byteCounts, compression);
+        readImageData(image, rawType.getColorModel(), source, dest, xSub, ySub, byteCounts, compression, getExecutor(param));
 
         if (abortRequested()) {
             processReadAborted();
@@ -429,66 +476,215 @@ public final class PSDImageReader extends ImageReaderBase {
         return image;
     }
 
-    private long findLayerStartPos(int layerIndex) {
-        long layersStart = metadata.layersStart;
+    private BufferedImage renderLayers(final ImageReadParam param) throws IOException {
+        if (header.bits != 8 && header.bits != 16
+                || header.mode != PSD.COLOR_MODE_RGB && header.mode != PSD.COLOR_MODE_GRAYSCALE && header.mode != PSD.COLOR_MODE_CMYK) {
+            throw new IIOException(String.format("Layer compositing not supported for PSD MODE: %s (%d bits)", header.mode, header.bits));
+        }
 
-        for (int i = 0; i < layerIndex; i++) {
-            PSDLayerInfo layerInfo = metadata.layerInfo.get(i);
+        BufferedImage image = getDestination(param, getImageTypes(0), header.width, header.height);
 
-            for (PSDChannelInfo channelInfo : layerInfo.channelInfo) {
-                layersStart += channelInfo.length;
+        ImageTypeSpecifier rawType = getRawImageTypeForCompositeLayer();
+
+        ColorModel sourceCM = rawType.getColorModel();
+        ColorModel destCM = image.getColorModel();
+        ColorSpace sourceCS = sourceCM.getColorSpace();
+        ColorSpace destCS = destCM.getColorSpace();
+        boolean cmykToRGB = sourceCS.getType() == ColorSpace.TYPE_CMYK && destCS.getType() == ColorSpace.TYPE_RGB;
+
+        if (!cmykToRGB) {
+            checkReadParamBandSettings(param, rawType.getNumBands(), image.getSampleModel().getNumBands());
+        }
+
+        Rectangle source = new Rectangle();
+        Rectangle dest = new Rectangle();
+        computeRegions(param, header.width, header.height, image, source, dest);
+
+        int xSub = param.getSourceXSubsampling();
+        int ySub = param.getSourceYSubsampling();
+
+        // Render the composite in bands, to keep memory usage bounded for large documents
+        int bandHeight = Math.max(1, Math.min(dest.height, COMPOSITING_BAND_PIXELS / dest.width));
+        int[] destBands = createBandList(destCS.getNumComponents() + (destCM.hasAlpha() ? 1 : 0));
+        WritableRaster band = Raster.createBandedRaster(rawType.getSampleModel().getDataType(), dest.width, bandHeight,
+                sourceCS.getNumComponents() + (destCM.hasAlpha() ? 1 : 0), null);
+
+        initAdditionalLayerInfo();
+        PSDLayerCompositor compositor = new PSDLayerCompositor(this, header, metadata.layerInfo);
+        Executor executor = getExecutor(param);
+
+        processImageStarted(0);
+        renderingLayers = true;
+        zipChannels = new ZipChannel[metadata.layerInfo.size()][];
+
+        try {
+            for (int y = 0; y < dest.height; y += bandHeight) {
+                int rows = Math.min(bandHeight, dest.height - y);
+                WritableRaster bandRaster = rows == bandHeight ? band : band.createWritableChild(0, 0, dest.width, rows, 0, 0, null);
+
+                compositor.render(source.x, source.y + y * ySub, xSub, ySub, bandRaster, destCM.hasAlpha(), executor);
+
+                WritableRaster destRaster = image.getRaster().createWritableChild(dest.x, dest.y + y, dest.width, rows, 0, 0, destBands);
+
+                if (cmykToRGB) {
+                    ColorSpaces.getCMYKToRGBConverter(sourceCS).filter(bandRaster, destRaster);
+                }
+                else {
+                    destRaster.setRect(bandRaster);
+
+                    if (!sourceCS.equals(destCS)) {
+                        convertToDestinationCS(sourceCM, destCM, destRaster);
+                    }
+                }
+
+                processImageProgress(100f * (y + rows) / dest.height);
+
+                if (abortRequested()) {
+                    processReadAborted();
+                    return image;
+                }
+            }
+        }
+        finally {
+            renderingLayers = false;
+            closeZipChannels();
+        }
+
+        processImageComplete();
+
+        return image;
+    }
+
+    private BufferedImage readCMYKAsRGB(final int imageIndex, final ImageReadParam param, final BufferedImage destination) throws IOException {
+        // Read as CMYK, then convert all pixels in one pass, using the cached lookup table for the color space
+        ImageTypeSpecifier cmykType = getImageTypes(imageIndex).next();
+
+        PSDImageReadParam cmykParam = new PSDImageReadParam();
+        cmykParam.setDestinationType(cmykType);
+        cmykParam.setExecutor(getExecutor(param));
+
+        if (param != null) {
+            cmykParam.setSourceRegion(param.getSourceRegion());
+            cmykParam.setSourceSubsampling(param.getSourceXSubsampling(), param.getSourceYSubsampling(), param.getSubsamplingXOffset(), param.getSubsamplingYOffset());
+        }
+
+        BufferedImage cmyk = read(imageIndex, cmykParam);
+
+        Rectangle source = new Rectangle();
+        Rectangle dest = new Rectangle();
+        computeRegions(param, header.width, header.height, destination, source, dest);
+
+        WritableRaster destRaster = destination.getRaster().createWritableChild(dest.x, dest.y, dest.width, dest.height, 0, 0, null);
+        ColorSpaces.getCMYKToRGBConverter(cmykType.getColorModel().getColorSpace()).filter(cmyk.getRaster(), destRaster);
+
+        return destination;
+    }
+
+    private static long[][] createChannelDataIndex(final List<PSDLayerInfo> layerInfos, final long layersStart) {
+        // Channel data for all layers follows the layer records, in the same order
+        long[][] index = new long[layerInfos.size()][];
+        long pos = layersStart;
+
+        for (int i = 0; i < index.length; i++) {
+            PSDChannelInfo[] channelInfo = layerInfos.get(i).channelInfo;
+            index[i] = new long[channelInfo.length];
+
+            for (int c = 0; c < channelInfo.length; c++) {
+                index[i][c] = pos;
+                pos += channelInfo[c].length;
             }
         }
 
-        return layersStart;
+        return index;
+    }
+
+    private void initAdditionalLayerInfo() throws IOException {
+        for (PSDLayerInfo layerInfo : metadata.layerInfo) {
+            layerInfo.initAdditionalLayerInfo(imageInput);
+        }
     }
 
     private void readImageData(final BufferedImage destination,
                                final ColorModel pSourceCM, final Rectangle pSource, final Rectangle pDest,
                                final int pXSub, final int pYSub,
-                               final int[] pByteCounts, final int pCompression) throws IOException {
+                               final int[] pByteCounts, final int pCompression, final Executor pExecutor) throws IOException {
 
-        WritableRaster destRaster = destination.getRaster();
+        final WritableRaster destRaster = destination.getRaster();
         ColorModel destCM = destination.getColorModel();
 
-        int channels = pSourceCM.createCompatibleSampleModel(1, 1).getNumBands();
-        ImageTypeSpecifier singleBandRowSpec = ImageTypeSpecifiers.createGrayscale(header.bits, pSourceCM.getTransferType());
-        WritableRaster rowRaster = singleBandRowSpec.createBufferedImage(header.width, 1).getRaster();
-        boolean banded = destRaster.getDataBuffer().getNumBanks() > 1;
-        int interleavedBands = banded ? 1 : destRaster.getNumBands();
-
-        for (int c = 0; c < channels; c++) {
-            int bandOffset = banded ? 0 : interleavedBands - 1 - c;
+        final int channels = pSourceCM.createCompatibleSampleModel(1, 1).getNumBands();
+        final boolean banded = destRaster.getDataBuffer().getNumBanks() > 1;
+        final int interleavedBands = banded ? 1 : destRaster.getNumBands();
+
+        // NOTE: ZIP compressed data for all channels is a single stream, and can't be decoded concurrently
+        if (pExecutor != null && channels > 1 && (pCompression == PSD.COMPRESSION_NONE || pCompression == PSD.COMPRESSION_RLE)) {
+            final long rowLength = ((long) header.width * header.bits + 7) / 8;
+
+            // Only the rows from the first to the last row sampled are read into memory
+            final int firstRow = pSource.y;
+            final int rows = getSampledRows(pSource, pYSub, header.height);
+            final Rectangle source = new Rectangle(pSource.x, 0, pSource.width, pSource.height);
+
+            ChannelTasks tasks = new ChannelTasks(pExecutor);
+            long channelStart = imageInput.getStreamPosition();
+
+            try {
+                for (int c = 0; c < channels; c++) {
+                    final int channel = c;
+                    final int rowOffset = c * header.height;
+                    long length = getRowsLength(pByteCounts, rowOffset, firstRow, firstRow + rows, rowLength);
+
+                    if (length > CONCURRENT_DECODING_MAX_BYTES) {
+                        // Too large to hold in memory, decode on this thread instead
+                        imageInput.seek(channelStart);
+                        readChannel(imageInput, c, channels, destRaster, interleavedBands, banded ? 0 : interleavedBands - 1 - c,
+                                pSourceCM, pSource, pDest, pXSub, pYSub, header.width, header.height, pByteCounts, rowOffset,
+                                pCompression, null);
+                    }
+                    else {
+                        imageInput.seek(channelStart + getRowsLength(pByteCounts, rowOffset, 0, firstRow, rowLength));
+                        final byte[] data = tasks.readChannelBytes(length);
+
+                        tasks.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() throws IOException {
+                                readChannel(new ByteArrayImageInputStream(data), channel, channels, destRaster, interleavedBands,
+                                        banded ? 0 : interleavedBands - 1 - channel, pSourceCM, source, pDest, pXSub, pYSub,
+                                        header.width, rows, pByteCounts, rowOffset + firstRow, pCompression, null);
+                                return null;
+                            }
+                        });
+                    }
 
-            switch (header.bits) {
-                case 1:
-                    byte[] row1 = ((DataBufferByte) rowRaster.getDataBuffer()).getData();
-                    read1bitChannel(c, channels, destRaster.getDataBuffer(), interleavedBands, bandOffset, pSourceCM, row1, pSource, pDest, pXSub, pYSub, header.width, header.height, pByteCounts, pCompression == PSD.COMPRESSION_RLE);
-                    break;
-                case 8:
-                    byte[] row8 = ((DataBufferByte) rowRaster.getDataBuffer()).getData();
-                    read8bitChannel(c, channels, destRaster.getDataBuffer(), interleavedBands, bandOffset, pSourceCM, row8, pSource, pDest, pXSub, pYSub, header.width, header.height, pByteCounts, c * header.height, pCompression == PSD.COMPRESSION_RLE);
-                    break;
-                case 16:
-                    short[] row16 = ((DataBufferUShort) rowRaster.getDataBuffer()).getData();
-                    read16bitChannel(c, channels, destRaster.getDataBuffer(), interleavedBands, bandOffset, pSourceCM, row16, pSource, pDest, pXSub, pYSub, header.width, header.height, pByteCounts, c * header.height, pCompression == PSD.COMPRESSION_RLE);
-                    break;
-                case 32:
-                    int[] row32 = ((DataBufferInt) rowRaster.getDataBuffer()).getData();
-                    read32bitChannel(c, channels, destRaster.getDataBuffer(), interleavedBands, bandOffset, pSourceCM, row32, pSource, pDest, pXSub, pYSub, header.width, header.height, pByteCounts, c * header.height, pCompression == PSD.COMPRESSION_RLE);
-                    break;
-                default:
-                    throw new IIOException(String.format("Unsupported PSD bit depth: %s", header.bits));
+                    channelStart += getRowsLength(pByteCounts, rowOffset, 0, header.height, rowLength);
+                }
+            }
+            finally {
+                imageInput.seek(channelStart);
             }
 
-            if (abortRequested()) {
-                break;
+            tasks.awaitCompletion();
+        }
+        else {
+            // ZIP compressed data for all channels is a single stream, running to the end of the file
+            long length = imageInput.length();
+
+            try (DataInputStream zipInput = createZipStream(imageInput, pCompression, length < 0 ? -1 : length - imageInput.getStreamPosition(), header.width)) {
+                for (int c = 0; c < channels; c++) {
+                    readChannel(imageInput, c, channels, destRaster, interleavedBands, banded ? 0 : interleavedBands - 1 - c,
+                            pSourceCM, pSource, pDest, pXSub, pYSub, header.width, header.height, pByteCounts, c * header.height,
+                            pCompression, zipInput);
+
+                    if (abortRequested()) {
+                        break;
+                    }
+                }
             }
         }
 
         if (header.bits == 8) {
             // Compose out the background of the semi-transparent pixels, as PS somehow has the background composed in
-            decomposeAlpha(destCM, destRaster.getDataBuffer(), pDest.width, pDest.height, destRaster.getNumBands());
+            decomposeAlpha(destCM, destRaster.getDataBuffer(), pDest, destRaster.getWidth(), destRaster.getNumBands());
         }
 
         // NOTE: ColorSpace uses Object.equals(), so we rely on using same instances!
@@ -497,6 +693,268 @@ public final class PSDImageReader extends ImageReaderBase {
         }
     }
 
+    private void readChannel(final ImageInputStream pInput, final int pChannel, final int pChannelCount,
+                             final WritableRaster pDestRaster, final int pBands, final int pBandOffset,
+                             final ColorModel pSourceCM, final Rectangle pSource, final Rectangle pDest,
+                             final int pXSub, final int pYSub,
+                             final int pChannelWidth, final int pChannelHeight,
+                             final int[] pRowByteCounts, final int pRowOffset,
+                             final int pCompression, final DataInputStream pZIPInput) throws IOException {
+        DataBuffer data = pDestRaster.getDataBuffer();
+        boolean rle = pCompression == PSD.COMPRESSION_RLE;
+
+        switch (header.bits) {
+            case 1:
+                byte[] row1 = new byte[(pChannelWidth + 7) / 8];
+                read1bitChannel(pInput, pChannel, pChannelCount, data, pBands, pBandOffset, pSourceCM, row1, pSource, pDest, pXSub, pYSub,
+                        pDestRaster.getWidth(), pChannelWidth, pChannelHeight, pRowByteCounts, pRowOffset, rle, pZIPInput);
+                break;
+            case 8:
+                byte[] row8 = new byte[pChannelWidth];
+                read8bitChannel(pInput, pChannel, pChannelCount, data, pBands, pBandOffset, pSourceCM, row8, pSource, pDest, pXSub, pYSub,
+                        pDestRaster.getWidth(), pChannelWidth, pChannelHeight, pRowByteCounts, pRowOffset, rle, pZIPInput);
+                break;
+            case 16:
+                short[] row16 = new short[pChannelWidth];
+                read16bitChannel(pInput, pChannel, pChannelCount, data, pBands, pBandOffset, pSourceCM, row16, pSource, pDest, pXSub, pYSub,
+                        pDestRaster.getWidth(), pChannelWidth, pChannelHeight, pRowByteCounts, pRowOffset, rle, pZIPInput);
+                break;
+            case 32:
+                int[] row32 = new int[pChannelWidth];
+                read32bitChannel(pInput, pChannel, pChannelCount, data, pBands, pBandOffset, pSourceCM, row32, pSource, pDest, pXSub, pYSub,
+                        pDestRaster.getWidth(), pChannelWidth, pChannelHeight, pRowByteCounts, pRowOffset, rle, pZIPInput);
+                break;
+            default:
+                throw new IIOException(String.format("Unsupported PSD bit depth: %s", header.bits));
+        }
+    }
+
+    private DataInputStream createZipStream(final ImageInputStream pInput, final int pCompression, final long pLength, final int pColumns) {
+        switch (pCompression) {
+            case PSD.COMPRESSION_ZIP:
+                return PSDUtil.createZipStream(pInput, pLength);
+            case PSD.COMPRESSION_ZIP_PREDICTION:
+                return PSDUtil.createZipPredictorStream(pInput, pLength, pColumns, header.bits);
+            default:
+                return null;
+        }
+    }
+
+    private byte[] readChannelBytes(final long pLength) throws IOException {
+        // Guard against bogus lengths, we don't want to allocate more than the stream length
+        long streamLength = imageInput.length();
+        long length = streamLength >= 0 ? Math.min(pLength, streamLength - imageInput.getStreamPosition()) : pLength;
+
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IIOException(String.format("Channel data too large for concurrent decoding: %d bytes", length));
+        }
+
+        byte[] data = new byte[(int) Math.max(0, length)];
+        imageInput.readFully(data);
+
+        return data;
+    }
+
+    private static long sum(final int[] pValues, final int pOffset, final int pLength) {
+        long sum = 0;
+
+        for (int i = pOffset; i < pOffset + pLength; i++) {
+            sum += pValues[i];
+        }
+
+        return sum;
+    }
+
+    // Returns the number of bytes of channel data for the rows from (inclusive) to (exclusive)
+    private static long getRowsLength(final int[] pRowByteCounts, final int pRowOffset, final int pFrom, final int pTo, final long pRowLength) {
+        return pRowByteCounts != null ? sum(pRowByteCounts, pRowOffset + pFrom, pTo - pFrom) : (pTo - pFrom) * pRowLength;
+    }
+
+    // Returns the number of rows from the first row of the source region, up to and including the last row sampled
+    private static int getSampledRows(final Rectangle pSource, final int pYSub, final int pHeight) {
+        int endY = Math.min(pHeight, pSource.y + pSource.height);
+
+        return (endY - 1 - pSource.y) / pYSub * pYSub + 1;
+    }
+
+    private static Future<Void> submit(final Executor pExecutor, final Callable<Void> pCallable) {
+        FutureTask<Void> task = new FutureTask<>(pCallable);
+        pExecutor.execute(task);
+
+        return task;
+    }
+
+    private void awaitCompletion(final List<Future<Void>> pTasks) throws IOException {
+        try {
+            for (int i = 0; i < pTasks.size(); i++) {
+                await(pTasks.get(i));
+                processImageProgress(100f * (i + 1) / pTasks.size());
+            }
+        }
+        finally {
+            for (Future<Void> task : pTasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    private static void await(final Future<Void> pTask) throws IOException {
+        try {
+            pTask.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decoding channels");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IIOException("Could not decode channel: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Channels decoded concurrently, while the channel data is read on the reading thread.
+     * The channel data held in memory is bounded by {@link #CONCURRENT_DECODING_MAX_BYTES},
+     * by waiting for the oldest channels to be decoded, before reading more data.
+     */
+    private final class ChannelTasks {
+        private final Executor executor;
+        private final List<Future<Void>> tasks = new ArrayList<>();
+        private final List<Long> lengths = new ArrayList<>();
+
+        private int completed;
+        private long bytesInFlight;
+
+        ChannelTasks(final Executor executor) {
+            this.executor = executor;
+        }
+
+        byte[] readChannelBytes(final long length) throws IOException {
+            boolean success = false;
+
+            try {
+                while (bytesInFlight + length > CONCURRENT_DECODING_MAX_BYTES && completed < tasks.size()) {
+                    await(tasks.get(completed));
+                    bytesInFlight -= lengths.get(completed++);
+                }
+
+                success = true;
+            }
+            finally {
+                if (!success) {
+                    cancel();
+                }
+            }
+
+            byte[] data = PSDImageReader.this.readChannelBytes(length);
+            bytesInFlight += length;
+            lengths.add(length);
+
+            return data;
+        }
+
+        void submit(final Callable<Void> decoder) {
+            tasks.add(PSDImageReader.submit(executor, decoder));
+        }
+
+        void awaitCompletion() throws IOException {
+            PSDImageReader.this.awaitCompletion(tasks);
+        }
+
+        void cancel() {
+            for (Future<Void> task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * A ZIP compressed layer channel, kept open while rendering layers.
+     * As the bands are rendered top to bottom, decoding continues from the last row read,
+     * instead of inflating the channel from the start for every band.
+     */
+    private static final class ZipChannel {
+        final DataInputStream stream;
+        long position; // Stream position of the next compressed byte
+        int row; // Next row to decode
+
+        ZipChannel(final DataInputStream stream, final long position) {
+            this.stream = stream;
+            this.position = position;
+        }
+    }
+
+    private ZipChannel openZipChannel(final int layerIndex, final int channel, final int compression, final long length,
+                                      final int width, final int firstRow) throws IOException {
+        ZipChannel[] channels = zipChannels[layerIndex];
+
+        if (channels == null) {
+            channels = new ZipChannel[metadata.layerInfo.get(layerIndex).channelInfo.length];
+            zipChannels[layerIndex] = channels;
+        }
+
+        ZipChannel zipChannel = channels[channel];
+
+        if (zipChannel != null && zipChannel.row <= firstRow) {
+            imageInput.seek(zipChannel.position);
+            return zipChannel;
+        }
+
+        // The input is positioned at the start of the compressed channel data
+        long start = imageInput.getStreamPosition();
+
+        if (zipChannel != null) {
+            // Rows before the last row read are requested, start over (closing moves the input position)
+            zipChannel.stream.close();
+            imageInput.seek(start);
+        }
+
+        zipChannel = new ZipChannel(createZipStream(imageInput, compression, length, width), start);
+        channels[channel] = zipChannel;
+
+        return zipChannel;
+    }
+
+    private void readZipChannelRows(final ZipChannel zipChannel, final int pChannel, final int pChannelCount,
+                                    final WritableRaster pDestRaster, final int pBands, final int pBandOffset,
+                                    final ColorModel pSourceCM, final Rectangle pSource, final Rectangle pDest,
+                                    final int pXSub, final int pYSub, final int pChannelWidth, final int pEndRow,
+                                    final int pCompression) throws IOException {
+        // Rows are counted from the first row not yet decoded, and decoding stops after the last row sampled
+        readChannel(imageInput, pChannel, pChannelCount, pDestRaster, pBands, pBandOffset, pSourceCM,
+                new Rectangle(pSource.x, pSource.y - zipChannel.row, pSource.width, pSource.height), pDest, pXSub, pYSub,
+                pChannelWidth, pEndRow - zipChannel.row, null, 0, pCompression, zipChannel.stream);
+
+        zipChannel.row = pEndRow;
+        zipChannel.position = imageInput.getStreamPosition();
+    }
+
+    private void closeZipChannels() throws IOException {
+        ZipChannel[][] channels = zipChannels;
+        zipChannels = null;
+
+        for (ZipChannel[] layerChannels : channels) {
+            if (layerChannels != null) {
+                for (ZipChannel zipChannel : layerChannels) {
+                    if (zipChannel != null) {
+                        zipChannel.stream.close();
+                    }
+                }
+            }
+        }
+    }
+
     private void convertToDestinationCS(final ColorModel sourceCM, ColorModel destinationCM, final WritableRaster raster) {
         long start = DEBUG ? System.currentTimeMillis() : 0;
 
@@ -526,269 +984,377 @@ public final class PSDImageReader extends ImageReaderBase {
     }
 
     private void processImageProgressForChannel(int channel, int channelCount, int y, int height) {
+        if (renderingLayers) {
+            return;
+        }
+
         processImageProgress(100f * channel / channelCount + 100f * y / (height * channelCount));
     }
 
-    private void read32bitChannel(final int pChannel, final int pChannelCount,
+    private void skipRows(final ImageInputStream pInput, final DataInputStream pZIPInput, final int[] pRowByteCounts, final int pRowOffset, final int pFrom, final int pTo,
+                          final long pRowLength, final boolean pRLECompressed) throws IOException {
+        if (pZIPInput != null) {
+            // ZIP compressed data has no row byte counts, rows must be decompressed to be skipped
+            skipFully(pZIPInput, (pTo - pFrom) * pRowLength);
+            return;
+        }
+
+        // Rows are skipped without decoding, using the row byte counts for RLE compressed data
+        long length = 0;
+
+        for (int y = pFrom; y < pTo; y++) {
+            length += pRLECompressed ? pRowByteCounts[pRowOffset + y] : pRowLength;
+        }
+
+        if (length > 0) {
+            pInput.seek(pInput.getStreamPosition() + length);
+        }
+    }
+
+    private static void skipFully(final DataInputStream pInput, final long pLength) throws IOException {
+        long remaining = pLength;
+
+        while (remaining > 0) {
+            long skipped = pInput.skip(remaining);
+
+            if (skipped <= 0) {
+                if (pInput.read() < 0) {
+                    throw new EOFException("Unexpected end of ZIP compressed data");
+                }
+
+                skipped = 1;
+            }
+
+            remaining -= skipped;
+        }
+    }
+
+    private void read32bitChannel(final ImageInputStream pInput, final int pChannel, final int pChannelCount,
                                   final DataBuffer pData, final int pBands, final int pBandOffset,
                                   final ColorModel pSourceColorModel,
                                   final int[] pRow,
                                   final Rectangle pSource, final Rectangle pDest,
-                                  final int pXSub, final int pYSub,
+                                  final int pXSub, final int pYSub, final int pDestWidth,
                                   final int pChannelWidth, final int pChannelHeight,
                                   final int[] pRowByteCounts, final int pRowOffset,
-                                  final boolean pRLECompressed) throws IOException {
+                                  final boolean pRLECompressed, final DataInputStream pZIPInput) throws IOException {
 
         boolean isCMYK = pSourceColorModel.getColorSpace().getType() == ColorSpace.TYPE_CMYK;
         int colorComponents = pSourceColorModel.getColorSpace().getNumComponents();
         final boolean invert = isCMYK && pChannel < colorComponents;
         final boolean banded = pData.getNumBanks() > 1;
 
-        for (int y = 0; y < pChannelHeight; y++) {
-            int length = (pRLECompressed ? pRowByteCounts[pRowOffset + y] : 4 * pChannelWidth);
+        // Only the samples up to the last one sampled are decoded
+        final int samples = pSource.x + (pDest.width - 1) * pXSub + 1;
+        final int endY = Math.min(pChannelHeight, pSource.y + pSource.height);
+        int nextY = 0;
 
-            // TODO: Sometimes need to read the line y == source.y + source.height...
-            // Read entire line, if within source region and sampling
-            if (y >= pSource.y && y < pSource.y + pSource.height && y % pYSub == 0) {
-                if (pRLECompressed) {
+        for (int y = pSource.y; y < endY; y += pYSub) {
+            skipRows(pInput, pZIPInput, pRowByteCounts, pRowOffset, nextY, y, 4L * pChannelWidth, pRLECompressed);
+
+            if (pZIPInput != null) {
+                for (int x = 0; x < samples; x++) {
+                    pRow[x] = pZIPInput.readInt();
+                }
+
+                skipFully(pZIPInput, 4L * (pChannelWidth - samples));
+            }
+            else {
+                int length = pRLECompressed ? pRowByteCounts[pRowOffset + y] : 4 * pChannelWidth;
+                long rowStart = pInput.getStreamPosition();
 
-                    try (DataInputStream input = PSDUtil.createPackBitsStream(imageInput, length)) {
-                        for (int x = 0; x < pChannelWidth; x++) {
+                if (pRLECompressed) {
+                    try (DataInputStream input = PSDUtil.createPackBitsStream(pInput, length)) {
+                        for (int x = 0; x < samples; x++) {
                             pRow[x] = input.readInt();
                         }
                     }
                 }
                 else {
-                    imageInput.readFully(pRow, 0, pChannelWidth);
+                    pInput.readFully(pRow, 0, samples);
                 }
 
-                // TODO: Destination offset...??
-                // Copy line sub sampled into real data
-                int offset = (y - pSource.y) / pYSub * pDest.width * pBands + pBandOffset;
-                for (int x = 0; x < pDest.width; x++) {
-                    int value = pRow[pSource.x + x * pXSub];
+                pInput.seek(rowStart + length);
+            }
 
-                    // CMYK values are stored inverted, but alpha is not
-                    if (invert) {
-                        value = 0xffffffff - value;
-                    }
+            nextY = y + 1;
+
+            // Copy line sub sampled into real data
+            int offset = ((pDest.y + (y - pSource.y) / pYSub) * pDestWidth + pDest.x) * pBands + pBandOffset;
+            for (int x = 0; x < pDest.width; x++) {
+                int value = pRow[pSource.x + x * pXSub];
 
-                    pData.setElem(banded ? pChannel : 0, offset + x * pBands, value);
+                // CMYK values are stored inverted, but alpha is not
+                if (invert) {
+                    value = 0xffffffff - value;
                 }
-            }
-            else {
-                imageInput.skipBytes(length);
+
+                pData.setElem(banded ? pChannel : 0, offset + x * pBands, value);
             }
 
             if (abortRequested()) {
                 break;
             }
 
-            processImageProgressForChannel(pChannel, pChannelCount, y, pChannelHeight);
+            if (pInput == imageInput) {
+                // Channels decoded concurrently report progress when completed, on the reading thread
+                processImageProgressForChannel(pChannel, pChannelCount, y - pSource.y, endY - pSource.y);
+            }
         }
+
+        skipRows(pInput, pZIPInput, pRowByteCounts, pRowOffset, nextY, pChannelHeight, 4L * pChannelWidth, pRLECompressed);
     }
 
-    private void read16bitChannel(final int pChannel, final int pChannelCount,
+    private void read16bitChannel(final ImageInputStream pInput, final int pChannel, final int pChannelCount,
                                   final DataBuffer pData, final int pBands, final int pBandOffset,
                                   final ColorModel pSourceColorModel,
                                   final short[] pRow,
                                   final Rectangle pSource, final Rectangle pDest,
-                                  final int pXSub, final int pYSub,
+                                  final int pXSub, final int pYSub, final int pDestWidth,
                                   final int pChannelWidth, final int pChannelHeight,
                                   final int[] pRowByteCounts, final int pRowOffset,
-                                  final boolean pRLECompressed) throws IOException {
+                                  final boolean pRLECompressed, final DataInputStream pZIPInput) throws IOException {
 
         boolean isCMYK = pSourceColorModel.getColorSpace().getType() == ColorSpace.TYPE_CMYK;
         int colorComponents = pSourceColorModel.getColorSpace().getNumComponents();
         final boolean invert = isCMYK && pChannel < colorComponents;
         final boolean banded = pData.getNumBanks() > 1;
 
-        for (int y = 0; y < pChannelHeight; y++) {
-            int length = (pRLECompressed ? pRowByteCounts[pRowOffset + y] : 2 * pChannelWidth);
+        // Only the samples up to the last one sampled are decoded
+        final int samples = pSource.x + (pDest.width - 1) * pXSub + 1;
+        final int endY = Math.min(pChannelHeight, pSource.y + pSource.height);
+        int nextY = 0;
+
+        for (int y = pSource.y; y < endY; y += pYSub) {
+            skipRows(pInput, pZIPInput, pRowByteCounts, pRowOffset, nextY, y, 2L * pChannelWidth, pRLECompressed);
+
+            if (pZIPInput != null) {
+                for (int x = 0; x < samples; x++) {
+                    pRow[x] = pZIPInput.readShort();
+                }
+
+                skipFully(pZIPInput, 2L * (pChannelWidth - samples));
+            }
+            else {
+                int length = pRLECompressed ? pRowByteCounts[pRowOffset + y] : 2 * pChannelWidth;
+                long rowStart = pInput.getStreamPosition();
 
-            // TODO: Sometimes need to read the line y == source.y + source.height...
-            // Read entire line, if within source region and sampling
-            if (y >= pSource.y && y < pSource.y + pSource.height && y % pYSub == 0) {
                 if (pRLECompressed) {
-                    try (DataInputStream input = PSDUtil.createPackBitsStream(imageInput, length)) {
-                        for (int x = 0; x < pChannelWidth; x++) {
+                    try (DataInputStream input = PSDUtil.createPackBitsStream(pInput, length)) {
+                        for (int x = 0; x < samples; x++) {
                             pRow[x] = input.readShort();
                         }
                     }
                 }
                 else {
-                    imageInput.readFully(pRow, 0, pChannelWidth);
+                    pInput.readFully(pRow, 0, samples);
                 }
 
-                // TODO: Destination offset...??
-                // Copy line sub sampled into real data
-                int offset = (y - pSource.y) / pYSub * pDest.width * pBands + pBandOffset;
-                for (int x = 0; x < pDest.width; x++) {
-                    short value = pRow[pSource.x + x * pXSub];
+                pInput.seek(rowStart + length);
+            }
 
-                    // CMYK values are stored inverted, but alpha is not
-                    if (invert) {
-                        value = (short) (0xffff - value & 0xffff);
-                    }
+            nextY = y + 1;
+
+            // Copy line sub sampled into real data
+            int offset = ((pDest.y + (y - pSource.y) / pYSub) * pDestWidth + pDest.x) * pBands + pBandOffset;
+            for (int x = 0; x < pDest.width; x++) {
+                short value = pRow[pSource.x + x * pXSub];
 
-                    pData.setElem(banded ? pChannel : 0, offset + x * pBands, value);
+                // CMYK values are stored inverted, but alpha is not
+                if (invert) {
+                    value = (short) (0xffff - value & 0xffff);
                 }
-            }
-            else {
-                imageInput.skipBytes(length);
+
+                pData.setElem(banded ? pChannel : 0, offset + x * pBands, value);
             }
 
             if (abortRequested()) {
                 break;
             }
 
-            processImageProgressForChannel(pChannel, pChannelCount, y, pChannelHeight);
+            if (pInput == imageInput) {
+                // Channels decoded concurrently report progress when completed, on the reading thread
+                processImageProgressForChannel(pChannel, pChannelCount, y - pSource.y, endY - pSource.y);
+            }
         }
+
+        skipRows(pInput, pZIPInput, pRowByteCounts, pRowOffset, nextY, pChannelHeight, 2L * pChannelWidth, pRLECompressed);
     }
 
-    private void read8bitChannel(final int pChannel, final int pChannelCount,
+    private void read8bitChannel(final ImageInputStream pInput, final int pChannel, final int pChannelCount,
                                  final DataBuffer pData, final int pBands, final int pBandOffset,
                                  final ColorModel pSourceColorModel,
                                  final byte[] pRow,
                                  final Rectangle pSource, final Rectangle pDest,
-                                 final int pXSub, final int pYSub,
+                                 final int pXSub, final int pYSub, final int pDestWidth,
                                  final int pChannelWidth, final int pChannelHeight,
                                  final int[] pRowByteCounts, final int pRowOffset,
-                                 final boolean pRLECompressed) throws IOException {
+                                 final boolean pRLECompressed, final DataInputStream pZIPInput) throws IOException {
 
         boolean isCMYK = pSourceColorModel.getColorSpace().getType() == ColorSpace.TYPE_CMYK;
         int colorComponents = pSourceColorModel.getColorSpace().getNumComponents();
         final boolean invert = isCMYK && pChannel < colorComponents;
         final boolean banded = pData.getNumBanks() > 1;
 
-        for (int y = 0; y < pChannelHeight; y++) {
-            int length = pRLECompressed ? pRowByteCounts[pRowOffset + y] : pChannelWidth;
+        // Only the samples up to the last one sampled are decoded
+        final int samples = pSource.x + (pDest.width - 1) * pXSub + 1;
+        final int endY = Math.min(pChannelHeight, pSource.y + pSource.height);
+        int nextY = 0;
+
+        for (int y = pSource.y; y < endY; y += pYSub) {
+            skipRows(pInput, pZIPInput, pRowByteCounts, pRowOffset, nextY, y, pChannelWidth, pRLECompressed);
+
+            if (pZIPInput != null) {
+                pZIPInput.readFully(pRow, 0, samples);
+                skipFully(pZIPInput, pChannelWidth - samples);
+            }
+            else {
+                int length = pRLECompressed ? pRowByteCounts[pRowOffset + y] : pChannelWidth;
+                long rowStart = pInput.getStreamPosition();
 
-            // TODO: Sometimes need to read the line y == source.y + source.height...
-            // Read entire line, if within source region and sampling
-            if (y >= pSource.y && y < pSource.y + pSource.height && y % pYSub == 0) {
                 if (pRLECompressed) {
-                    try (DataInputStream input = PSDUtil.createPackBitsStream(imageInput, length)) {
-                        input.readFully(pRow, 0, pChannelWidth);
+                    try (DataInputStream input = PSDUtil.createPackBitsStream(pInput, length)) {
+                        input.readFully(pRow, 0, samples);
                     }
                 }
                 else {
-                    imageInput.readFully(pRow, 0, pChannelWidth);
+                    pInput.readFully(pRow, 0, samples);
                 }
 
-                // TODO: Destination offset...??
-                // Copy line sub sampled into real data
-                int offset = (y - pSource.y) / pYSub * pDest.width * pBands + pBandOffset;
-                for (int x = 0; x < pDest.width; x++) {
-                    byte value = pRow[pSource.x + x * pXSub];
+                pInput.seek(rowStart + length);
+            }
 
-                    // CMYK values are stored inverted, but alpha is not
-                    if (invert) {
-                        value = (byte) (0xff - value & 0xff);
-                    }
+            nextY = y + 1;
 
-                    pData.setElem(banded ? pChannel : 0, offset + x * pBands, value);
+            // Copy line sub sampled into real data
+            int offset = ((pDest.y + (y - pSource.y) / pYSub) * pDestWidth + pDest.x) * pBands + pBandOffset;
+            for (int x = 0; x < pDest.width; x++) {
+                byte value = pRow[pSource.x + x * pXSub];
+
+                // CMYK values are stored inverted, but alpha is not
+                if (invert) {
+                    value = (byte) (0xff - value & 0xff);
                 }
-            }
-            else {
-                imageInput.skipBytes(length);
+
+                pData.setElem(banded ? pChannel : 0, offset + x * pBands, value);
             }
 
             if (abortRequested()) {
                 break;
             }
 
-            processImageProgressForChannel(pChannel, pChannelCount, y, pChannelHeight);
+            if (pInput == imageInput) {
+                // Channels decoded concurrently report progress when completed, on the reading thread
+                processImageProgressForChannel(pChannel, pChannelCount, y - pSource.y, endY - pSource.y);
+            }
         }
+
+        skipRows(pInput, pZIPInput, pRowByteCounts, pRowOffset, nextY, pChannelHeight, pChannelWidth, pRLECompressed);
     }
 
     @SuppressWarnings({"UnusedDeclaration"})
-    private void read1bitChannel(final int pChannel, final int pChannelCount,
+    private void read1bitChannel(final ImageInputStream pInput, final int pChannel, final int pChannelCount,
                                  final DataBuffer pData, final int pBands, final int pBandOffset,
                                  final ColorModel pSourceColorModel,
                                  final byte[] pRow,
                                  final Rectangle pSource, final Rectangle pDest,
-                                 final int pXSub, final int pYSub,
+                                 final int pXSub, final int pYSub, final int pDestWidth,
                                  final int pChannelWidth, final int pChannelHeight,
-                                 final int[] pRowByteCounts, boolean pRLECompressed) throws IOException {
+                                 final int[] pRowByteCounts, final int pRowOffset,
+                                 final boolean pRLECompressed, final DataInputStream pZIPInput) throws IOException {
         // NOTE: 1 bit channels only occurs once
 
         final int destWidth = (pDest.width + 7) / 8;
+        final int destScanlineStride = (pDestWidth + 7) / 8;
+        final int rowLength = (pChannelWidth + 7) / 8;
         final boolean banded = pData.getNumBanks() > 1;
 
-        for (int y = 0; y < pChannelHeight; y++) {
-            int length = pRLECompressed ? pRowByteCounts[y] : pChannelWidth;
+        final int endY = Math.min(pChannelHeight, pSource.y + pSource.height);
+        int nextY = 0;
+
+        for (int y = pSource.y; y < endY; y += pYSub) {
+            skipRows(pInput, pZIPInput, pRowByteCounts, pRowOffset, nextY, y, rowLength, pRLECompressed);
+
+            if (pZIPInput != null) {
+                pZIPInput.readFully(pRow, 0, rowLength);
+            }
+            else {
+                int length = pRLECompressed ? pRowByteCounts[pRowOffset + y] : rowLength;
+                long rowStart = pInput.getStreamPosition();
 
-            // TODO: Sometimes need to read the line y == source.y + source.height...
-            // Read entire line, if within source region and sampling
-            if (y >= pSource.y && y < pSource.y + pSource.height && y % pYSub == 0) {
                 if (pRLECompressed) {
-                    try (DataInputStream input = PSDUtil.createPackBitsStream(imageInput, length)) {
-                        input.readFully(pRow, 0, pRow.length);
+                    try (DataInputStream input = PSDUtil.createPackBitsStream(pInput, length)) {
+                        input.readFully(pRow, 0, rowLength);
                     }
                 }
                 else {
-                    imageInput.readFully(pRow, 0, pRow.length);
+                    pInput.readFully(pRow, 0, rowLength);
                 }
 
-                // TODO: Destination offset...??
-                int offset = (y - pSource.y) / pYSub * destWidth;
-                if (pXSub == 1 && pSource.x % 8 == 0) {
-                    // Fast normal case, no sub sampling
-                    for (int i = 0; i < destWidth; i++) {
-                        byte value = pRow[pSource.x / 8 + i * pXSub];
-                        // NOTE: Invert bits to match Java's default monochrome
-                        pData.setElem(banded ? pChannel : 0, offset + i, (byte) (~value & 0xff));
-                    }
-                }
-                else {
-                    // Copy line sub sampled into real data
-                    final int maxX = pSource.x + pSource.width;
-                    int x = pSource.x;
-                    for (int i = 0; i < destWidth; i++) {
-                        byte result = 0;
+                pInput.seek(rowStart + length);
+            }
 
-                        for (int j = 0; j < 8 && x < maxX; j++) {
-                            int bytePos = x / 8;
+            nextY = y + 1;
 
-                            int sourceBitOff = 7 - (x % 8);
-                            int mask = 1 << sourceBitOff;
-                            int destBitOff = 7 - j;
+            // TODO: Destination x offset...??
+            int offset = (pDest.y + (y - pSource.y) / pYSub) * destScanlineStride;
+            if (pXSub == 1 && pSource.x % 8 == 0) {
+                // Fast normal case, no sub sampling
+                for (int i = 0; i < destWidth; i++) {
+                    byte value = pRow[pSource.x / 8 + i * pXSub];
+                    // NOTE: Invert bits to match Java's default monochrome
+                    pData.setElem(banded ? pChannel : 0, offset + i, (byte) (~value & 0xff));
+                }
+            }
+            else {
+                // Copy line sub sampled into real data
+                final int maxX = pSource.x + pSource.width;
+                int x = pSource.x;
+                for (int i = 0; i < destWidth; i++) {
+                    byte result = 0;
 
-                            // Shift bit into place
-                            result |= ((pRow[bytePos] & mask) >> sourceBitOff) << destBitOff;
+                    for (int j = 0; j < 8 && x < maxX; j++) {
+                        int bytePos = x / 8;
 
-                            x += pXSub;
-                        }
+                        int sourceBitOff = 7 - (x % 8);
+                        int mask = 1 << sourceBitOff;
+                        int destBitOff = 7 - j;
 
-                        // NOTE: Invert bits to match Java's default monochrome
-                        pData.setElem(banded ? pChannel : 0, offset + i, (byte) (~result & 0xff));
+                        // Shift bit into place
+                        result |= ((pRow[bytePos] & mask) >> sourceBitOff) << destBitOff;
+
+                        x += pXSub;
                     }
+
+                    // NOTE: Invert bits to match Java's default monochrome
+                    pData.setElem(banded ? pChannel : 0, offset + i, (byte) (~result & 0xff));
                 }
             }
-            else {
-                imageInput.skipBytes(length);
-            }
 
             if (abortRequested()) {
                 break;
             }
 
-            processImageProgressForChannel(pChannel, pChannelCount, y, pChannelHeight);
+            if (pInput == imageInput) {
+                // Channels decoded concurrently report progress when completed, on the reading thread
+                processImageProgressForChannel(pChannel, pChannelCount, y - pSource.y, endY - pSource.y);
+            }
         }
+
+        skipRows(pInput, pZIPInput, pRowByteCounts, pRowOffset, nextY, pChannelHeight, rowLength, pRLECompressed);
     }
 
     private void decomposeAlpha(final ColorModel pModel, final DataBuffer pBuffer,
-                                final int pWidth, final int pHeight, final int pChannels) {
+                                final Rectangle pDest, final int pScanlineStride, final int pChannels) {
         // NOTE: It seems that the document background always white..?!
         // TODO: What about CMYK + alpha?
         if (pModel.hasAlpha() && pModel.getColorSpace().getType() == ColorSpace.TYPE_RGB) {
 
             // TODO: Probably faster to do this in line..
             if (pBuffer.getNumBanks() > 1) {
-                for (int y = 0; y < pHeight; y++) {
-                    for (int x = 0; x < pWidth; x++) {
-                        int offset = (x + y * pWidth);
+                for (int y = pDest.y; y < pDest.y + pDest.height; y++) {
+                    for (int x = pDest.x; x < pDest.x + pDest.width; x++) {
+                        int offset = (x + y * pScanlineStride);
                         // ARGB format
                         int alpha = pBuffer.getElem(pChannels - 1, offset) & 0xff;
 
@@ -808,9 +1374,9 @@ public final class PSDImageReader extends ImageReaderBase {
                 }
             }
             else {
-                for (int y = 0; y < pHeight; y++) {
-                    for (int x = 0; x < pWidth; x++) {
-                        int offset = (x + y * pWidth) * pChannels;
+                for (int y = pDest.y; y < pDest.y + pDest.height; y++) {
+                    for (int x = pDest.x; x < pDest.x + pDest.width; x++) {
+                        int offset = (x + y * pScanlineStride) * pChannels;
                         // ABGR format
                         int alpha = pBuffer.getElem(offset) & 0xff;
 
@@ -954,6 +1520,7 @@ public final class PSDImageReader extends ImageReaderBase {
 
                         metadata.layerInfo = Arrays.asList(layerInfos);
                         metadata.layersStart = imageInput.getStreamPosition();
+                        metadata.channelDataStart = createChannelDataIndex(metadata.layerInfo, metadata.layersStart);
 
                     }
 
@@ -1014,42 +1581,51 @@ public final class PSDImageReader extends ImageReaderBase {
         ImageTypeSpecifier imageType = getRawImageTypeForLayer(layerIndex);
         BufferedImage layer = getDestination(param, getImageTypes(layerIndex + 1), Math.max(1, width), Math.max(1, height));
 
-        imageInput.seek(findLayerStartPos(layerIndex));
-
-        // Source/destination area
-        Rectangle area = new Rectangle(width, height);
+        // Source/destination area, rows outside the source region are skipped without decoding
+        final Rectangle source = new Rectangle();
+        final Rectangle dest = new Rectangle();
+        computeRegions(param, width, height, layer, source, dest);
 
-        final int xsub = 1;
-        final int ysub = 1;
+        final int xsub = param != null ? param.getSourceXSubsampling() : 1;
+        final int ysub = param != null ? param.getSourceYSubsampling() : 1;
 
         final WritableRaster raster = layer.getRaster();
         final ColorModel destCM = layer.getColorModel();
 
-        ColorModel sourceCM = imageType.getColorModel();
-        final WritableRaster rowRaster = sourceCM.createCompatibleWritableRaster((int) Math.ceil(width / (double) sourceCM.getNumComponents()), 1);
+        final ColorModel sourceCM = imageType.getColorModel();
+        final int numBands = sourceCM.getNumComponents();
+        final int numChannels = imageType.getNumBands();
 
         final boolean banded = raster.getDataBuffer().getNumBanks() > 1;
         final int interleavedBands = banded ? 1 : raster.getNumBands();
 
+        // Channels are decoded concurrently, only if there is more than one
+        final Executor executor = layerInfo.channelInfo.length > 1 ? getExecutor(param) : null;
+        final ChannelTasks tasks = executor != null ? new ChannelTasks(executor) : null;
+
+        // Only the rows from the first to the last row sampled are read into memory, unless ZIP compressed
+        final int firstRow = source.y;
+        final int rows = getSampledRows(source, ysub, height);
+        final long rowLength = ((long) width * header.bits + 7) / 8;
+
         // TODO: progress for layers!
         // TODO: Consider creating a method in PSDLayerInfo that can tell how many channels we really want to decode
-        for (PSDChannelInfo channelInfo : layerInfo.channelInfo) {
-            int compression = imageInput.readUnsignedShort();
+        for (int channel = 0; channel < layerInfo.channelInfo.length; channel++) {
+            PSDChannelInfo channelInfo = layerInfo.channelInfo[channel];
 
-            // Skip layer if we can't read it
+            // Skip channel if we can't read it
             // channelId
             // -1 = transparency mask; -2 = user supplied layer mask, -3 = real user supplied layer mask (when both a user mask and a vector mask are present)
-            if (channelInfo.channelId < -1 || (compression != PSD.COMPRESSION_NONE && compression != PSD.COMPRESSION_RLE)) { // TODO: ZIP Compressions!
-                imageInput.skipBytes(channelInfo.length - 2);
-            }
-            else {
+            if (channelInfo.channelId >= -1) {
+                imageInput.seek(metadata.channelDataStart[layerIndex][channel]);
+                final int compression = imageInput.readUnsignedShort();
+
                 // 0 = red, 1 = green, etc
                 // -1 = transparency mask; -2 = user supplied layer mask, -3 = real user supplied layer mask (when both a user mask and a vector mask are present)
-                int c = channelInfo.channelId == -1 ? rowRaster.getNumBands() - 1 : channelInfo.channelId;
+                final int c = channelInfo.channelId == -1 ? numBands - 1 : channelInfo.channelId;
 
                 // NOTE: For layers, byte counts are written per channel, while for the composite data
                 //       byte counts are written for all channels before the image data.
-                //       This is the reason for the current code duplication
                 int[] byteCounts = null;
 
                 // 0: None, 1: PackBits RLE, 2: Zip, 3: Zip w/prediction
@@ -1068,43 +1644,73 @@ public final class PSDImageReader extends ImageReaderBase {
                         break;
                     case PSD.COMPRESSION_ZIP:
                     case PSD.COMPRESSION_ZIP_PREDICTION:
+                        // If ZIP, the image data is a single compressed stream for the channel
+                        break;
                     default:
-                        // Explicitly skipped above
-                        throw new AssertionError(String.format("Unsupported layer data. Compression: %d", compression));
+                        throw new IIOException(String.format("Unknown PSD compression: %d", compression));
                 }
 
-                int bandOffset = banded ? 0 : interleavedBands - 1 - c;
+                final int bandOffset = banded ? 0 : interleavedBands - 1 - c;
+                final int[] rowByteCounts = byteCounts;
 
-                switch (header.bits) {
-                    case 1:
-                        byte[] row1 = ((DataBufferByte) rowRaster.getDataBuffer()).getData();
-                        read1bitChannel(c, imageType.getNumBands(), raster.getDataBuffer(), interleavedBands, bandOffset, sourceCM, row1, area, area, xsub, ysub, width, height, byteCounts, compression == PSD.COMPRESSION_RLE);
-                        break;
-                    case 8:
-                        byte[] row8 = ((DataBufferByte) rowRaster.getDataBuffer()).getData();
-                        read8bitChannel(c, imageType.getNumBands(), raster.getDataBuffer(), interleavedBands, bandOffset, sourceCM, row8, area, area, xsub,
-                                ysub, width, height, byteCounts, 0, compression == PSD.COMPRESSION_RLE);
-                        break;
-                    case 16:
-                        short[] row16 = ((DataBufferUShort) rowRaster.getDataBuffer()).getData();
-                        read16bitChannel(c, imageType.getNumBands(), raster.getDataBuffer(), interleavedBands, bandOffset, sourceCM, row16, area, area, xsub,
-                                ysub, width, height, byteCounts, 0, compression == PSD.COMPRESSION_RLE);
-                        break;
-                    case 32:
-                        int[] row32 = ((DataBufferInt) rowRaster.getDataBuffer()).getData();
-                        read32bitChannel(c, imageType.getNumBands(), raster.getDataBuffer(), interleavedBands, bandOffset, sourceCM, row32, area, area, xsub,
-                                ysub, width, height, byteCounts, 0, compression == PSD.COMPRESSION_RLE);
-                        break;
-                    default:
-                        throw new IIOException(String.format("Unknown PSD bit depth: %s", header.bits));
+                final boolean zip = compression == PSD.COMPRESSION_ZIP || compression == PSD.COMPRESSION_ZIP_PREDICTION;
+                final long length = zip
+                                    ? channelInfo.length - 2
+                                    : getRowsLength(byteCounts, 0, firstRow, firstRow + rows, rowLength);
+
+                if (zip && zipChannels != null) {
+                    // While rendering layers, continue decoding from the rows read for the previous band
+                    ZipChannel zipChannel = openZipChannel(layerIndex, channel, compression, length, width, firstRow);
+                    readZipChannelRows(zipChannel, c, numChannels, raster, interleavedBands, bandOffset, sourceCM, source, dest,
+                            xsub, ysub, width, firstRow + rows, compression);
                 }
+                else if (tasks != null && length <= CONCURRENT_DECODING_MAX_BYTES) {
+                    // Read the compressed channel data on this thread, and decode it concurrently
+                    if (!zip) {
+                        imageInput.seek(imageInput.getStreamPosition() + getRowsLength(byteCounts, 0, 0, firstRow, rowLength));
+                    }
 
-                if (abortRequested()) {
-                    break;
+                    final byte[] data = tasks.readChannelBytes(length);
+
+                    tasks.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            ImageInputStream input = new ByteArrayImageInputStream(data);
+
+                            try (DataInputStream zipInput = createZipStream(input, compression, data.length, width)) {
+                                if (zip) {
+                                    readChannel(input, c, numChannels, raster, interleavedBands, bandOffset, sourceCM, source, dest, xsub, ysub,
+                                            width, height, null, 0, compression, zipInput);
+                                }
+                                else {
+                                    readChannel(input, c, numChannels, raster, interleavedBands, bandOffset, sourceCM,
+                                            new Rectangle(source.x, 0, source.width, source.height), dest, xsub, ysub,
+                                            width, rows, rowByteCounts, firstRow, compression, null);
+                                }
+                            }
+
+                            return null;
+                        }
+                    });
+                }
+                else {
+                    // Closing the ZIP stream positions the input at the end of the channel data
+                    try (DataInputStream zipInput = createZipStream(imageInput, compression, channelInfo.length - 2, width)) {
+                        readChannel(imageInput, c, numChannels, raster, interleavedBands, bandOffset, sourceCM, source, dest, xsub, ysub,
+                                width, height, byteCounts, 0, compression, zipInput);
+                    }
+
+                    if (abortRequested()) {
+                        break;
+                    }
                 }
             }
         }
 
+        if (tasks != null) {
+            tasks.awaitCompletion();
+        }
+
         if (!sourceCM.getColorSpace().equals(destCM.getColorSpace())) {
             convertToDestinationCS(sourceCM, destCM, raster);
         }
@@ -1112,6 +1718,83 @@ public final class PSDImageReader extends ImageReaderBase {
         return layer;
     }
 
+    // Package-private, for PSDLayerCompositor
+    Raster readLayerRegion(final int layerIndex, final Rectangle region, final int xSub, final int ySub, final Executor executor) throws IOException {
+        PSDImageReadParam param = new PSDImageReadParam();
+        param.setDestinationType(getRawImageTypeForLayer(layerIndex));
+        param.setSourceRegion(region);
+        param.setSourceSubsampling(xSub, ySub, 0, 0);
+        param.setExecutor(executor);
+
+        BufferedImage layer = readLayerData(layerIndex, param);
+
+        return layer != null ? layer.getRaster() : null;
+    }
+
+    // Package-private, for PSDLayerCompositor
+    Raster readLayerMaskRegion(final int layerIndex, final Rectangle region, final int xSub, final int ySub) throws IOException {
+        PSDLayerInfo layerInfo = metadata.layerInfo.get(layerIndex);
+        PSDLayerMaskData maskData = layerInfo.layerMaskData;
+
+        // -2 = user supplied layer mask, -3 real user supplied layer mask (when both a user mask and a vector mask are present)
+        int maskChannelId = -2;
+        for (PSDChannelInfo channelInfo : layerInfo.channelInfo) {
+            if (channelInfo.channelId == -3) {
+                maskChannelId = -3;
+            }
+        }
+
+        for (int channel = 0; channel < layerInfo.channelInfo.length; channel++) {
+            PSDChannelInfo channelInfo = layerInfo.channelInfo[channel];
+
+            if (channelInfo.channelId != maskChannelId) {
+                continue;
+            }
+
+            int width = maskData.getRight() - maskData.getLeft();
+            int height = maskData.getBottom() - maskData.getTop();
+
+            imageInput.seek(metadata.channelDataStart[layerIndex][channel]);
+            int compression = imageInput.readUnsignedShort();
+
+            int[] byteCounts = null;
+            switch (compression) {
+                case PSD.COMPRESSION_NONE:
+                case PSD.COMPRESSION_ZIP:
+                case PSD.COMPRESSION_ZIP_PREDICTION:
+                    break;
+                case PSD.COMPRESSION_RLE:
+                    byteCounts = new int[height];
+                    for (int i = 0; i < byteCounts.length; i++) {
+                        byteCounts[i] = header.largeFormat ? imageInput.readInt() : imageInput.readUnsignedShort();
+                    }
+                    break;
+                default:
+                    throw new IIOException(String.format("Unknown PSD compression: %d", compression));
+            }
+
+            ImageTypeSpecifier maskType = ImageTypeSpecifiers.createGrayscale(header.bits, header.bits == 16 ? DataBuffer.TYPE_USHORT : DataBuffer.TYPE_BYTE);
+            Rectangle dest = new Rectangle((region.width + xSub - 1) / xSub, (region.height + ySub - 1) / ySub);
+            WritableRaster raster = maskType.createBufferedImage(dest.width, dest.height).getRaster();
+
+            if (zipChannels != null && (compression == PSD.COMPRESSION_ZIP || compression == PSD.COMPRESSION_ZIP_PREDICTION)) {
+                ZipChannel zipChannel = openZipChannel(layerIndex, channel, compression, channelInfo.length - 2, width, region.y);
+                readZipChannelRows(zipChannel, 0, 1, raster, 1, 0, maskType.getColorModel(), region, dest,
+                        xSub, ySub, width, region.y + getSampledRows(region, ySub, height), compression);
+            }
+            else {
+                try (DataInputStream zipInput = createZipStream(imageInput, compression, channelInfo.length - 2, width)) {
+                    readChannel(imageInput, 0, 1, raster, 1, 0, maskType.getColorModel(), region, dest, xSub, ySub,
+                            width, height, byteCounts, 0, compression, zipInput);
+                }
+            }
+
+            return raster;
+        }
+
+        return null;
+    }
+
     private ImageTypeSpecifier getRawImageTypeForLayer(final int layerIndex) throws IOException {
         ImageTypeSpecifier compositeType = getRawImageTypeForCompositeLayer();
 
@@ -1175,6 +1858,10 @@ public final class PSDImageReader extends ImageReaderBase {
         readImageResources(true);
         readLayerAndMaskInfo(true);
 
+        if (metadata.layerInfo != null) {
+            initAdditionalLayerInfo();
+        }
+
         // NOTE: Need to make sure compression is set in metadata, even without reading the image data!
         // TODO: Move this to readLayerAndMaskInfo?
         if (metadata.compression == -1) {
@@ -0,0 +1,528 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.psd;
+
+import java.awt.*;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Renders the composite image of a PSD document from its layers, one band at a time.
+ * <p>
+ * Visible layers are blended bottom to top, using the layer blend mode, opacity, transparency,
+ * user supplied layer mask and clipping.
+ * Layer groups are treated as pass through, with the group opacity applied to each child layer.
+ * Vector masks, layer effects, adjustment layers and fill opacity are not supported.
+ * </p>
+ * <p>
+ * Compositing is done in floating point, on samples in the range {@code [0...1]},
+ * following the compositing and blending formulas of the W3C Compositing and Blending specification.
+ * CMYK samples are blended as brightness values ({@code 1 - ink}).
+ * </p>
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: PSDLayerCompositor.java,v 1.0 18.10.2020 haraldk Exp$
+ */
+final class PSDLayerCompositor {
+    private final PSDImageReader reader;
+    private final List<PSDLayerInfo> layers;
+    private final int colorComponents;
+    private final boolean inverted;
+    private final boolean rgb;
+    private final float maxValue;
+
+    // Layers to render, and effective opacity (including enclosing groups)
+    private final boolean[] included;
+    private final float[] opacity;
+
+    // Band buffers, reused between bands
+    private float[] colors;
+    private float[] alphas;
+    private float[] clip;
+
+    PSDLayerCompositor(final PSDImageReader reader, final PSDHeader header, final List<PSDLayerInfo> layers) {
+        this.reader = reader;
+        this.layers = layers;
+
+        colorComponents = header.mode == PSD.COLOR_MODE_CMYK ? 4 : header.mode == PSD.COLOR_MODE_RGB ? 3 : 1;
+        inverted = header.mode == PSD.COLOR_MODE_CMYK;
+        rgb = header.mode == PSD.COLOR_MODE_RGB;
+        maxValue = (1 << header.bits) - 1;
+
+        included = new boolean[layers.size()];
+        opacity = new float[layers.size()];
+
+        // Layer records are stored bottom to top, a group starts (from the top) with the folder record,
+        // and ends with the bounding section divider.
+        Deque<Float> groupOpacity = new ArrayDeque<>();
+        Deque<Boolean> groupVisible = new ArrayDeque<>();
+        groupOpacity.push(1f);
+        groupVisible.push(true);
+
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            PSDLayerInfo layer = layers.get(i);
+            float layerOpacity = groupOpacity.peek() * layer.blendMode.opacity / 255f;
+            boolean layerVisible = groupVisible.peek() && layer.isVisible();
+
+            switch (layer.getSectionDividerType()) {
+                case PSD.DIVIDER_OPEN_FOLDER:
+                case PSD.DIVIDER_CLOSED_FOLDER:
+                    groupOpacity.push(layerOpacity);
+                    groupVisible.push(layerVisible);
+                    break;
+                case PSD.DIVIDER_BOUNDING:
+                    if (groupOpacity.size() > 1) {
+                        groupOpacity.pop();
+                        groupVisible.pop();
+                    }
+                    break;
+                default:
+                    // Adjustment layers are not supported, and are skipped
+                    included[i] = layerVisible && !layer.isAdjustmentLayer();
+                    opacity[i] = layerOpacity;
+            }
+        }
+    }
+
+    /**
+     * Renders one band of the composite.
+     *
+     * @param pX the x coordinate of the first sample in the band, in document coordinates.
+     * @param pY the y coordinate of the first sample in the band, in document coordinates.
+     * @param pXSub the horizontal distance between samples.
+     * @param pYSub the vertical distance between samples.
+     * @param pBand the destination, with the color samples in the first bands, followed by alpha if {@code pAlpha}.
+     * @param pAlpha if {@code true} the alpha is written to the destination,
+     *               otherwise the composite is flattened onto a white background.
+     * @param pExecutor the executor used for decoding the layer channels, may be {@code null}.
+     * @throws IOException if an I/O exception occurs while reading the layer data.
+     */
+    void render(final int pX, final int pY, final int pXSub, final int pYSub,
+                final WritableRaster pBand, final boolean pAlpha, final Executor pExecutor) throws IOException {
+        int cols = pBand.getWidth();
+        int rows = pBand.getHeight();
+        int pixels = cols * rows;
+
+        if (alphas == null || alphas.length < pixels) {
+            colors = new float[pixels * colorComponents];
+            alphas = new float[pixels];
+            clip = new float[pixels];
+        }
+        else {
+            Arrays.fill(colors, 0, pixels * colorComponents, 0);
+            Arrays.fill(alphas, 0, pixels, 0);
+        }
+
+        boolean baseIncluded = false;
+
+        for (int i = 0; i < layers.size(); i++) {
+            PSDLayerInfo layer = layers.get(i);
+
+            if (layer.getSectionDividerType() != PSD.DIVIDER_OTHER) {
+                continue;
+            }
+
+            boolean clipped = layer.blendMode.clipping != 0;
+            boolean clipBase = !clipped && isClipBase(i);
+
+            if (!clipped) {
+                baseIncluded = included[i];
+
+                if (clipBase) {
+                    Arrays.fill(clip, 0, pixels, 0);
+                }
+            }
+
+            // Clipped layers are not rendered if the base layer is hidden
+            if (!included[i] || clipped && !baseIncluded) {
+                continue;
+            }
+
+            int x0 = firstSample(layer.left, pX, pXSub);
+            int x1 = Math.min(cols, firstSample(layer.right, pX, pXSub));
+            int y0 = firstSample(layer.top, pY, pYSub);
+            int y1 = Math.min(rows, firstSample(layer.bottom, pY, pYSub));
+
+            if (x0 >= x1 || y0 >= y1) {
+                continue;
+            }
+
+            Rectangle region = new Rectangle(pX + x0 * pXSub - layer.left, pY + y0 * pYSub - layer.top,
+                    (x1 - x0 - 1) * pXSub + 1, (y1 - y0 - 1) * pYSub + 1);
+            Raster layerData = reader.readLayerRegion(i, region, pXSub, pYSub, pExecutor);
+
+            if (layerData == null) {
+                continue;
+            }
+
+            Raster maskData = null;
+            int maskX = 0, maskY = 0;
+            float maskDefault = 1;
+            PSDLayerMaskData mask = layer.layerMaskData;
+
+            if (mask != null && !mask.isDisabled()) {
+                maskDefault = mask.getDefaultColor() / 255f;
+                int mx0 = Math.max(x0, firstSample(mask.getLeft(), pX, pXSub));
+                int mx1 = Math.min(x1, firstSample(mask.getRight(), pX, pXSub));
+                int my0 = Math.max(y0, firstSample(mask.getTop(), pY, pYSub));
+                int my1 = Math.min(y1, firstSample(mask.getBottom(), pY, pYSub));
+
+                if (mx0 < mx1 && my0 < my1) {
+                    Rectangle maskRegion = new Rectangle(pX + mx0 * pXSub - mask.getLeft(), pY + my0 * pYSub - mask.getTop(),
+                            (mx1 - mx0 - 1) * pXSub + 1, (my1 - my0 - 1) * pYSub + 1);
+                    maskData = reader.readLayerMaskRegion(i, maskRegion, pXSub, pYSub);
+                    maskX = mx0;
+                    maskY = my0;
+                }
+            }
+
+            boolean transparency = hasTransparency(layer);
+            int bands = layerData.getNumBands();
+            int[] samples = new int[(x1 - x0) * bands];
+            int[] maskSamples = maskData != null ? new int[maskData.getWidth()] : null;
+            float[] source = new float[colorComponents];
+            float[] blended = new float[colorComponents];
+            int blendMode = layer.blendMode.blendMode;
+            float layerOpacity = opacity[i];
+
+            for (int y = y0; y < y1; y++) {
+                layerData.getPixels(0, y - y0, x1 - x0, 1, samples);
+
+                boolean maskRow = maskData != null && y >= maskY && y < maskY + maskData.getHeight();
+                if (maskRow) {
+                    maskData.getSamples(0, y - maskY, maskSamples.length, 1, 0, maskSamples);
+                }
+
+                for (int x = x0; x < x1; x++) {
+                    int p = y * cols + x;
+                    int s = (x - x0) * bands;
+
+                    float alpha = transparency ? samples[s + bands - 1] / maxValue : 1;
+
+                    if (mask != null) {
+                        alpha *= maskRow && x >= maskX && x < maskX + maskSamples.length
+                                 ? maskSamples[x - maskX] / maxValue
+                                 : maskDefault;
+                    }
+
+                    if (clipBase) {
+                        clip[p] = alpha * layerOpacity;
+                    }
+                    else if (clipped) {
+                        alpha *= clip[p];
+                    }
+
+                    alpha *= layerOpacity;
+
+                    if (alpha <= 0) {
+                        continue;
+                    }
+
+                    for (int c = 0; c < colorComponents; c++) {
+                        float value = samples[s + c] / maxValue;
+                        source[c] = inverted ? 1 - value : value;
+                    }
+
+                    composite(blendMode, source, alpha, p, blended);
+                }
+            }
+        }
+
+        writeBand(pBand, pAlpha);
+    }
+
+    private boolean isClipBase(final int pIndex) {
+        return pIndex + 1 < layers.size() && layers.get(pIndex + 1).blendMode.clipping != 0;
+    }
+
+    private static boolean hasTransparency(final PSDLayerInfo pLayer) {
+        for (PSDChannelInfo channelInfo : pLayer.channelInfo) {
+            if (channelInfo.channelId == -1) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Index of the first sample at or after pStart, for samples at pOrigin + n * pSub
+    private static int firstSample(final int pStart, final int pOrigin, final int pSub) {
+        return pStart <= pOrigin ? 0 : (int) (((long) pStart - pOrigin + pSub - 1) / pSub);
+    }
+
+    private void composite(final int pBlendMode, final float[] pSource, final float pAlpha, final int pPixel, final float[] pBlended) {
+        int offset = pPixel * colorComponents;
+        float backdropAlpha = alphas[pPixel];
+        float resultAlpha = pAlpha + backdropAlpha * (1 - pAlpha);
+
+        if (backdropAlpha > 0) {
+            blend(pBlendMode, colors, offset, pSource, pBlended);
+        }
+
+        for (int c = 0; c < colorComponents; c++) {
+            float backdrop = colors[offset + c];
+            float source = backdropAlpha > 0 ? (1 - backdropAlpha) * pSource[c] + backdropAlpha * pBlended[c] : pSource[c];
+
+            colors[offset + c] = (pAlpha * source + backdropAlpha * (1 - pAlpha) * backdrop) / resultAlpha;
+        }
+
+        alphas[pPixel] = resultAlpha;
+    }
+
+    private void blend(final int pBlendMode, final float[] pBackdrop, final int pOffset, final float[] pSource, final float[] pResult) {
+        switch (pBlendMode) {
+            case PSD.BLEND_DKCL:
+            case PSD.BLEND_LGCL:
+                float backdropSum = 0;
+                float sourceSum = 0;
+
+                for (int c = 0; c < colorComponents; c++) {
+                    backdropSum += pBackdrop[pOffset + c];
+                    sourceSum += pSource[c];
+                }
+
+                boolean useSource = pBlendMode == PSD.BLEND_DKCL ? sourceSum < backdropSum : sourceSum > backdropSum;
+
+                if (useSource) {
+                    System.arraycopy(pSource, 0, pResult, 0, colorComponents);
+                }
+                else {
+                    System.arraycopy(pBackdrop, pOffset, pResult, 0, colorComponents);
+                }
+
+                return;
+
+            case PSD.BLEND_HUE:
+            case PSD.BLEND_SAT:
+            case PSD.BLEND_COLR:
+            case PSD.BLEND_LUM:
+                if (rgb) {
+                    float[] backdrop = Arrays.copyOfRange(pBackdrop, pOffset, pOffset + 3);
+                    System.arraycopy(blendNonSeparable(pBlendMode, backdrop, pSource), 0, pResult, 0, 3);
+                }
+                else {
+                    // Not supported for other color modes, blend as normal
+                    System.arraycopy(pSource, 0, pResult, 0, colorComponents);
+                }
+
+                return;
+
+            default:
+                for (int c = 0; c < colorComponents; c++) {
+                    pResult[c] = blend(pBlendMode, pBackdrop[pOffset + c], pSource[c]);
+                }
+        }
+    }
+
+    static float blend(final int pBlendMode, final float b, final float s) {
+        switch (pBlendMode) {
+            case PSD.BLEND_MUL:
+                return b * s;
+            case PSD.BLEND_SCRN:
+                return screen(b, s);
+            case PSD.BLEND_OVER:
+                return hardLight(s, b);
+            case PSD.BLEND_HLIT:
+                return hardLight(b, s);
+            case PSD.BLEND_SLIT:
+                // NOTE: Photoshop uses the square root, rather than the W3C polynomial for the lighter half
+                return s <= 0.5f ? b - (1 - 2 * s) * b * (1 - b) : b + (2 * s - 1) * ((float) Math.sqrt(b) - b);
+            case PSD.BLEND_DARK:
+                return Math.min(b, s);
+            case PSD.BLEND_LITE:
+                return Math.max(b, s);
+            case PSD.BLEND_DIFF:
+                return Math.abs(b - s);
+            case PSD.BLEND_SMUD:
+                return b + s - 2 * b * s;
+            case PSD.BLEND_DIV:
+                return colorDodge(b, s);
+            case PSD.BLEND_IDIV:
+                return colorBurn(b, s);
+            case PSD.BLEND_LBRN:
+                return Math.max(0, b + s - 1);
+            case PSD.BLEND_LDDG:
+                return Math.min(1, b + s);
+            case PSD.BLEND_VLIT:
+                return s <= 0.5f ? colorBurn(b, 2 * s) : colorDodge(b, 2 * s - 1);
+            case PSD.BLEND_LLIT:
+                return Math.max(0, Math.min(1, b + 2 * s - 1));
+            case PSD.BLEND_PLIT:
+                return s <= 0.5f ? Math.min(b, 2 * s) : Math.max(b, 2 * s - 1);
+            case PSD.BLEND_HMIX:
+                return b + s >= 1 ? 1 : 0;
+            case PSD.BLEND_FSUB:
+                return Math.max(0, b - s);
+            case PSD.BLEND_FDIV:
+                return s <= 0 ? (b > 0 ? 1 : 0) : Math.min(1, b / s);
+            case PSD.BLEND_NORM:
+            case PSD.BLEND_PASS:
+            case PSD.BLEND_DISS:
+            default:
+                // NOTE: Dissolve is rendered as normal, unknown modes too
+                return s;
+        }
+    }
+
+    private static float screen(final float b, final float s) {
+        return b + s - b * s;
+    }
+
+    private static float hardLight(final float b, final float s) {
+        return s <= 0.5f ? b * 2 * s : screen(b, 2 * s - 1);
+    }
+
+    private static float colorDodge(final float b, final float s) {
+        if (b <= 0) {
+            return 0;
+        }
+
+        return s >= 1 ? 1 : Math.min(1, b / (1 - s));
+    }
+
+    private static float colorBurn(final float b, final float s) {
+        if (b >= 1) {
+            return 1;
+        }
+
+        return s <= 0 ? 0 : 1 - Math.min(1, (1 - b) / s);
+    }
+
+    static float[] blendNonSeparable(final int pBlendMode, final float[] pBackdrop, final float[] pSource) {
+        switch (pBlendMode) {
+            case PSD.BLEND_HUE:
+                return setLum(setSat(pSource.clone(), sat(pBackdrop)), lum(pBackdrop));
+            case PSD.BLEND_SAT:
+                return setLum(setSat(pBackdrop.clone(), sat(pSource)), lum(pBackdrop));
+            case PSD.BLEND_COLR:
+                return setLum(pSource.clone(), lum(pBackdrop));
+            case PSD.BLEND_LUM:
+                return setLum(pBackdrop.clone(), lum(pSource));
+            default:
+                throw new IllegalArgumentException("Not a non-separable blend mode: " + PSDUtil.intToStr(pBlendMode));
+        }
+    }
+
+    private static float lum(final float[] c) {
+        return 0.3f * c[0] + 0.59f * c[1] + 0.11f * c[2];
+    }
+
+    private static float sat(final float[] c) {
+        return Math.max(c[0], Math.max(c[1], c[2])) - Math.min(c[0], Math.min(c[1], c[2]));
+    }
+
+    private static float[] setLum(final float[] c, final float l) {
+        float d = l - lum(c);
+
+        for (int i = 0; i < 3; i++) {
+            c[i] += d;
+        }
+
+        // Clip color
+        float lum = lum(c);
+        float min = Math.min(c[0], Math.min(c[1], c[2]));
+        float max = Math.max(c[0], Math.max(c[1], c[2]));
+
+        for (int i = 0; i < 3; i++) {
+            if (min < 0) {
+                c[i] = lum + (c[i] - lum) * lum / (lum - min);
+            }
+            if (max > 1) {
+                c[i] = lum + (c[i] - lum) * (1 - lum) / (max - lum);
+            }
+        }
+
+        return c;
+    }
+
+    private static float[] setSat(final float[] c, final float s) {
+        int max = c[0] >= c[1] ? (c[0] >= c[2] ? 0 : 2) : (c[1] >= c[2] ? 1 : 2);
+        int min = c[0] < c[1] ? (c[0] < c[2] ? 0 : 2) : (c[1] < c[2] ? 1 : 2);
+        int mid = 3 - max - min;
+
+        if (c[max] > c[min]) {
+            c[mid] = (c[mid] - c[min]) * s / (c[max] - c[min]);
+            c[max] = s;
+        }
+        else {
+            c[mid] = c[max] = 0;
+        }
+
+        c[min] = 0;
+
+        return c;
+    }
+
+    private void writeBand(final WritableRaster pBand, final boolean pAlpha) {
+        int cols = pBand.getWidth();
+        int rows = pBand.getHeight();
+        int bands = colorComponents + (pAlpha ? 1 : 0);
+        int[] samples = new int[cols * bands];
+
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                int p = y * cols + x;
+                int s = x * bands;
+                float alpha = alphas[p];
+
+                if (pAlpha && alpha <= 0) {
+                    // Fully transparent, same as the merged image data (no color in RGB, no ink in CMYK)
+                    Arrays.fill(samples, s, s + bands, 0);
+                    continue;
+                }
+
+                for (int c = 0; c < colorComponents; c++) {
+                    float value = colors[p * colorComponents + c];
+
+                    if (!pAlpha) {
+                        // Flatten onto white
+                        value = value * alpha + 1 - alpha;
+                    }
+
+                    samples[s + c] = Math.round((inverted ? 1 - value : value) * maxValue);
+                }
+
+                if (pAlpha) {
+                    samples[s + colorComponents] = Math.round(alpha * maxValue);
+                }
+            }
+
+            pBand.setPixels(0, y, cols, 1, samples);
+        }
+    }
+}
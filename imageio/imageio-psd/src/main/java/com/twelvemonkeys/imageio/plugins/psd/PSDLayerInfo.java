@@ -54,8 +54,15 @@ final class PSDLayerInfo {
     final PSDChannelSourceDestinationRange[] ranges;
     private final String layerName;
 
+    // Additional layer information is parsed lazily, as it's not needed for reading the pixel data
+    private final long additionalInfoStart;
+    private final long additionalInfoEnd;
+    private boolean additionalInfoParsed;
+
     private String unicodeLayerName;
     private int layerId;
+    private int sectionDividerType;
+    private boolean adjustmentLayer;
 
     PSDLayerInfo(final boolean largeFormat, final ImageInputStream pInput) throws IOException {
         top = pInput.readInt();
@@ -108,10 +115,27 @@ final class PSDLayerInfo {
             layerNameSize += skip;
         }
 
-        // Parse "Additional layer data"
-        long additionalLayerInfoStart = pInput.getStreamPosition();
-        long expectedEnd = additionalLayerInfoStart + extraDataSize - layerMaskDataSize - 4 - layerBlendingDataSize - 4 - layerNameSize;
-        while (pInput.getStreamPosition() < expectedEnd) {
+        // Skip "Additional layer data", see initAdditionalLayerInfo
+        additionalInfoStart = pInput.getStreamPosition();
+        additionalInfoEnd = additionalInfoStart + extraDataSize - layerMaskDataSize - 4 - layerBlendingDataSize - 4 - layerNameSize;
+        pInput.seek(additionalInfoEnd);
+    }
+
+    /**
+     * Parses the "Additional layer data" of this layer record, if not already parsed.
+     * The stream position is not restored.
+     *
+     * @param pInput the stream the layer record was read from.
+     * @throws IOException if an I/O exception occurs during reading.
+     */
+    void initAdditionalLayerInfo(final ImageInputStream pInput) throws IOException {
+        if (additionalInfoParsed) {
+            return;
+        }
+
+        pInput.seek(additionalInfoStart);
+
+        while (pInput.getStreamPosition() < additionalInfoEnd) {
             // 8BIM or 8B64
             int resourceSignature = pInput.readInt();
 
@@ -145,6 +169,34 @@ final class PSDLayerInfo {
                     layerId = pInput.readInt();
                     break;
 
+                case PSD.lsct:
+                case PSD.lsdk:
+                    // Section divider, marks the start (bounding divider) or end (folder) of a layer group
+                    sectionDividerType = pInput.readInt();
+                    break;
+
+                case PSD.brit:
+                case PSD.levl:
+                case PSD.curv:
+                case PSD.expA:
+                case PSD.vibA:
+                case PSD.hue:
+                case PSD.hue2:
+                case PSD.blnc:
+                case PSD.blwh:
+                case PSD.phfl:
+                case PSD.mixr:
+                case PSD.clrL:
+                case PSD.nvrt:
+                case PSD.post:
+                case PSD.thrs:
+                case PSD.grdm:
+                case PSD.selc:
+                    // Adjustment layer, the pixel data (if any) is not the appearance of the layer
+                    adjustmentLayer = true;
+                    pInput.skipBytes(resourceLength);
+                    break;
+
                 default:
                     // TODO: Parse more data...
                     pInput.skipBytes(resourceLength);
@@ -157,12 +209,11 @@ final class PSDLayerInfo {
             }
         }
 
-        // Re-align in case we got the length incorrect
-        if (pInput.getStreamPosition() != expectedEnd) {
-            pInput.seek(expectedEnd);
-        }
+        additionalInfoParsed = true;
     }
 
+    // NOTE: The unicode name, id, section divider and adjustment layer flag are from the additional layer info,
+    // and are only available after initAdditionalLayerInfo
     String getLayerName() {
         return unicodeLayerName != null ? unicodeLayerName : layerName;
     }
@@ -171,6 +222,19 @@ final class PSDLayerInfo {
         return layerId;
     }
 
+    int getSectionDividerType() {
+        return sectionDividerType;
+    }
+
+    boolean isAdjustmentLayer() {
+        return adjustmentLayer;
+    }
+
+    boolean isVisible() {
+        // NOTE: Bit 1 is documented as "visible", but is set for hidden layers
+        return (blendMode.flags & 0x02) == 0;
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder(getClass().getSimpleName());
@@ -135,6 +135,30 @@ final class PSDLayerMaskData {
         }
     }
 
+    int getTop() {
+        return top;
+    }
+
+    int getLeft() {
+        return left;
+    }
+
+    int getBottom() {
+        return bottom;
+    }
+
+    int getRight() {
+        return right;
+    }
+
+    int getDefaultColor() {
+        return defaultColor;
+    }
+
+    boolean isDisabled() {
+        return (flags & 0x02) != 0;
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder(getClass().getSimpleName());
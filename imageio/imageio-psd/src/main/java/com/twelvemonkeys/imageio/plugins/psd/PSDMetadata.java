@@ -70,6 +70,7 @@ public final class PSDMetadata extends AbstractMetadata {
     long imageResourcesStart;
     long layerAndMaskInfoStart;
     long layersStart;
+    long[][] channelDataStart; // Start position of each channel, per layer
     long imageDataStart;
 
     static final String[] COLOR_MODES = {
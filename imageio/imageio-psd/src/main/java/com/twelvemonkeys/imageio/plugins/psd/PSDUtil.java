@@ -39,7 +39,8 @@ import javax.imageio.stream.ImageInputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.IOException;
-import java.util.zip.ZipInputStream;
+import java.io.InputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * PSDUtil
@@ -94,11 +95,16 @@ final class PSDUtil {
     }
 
     static DataInputStream createZipStream(final ImageInputStream pInput, long pLength) {
-        return new DataInputStream(new ZipInputStream(IIOUtil.createStreamAdapter(pInput, pLength)));
+        return new DataInputStream(new InflaterInputStream(createStreamAdapter(pInput, pLength)));
     }
 
-    static DataInputStream createZipPredictorStream(final ImageInputStream pInput, long pLength) {
-        throw new UnsupportedOperationException("Method createZipPredictonStream not implemented");
+    static DataInputStream createZipPredictorStream(final ImageInputStream pInput, long pLength, int pColumns, int pBitsPerSample) {
+        return new DataInputStream(new HorizontalDeDifferencingStream(new InflaterInputStream(createStreamAdapter(pInput, pLength)), pColumns, pBitsPerSample));
+    }
+
+    private static InputStream createStreamAdapter(final ImageInputStream pInput, long pLength) {
+        // A negative length means the data continues to the end of the stream
+        return pLength < 0 ? IIOUtil.createStreamAdapter(pInput) : IIOUtil.createStreamAdapter(pInput, pLength);
     }
 
     public static float fixedPointToFloat(int pFP) {
@@ -30,6 +30,7 @@
 
 package com.twelvemonkeys.imageio.plugins.psd;
 
+import com.twelvemonkeys.imageio.stream.ByteArrayImageInputStream;
 import com.twelvemonkeys.imageio.util.ImageReaderAbstractTest;
 import com.twelvemonkeys.imageio.util.ProgressListenerBase;
 import org.junit.Test;
@@ -45,9 +46,17 @@ import javax.imageio.spi.ImageReaderSpi;
 import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DeflaterOutputStream;
 
 import static org.junit.Assert.*;
 
@@ -100,7 +109,15 @@ public class PSDImageReaderTest extends ImageReaderAbstractTest<PSDImageReader>
                 new TestData(getClassLoaderResource("/psd/rgb-multichannel-no-transparency.psd"), new Dimension(100, 100)),
                 new TestData(getClassLoaderResource("/psb/rgb-multichannel-no-transparency.psb"), new Dimension(100, 100)),
                 // CMYK, uncompressed + contains some uncommon MeSa (instead of 8BIM) resource blocks
-                new TestData(getClassLoaderResource("/psd/fruit-cmyk-MeSa-resource.psd"), new Dimension(400, 191))
+                new TestData(getClassLoaderResource("/psd/fruit-cmyk-MeSa-resource.psd"), new Dimension(400, 191)),
+                // RGB, ZIP compressed composite and layers (re-compressed from buttons.psd)
+                new TestData(getClassLoaderResource("/psd/buttons-zip.psd"), new Dimension(20, 20)),
+                // RGB, ZIP with prediction compressed composite and layers (re-compressed from jugware-icon.psd)
+                new TestData(getClassLoaderResource("/psd/jugware-icon-zip-prediction.psd"), new Dimension(128, 128)),
+                // CMYK, 16 bit, ZIP with prediction (re-compressed from fruit-cmyk-MeSa-resource.psd)
+                new TestData(getClassLoaderResource("/psd/fruit-cmyk-zip-prediction.psd"), new Dimension(400, 191)),
+                // RGB, 32 bit, ZIP with prediction (re-compressed from 32bit5x5.psd)
+                new TestData(getClassLoaderResource("/psd/32bit5x5-zip-prediction.psd"), new Dimension(5, 5))
                 // TODO: Need more recent ZIP compressed PSD files from CS2/CS3+
         );
     }
@@ -411,6 +428,65 @@ public class PSDImageReaderTest extends ImageReaderAbstractTest<PSDImageReader>
         }
     }
 
+    @Test
+    public void testReadLayersSourceRegionSubsampled() throws IOException {
+        PSDImageReader imageReader = createReader();
+
+        try (ImageInputStream stream = getTestData().get(3).getInputStream()) {
+            imageReader.setInput(stream);
+
+            int numImages = imageReader.getNumImages(true);
+            for (int i = 1; i < numImages; i++) {
+                BufferedImage full = imageReader.read(i);
+
+                int width = full.getWidth();
+                int height = full.getHeight();
+                Rectangle sourceRegion = new Rectangle(width / 4, height / 3, width / 2, height / 2);
+
+                ImageReadParam param = imageReader.getDefaultReadParam();
+                param.setSourceRegion(sourceRegion);
+                param.setSourceSubsampling(3, 2, 1, 1);
+
+                BufferedImage image = imageReader.read(i, param);
+
+                assertEquals((sourceRegion.width - 1 + 2) / 3, image.getWidth());
+                assertEquals((sourceRegion.height - 1 + 1) / 2, image.getHeight());
+
+                for (int y = 0; y < image.getHeight(); y++) {
+                    for (int x = 0; x < image.getWidth(); x++) {
+                        int sourceX = sourceRegion.x + 1 + x * 3;
+                        int sourceY = sourceRegion.y + 1 + y * 2;
+
+                        assertEquals(String.format("Colors differ at (%d, %d) in layer %d", x, y, i), full.getRGB(sourceX, sourceY), image.getRGB(x, y));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReadLayersDestinationOffset() throws IOException {
+        PSDImageReader imageReader = createReader();
+
+        try (ImageInputStream stream = getTestData().get(3).getInputStream()) {
+            imageReader.setInput(stream);
+
+            BufferedImage full = imageReader.read(1);
+
+            ImageReadParam param = imageReader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(8, 8, 32, 32));
+            param.setDestinationOffset(new Point(10, 5));
+
+            BufferedImage image = imageReader.read(1, param);
+
+            for (int y = 0; y < 32; y++) {
+                for (int x = 0; x < 32; x++) {
+                    assertEquals(String.format("Colors differ at (%d, %d)", x, y), full.getRGB(8 + x, 8 + y), image.getRGB(10 + x, 5 + y));
+                }
+            }
+        }
+    }
+
     @Test
     public void testGrayAlphaLayers() throws IOException {
         PSDImageReader imageReader = createReader();
@@ -502,4 +578,667 @@ public class PSDImageReaderTest extends ImageReaderAbstractTest<PSDImageReader>
             assertEquals("If_The_Layer_Name_Is_Really_Long_Oh_No_What_Do_I_Do", ((IIOMetadataNode) layerInfo.item(0)).getAttribute("name"));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReadCMYKAsRGB() throws IOException {
+        PSDImageReader imageReader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/psd/cmyk_8bits.psd"))) {
+            imageReader.setInput(stream);
+
+            BufferedImage cmyk = imageReader.read(0);
+
+            ImageReadParam param = imageReader.getDefaultReadParam();
+            param.setDestinationType(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_3BYTE_BGR));
+            BufferedImage rgb = imageReader.read(0, param);
+
+            assertEquals(BufferedImage.TYPE_3BYTE_BGR, rgb.getType());
+            assertEquals(cmyk.getWidth(), rgb.getWidth());
+            assertEquals(cmyk.getHeight(), rgb.getHeight());
+
+            BufferedImage expected = new ColorConvertOp(null).filter(cmyk, new BufferedImage(cmyk.getWidth(), cmyk.getHeight(), BufferedImage.TYPE_INT_RGB));
+
+            for (int y = 0; y < rgb.getHeight(); y++) {
+                for (int x = 0; x < rgb.getWidth(); x++) {
+                    // The lookup table interpolation differs slightly from the CMM, mostly near the gamut boundary
+                    assertRGBEquals(String.format("Colors differ at (%d, %d)", x, y), expected.getRGB(x, y), rgb.getRGB(x, y), 8);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReadCMYKAsRGBSourceRegion() throws IOException {
+        PSDImageReader imageReader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/psd/cmyk_16bits.psd"))) {
+            imageReader.setInput(stream);
+
+            ImageReadParam param = imageReader.getDefaultReadParam();
+            param.setDestinationType(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB));
+            BufferedImage full = imageReader.read(0, param);
+
+            param.setSourceRegion(new Rectangle(100, 20, 300, 200));
+            BufferedImage region = imageReader.read(0, param);
+
+            assertEquals(BufferedImage.TYPE_INT_RGB, region.getType());
+            assertEquals(300, region.getWidth());
+            assertEquals(200, region.getHeight());
+
+            for (int y = 0; y < region.getHeight(); y++) {
+                for (int x = 0; x < region.getWidth(); x++) {
+                    assertEquals(String.format("Colors differ at (%d, %d)", x, y), full.getRGB(100 + x, 20 + y), region.getRGB(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReadCMYKAsRGBSourceRegionSubsampled() throws IOException {
+        PSDImageReader imageReader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/psd/cmyk_16bits.psd"))) {
+            imageReader.setInput(stream);
+
+            ImageReadParam param = imageReader.getDefaultReadParam();
+            param.setDestinationType(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB));
+            BufferedImage full = imageReader.read(0, param);
+
+            param.setSourceRegion(new Rectangle(100, 20, 300, 200));
+            param.setSourceSubsampling(2, 3, 1, 0);
+            BufferedImage region = imageReader.read(0, param);
+
+            assertEquals(150, region.getWidth());
+            assertEquals(67, region.getHeight());
+
+            for (int y = 0; y < region.getHeight(); y++) {
+                for (int x = 0; x < region.getWidth(); x++) {
+                    assertEquals(String.format("Colors differ at (%d, %d)", x, y), full.getRGB(101 + x * 2, 20 + y * 3), region.getRGB(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReadZIPCompressed() throws IOException {
+        assertSameImages("/psd/buttons.psd", "/psd/buttons-zip.psd");
+    }
+
+    @Test
+    public void testReadZIPPredictionCompressed() throws IOException {
+        assertSameImages("/psd/jugware-icon.psd", "/psd/jugware-icon-zip-prediction.psd");
+    }
+
+    @Test
+    public void testReadZIPPredictionCompressed16() throws IOException {
+        assertSameImages("/psd/fruit-cmyk-MeSa-resource.psd", "/psd/fruit-cmyk-zip-prediction.psd");
+    }
+
+    @Test
+    public void testReadZIPPredictionCompressed32() throws IOException {
+        assertSameImages("/psd/32bit5x5.psd", "/psd/32bit5x5-zip-prediction.psd");
+    }
+
+    @Test
+    public void testReadZIPPredictionCompressedSourceRegionSubsampled() throws IOException {
+        PSDImageReader imageReader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/psd/jugware-icon-zip-prediction.psd"))) {
+            imageReader.setInput(stream);
+
+            int numImages = imageReader.getNumImages(true);
+            for (int i = 0; i < numImages; i++) {
+                BufferedImage full = imageReader.read(i);
+
+                ImageReadParam param = imageReader.getDefaultReadParam();
+                param.setSourceRegion(new Rectangle(full.getWidth() / 4, full.getHeight() / 4, full.getWidth() / 2, full.getHeight() / 2));
+                param.setSourceSubsampling(2, 3, 0, 0);
+
+                BufferedImage image = imageReader.read(i, param);
+
+                for (int y = 0; y < image.getHeight(); y++) {
+                    for (int x = 0; x < image.getWidth(); x++) {
+                        assertEquals(String.format("Colors differ at (%d, %d) in image %d", x, y, i),
+                                full.getRGB(full.getWidth() / 4 + x * 2, full.getHeight() / 4 + y * 3), image.getRGB(x, y));
+                    }
+                }
+            }
+        }
+    }
+
+    private void assertSameImages(final String expectedResource, final String actualResource) throws IOException {
+        PSDImageReader expectedReader = createReader();
+        PSDImageReader actualReader = createReader();
+
+        try (ImageInputStream expectedStream = ImageIO.createImageInputStream(getClassLoaderResource(expectedResource));
+             ImageInputStream actualStream = ImageIO.createImageInputStream(getClassLoaderResource(actualResource))) {
+            expectedReader.setInput(expectedStream);
+            actualReader.setInput(actualStream);
+
+            int numImages = expectedReader.getNumImages(true);
+            assertEquals(numImages, actualReader.getNumImages(true));
+
+            for (int i = 0; i < numImages; i++) {
+                BufferedImage expected = expectedReader.read(i);
+                BufferedImage actual = actualReader.read(i);
+
+                if (expected == null) {
+                    assertNull(actual);
+                    continue;
+                }
+
+                assertSameSamples(String.format("image %d", i), expected, actual);
+            }
+        }
+    }
+
+    private static void assertSameSamples(final String message, final BufferedImage expected, final BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+
+        // Compare raw samples, to also cover 16 and 32 bit data exactly
+        Raster expectedRaster = expected.getRaster();
+        Raster actualRaster = actual.getRaster();
+        assertEquals(expectedRaster.getNumBands(), actualRaster.getNumBands());
+
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                for (int b = 0; b < expectedRaster.getNumBands(); b++) {
+                    float expectedSample = expectedRaster.getSampleFloat(x, y, b);
+                    float actualSample = actualRaster.getSampleFloat(x, y, b);
+
+                    // Only format the message on failure, as there are a lot of samples
+                    if (Float.compare(expectedSample, actualSample) != 0) {
+                        fail(String.format("Samples differ at (%d, %d), band %d in %s: expected %s, was %s", x, y, b, message, expectedSample, actualSample));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDefaultReadParam() {
+        PSDImageReader imageReader = createReader();
+
+        ImageReadParam param = imageReader.getDefaultReadParam();
+        assertTrue(param instanceof PSDImageReadParam);
+        assertNull(((PSDImageReadParam) param).getExecutor());
+        assertFalse(((PSDImageReadParam) param).isLayerCompositingEnabled());
+    }
+
+    @Test
+    public void testReadConcurrent() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            // Uncompressed, RLE, ZIP (composite is a single stream, decoded sequentially) and ZIP with prediction
+            assertSameImagesConcurrent(executor, "/psd/cmyk_16bits.psd", null);
+            assertSameImagesConcurrent(executor, "/psd/cmyk_8bits.psd", null);
+            assertSameImagesConcurrent(executor, "/psd/adobehq_layers.psd", null);
+            assertSameImagesConcurrent(executor, "/psd/buttons-zip.psd", null);
+            assertSameImagesConcurrent(executor, "/psd/jugware-icon-zip-prediction.psd", null);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadConcurrentSourceRegionSubsampled() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            ImageReadParam param = new ImageReadParam();
+            param.setSourceRegion(new Rectangle(10, 15, 90, 70));
+            param.setSourceSubsampling(3, 2, 1, 0);
+
+            assertSameImagesConcurrent(executor, "/psd/cmyk_8bits.psd", param);
+            assertSameImagesConcurrent(executor, "/psd/adobehq_layers.psd", param);
+            assertSameImagesConcurrent(executor, "/psd/jugware-icon-zip-prediction.psd", param);
+
+            // Only the rows sampled are read into memory, make sure the row offsets are correct
+            param.setSourceSubsampling(2, 3, 0, 2);
+            assertSameImagesConcurrent(executor, "/psd/cmyk_16bits.psd", param);
+            assertSameImagesConcurrent(executor, "/psd/cmyk_8bits.psd", param);
+            assertSameImagesConcurrent(executor, "/psd/adobehq_layers.psd", param);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadCMYKAsRGBConcurrent() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        PSDImageReader imageReader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/psd/cmyk_16bits.psd"))) {
+            imageReader.setInput(stream);
+
+            PSDImageReadParam param = (PSDImageReadParam) imageReader.getDefaultReadParam();
+            param.setDestinationType(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB));
+            BufferedImage expected = imageReader.read(0, param);
+
+            param.setExecutor(executor);
+            BufferedImage actual = imageReader.read(0, param);
+
+            assertSameSamples("CMYK as RGB", expected, actual);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private void assertSameImagesConcurrent(final Executor executor, final String resource, final ImageReadParam baseParam) throws IOException {
+        PSDImageReader imageReader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource(resource))) {
+            imageReader.setInput(stream);
+
+            int numImages = imageReader.getNumImages(true);
+            for (int i = 0; i < numImages; i++) {
+                PSDImageReadParam param = (PSDImageReadParam) imageReader.getDefaultReadParam();
+
+                if (baseParam != null) {
+                    Rectangle region = baseParam.getSourceRegion().intersection(new Rectangle(imageReader.getWidth(i), imageReader.getHeight(i)));
+
+                    if (region.isEmpty()) {
+                        continue;
+                    }
+
+                    param.setSourceRegion(region);
+                    param.setSourceSubsampling(baseParam.getSourceXSubsampling(), baseParam.getSourceYSubsampling(),
+                            baseParam.getSubsamplingXOffset(), baseParam.getSubsamplingYOffset());
+                }
+
+                BufferedImage expected = imageReader.read(i, param);
+
+                param.setExecutor(executor);
+                BufferedImage actual = imageReader.read(i, param);
+
+                if (expected == null) {
+                    assertNull(actual);
+                    continue;
+                }
+
+                assertSameSamples(String.format("image %d of %s", i, resource), expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testReadLayerCompositing() throws IOException {
+        // Normal layers, with transparency, masks, shape layers and multiple bands (RGB, Gray and CMYK)
+        assertCompositeSimilar("/psd/photoshopping.psd");
+        assertCompositeSimilar("/psd/masks2.psd");
+        assertCompositeSimilar("/psd/test_grayscale_boxes.psd");
+        assertCompositeSimilar("/psd/escenic-liquid-logo.psd");
+        assertCompositeSimilar("/psd/transp.psd");
+    }
+
+    @Test
+    public void testReadLayerCompositingNoRealMergedData() throws IOException {
+        PSDImageReader imageReader = createReader();
+
+        // File has no real merged data (just a placeholder text), and a hidden layer
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/psd/jugware-icon.psd"))) {
+            imageReader.setInput(stream);
+
+            PSDImageReadParam param = (PSDImageReadParam) imageReader.getDefaultReadParam();
+            param.setLayerCompositingEnabled(true);
+            BufferedImage image = imageReader.read(0, param);
+
+            assertEquals(128, image.getWidth());
+            assertEquals(128, image.getHeight());
+
+            // Transparent areas are flattened onto white, the hidden layer is not visible
+            assertRGBEquals("Hidden layer rendered", 0xffffffff, image.getRGB(0, 0), 0);
+            assertRGBEquals("Hidden layer rendered", 0xffffffff, image.getRGB(127, 127), 0);
+
+            // Where the visible layer is opaque, the composite is the layer color
+            BufferedImage layer = imageReader.read(2);
+            assertEquals(0xff, layer.getRaster().getSample(90 - 6, 90 - 5, 3));
+            assertRGBEquals("Visible layer not rendered", layer.getRGB(90 - 6, 90 - 5), image.getRGB(90, 90), 0);
+        }
+    }
+
+    @Test
+    public void testReadLayerCompositingNoLayers() throws IOException {
+        PSDImageReader imageReader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/psd/test_original.psd"))) {
+            imageReader.setInput(stream);
+
+            BufferedImage expected = imageReader.read(0);
+
+            PSDImageReadParam param = (PSDImageReadParam) imageReader.getDefaultReadParam();
+            param.setLayerCompositingEnabled(true);
+            BufferedImage actual = imageReader.read(0, param);
+
+            assertSameSamples("merged image data", expected, actual);
+        }
+    }
+
+    @Test
+    public void testReadLayerCompositingSourceRegionSubsampled() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        PSDImageReader imageReader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/psd/masks2.psd"))) {
+            imageReader.setInput(stream);
+
+            PSDImageReadParam param = (PSDImageReadParam) imageReader.getDefaultReadParam();
+            param.setLayerCompositingEnabled(true);
+            BufferedImage full = imageReader.read(0, param);
+
+            Rectangle region = new Rectangle(13, 27, 600, 1086);
+            param.setSourceRegion(region);
+            param.setSourceSubsampling(3, 2, 0, 0);
+            param.setExecutor(executor);
+            BufferedImage image = imageReader.read(0, param);
+
+            assertEquals(200, image.getWidth());
+            assertEquals(543, image.getHeight());
+
+            Raster fullRaster = full.getRaster();
+            Raster raster = image.getRaster();
+
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    for (int b = 0; b < raster.getNumBands(); b++) {
+                        int expected = fullRaster.getSample(region.x + x * 3, region.y + y * 2, b);
+                        int actual = raster.getSample(x, y, b);
+
+                        if (expected != actual) {
+                            fail(String.format("Samples differ at (%d, %d), band %d: expected %s, was %s", x, y, b, expected, actual));
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadLayerCompositingCMYKAsRGB() throws IOException {
+        PSDImageReader imageReader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/psd/escenic-liquid-logo.psd"))) {
+            imageReader.setInput(stream);
+
+            PSDImageReadParam param = (PSDImageReadParam) imageReader.getDefaultReadParam();
+            param.setDestinationType(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB));
+            BufferedImage expected = imageReader.read(0, param);
+
+            param.setLayerCompositingEnabled(true);
+            BufferedImage actual = imageReader.read(0, param);
+
+            assertSameSamples("CMYK as RGB", expected, actual);
+        }
+    }
+
+    @Test
+    public void testReadLayerCompositingZIPMultipleBands() throws IOException {
+        // Large enough to be rendered in multiple bands, the ZIP compressed layers must render as the uncompressed
+        byte[] uncompressed = createLayeredDocument(600, 1000, false);
+        byte[] compressed = createLayeredDocument(600, 1000, true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        PSDImageReader imageReader = createReader();
+
+        try {
+            PSDImageReadParam param = (PSDImageReadParam) imageReader.getDefaultReadParam();
+            param.setLayerCompositingEnabled(true);
+            param.setExecutor(executor);
+
+            imageReader.setInput(new ByteArrayImageInputStream(uncompressed));
+            BufferedImage expected = imageReader.read(0, param);
+
+            imageReader.setInput(new ByteArrayImageInputStream(compressed));
+            assertSameSamples("ZIP compressed layers", expected, imageReader.read(0, param));
+
+            param.setSourceRegion(new Rectangle(7, 33, 590, 950));
+            param.setSourceSubsampling(1, 2, 0, 0);
+
+            imageReader.setInput(new ByteArrayImageInputStream(uncompressed));
+            expected = imageReader.read(0, param);
+
+            imageReader.setInput(new ByteArrayImageInputStream(compressed));
+            assertSameSamples("ZIP compressed layers, source region subsampled", expected, imageReader.read(0, param));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    // RGB document with an opaque background layer, and a layer with transparency and a user mask
+    private static byte[] createLayeredDocument(final int width, final int height, final boolean zip) throws IOException {
+        int[][] bounds = {{0, 0, height, width}, {100, 50, height - 100, width - 50}}; // top, left, bottom, right
+        int[][] channelIds = {{0, 1, 2}, {-1, 0, 1, 2, -2}};
+        int[] maskBounds = {200, 100, height - 200, width - 100};
+
+        ByteArrayOutputStream layerBytes = new ByteArrayOutputStream();
+        DataOutputStream layers = new DataOutputStream(layerBytes);
+        ByteArrayOutputStream channelBytes = new ByteArrayOutputStream();
+        DataOutputStream channels = new DataOutputStream(channelBytes);
+
+        layers.writeShort(bounds.length);
+
+        for (int i = 0; i < bounds.length; i++) {
+            boolean masked = channelIds[i][channelIds[i].length - 1] == -2;
+
+            for (int bound : bounds[i]) {
+                layers.writeInt(bound);
+            }
+
+            layers.writeShort(channelIds[i].length);
+
+            for (int channelId : channelIds[i]) {
+                int[] channelBounds = channelId == -2 ? maskBounds : bounds[i];
+                int channelWidth = channelBounds[3] - channelBounds[1];
+                int channelHeight = channelBounds[2] - channelBounds[0];
+
+                byte[] samples = new byte[channelWidth * channelHeight];
+                for (int y = 0; y < channelHeight; y++) {
+                    for (int x = 0; x < channelWidth; x++) {
+                        samples[y * channelWidth + x] = (byte) (x * (channelId + 3) + y * (i + 5) + (x * y >> 4));
+                    }
+                }
+
+                int compression = !zip ? PSD.COMPRESSION_NONE : i == 0 || channelId == -2 ? PSD.COMPRESSION_ZIP : PSD.COMPRESSION_ZIP_PREDICTION;
+                byte[] data = compressChannel(samples, channelWidth, compression);
+
+                layers.writeShort(channelId);
+                layers.writeInt(2 + data.length);
+
+                channels.writeShort(compression);
+                channels.write(data);
+            }
+
+            layers.writeBytes("8BIMnorm");
+            layers.writeByte(255); // Opacity
+            layers.writeByte(0); // Clipping
+            layers.writeByte(0); // Flags
+            layers.writeByte(0); // Pad
+
+            layers.writeInt(4 + (masked ? 20 : 0) + 4 + 4); // Extra data length
+
+            layers.writeInt(masked ? 20 : 0);
+            if (masked) {
+                for (int bound : maskBounds) {
+                    layers.writeInt(bound);
+                }
+
+                layers.writeByte(0); // Default color
+                layers.writeByte(0); // Flags
+                layers.writeShort(0); // Pad
+            }
+
+            layers.writeInt(0); // Blending ranges
+            layers.writeByte(2);
+            layers.writeBytes("L" + i);
+            layers.writeByte(0); // Pad
+        }
+
+        channelBytes.writeTo(layerBytes);
+        if (layerBytes.size() % 2 != 0) {
+            layerBytes.write(0);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeBytes("8BPS");
+        out.writeShort(1);
+        out.write(new byte[6]);
+        out.writeShort(3);
+        out.writeInt(height);
+        out.writeInt(width);
+        out.writeShort(8);
+        out.writeShort(PSD.COLOR_MODE_RGB);
+
+        out.writeInt(0); // Color mode data
+
+        out.writeInt(14); // Image resources
+        out.writeBytes("8BIM");
+        out.writeShort(PSD.RES_COPYRIGHT_FLAG);
+        out.writeShort(0); // Empty name
+        out.writeInt(2);
+        out.writeShort(0);
+
+        out.writeInt(4 + layerBytes.size() + 4);
+        out.writeInt(layerBytes.size());
+        layerBytes.writeTo(out);
+        out.writeInt(0); // Global layer mask
+
+        // The merged image data is not used when compositing
+        out.writeShort(PSD.COMPRESSION_NONE);
+        out.write(new byte[3 * width * height]);
+
+        return bytes.toByteArray();
+    }
+
+    private static byte[] compressChannel(final byte[] samples, final int width, final int compression) throws IOException {
+        if (compression == PSD.COMPRESSION_NONE) {
+            return samples;
+        }
+
+        byte[] data = samples.clone();
+
+        if (compression == PSD.COMPRESSION_ZIP_PREDICTION) {
+            for (int i = data.length - 1; i >= 0; i--) {
+                if (i % width != 0) {
+                    data[i] -= samples[i - 1];
+                }
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(bytes)) {
+            deflater.write(data);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testLayerBlendModes() {
+        float b = 0.25f;
+        float s = 0.75f;
+
+        assertEquals(s, PSDLayerCompositor.blend(PSD.BLEND_NORM, b, s), 0);
+        assertEquals(b * s, PSDLayerCompositor.blend(PSD.BLEND_MUL, b, s), 1e-6);
+        assertEquals(b + s - b * s, PSDLayerCompositor.blend(PSD.BLEND_SCRN, b, s), 1e-6);
+        assertEquals(b, PSDLayerCompositor.blend(PSD.BLEND_DARK, b, s), 0);
+        assertEquals(s, PSDLayerCompositor.blend(PSD.BLEND_LITE, b, s), 0);
+        assertEquals(0.5f, PSDLayerCompositor.blend(PSD.BLEND_DIFF, b, s), 1e-6);
+        assertEquals(2 * b * s, PSDLayerCompositor.blend(PSD.BLEND_OVER, b, s), 1e-6); // b <= 0.5: multiply
+        assertEquals(b + (2 * s - 1) - b * (2 * s - 1), PSDLayerCompositor.blend(PSD.BLEND_HLIT, b, s), 1e-6); // s > 0.5: screen
+        assertEquals(1, PSDLayerCompositor.blend(PSD.BLEND_DIV, b, s), 0); // b / (1 - s) > 1
+        assertEquals(1 - 0.75f / 0.75f, PSDLayerCompositor.blend(PSD.BLEND_IDIV, b, s), 1e-6);
+        assertEquals(0, PSDLayerCompositor.blend(PSD.BLEND_LBRN, b, s), 0);
+        assertEquals(1, PSDLayerCompositor.blend(PSD.BLEND_LDDG, b, s), 0);
+        assertEquals(0, PSDLayerCompositor.blend(PSD.BLEND_FSUB, b, s), 0);
+        assertEquals(b / s, PSDLayerCompositor.blend(PSD.BLEND_FDIV, b, s), 1e-6);
+        assertEquals(1, PSDLayerCompositor.blend(PSD.BLEND_HMIX, b, s), 0);
+
+        // Luminosity of a gray source applied to a color backdrop keeps the hue
+        float[] result = PSDLayerCompositor.blendNonSeparable(PSD.BLEND_LUM, new float[] {0.8f, 0.2f, 0.2f}, new float[] {0.5f, 0.5f, 0.5f});
+        assertEquals(0.5f, 0.3f * result[0] + 0.59f * result[1] + 0.11f * result[2], 1e-6);
+        assertTrue(result[0] > result[1]);
+        assertEquals(result[1], result[2], 1e-6);
+    }
+
+    @Test
+    public void testReadLayersRandomAccess() throws IOException {
+        assertSameLayersReversed("/psd/buttons.psd");
+        assertSameLayersReversed("/psd/adobehq_layers.psd");
+        assertSameLayersReversed("/psd/masks2.psd");
+    }
+
+    private void assertSameLayersReversed(final String resource) throws IOException {
+        PSDImageReader expectedReader = createReader();
+        PSDImageReader actualReader = createReader();
+
+        try (ImageInputStream expectedStream = ImageIO.createImageInputStream(getClassLoaderResource(resource));
+             ImageInputStream actualStream = ImageIO.createImageInputStream(getClassLoaderResource(resource))) {
+            expectedReader.setInput(expectedStream);
+            actualReader.setInput(actualStream);
+
+            int numImages = expectedReader.getNumImages(true);
+            List<BufferedImage> expected = new ArrayList<>();
+            for (int i = 0; i < numImages; i++) {
+                expected.add(expectedReader.read(i));
+            }
+
+            // Layers are located using the channel data index, regardless of read order
+            for (int i = numImages - 1; i >= 0; i--) {
+                BufferedImage actual = actualReader.read(i);
+
+                if (expected.get(i) == null) {
+                    assertNull(actual);
+                    continue;
+                }
+
+                assertSameSamples(String.format("image %d of %s", i, resource), expected.get(i), actual);
+            }
+        }
+    }
+
+    private void assertCompositeSimilar(final String resource) throws IOException {
+        PSDImageReader imageReader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource(resource))) {
+            imageReader.setInput(stream);
+
+            BufferedImage expected = imageReader.read(0);
+
+            PSDImageReadParam param = (PSDImageReadParam) imageReader.getDefaultReadParam();
+            param.setLayerCompositingEnabled(true);
+            BufferedImage actual = imageReader.read(0, param);
+
+            assertEquals(expected.getWidth(), actual.getWidth());
+            assertEquals(expected.getHeight(), actual.getHeight());
+
+            Raster expectedRaster = expected.getRaster();
+            Raster actualRaster = actual.getRaster();
+            assertEquals(expectedRaster.getNumBands(), actualRaster.getNumBands());
+
+            // Allow for rounding, and small differences in anti-aliased edges
+            long difference = 0;
+            for (int y = 0; y < expected.getHeight(); y++) {
+                for (int x = 0; x < expected.getWidth(); x++) {
+                    for (int b = 0; b < expectedRaster.getNumBands(); b++) {
+                        difference += Math.abs(expectedRaster.getSample(x, y, b) - actualRaster.getSample(x, y, b));
+                    }
+                }
+            }
+
+            double mean = difference / (double) (expected.getWidth() * expected.getHeight() * expectedRaster.getNumBands());
+            assertTrue(String.format("Composite differs from merged image data in %s, mean difference: %f", resource, mean), mean < 0.5);
+        }
+    }
+}
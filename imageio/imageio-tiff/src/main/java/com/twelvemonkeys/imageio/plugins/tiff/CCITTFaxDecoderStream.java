@@ -40,13 +40,20 @@ import java.util.Arrays;
 
 /**
  * CCITT Modified Huffman RLE, Group 3 (T4) and Group 4 (T6) fax compression.
+ * <p>
+ * The Huffman codes are decoded using lookup tables, indexed by the next bits of the stream,
+ * only falling back to walking the code trees for long (rare) codes.
+ * Each row is decoded to a list of changing elements (run lengths), and the runs are filled into the
+ * packed row, a whole byte at a time where possible.
+ * Callers that don't need the packed bitmap, may use {@link #readRunLengths(int[])} to get the run lengths directly.
+ * </p>
  *
  * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
  * @author <a href="https://github.com/Schmidor">Oliver Schmidtmer</a>
  * @author last modified by $Author: haraldk$
  * @version $Id: CCITTFaxDecoderStream.java,v 1.0 23.05.12 15:55 haraldk Exp$
  */
-final class CCITTFaxDecoderStream extends FilterInputStream {
+public final class CCITTFaxDecoderStream extends FilterInputStream {
     // See TIFF 6.0 Specification, Section 10: "Modified Huffman Compression", page 43.
 
     private final int columns;
@@ -220,10 +227,10 @@ final class CCITTFaxDecoderStream extends FilterInputStream {
             int completeRun;
 
             if (white) {
-                completeRun = decodeRun(whiteRunTree);
+                completeRun = decodeRun(whiteRunTable);
             }
             else {
-                completeRun = decodeRun(blackRunTree);
+                completeRun = decodeRun(blackRunTable);
             }
 
             index += completeRun;
@@ -244,61 +251,57 @@ final class CCITTFaxDecoderStream extends FilterInputStream {
         int index = 0;
         changesCurrentRowCount = 0;
 
-        mode: while (index < columns) {
-            // read mode
-            Node n = codeTree.root;
+        while (index < columns) {
+            // Read mode, all mode codes are short enough to be looked up directly
+            int code = peekBits(codeTable.bits);
+            skipBits(codeTable.lengths[code]);
 
-            while (true) {
-                n = n.walk(readBit());
+            int value = codeTable.values[code];
 
-                if (n == null) {
-                    continue mode;
-                }
-                else if (n.isLeaf) {
-                    switch (n.value) {
-                        case VALUE_HMODE:
-                            int runLength;
-                            runLength = decodeRun(white ? whiteRunTree : blackRunTree);
-                            index += runLength;
-                            changesCurrentRow[changesCurrentRowCount++] = index;
-
-                            runLength = decodeRun(white ? blackRunTree : whiteRunTree);
-                            index += runLength;
-                            changesCurrentRow[changesCurrentRowCount++] = index;
-                            break;
-
-                        case VALUE_PASSMODE:
-                            int pChangingElement = getNextChangingElement(index, white) + 1;
-
-                            if (pChangingElement >= changesReferenceRowCount) {
-                                index = columns;
-                            }
-                            else {
-                                index = changesReferenceRow[pChangingElement];
-                            }
-
-                            break;
-
-                        default:
-                            // Vertical mode (-3 to 3)
-                            int vChangingElement = getNextChangingElement(index, white);
-
-                            if (vChangingElement >= changesReferenceRowCount || vChangingElement == -1) {
-                                index = columns + n.value;
-                            }
-                            else {
-                                index = changesReferenceRow[vChangingElement] + n.value;
-                            }
-
-                            changesCurrentRow[changesCurrentRowCount] = index;
-                            changesCurrentRowCount++;
-                            white = !white;
-
-                            break;
+            switch (value) {
+                case VALUE_INVALID:
+                    // Unknown code, skip and try again
+                    break;
+
+                case VALUE_HMODE:
+                    int runLength;
+                    runLength = decodeRun(white ? whiteRunTable : blackRunTable);
+                    index += runLength;
+                    changesCurrentRow[changesCurrentRowCount++] = index;
+
+                    runLength = decodeRun(white ? blackRunTable : whiteRunTable);
+                    index += runLength;
+                    changesCurrentRow[changesCurrentRowCount++] = index;
+                    break;
+
+                case VALUE_PASSMODE:
+                    int pChangingElement = getNextChangingElement(index, white) + 1;
+
+                    if (pChangingElement >= changesReferenceRowCount) {
+                        index = columns;
+                    }
+                    else {
+                        index = changesReferenceRow[pChangingElement];
                     }
 
-                    continue mode;
-                }
+                    break;
+
+                default:
+                    // Vertical mode (-3 to 3)
+                    int vChangingElement = getNextChangingElement(index, white);
+
+                    if (vChangingElement >= changesReferenceRowCount || vChangingElement == -1) {
+                        index = columns + value;
+                    }
+                    else {
+                        index = changesReferenceRow[vChangingElement] + value;
+                    }
+
+                    changesCurrentRow[changesCurrentRowCount] = index;
+                    changesCurrentRowCount++;
+                    white = !white;
+
+                    break;
             }
         }
     }
@@ -366,7 +369,7 @@ final class CCITTFaxDecoderStream extends FilterInputStream {
         decode2D();
     }
 
-    private void decodeRow() throws IOException {
+    private void decodeRowChanges() throws IOException {
         switch (type) {
             case TIFFBaseline.COMPRESSION_CCITT_MODIFIED_HUFFMAN_RLE:
                 decodeRowType2();
@@ -379,118 +382,228 @@ final class CCITTFaxDecoderStream extends FilterInputStream {
                 break;
         }
 
+        lastChangingElement = 0;
+    }
+
+    private void decodeRow() throws IOException {
+        decodeRowChanges();
+        checkRowChanges();
+
+        // Start with an all white row, and fill in the black runs
+        Arrays.fill(decodedRow, (byte) 0);
+
         int index = 0;
         boolean white = true;
 
-        lastChangingElement = 0;
         for (int i = 0; i <= changesCurrentRowCount; i++) {
-            int nextChange = columns;
+            int nextChange = i != changesCurrentRowCount ? Math.min(changesCurrentRow[i], columns) : columns;
 
-            if (i != changesCurrentRowCount) {
-                nextChange = changesCurrentRow[i];
-            }
+            if (nextChange > index) {
+                if (!white) {
+                    fillBlackRun(index, nextChange);
+                }
 
-            if (nextChange > columns) {
-                nextChange = columns;
+                index = nextChange;
             }
 
-            int byteIndex = index / 8;
+            white = !white;
+        }
 
-            while (index % 8 != 0 && (nextChange - index) > 0) {
-                decodedRow[byteIndex] |= (white ? 0 : 1 << (7 - ((index) % 8)));
-                index++;
-            }
+        if (index != columns) {
+            throw new IOException("Sum of run-lengths does not equal scan line width: " + index + " > " + columns);
+        }
+
+        decodedLength = (index + 7) / 8;
+    }
 
-            if (index % 8 == 0) {
-                byteIndex = index / 8;
-                final byte value = (byte) (white ? 0x00 : 0xff);
+    private void checkRowChanges() throws IOException {
+        // Changes past the end of the row are clipped, but a change before the previous one means a corrupted row
+        int index = 0;
 
-                while ((nextChange - index) > 7) {
-                    decodedRow[byteIndex] = value;
-                    index += 8;
-                    ++byteIndex;
-                }
+        for (int i = 0; i < changesCurrentRowCount; i++) {
+            if (changesCurrentRow[i] < index) {
+                throw new IOException("Negative run-length in row: " + changesCurrentRow[i] + " < " + index);
             }
 
-            while ((nextChange - index) > 0) {
-                if (index % 8 == 0) {
-                    decodedRow[byteIndex] = 0;
-                }
+            index = changesCurrentRow[i];
+        }
+    }
+
+    private void fillBlackRun(final int start, final int end) {
+        int firstByte = start >> 3;
+        int lastByte = (end - 1) >> 3;
+        int firstMask = 0xff >>> (start & 7);
+        int lastMask = 0xff << (7 - ((end - 1) & 7));
 
-                decodedRow[byteIndex] |= (white ? 0 : 1 << (7 - ((index) % 8)));
-                index++;
+        if (firstByte == lastByte) {
+            decodedRow[firstByte] |= firstMask & lastMask;
+        }
+        else {
+            decodedRow[firstByte] |= firstMask;
+            Arrays.fill(decodedRow, firstByte + 1, lastByte, (byte) 0xff);
+            decodedRow[lastByte] |= lastMask;
+        }
+    }
+
+    private int toRunLengths(final int[] runLengths) {
+        // Runs alternate white/black, starting with a (possibly empty) white run.
+        // Empty runs inside the row are removed, by merging the surrounding runs of the same color.
+        int count = 0;
+        int index = 0;
+        int color = 0; // 0 == white, 1 == black
+
+        for (int i = 0; i <= changesCurrentRowCount; i++) {
+            int nextChange = i != changesCurrentRowCount ? Math.min(changesCurrentRow[i], columns) : columns;
+            int length = Math.max(0, nextChange - index);
+
+            if (count > 0 && ((count - 1) & 1) == color) {
+                runLengths[count - 1] += length;
+            }
+            else if (length > 0 || count == 0) {
+                runLengths[count++] = length;
             }
 
-            white = !white;
+            index += length;
+            color ^= 1;
         }
-        
-        if (index != columns) {
-            throw new IOException("Sum of run-lengths does not equal scan line width: " + index + " > " + columns);
+
+        return count;
+    }
+
+    /**
+     * Decodes the next row of the stream, and returns the lengths of its runs, rather than the packed pixels.
+     * <p>
+     * The run lengths are stored in {@code runLengths}, alternating between white and black runs,
+     * always starting with a white run (which may be empty, if the row starts with a black pixel).
+     * All other runs are non-empty, and the sum of all runs equals the number of columns.
+     * </p>
+     * <p>
+     * Any pixel data from the current row not yet consumed by the {@code read} methods, is discarded.
+     * </p>
+     *
+     * @param runLengths the array to store the run lengths in, must have a length of at least {@code columns + 1}.
+     * @return the number of runs stored in {@code runLengths}, or {@code -1} if the end of the stream is reached.
+     * @throws IOException if an I/O error occurs, or the stream is corrupted.
+     * @throws IllegalArgumentException if {@code runLengths} is {@code null} or too short.
+     */
+    public int readRunLengths(final int[] runLengths) throws IOException {
+        Validate.notNull(runLengths, "runLengths");
+        Validate.isTrue(runLengths.length > columns, runLengths.length, "runLengths.length must be > columns: %s");
+
+        if (decodedLength < 0) {
+            return -1;
         }
 
-        decodedLength = (index + 7) / 8;
+        // Discard any remaining data from current row
+        decodedLength = 0;
+        decodedPos = 0;
+
+        try {
+            decodeRowChanges();
+        }
+        catch (EOFException e) {
+            decodedLength = -1;
+            return -1;
+        }
+
+        checkRowChanges();
+
+        return toRunLengths(runLengths);
     }
 
-    private int decodeRun(final Tree tree) throws IOException {
+    private int decodeRun(final LookupTable table) throws IOException {
         int total = 0;
 
-        Node n = tree.root;
-
         while (true) {
-            boolean bit = readBit();
-            n = n.walk(bit);
+            int code = peekBits(table.bits);
+            Node n = table.nodes[code];
+            int value;
 
             if (n == null) {
-                throw new IOException("Unknown code in Huffman RLE stream");
-            }
+                // Short code, the common case
+                skipBits(table.lengths[code]);
+                value = table.values[code];
 
-            if (n.isLeaf) {
-                total += n.value;
-                if (n.value >= 64) {
-                    n = tree.root;
-                }
-                else if (n.value >= 0) {
-                    return total;
+                if (value == VALUE_INVALID) {
+                    throw new IOException("Unknown code in Huffman RLE stream");
                 }
-                else {
-                    return columns;
+            }
+            else {
+                // Long code, continue walking the tree
+                skipBits(table.bits);
+
+                do {
+                    n = n.walk(readBit());
+
+                    if (n == null) {
+                        throw new IOException("Unknown code in Huffman RLE stream");
+                    }
                 }
+                while (!n.isLeaf);
+
+                value = n.value;
+            }
+
+            total += value;
+
+            if (value >= 64) {
+                // Make-up code, continue with terminating code
+                continue;
+            }
+            else if (value >= 0) {
+                return total;
+            }
+            else {
+                return columns;
             }
         }
     }
 
     private void resetBuffer() throws IOException {
-        bufferPos = -1;
+        // Skip any remaining bits of the current byte
+        bitCount -= bitCount % 8;
+        bitBuffer &= (1 << bitCount) - 1;
+        paddingBits = Math.min(paddingBits, bitCount);
     }
 
-    int buffer = -1;
-    int bufferPos = -1;
+    // Bits read from the stream, not yet consumed, right aligned. The first bit in stream order is the most significant.
+    private int bitBuffer;
+    private int bitCount;
+    // Number of zero bits added at the end of the bit buffer, after the end of the stream
+    private int paddingBits;
 
-    private boolean readBit() throws IOException {
-        if (bufferPos < 0 || bufferPos > 7) {
-            buffer = in.read();
+    private int peekBits(final int count) throws IOException {
+        while (bitCount < count) {
+            int read = in.read();
 
-            if (buffer == -1) {
-                throw new EOFException("Unexpected end of Huffman RLE stream");
+            if (read < 0) {
+                // Pad with zeros, the bits can be peeked but not consumed
+                read = 0;
+                paddingBits += 8;
+            }
+            else if (fillOrder == TIFFExtension.FILL_RIGHT_TO_LEFT) {
+                read = Integer.reverse(read) >>> 24;
             }
 
-            bufferPos = 0;
+            bitBuffer = (bitBuffer << 8) | read;
+            bitCount += 8;
         }
 
-        boolean isSet;
+        return (bitBuffer >>> (bitCount - count)) & ((1 << count) - 1);
+    }
 
-        if (fillOrder == TIFFBaseline.FILL_LEFT_TO_RIGHT) {
-            isSet = ((buffer >> (7 - bufferPos)) & 1) == 1;
-        }
-        else {
-            isSet = ((buffer >> (bufferPos)) & 1) == 1;
+    private void skipBits(final int count) throws EOFException {
+        if (bitCount - count < paddingBits) {
+            throw new EOFException("Unexpected end of Huffman RLE stream");
         }
 
-        bufferPos++;
+        bitCount -= count;
+        bitBuffer &= (1 << bitCount) - 1;
+    }
 
-        if (bufferPos > 7) {
-            bufferPos = -1;
-        }
+    private boolean readBit() throws IOException {
+        boolean isSet = peekBits(1) != 0;
+        skipBits(1);
 
         return isSet;
     }
@@ -661,6 +774,54 @@ final class CCITTFaxDecoderStream extends FilterInputStream {
         }
     }
 
+    /**
+     * Lookup table for decoding Huffman codes, indexed by the next {@code bits} bits of the stream.
+     * For codes up to {@code bits} bits, contains the decoded value and the length of the code.
+     * For longer codes, contains the tree node reached after {@code bits} bits.
+     */
+    private static final class LookupTable {
+        final int bits;
+        final int[] values;
+        final byte[] lengths;
+        final Node[] nodes;
+
+        LookupTable(final Tree tree, final int bits) {
+            this.bits = bits;
+
+            int size = 1 << bits;
+            values = new int[size];
+            lengths = new byte[size];
+            nodes = new Node[size];
+
+            for (int code = 0; code < size; code++) {
+                Node n = tree.root;
+                int depth = 0;
+
+                while (depth < bits) {
+                    n = n.walk(((code >> (bits - 1 - depth)) & 1) == 1);
+                    depth++;
+
+                    if (n == null || n.isLeaf) {
+                        break;
+                    }
+                }
+
+                if (n == null) {
+                    values[code] = VALUE_INVALID;
+                    lengths[code] = (byte) depth;
+                }
+                else if (n.isLeaf) {
+                    values[code] = n.value;
+                    lengths[code] = (byte) depth;
+                }
+                else {
+                    nodes[code] = n;
+                    lengths[code] = (byte) bits;
+                }
+            }
+        }
+    }
+
     static final short[][] BLACK_CODES = {
             { // 2 bits
               0x2, 0x3,
@@ -817,6 +978,15 @@ final class CCITTFaxDecoderStream extends FilterInputStream {
     final static int VALUE_FILL = -1000;
     final static int VALUE_PASSMODE = -3000;
     final static int VALUE_HMODE = -4000;
+    final static int VALUE_INVALID = Integer.MIN_VALUE;
+
+    // Most run length codes are 9 bits or less, mode codes are all 7 bits or less
+    private final static int RUN_TABLE_BITS = 9;
+    private final static int CODE_TABLE_BITS = 7;
+
+    final static LookupTable blackRunTable;
+    final static LookupTable whiteRunTable;
+    final static LookupTable codeTable;
 
     static {
         EOL = new Node();
@@ -880,5 +1050,15 @@ final class CCITTFaxDecoderStream extends FilterInputStream {
         catch (IOException e) {
             throw new AssertionError(e);
         }
+
+        blackRunTable = new LookupTable(blackRunTree, RUN_TABLE_BITS);
+        whiteRunTable = new LookupTable(whiteRunTree, RUN_TABLE_BITS);
+        codeTable = new LookupTable(codeTree, CODE_TABLE_BITS);
+
+        for (Node node : codeTable.nodes) {
+            if (node != null) {
+                throw new AssertionError("Mode codes longer than " + CODE_TABLE_BITS + " bits");
+            }
+        }
     }
 }
@@ -34,9 +34,15 @@ import com.twelvemonkeys.lang.Validate;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 /**
  * CCITT Modified Huffman RLE, Group 3 (T4) and Group 4 (T6) fax compression.
+ * <p>
+ * The changing elements of each row are found 64 pixels at a time, by counting leading zeros of the row data
+ * packed into {@code long} words. The changing elements a1, a2, b1 and b2 are located using binary search,
+ * and the codes are looked up from precomputed tables and written through a bit accumulator.
+ * </p>
  *
  * @author <a href="mailto:mail@schmidor.de">Oliver Schmidtmer</a>
  * @author last modified by $Author$
@@ -55,8 +61,13 @@ final class CCITTFaxEncoderStream extends OutputStream {
     private int currentRow = 0;
     private int changesCurrentRowLength = 0;
     private int changesReferenceRowLength = 0;
-    private byte outputBuffer = 0;
-    private byte outputBufferBitLength = 0;
+    private final long[] rowWords;
+
+    // Encoded bits not yet written to the output buffer, right aligned
+    private int outputBits = 0;
+    private int outputBitLength = 0;
+    private final byte[] outputBuffer;
+    private int outputBufferLength = 0;
     private int type;
     private int fillOrder;
     private boolean optionG32D;
@@ -75,6 +86,7 @@ final class CCITTFaxEncoderStream extends OutputStream {
 
         this.changesReferenceRow = new int[columns];
         this.changesCurrentRow = new int[columns];
+        this.rowWords = new long[(columns + 63) / 64];
 
         switch (type) {
             case TIFFExtension.COMPRESSION_CCITT_T4:
@@ -90,6 +102,9 @@ final class CCITTFaxEncoderStream extends OutputStream {
         inputBufferLength = (columns + 7) / 8;
         inputBuffer = new byte[inputBufferLength];
 
+        // Worst case row is about 9 bits per pixel (alternating runs), plus EOLs and fill
+        outputBuffer = new byte[Math.max(64, inputBufferLength * 2)];
+
         Validate.isTrue(!optionUncompressed, optionUncompressed,
                 "CCITT GROUP 3/4 OPTION UNCOMPRESSED is not supported");
     }
@@ -105,13 +120,31 @@ final class CCITTFaxEncoderStream extends OutputStream {
         }
     }
 
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int length = Math.min(len, inputBufferLength - currentBufferLength);
+            System.arraycopy(b, off, inputBuffer, currentBufferLength, length);
+            currentBufferLength += length;
+            off += length;
+            len -= length;
+
+            if (currentBufferLength == inputBufferLength) {
+                encodeRow();
+                currentBufferLength = 0;
+            }
+        }
+    }
+
     @Override
     public void flush() throws IOException {
+        flushOutputBuffer();
         stream.flush();
     }
 
     @Override
     public void close() throws IOException {
+        flushOutputBuffer();
         stream.close();
     }
 
@@ -123,18 +156,7 @@ final class CCITTFaxEncoderStream extends OutputStream {
         changesReferenceRowLength = changesCurrentRowLength;
         changesCurrentRowLength = 0;
 
-        int index = 0;
-        boolean white = true;
-        while (index < columns) {
-            int byteIndex = index / 8;
-            int bit = index % 8;
-            if ((((inputBuffer[byteIndex] >> (7 - bit)) & 1) == 1) == (white)) {
-                changesCurrentRow[changesCurrentRowLength] = index;
-                changesCurrentRowLength++;
-                white = !white;
-            }
-            index++;
-        }
+        findChanges();
 
         switch (type) {
             case TIFFBaseline.COMPRESSION_CCITT_MODIFIED_HUFFMAN_RLE:
@@ -155,6 +177,52 @@ final class CCITTFaxEncoderStream extends OutputStream {
             }
             fill();
         }
+
+        flushOutputBuffer();
+    }
+
+    private void findChanges() {
+        // Pack the row into 64 bit words, most significant bit first
+        Arrays.fill(rowWords, 0);
+
+        for (int i = 0; i < inputBufferLength; i++) {
+            rowWords[i >> 3] |= (inputBuffer[i] & 0xffL) << (56 - ((i & 7) << 3));
+        }
+
+        // A change is a pixel with a different color than the previous, starting with an imaginary white pixel
+        int index = 0;
+        long invert = 0; // Invert to find the next 0 (white) bit, while in a black run
+
+        while (true) {
+            index = nextSetBit(index, invert);
+
+            if (index >= columns) {
+                break;
+            }
+
+            changesCurrentRow[changesCurrentRowLength++] = index;
+            invert = ~invert;
+        }
+    }
+
+    private int nextSetBit(final int index, final long invert) {
+        int wordIndex = index >> 6;
+
+        if (wordIndex >= rowWords.length) {
+            return columns;
+        }
+
+        long word = (rowWords[wordIndex] ^ invert) & (-1L >>> (index & 63));
+
+        while (word == 0) {
+            if (++wordIndex >= rowWords.length) {
+                return columns;
+            }
+
+            word = rowWords[wordIndex] ^ invert;
+        }
+
+        return (wordIndex << 6) + Long.numberOfLeadingZeros(word);
     }
 
     private void encodeRowType2() throws IOException {
@@ -192,153 +260,154 @@ final class CCITTFaxEncoderStream extends OutputStream {
         int index = 0;
         boolean white = true;
         while (index < columns) {
-            int[] nextChanges = getNextChanges(index, white);
-            int runLength = nextChanges[0] - index;
+            int runLength = changeAt(changesCurrentRow, changesCurrentRowLength, findChange(index, white)) - index;
             writeRun(runLength, white);
             index += runLength;
             white = !white;
         }
     }
 
-    private int[] getNextChanges(int pos, boolean white) {
-        int[] result = new int[] {columns, columns};
-        for (int i = 0; i < changesCurrentRowLength; i++) {
-            if (pos < changesCurrentRow[i] || (pos == 0 && white)) {
-                result[0] = changesCurrentRow[i];
-                if ((i + 1) < changesCurrentRowLength) {
-                    result[1] = changesCurrentRow[i + 1];
-                }
-                break;
+    // Index of a1 (a2 is the next) in changesCurrentRow
+    private int findChange(final int a0, final boolean white) {
+        if (a0 == 0 && white) {
+            return 0;
+        }
+
+        return firstChangeAfter(changesCurrentRow, changesCurrentRowLength, a0);
+    }
+
+    // Index of b1 (b2 is the next) in changesReferenceRow, b1 must have the opposite color of a0
+    private int findRefChange(final int a0, final boolean white) {
+        if (a0 == 0 && white) {
+            return 0;
+        }
+
+        int i = firstChangeAfter(changesReferenceRow, changesReferenceRowLength, a0);
+
+        // Even changes are white to black, odd changes are black to white
+        return (i & 1) == (white ? 0 : 1) ? i : i + 1;
+    }
+
+    private static int firstChangeAfter(final int[] changes, final int length, final int pos) {
+        // Binary search, changes are strictly increasing
+        int low = 0;
+        int high = length;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (changes[mid] > pos) {
+                high = mid;
+            }
+            else {
+                low = mid + 1;
             }
         }
 
-        return result;
+        return low;
+    }
+
+    private int changeAt(final int[] changes, final int length, final int index) {
+        return index < length ? changes[index] : columns;
     }
 
     private void writeRun(int runLength, boolean white) throws IOException {
         int nonterm = runLength / 64;
-        Code[] codes = white ? WHITE_NONTERMINATING_CODES : BLACK_NONTERMINATING_CODES;
+        int[] codes = white ? WHITE_MAKEUP_TABLE : BLACK_MAKEUP_TABLE;
         while (nonterm > 0) {
             if (nonterm >= codes.length) {
-                write(codes[codes.length - 1].code, codes[codes.length - 1].length);
+                writeCode(codes[codes.length - 1]);
                 nonterm -= codes.length;
             }
             else {
-                write(codes[nonterm - 1].code, codes[nonterm - 1].length);
+                writeCode(codes[nonterm - 1]);
                 nonterm = 0;
             }
         }
 
-        Code c = white ? WHITE_TERMINATING_CODES[runLength % 64] : BLACK_TERMINATING_CODES[runLength % 64];
-        write(c.code, c.length);
+        writeCode(white ? WHITE_TERMINATING_TABLE[runLength % 64] : BLACK_TERMINATING_TABLE[runLength % 64]);
     }
 
     private void encode2D() throws IOException {
         boolean white = true;
         int index = 0; // a0
         while (index < columns) {
-            int[] nextChanges = getNextChanges(index, white); // a1, a2
+            int a = findChange(index, white);
+            int a1 = changeAt(changesCurrentRow, changesCurrentRowLength, a);
+            int a2 = changeAt(changesCurrentRow, changesCurrentRowLength, a + 1);
 
-            int[] nextRefs = getNextRefChanges(index, white); // b1, b2
+            int b = findRefChange(index, white);
+            int b1 = changeAt(changesReferenceRow, changesReferenceRowLength, b);
+            int b2 = changeAt(changesReferenceRow, changesReferenceRowLength, b + 1);
 
-            int difference = nextChanges[0] - nextRefs[0];
-            if (nextChanges[0] > nextRefs[1]) {
+            int difference = a1 - b1;
+            if (a1 > b2) {
                 // PMODE
                 write(1, 4);
-                index = nextRefs[1];
+                index = b2;
             }
             else if (difference > 3 || difference < -3) {
                 // HMODE
                 write(1, 3);
-                writeRun(nextChanges[0] - index, white);
-                writeRun(nextChanges[1] - nextChanges[0], !white);
-                index = nextChanges[1];
-
+                writeRun(a1 - index, white);
+                writeRun(a2 - a1, !white);
+                index = a2;
             }
             else {
                 // VMODE
-                switch (difference) {
-                    case 0:
-                        write(1, 1);
-                        break;
-                    case 1:
-                        write(3, 3);
-                        break;
-                    case 2:
-                        write(3, 6);
-                        break;
-                    case 3:
-                        write(3, 7);
-                        break;
-                    case -1:
-                        write(2, 3);
-                        break;
-                    case -2:
-                        write(2, 6);
-                        break;
-                    case -3:
-                        write(2, 7);
-                        break;
-                }
+                writeCode(VERTICAL_TABLE[difference + 3]);
                 white = !white;
-                index = nextRefs[0] + difference;
+                index = b1 + difference;
             }
         }
     }
 
-    private int[] getNextRefChanges(int a0, boolean white) {
-        int[] result = new int[] {columns, columns};
-        for (int i = (white ? 0 : 1); i < changesReferenceRowLength; i += 2) {
-            if (changesReferenceRow[i] > a0 || (a0 == 0 && i == 0)) {
-                result[0] = changesReferenceRow[i];
-                if ((i + 1) < changesReferenceRowLength) {
-                    result[1] = changesReferenceRow[i + 1];
-                }
-                break;
-            }
+    private void writeCode(final int packedCode) throws IOException {
+        write(packedCode >>> 4, packedCode & 0xf);
+    }
+
+    private void write(final int code, final int codeLength) throws IOException {
+        outputBits = (outputBits << codeLength) | (code & ((1 << codeLength) - 1));
+        outputBitLength += codeLength;
+
+        while (outputBitLength >= 8) {
+            outputBitLength -= 8;
+            writeByte((outputBits >>> outputBitLength) & 0xff);
         }
-        return result;
+
+        outputBits &= (1 << outputBitLength) - 1;
     }
 
-    private void write(int code, int codeLength) throws IOException {
+    private void writeByte(final int value) throws IOException {
+        if (outputBufferLength == outputBuffer.length) {
+            flushOutputBuffer();
+        }
 
-        for (int i = 0; i < codeLength; i++) {
-            boolean codeBit = ((code >> (codeLength - i - 1)) & 1) == 1;
-            if (fillOrder == TIFFBaseline.FILL_LEFT_TO_RIGHT) {
-                outputBuffer |= (codeBit ? 1 << (7 - ((outputBufferBitLength) % 8)) : 0);
-            }
-            else {
-                outputBuffer |= (codeBit ? 1 << (((outputBufferBitLength) % 8)) : 0);
-            }
-            outputBufferBitLength++;
+        outputBuffer[outputBufferLength++] = (byte) (fillOrder == TIFFBaseline.FILL_LEFT_TO_RIGHT ? value : Integer.reverse(value) >>> 24);
+    }
 
-            if (outputBufferBitLength == 8) {
-                stream.write(outputBuffer);
-                clearOutputBuffer();
-            }
+    private void flushOutputBuffer() throws IOException {
+        if (outputBufferLength > 0) {
+            stream.write(outputBuffer, 0, outputBufferLength);
+            outputBufferLength = 0;
         }
     }
 
     private void writeEOL() throws IOException {
         if (optionG3Fill) {
             // Fill up so EOL ends on a byte-boundary
-            while (outputBufferBitLength != 4) {
-                write(0, 1);
-            }
+            write(0, (12 - outputBitLength) % 8);
         }
         write(1, 12);
     }
 
     private void fill() throws IOException {
-        if (outputBufferBitLength != 0) {
-            stream.write(outputBuffer);
+        if (outputBitLength != 0) {
+            writeByte(outputBits << (8 - outputBitLength));
         }
-        clearOutputBuffer();
-    }
 
-    private void clearOutputBuffer() {
-        outputBuffer = 0;
-        outputBufferBitLength = 0;
+        outputBits = 0;
+        outputBitLength = 0;
     }
 
     public static class Code {
@@ -359,6 +428,23 @@ final class CCITTFaxEncoderStream extends OutputStream {
 
     public static final Code[] BLACK_NONTERMINATING_CODES;
 
+    // Codes packed as (code << 4 | length), for fast lookup while encoding
+    private static final int[] WHITE_TERMINATING_TABLE;
+    private static final int[] WHITE_MAKEUP_TABLE;
+    private static final int[] BLACK_TERMINATING_TABLE;
+    private static final int[] BLACK_MAKEUP_TABLE;
+
+    // Vertical mode codes, for differences -3 to 3
+    private static final int[] VERTICAL_TABLE = {
+            2 << 4 | 7, // V_L(3)
+            2 << 4 | 6, // V_L(2)
+            2 << 4 | 3, // V_L(1)
+            1 << 4 | 1, // V(0)
+            3 << 4 | 3, // V_R(1)
+            3 << 4 | 6, // V_R(2)
+            3 << 4 | 7, // V_R(3)
+    };
+
     static {
         // Setup HUFFMAN Codes
         WHITE_TERMINATING_CODES = new Code[64];
@@ -394,5 +480,20 @@ final class CCITTFaxEncoderStream extends OutputStream {
                 }
             }
         }
+
+        WHITE_TERMINATING_TABLE = toTable(WHITE_TERMINATING_CODES);
+        WHITE_MAKEUP_TABLE = toTable(WHITE_NONTERMINATING_CODES);
+        BLACK_TERMINATING_TABLE = toTable(BLACK_TERMINATING_CODES);
+        BLACK_MAKEUP_TABLE = toTable(BLACK_NONTERMINATING_CODES);
+    }
+
+    private static int[] toTable(final Code[] codes) {
+        int[] table = new int[codes.length];
+
+        for (int i = 0; i < codes.length; i++) {
+            table[i] = codes[i].code << 4 | codes[i].length;
+        }
+
+        return table;
     }
 }
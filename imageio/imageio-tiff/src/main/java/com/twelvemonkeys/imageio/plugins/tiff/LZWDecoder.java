@@ -35,6 +35,7 @@ import com.twelvemonkeys.io.enc.Decoder;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 
 /**
@@ -58,7 +59,13 @@ abstract class LZWDecoder implements Decoder {
 
     private static final int TABLE_SIZE = 1 << MAX_BITS;
 
-    private final LZWString[] table;
+    // The string table is stored as flat arrays, indexed by code. No objects are created while decoding.
+    // Each string is represented by the code of its prefix string and its last byte (suffix), packed as
+    // (prefix << 8 | suffix), so that writing a string needs only a single array lookup per byte.
+    // The length and first byte are copied forward for fast access, packed as (length << 8 | firstChar).
+    private final int[] strings;
+    private final int[] lengths;
+
     private int tableLength;
     int bitsPerCode;
     private int oldCode = CLEAR_CODE;
@@ -70,11 +77,13 @@ abstract class LZWDecoder implements Decoder {
     int nextBits;
 
     protected LZWDecoder(int tableSize) {
-        table = new LZWString[tableSize];
+        strings = new int[tableSize];
+        lengths = new int[tableSize];
 
         // First 258 entries of table is always fixed
         for (int i = 0; i < 256; i++) {
-            table[i] = new LZWString((byte) i);
+            strings[i] = i;
+            lengths[i] = 1 << 8 | i;
         }
 
         init();
@@ -110,26 +119,24 @@ abstract class LZWDecoder implements Decoder {
                     break;
                 }
 
-                if (table[code] == null) {
+                if (!isString(code)) {
                     throw new DecodeException(String.format("Corrupted TIFF LZW: code %d (table size: %d)", code, tableLength));
                 }
 
-                table[code].writeTo(buffer);
+                writeString(code, buffer);
             }
             else {
-                if (table[oldCode] == null) {
+                if (!isString(oldCode)) {
                     throw new DecodeException(String.format("Corrupted TIFF LZW: code %d (table size: %d)", oldCode, tableLength));
                 }
 
                 if (isInTable(code)) {
-                    table[code].writeTo(buffer);
-                    addStringToTable(table[oldCode].concatenate(table[code].firstChar));
+                    writeString(code, buffer);
+                    addStringToTable(oldCode, lengths[code] & 0xff);
                 }
                 else {
-                    LZWString outString = table[oldCode].concatenate(table[oldCode].firstChar);
-
-                    outString.writeTo(buffer);
-                    addStringToTable(outString);
+                    addStringToTable(oldCode, lengths[oldCode] & 0xff);
+                    writeString(tableLength - 1, buffer);
                 }
             }
 
@@ -144,12 +151,57 @@ abstract class LZWDecoder implements Decoder {
         return buffer.position();
     }
 
-    private void addStringToTable(final LZWString string) throws IOException {
-        if (tableLength > table.length) {
+    private void writeString(final int code, final ByteBuffer buffer) {
+        final int length = lengths[code] >>> 8;
+        final int position = buffer.position();
+
+        if (length == 1) {
+            buffer.put((byte) code);
+            return;
+        }
+
+        if (length > buffer.remaining()) {
+            throw new BufferOverflowException();
+        }
+
+        // Strings are stored in reverse order, write from the end
+        int string = strings[code];
+
+        if (buffer.hasArray()) {
+            final byte[] array = buffer.array();
+            final int offset = buffer.arrayOffset() + position;
+
+            for (int i = offset + length - 1; i > offset; i--) {
+                array[i] = (byte) string;
+                string = strings[string >>> 8];
+            }
+
+            array[offset] = (byte) string;
+        }
+        else {
+            for (int i = position + length - 1; i > position; i--) {
+                buffer.put(i, (byte) string);
+                string = strings[string >>> 8];
+            }
+
+            buffer.put(position, (byte) string);
+        }
+
+        buffer.position(position + length);
+    }
+
+    private void addStringToTable(final int prefix, final int suffix) throws IOException {
+        if (tableLength >= strings.length) {
             throw new DecodeException(String.format("TIFF LZW with more than %d bits per code encountered (table overflow)", MAX_BITS));
         }
 
-        table[tableLength++] = string;
+        int prefixLength = lengths[prefix];
+        int length = (prefixLength >>> 8) + 1;
+
+        strings[tableLength] = prefix << 8 | suffix;
+        lengths[tableLength] = length << 8 | prefixLength & 0xff;
+
+        tableLength++;
 
         if (tableLength > maxCode) {
             bitsPerCode++;
@@ -163,8 +215,8 @@ abstract class LZWDecoder implements Decoder {
             maxCode = maxCode();
         }
 
-        if (string.length > maxString) {
-            maxString = string.length;
+        if (length > maxString) {
+            maxString = length;
         }
     }
 
@@ -174,6 +226,10 @@ abstract class LZWDecoder implements Decoder {
         return code < tableLength;
     }
 
+    private boolean isString(int code) {
+        return code != CLEAR_CODE && code != EOI_CODE && isInTable(code);
+    }
+
     protected abstract int getNextCode(final InputStream stream) throws IOException;
 
     static boolean isOldBitReversedStream(final InputStream stream) throws IOException {
@@ -234,6 +290,11 @@ abstract class LZWDecoder implements Decoder {
             code = ((nextData >> (nextBits - bitsPerCode)) & bitMask);
             nextBits -= bitsPerCode;
 
+            if (code == EOI_CODE) {
+                // Ignore any padding after EOI, in case we are invoked again
+                eofReached = true;
+            }
+
             return code;
         }
     }
@@ -284,127 +345,12 @@ abstract class LZWDecoder implements Decoder {
             nextData >>= bitsPerCode;
             nextBits -= bitsPerCode;
 
-            return code;
-        }
-    }
-
-    static final class LZWString implements Comparable<LZWString> {
-        static final LZWString EMPTY = new LZWString((byte) 0, (byte) 0, 0, null);
-
-        final LZWString previous;
-
-        final int length;
-        final byte value;
-        final byte firstChar; // Copied forward for fast access
-
-        public LZWString(final byte code) {
-            this(code, code, 1, null);
-        }
-
-        private LZWString(final byte value, final byte firstChar, final int length, final LZWString previous) {
-            this.value = value;
-            this.firstChar = firstChar;
-            this.length = length;
-            this.previous = previous;
-        }
-
-        public final LZWString concatenate(final byte value) {
-            if (this == EMPTY) {
-                return new LZWString(value);
-            }
-
-            return new LZWString(value, this.firstChar, length + 1, this);
-        }
-
-        public final void writeTo(final ByteBuffer buffer) {
-            if (length == 0) {
-                return;
-            }
-
-            if (length == 1) {
-                buffer.put(value);
-            }
-            else {
-                LZWString e = this;
-                final int offset = buffer.position();
-
-                for (int i = length - 1; i >= 0; i--) {
-                    buffer.put(offset + i, e.value);
-                    e = e.previous;
-                }
-
-                buffer.position(offset + length);
-            }
-        }
-
-        @Override
-        public String toString() {
-            StringBuilder builder = new StringBuilder("ZLWString[");
-            int offset = builder.length();
-            LZWString e = this;
-            for (int i = length - 1; i >= 0; i--) {
-                builder.insert(offset, String.format("%2x", e.value));
-                e = e.previous;
-            }
-            builder.append("]");
-            return builder.toString();
-        }
-
-        @Override
-        public boolean equals(final Object other) {
-            if (this == other) {
-                return true;
-            }
-            if (other == null || getClass() != other.getClass()) {
-                return false;
-            }
-
-            LZWString string = (LZWString) other;
-
-            return firstChar == string.firstChar &&
-                    length == string.length &&
-                    value == string.value &&
-//                    !(previous != null ? !previous.equals(string.previous) : string.previous != null);
-                    previous == string.previous;
-        }
-
-        @Override
-        public int hashCode() {
-            int result = previous != null ? previous.hashCode() : 0;
-            result = 31 * result + length;
-            result = 31 * result + (int) value;
-            result = 31 * result + (int) firstChar;
-            return result;
-        }
-
-        @Override
-        public int compareTo(final LZWString other) {
-            if (other == this) {
-                return 0;
-            }
-
-            if (length != other.length) {
-                return other.length - length;
-            }
-
-            if (firstChar != other.firstChar) {
-                return other.firstChar - firstChar;
-            }
-
-            LZWString t = this;
-            LZWString o = other;
-
-            for (int i = length - 1; i > 0; i--) {
-                if (t.value != o.value) {
-                    return o.value - t.value;
-                }
-
-                t = t.previous;
-                o = o.previous;
+            if (code == EOI_CODE) {
+                // Ignore any padding after EOI, in case we are invoked again
+                eofReached = true;
             }
 
-            return 0;
+            return code;
         }
     }
 }
-
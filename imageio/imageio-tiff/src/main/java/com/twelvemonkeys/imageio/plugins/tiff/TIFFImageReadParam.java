@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.tiff;
+
+import javax.imageio.ImageReadParam;
+import java.util.concurrent.Executor;
+
+/**
+ * TIFFImageReadParam.
+ * <p>
+ * In addition to the standard read parameters, allows specifying an {@link Executor} that will be used for
+ * decompressing strips or tiles concurrently.
+ * The compressed data is still read sequentially from the input stream on the calling thread,
+ * only the (potentially expensive) decompression, predictor and color conversion steps are run concurrently.
+ * </p>
+ * <p>
+ * Also allows the reader to read from a reduced-resolution subfile (overview), when subsampling.
+ * </p>
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: TIFFImageReadParam.java,v 1.0 18.10.20 haraldk Exp$
+ */
+public final class TIFFImageReadParam extends ImageReadParam {
+    private Executor executor;
+    private boolean overviewSelectionEnabled;
+
+    /**
+     * Returns the executor used for decoding strips or tiles concurrently.
+     *
+     * @return the executor, or {@code null} if strips or tiles are decoded on the calling thread.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor used for decoding strips or tiles concurrently.
+     * <p>
+     * The default value is {@code null}, meaning all strips and tiles are decoded sequentially,
+     * on the calling thread.
+     * The reader will block until all tasks submitted to the executor are completed.
+     * </p>
+     *
+     * @param executor the executor, or {@code null} to decode on the calling thread.
+     */
+    public void setExecutor(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns whether the reader may read from a reduced-resolution subfile (overview) instead of the
+     * full-resolution image, when subsampling.
+     *
+     * @return {@code true} if overview selection is enabled.
+     */
+    public boolean isOverviewSelectionEnabled() {
+        return overviewSelectionEnabled;
+    }
+
+    /**
+     * Sets whether the reader may read from a reduced-resolution subfile (overview) instead of the
+     * full-resolution image, when subsampling.
+     * <p>
+     * If enabled, the reader will use the smallest overview that contains all the samples requested,
+     * and read it with the source region and subsampling scaled accordingly.
+     * An overview is only used if its integer reduction factor divides the source subsampling,
+     * and the first sample (source region origin plus subsampling offset) is aligned with the overview.
+     * Otherwise the full resolution image is read.
+     * The resulting image has the same size as the image read from the full resolution image.
+     * The default value is {@code false}.
+     * </p>
+     *
+     * @param enabled {@code true} to enable overview selection.
+     *
+     * @see TIFFImageReader#getNumOverviews(int)
+     */
+    public void setOverviewSelectionEnabled(final boolean enabled) {
+        overviewSelectionEnabled = enabled;
+    }
+}
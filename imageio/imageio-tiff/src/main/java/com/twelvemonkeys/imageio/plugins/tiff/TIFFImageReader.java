@@ -33,6 +33,7 @@ package com.twelvemonkeys.imageio.plugins.tiff;
 import com.twelvemonkeys.imageio.ImageReaderBase;
 import com.twelvemonkeys.imageio.color.CIELabColorConverter;
 import com.twelvemonkeys.imageio.color.CIELabColorConverter.Illuminant;
+import com.twelvemonkeys.imageio.color.CMYKToRGBConverter;
 import com.twelvemonkeys.imageio.color.ColorSpaces;
 import com.twelvemonkeys.imageio.color.YCbCrConverter;
 import com.twelvemonkeys.imageio.metadata.CompoundDirectory;
@@ -80,6 +81,9 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
@@ -160,8 +164,14 @@ public final class TIFFImageReader extends ImageReaderBase {
     static final double[] CCIR_601_1_COEFFICIENTS = new double[] {299.0 / 1000.0, 587.0 / 1000.0, 114.0 / 1000.0};
     static final double[] REFERENCE_BLACK_WHITE_YCC_DEFAULT = new double[] {0, 255, 128, 255, 128, 255};
 
+    // Max number of strips/tiles (with compressed data) in flight, when decoding concurrently
+    private static final int CONCURRENT_STRIP_TILE_BATCH_SIZE = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+
     private CompoundDirectory IFDs;
     private Directory currentIFD;
+    private Directory overviewIFD; // Non-null only while reading from a reduced-resolution subfile
+
+    private TIFFTileCache tileCache;
 
     TIFFImageReader(final ImageReaderSpi provider) {
         super(provider);
@@ -374,7 +384,7 @@ public final class TIFFImageReader extends ImageReaderBase {
     private void readIFD(final int imageIndex) throws IOException {
         readMetadata();
         checkBounds(imageIndex);
-        currentIFD = IFDs.getDirectory(imageIndex);
+        currentIFD = overviewIFD != null ? overviewIFD : IFDs.getDirectory(imageIndex);
     }
 
     @Override
@@ -887,11 +897,36 @@ public final class TIFFImageReader extends ImageReaderBase {
 
         specs.add(rawType);
 
+        if (isCMYK(rawType)) {
+            // We can convert CMYK to RGB using the lookup table, but as this is lossy, the raw type is still the default
+            if (rawType.getNumBands() == 4) {
+                specs.add(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_3BYTE_BGR));
+                specs.add(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB));
+            }
+            else {
+                specs.add(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_4BYTE_ABGR));
+                specs.add(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB));
+            }
+        }
+
         return specs.iterator();
     }
 
+    private static boolean isCMYK(final ImageTypeSpecifier type) {
+        return type.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_CMYK
+                && (type.getNumBands() == 4 || type.getNumBands() == 5 && type.getColorModel().hasAlpha());
+    }
+
     @Override
     public BufferedImage read(int imageIndex, ImageReadParam param) throws IOException {
+        if (overviewIFD == null && param instanceof TIFFImageReadParam && ((TIFFImageReadParam) param).isOverviewSelectionEnabled()) {
+            int overviewIndex = selectOverview(imageIndex, (TIFFImageReadParam) param);
+
+            if (overviewIndex >= 0) {
+                return readOverview(imageIndex, overviewIndex, createOverviewParam(imageIndex, overviewIndex, (TIFFImageReadParam) param));
+            }
+        }
+
         readIFD(imageIndex);
 
         int width = getWidth(imageIndex);
@@ -899,16 +934,35 @@ public final class TIFFImageReader extends ImageReaderBase {
 
         BufferedImage destination = getDestination(param, getImageTypes(imageIndex), width, height);
         ImageTypeSpecifier rawType = getRawImageType(imageIndex);
+
+        if (isCMYK(rawType) && destination.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_RGB) {
+            return readCMYKAsRGB(imageIndex, param, rawType, destination);
+        }
+
         checkReadParamBandSettings(param, rawType.getNumBands(), destination.getSampleModel().getNumBands());
 
-        final Rectangle srcRegion = new Rectangle();
-        final Rectangle dstRegion = new Rectangle();
+        Rectangle srcRegion = new Rectangle();
+        Rectangle dstRegion = new Rectangle();
         computeRegions(param, width, height, destination, srcRegion, dstRegion);
 
+        readImage(imageIndex, param, rawType, destination, srcRegion, dstRegion,
+                param != null ? param.getSourceBands() : null, param != null ? param.getDestinationBands() : null);
+
+        processImageComplete();
+
+        return destination;
+    }
+
+    // Reads the source region into the destination region, only subsampling and the executor are used from the param
+    private void readImage(final int imageIndex, final ImageReadParam param, final ImageTypeSpecifier rawType, final BufferedImage destination,
+                           final Rectangle srcRegion, final Rectangle dstRegion, final int[] sourceBands, final int[] destinationBands) throws IOException {
+        int width = getWidth(imageIndex);
+        int height = getHeight(imageIndex);
+
         int xSub = param != null ? param.getSourceXSubsampling() : 1;
         int ySub = param != null ? param.getSourceYSubsampling() : 1;
 
-        WritableRaster destRaster = clipToRect(destination.getRaster(), dstRegion, param != null ? param.getDestinationBands() : null);
+        WritableRaster destRaster = clipToRect(destination.getRaster(), dstRegion, destinationBands);
 
         final int interpretation = getPhotometricInterpretationWithFallback();
         final int compression = getValueAsIntWithDefault(TIFF.TAG_COMPRESSION, TIFFBaseline.COMPRESSION_NONE);
@@ -962,7 +1016,6 @@ public final class TIFFImageReader extends ImageReaderBase {
         // TODO: If extrasamples, we might need to create a raster with more samples...
         WritableRaster rowRaster = rawType.createBufferedImage(stripTileWidth, 1).getRaster();
 //        WritableRaster rowRaster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, stripTileWidth, 1, 2, null).createWritableChild(0, 0, stripTileWidth, 1, 0, 0, new int[]{0});
-        Rectangle clip = new Rectangle(srcRegion);
         int srcRow = 0;
         Boolean needsCSConversion = null;
 
@@ -1038,6 +1091,20 @@ public final class TIFFImageReader extends ImageReaderBase {
                 boolean needsAdapter = compression != TIFFBaseline.COMPRESSION_NONE
                         || interpretation == TIFFExtension.PHOTOMETRIC_YCBCR || needsBitPadding;
 
+                Executor executor = param instanceof TIFFImageReadParam ? ((TIFFImageReadParam) param).getExecutor() : null;
+
+                // NOTE: We can only decode concurrently if we know the size of each strip/tile up front,
+                // and strips/tiles never share bytes in the destination (ie. no packed pixels across tile columns)
+                if (executor != null && needsAdapter && stripTileByteCounts != null && tilesDown * tilesAcross * bands > 1
+                        && (tilesAcross == 1 || !(rowRaster.getSampleModel() instanceof MultiPixelPackedSampleModel))) {
+                    readStripTileDataConcurrently(executor, rowRaster, srcRegion, xSub, ySub, sourceBands,
+                            compression, predictor, numBands, bands, interpretation, bitsPerSample, needsBitPadding,
+                            yCbCrSubsampling, yCbCrPos, stripTileOffsets, stripTileByteCounts,
+                            width, height, stripTileWidth, stripTileHeight, tilesAcross, tilesDown, destRaster);
+
+                    break;
+                }
+
                 for (int y = 0; y < tilesDown; y++) {
                     int col = 0;
                     int rowsInTile = Math.min(stripTileHeight, height - srcRow);
@@ -1045,7 +1112,10 @@ public final class TIFFImageReader extends ImageReaderBase {
                     for (int x = 0; x < tilesAcross; x++) {
                         int colsInTile = Math.min(stripTileWidth, width - col);
 
-                        for (int b = 0; b < bands; b++) {
+                        // Read only strips/tiles that intersects the source region
+                        Rectangle tileRegion = clipRegionToStripTile(srcRegion, xSub, ySub, col, srcRow, colsInTile, rowsInTile);
+
+                        for (int b = 0; b < bands && tileRegion != null; b++) {
                             int i = b * tilesDown * tilesAcross + y * tilesAcross + x;
 
                             imageInput.seek(stripTileOffsets[i]);
@@ -1060,39 +1130,17 @@ public final class TIFFImageReader extends ImageReaderBase {
                                                       ? createStreamAdapter(imageInput, stripTileByteCounts[i])
                                                       : createStreamAdapter(imageInput);
 
-                                adapter = createDecompressorStream(compression, stripTileWidth, numBands, adapter);
-                                adapter = createUnpredictorStream(predictor, stripTileWidth, numBands, bitsPerSample, adapter, imageInput.getByteOrder());
-
-                                if (interpretation == TIFFExtension.PHOTOMETRIC_YCBCR && rowRaster.getTransferType() == DataBuffer.TYPE_BYTE) {
-                                    adapter = new YCbCrUpsamplerStream(adapter, yCbCrSubsampling, yCbCrPos, colsInTile);
-                                }
-                                else if (interpretation == TIFFExtension.PHOTOMETRIC_YCBCR && rowRaster.getTransferType() == DataBuffer.TYPE_USHORT) {
-                                    adapter = new YCbCr16UpsamplerStream(adapter, yCbCrSubsampling, yCbCrPos, colsInTile, imageInput.getByteOrder());
-                                }
-                                else if (interpretation == TIFFExtension.PHOTOMETRIC_YCBCR) {
-                                    // Handled in getRawImageType
-                                    throw new AssertionError();
-                                }
-
-                                if (needsBitPadding) {
-                                    // We'll pad "odd" bitsPerSample streams to the smallest data type (byte/short/int) larger than the input
-                                    adapter = new BitPaddingStream(adapter, numBands, bitsPerSample, colsInTile, imageInput.getByteOrder());
-                                }
-
-                                // According to the spec, short/long/etc should follow order of containing stream
-                                input = imageInput.getByteOrder() == ByteOrder.BIG_ENDIAN
-                                        ? new DataInputStream(adapter)
-                                        : new LittleEndianDataInputStream(adapter);
+                                input = createStripTileInput(adapter, compression, predictor, stripTileWidth, numBands, bitsPerSample,
+                                        interpretation, rowRaster.getTransferType(), yCbCrSubsampling, yCbCrPos, colsInTile,
+                                        needsBitPadding, imageInput.getByteOrder());
                             }
 
                             // Clip the stripTile rowRaster to not exceed the srcRegion
-                            clip.width = Math.min(colsInTile, srcRegion.width);
-                            Raster clippedRow = clipRowToRect(rowRaster, clip,
-                                    param != null ? param.getSourceBands() : null,
-                                    param != null ? param.getSourceXSubsampling() : 1);
+                            Raster clippedRow = clipRowToRect(rowRaster, tileRegion, sourceBands, xSub);
 
                             // Read a full strip/tile
-                            readStripTileData(clippedRow, srcRegion, xSub, ySub, b, numBands, interpretation, destRaster, col, srcRow, colsInTile, rowsInTile, input);
+                            readStripTileData(clippedRow, tileRegion, xSub, ySub, b, numBands, interpretation, destRaster,
+                                    (col + tileRegion.x - srcRegion.x) / xSub, srcRow, colsInTile, rowsInTile, input);
                         }
 
                         col += colsInTile;
@@ -1548,10 +1596,6 @@ public final class TIFFImageReader extends ImageReaderBase {
         }
 
         // TODO: Convert color space from source to destination
-
-        processImageComplete();
-
-        return destination;
     }
 
     private boolean containsZero(long[] byteCounts) {
@@ -1814,6 +1858,24 @@ public final class TIFFImageReader extends ImageReaderBase {
         return stream.createInputStream();
     }
 
+    // Computes the part of the source region covered by a strip/tile, with x in strip/tile local coordinates,
+    // and adjusted to the first column of the subsampling grid. Returns null if the strip/tile is outside the region.
+    static Rectangle clipRegionToStripTile(final Rectangle srcRegion, final int xSub, final int ySub,
+                                           final int col, final int row, final int colsInTile, final int rowsInTile) {
+        int firstRow = Math.max(row, srcRegion.y);
+        firstRow += (ySub - (firstRow - srcRegion.y) % ySub) % ySub;
+        int firstCol = Math.max(col, srcRegion.x);
+        firstCol += (xSub - (firstCol - srcRegion.x) % xSub) % xSub;
+
+        int endCol = Math.min(col + colsInTile, srcRegion.x + srcRegion.width);
+
+        if (firstCol >= endCol || firstRow >= Math.min(row + rowsInTile, srcRegion.y + srcRegion.height)) {
+            return null;
+        }
+
+        return new Rectangle(firstCol - col, srcRegion.y, endCol - firstCol, srcRegion.height);
+    }
+
     private Raster clipRowToRect(final Raster raster, final Rectangle rect, final int[] bands, final int xSub) {
         if (rect.contains(raster.getMinX(), 0, raster.getWidth(), 1)
                 && xSub == 1
@@ -1821,7 +1883,8 @@ public final class TIFFImageReader extends ImageReaderBase {
             return raster;
         }
 
-        return raster.createChild((rect.x + xSub - 1) / xSub, 0, (rect.width + xSub - 1) / xSub, 1, 0, 0, bands);
+        // NOTE: When subsampling, the samples are moved to the start of the row before copying
+        return raster.createChild(xSub == 1 ? rect.x : 0, 0, (rect.width + xSub - 1) / xSub, 1, 0, 0, bands);
     }
 
     private WritableRaster clipToRect(final WritableRaster raster, final Rectangle rect, final int[] bands) {
@@ -1833,9 +1896,212 @@ public final class TIFFImageReader extends ImageReaderBase {
         return raster.createWritableChild(rect.x, rect.y, rect.width, rect.height, 0, 0, bands);
     }
 
+    private DataInput createStripTileInput(final InputStream stream, final int compression, final int predictor,
+                                           final int stripTileWidth, final int numBands, final int bitsPerSample,
+                                           final int interpretation, final int transferType,
+                                           final int[] yCbCrSubsampling, final int yCbCrPos, final int colsInTile,
+                                           final boolean needsBitPadding, final ByteOrder byteOrder) throws IOException {
+        InputStream adapter = createDecompressorStream(compression, stripTileWidth, numBands, stream);
+        adapter = createUnpredictorStream(predictor, stripTileWidth, numBands, bitsPerSample, adapter, byteOrder);
+
+        if (interpretation == TIFFExtension.PHOTOMETRIC_YCBCR && transferType == DataBuffer.TYPE_BYTE) {
+            adapter = new YCbCrUpsamplerStream(adapter, yCbCrSubsampling, yCbCrPos, colsInTile);
+        }
+        else if (interpretation == TIFFExtension.PHOTOMETRIC_YCBCR && transferType == DataBuffer.TYPE_USHORT) {
+            adapter = new YCbCr16UpsamplerStream(adapter, yCbCrSubsampling, yCbCrPos, colsInTile, byteOrder);
+        }
+        else if (interpretation == TIFFExtension.PHOTOMETRIC_YCBCR) {
+            // Handled in getRawImageType
+            throw new AssertionError();
+        }
+
+        if (needsBitPadding) {
+            // We'll pad "odd" bitsPerSample streams to the smallest data type (byte/short/int) larger than the input
+            adapter = new BitPaddingStream(adapter, numBands, bitsPerSample, colsInTile, byteOrder);
+        }
+
+        // According to the spec, short/long/etc should follow order of containing stream
+        return byteOrder == ByteOrder.BIG_ENDIAN
+               ? new DataInputStream(adapter)
+               : new LittleEndianDataInputStream(adapter);
+    }
+
+    private void readStripTileDataConcurrently(final Executor executor, final WritableRaster rowRaster, final Rectangle srcRegion,
+                                               final int xSub, final int ySub, final int[] sourceBands,
+                                               final int compression, final int predictor, final int numBands, final int bands,
+                                               final int interpretation, final int bitsPerSample, final boolean needsBitPadding,
+                                               final int[] yCbCrSubsampling, final int yCbCrPos,
+                                               final long[] stripTileOffsets, final long[] stripTileByteCounts,
+                                               final int width, final int height, final int stripTileWidth, final int stripTileHeight,
+                                               final int tilesAcross, final int tilesDown, final WritableRaster destRaster)
+            throws IOException {
+        // The compressed data is read on this thread, as the stream isn't thread safe.
+        // To keep memory usage bounded, we wait for each batch of strips/tiles to complete, before reading the next.
+        final ByteOrder byteOrder = imageInput.getByteOrder();
+        final List<Future<Void>> tasks = new ArrayList<>(CONCURRENT_STRIP_TILE_BATCH_SIZE);
+
+        // Set if decoding fails, to skip the strips/tiles not yet started
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        try {
+            int srcRow = 0;
+
+            for (int y = 0; y < tilesDown; y++) {
+                int col = 0;
+                final int rowsInTile = Math.min(stripTileHeight, height - srcRow);
+
+                for (int x = 0; x < tilesAcross; x++) {
+                    final int colsInTile = Math.min(stripTileWidth, width - col);
+                    final int startRow = srcRow;
+
+                    // Strips/tiles outside the source region contributes no pixels, no need to decode
+                    final Rectangle tileRegion = clipRegionToStripTile(srcRegion, xSub, ySub, col, srcRow, colsInTile, rowsInTile);
+                    final int dstCol = tileRegion != null ? (col + tileRegion.x - srcRegion.x) / xSub : 0;
+
+                    for (int b = 0; b < bands && tileRegion != null; b++) {
+                        final int band = b;
+                        int i = b * tilesDown * tilesAcross + y * tilesAcross + x;
+
+                        final byte[] data = readStripTileBytes(stripTileOffsets[i], stripTileByteCounts[i]);
+
+                        FutureTask<Void> task = new FutureTask<>(new Callable<Void>() {
+                            @Override
+                            public Void call() throws IOException {
+                                if (failed.get()) {
+                                    return null;
+                                }
+
+                                // Each task needs its own row buffer
+                                WritableRaster tileRowRaster = rowRaster.createCompatibleWritableRaster();
+
+                                DataInput input = createStripTileInput(new ByteArrayInputStream(data), compression, predictor,
+                                        stripTileWidth, numBands, bitsPerSample, interpretation, tileRowRaster.getTransferType(),
+                                        yCbCrSubsampling, yCbCrPos, colsInTile, needsBitPadding, byteOrder);
+
+                                // Clip the stripTile rowRaster to not exceed the srcRegion
+                                Raster clippedRow = clipRowToRect(tileRowRaster, tileRegion, sourceBands, xSub);
+
+                                readStripTileData(clippedRow, tileRegion, xSub, ySub, band, numBands, interpretation, destRaster,
+                                        dstCol, startRow, colsInTile, rowsInTile, input);
+
+                                return null;
+                            }
+                        });
+
+                        executor.execute(task);
+                        tasks.add(task);
+                    }
+
+                    col += colsInTile;
+
+                    if (tasks.size() >= CONCURRENT_STRIP_TILE_BATCH_SIZE) {
+                        awaitCompletion(tasks);
+                        processImageProgress(100f * srcRow / height);
+
+                        if (abortRequested()) {
+                            processReadAborted();
+                            return;
+                        }
+                    }
+                }
+
+                srcRow += rowsInTile;
+            }
+
+            awaitCompletion(tasks);
+            processImageProgress(100f);
+        }
+        finally {
+            if (!tasks.isEmpty()) {
+                // Decoding failed, make sure no task writes to the destination once we return
+                failed.set(true);
+                awaitTermination(tasks);
+            }
+        }
+    }
+
+    private byte[] readStripTileBytes(final long offset, final long byteCount) throws IOException {
+        // Guard against bogus byte counts, we don't want to allocate more than the stream length
+        long streamLength = imageInput.length();
+        long length = streamLength >= 0 ? Math.min(byteCount, streamLength - offset) : byteCount;
+        byte[] data = new byte[(int) Math.max(0, Math.min(length, Integer.MAX_VALUE - 8))];
+
+        imageInput.seek(offset);
+
+        int count = 0;
+        while (count < data.length) {
+            int read = imageInput.read(data, count, data.length - count);
+            if (read < 0) {
+                // Truncated stream, let the decoder handle it as for the sequential case
+                return Arrays.copyOf(data, count);
+            }
+
+            count += read;
+        }
+
+        return data;
+    }
+
+    // Waits for all tasks to complete, and clears the list. On failure, the tasks are left in the list
+    private static void awaitCompletion(final List<Future<Void>> tasks) throws IOException {
+        try {
+            for (Future<Void> task : tasks) {
+                task.get();
+            }
+
+            tasks.clear();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decoding strips/tiles");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IIOException("Could not decode strip/tile: " + cause.getMessage(), cause);
+        }
+    }
+
+    // Waits for all tasks to finish, ignoring any secondary failures. Tasks are not cancelled, as a cancelled
+    // task may still be running, and we could not tell when it stops writing to the destination
+    private static void awaitTermination(final List<Future<Void>> tasks) {
+        boolean interrupted = false;
+
+        for (Future<Void> task : tasks) {
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                catch (ExecutionException ignore) {
+                    break;
+                }
+            }
+        }
+
+        tasks.clear();
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private void readStripTileData(final Raster tileRowRaster, final Rectangle srcRegion, final int xSub, final int ySub,
                                    final int band, final int numBands, final int interpretation,
-                                   final WritableRaster raster, final int startCol, final int startRow,
+                                   final WritableRaster raster, final int dstCol, final int startRow,
                                    final int colsInTile, final int rowsInTile, final DataInput input)
             throws IOException {
 
@@ -1865,18 +2131,18 @@ public final class TIFFImageReader extends ImageReaderBase {
 
                     input.readFully(rowDataByte);
 
-                    if (row % ySub == 0 && row >= srcRegion.y) {
+                    if (row >= srcRegion.y && (row - srcRegion.y) % ySub == 0) {
                         if (!banded) {
                             normalizeColor(interpretation, rowDataByte);
                         }
 
                         // Subsample horizontal
                         if (xSub != 1) {
-                            IIOUtil.subsampleRow(rowDataByte, srcRegion.x * numBands, colsInTile,
-                                    rowDataByte, srcRegion.x * numBands / xSub, numBands, bitsPerSample, xSub);
+                            IIOUtil.subsampleRow(rowDataByte, srcRegion.x * numBands, srcRegion.width,
+                                    rowDataByte, 0, numBands, bitsPerSample, xSub);
                         }
 
-                        destChannel.setDataElements(startCol / xSub, (row - srcRegion.y) / ySub, srcChannel);
+                        destChannel.setDataElements(dstCol, (row - srcRegion.y) / ySub, srcChannel);
                     }
                     // Else skip data
                 }
@@ -1909,18 +2175,18 @@ public final class TIFFImageReader extends ImageReaderBase {
 
                     readFully(input, rowDataShort);
 
-                    if (row >= srcRegion.y) {
+                    if (row >= srcRegion.y && (row - srcRegion.y) % ySub == 0) {
                         normalizeColor(interpretation, rowDataShort);
 
                         // Subsample horizontal
                         if (xSub != 1) {
-                            subsampleRow(rowDataShort, srcRegion.x * numBands, colsInTile,
-                                    rowDataShort, srcRegion.x * numBands / xSub, numBands, bitsPerSample, xSub);
+                            subsampleRow(rowDataShort, srcRegion.x * numBands, srcRegion.width,
+                                    rowDataShort, 0, numBands, bitsPerSample, xSub);
                         }
 
-                        destChannel.setDataElements(startCol / xSub, (row - srcRegion.y) / ySub, srcChannel);
+                        destChannel.setDataElements(dstCol, (row - srcRegion.y) / ySub, srcChannel);
                         // TODO: Possible speedup ~30%!:
-//                        raster.setDataElements(startCol, row - srcRegion.y, colsInTile, 1, rowDataShort);
+//                        raster.setDataElements(dstCol, row - srcRegion.y, colsInTile, 1, rowDataShort);
                     }
                     // Else skip data
                 }
@@ -1945,16 +2211,16 @@ public final class TIFFImageReader extends ImageReaderBase {
 
                     readFully(input, rowDataInt);
 
-                    if (row >= srcRegion.y) {
+                    if (row >= srcRegion.y && (row - srcRegion.y) % ySub == 0) {
                         normalizeColor(interpretation, rowDataInt);
 
                         // Subsample horizontal
                         if (xSub != 1) {
-                            subsampleRow(rowDataInt, srcRegion.x * numBands, colsInTile,
-                                    rowDataInt, srcRegion.x * numBands / xSub, numBands, bitsPerSample, xSub);
+                            subsampleRow(rowDataInt, srcRegion.x * numBands, srcRegion.width,
+                                    rowDataInt, 0, numBands, bitsPerSample, xSub);
                         }
 
-                        destChannel.setDataElements(startCol / xSub, (row - srcRegion.y) / ySub, srcChannel);
+                        destChannel.setDataElements(dstCol, (row - srcRegion.y) / ySub, srcChannel);
                     }
                     // Else skip data
                 }
@@ -1980,17 +2246,17 @@ public final class TIFFImageReader extends ImageReaderBase {
 
                     readFully(input, rowDataFloat);
 
-                    if (row >= srcRegion.y) {
+                    if (row >= srcRegion.y && (row - srcRegion.y) % ySub == 0) {
                         normalizeColor(interpretation, rowDataFloat);
 
                         // Subsample horizontal
                         if (xSub != 1) {
-                            for (int x = srcRegion.x / xSub * numBands; x < ((srcRegion.x + srcRegion.width) / xSub) * numBands; x += numBands) {
-                                System.arraycopy(rowDataFloat, x * xSub, rowDataFloat, x, numBands);
+                            for (int x = 0; x < srcRegion.width; x += xSub) {
+                                System.arraycopy(rowDataFloat, (srcRegion.x + x) * numBands, rowDataFloat, x / xSub * numBands, numBands);
                             }
                         }
 
-                        destChannel.setDataElements(startCol, row - srcRegion.y, srcChannel);
+                        destChannel.setDataElements(dstCol, (row - srcRegion.y) / ySub, srcChannel);
                     }
                     // Else skip data
                 }
@@ -2482,6 +2748,41 @@ public final class TIFFImageReader extends ImageReaderBase {
         return null;
     }
 
+    @Override
+    public ImageReadParam getDefaultReadParam() {
+        return new TIFFImageReadParam();
+    }
+
+    private BufferedImage readCMYKAsRGB(final int imageIndex, final ImageReadParam param, final ImageTypeSpecifier rawType, final BufferedImage destination) throws IOException {
+        // Source bands select from the converted samples, RGB and alpha if the CMYK image has an extra alpha band
+        checkReadParamBandSettings(param, rawType.getNumBands() - 1, destination.getSampleModel().getNumBands());
+
+        Rectangle srcRegion = new Rectangle();
+        Rectangle dstRegion = new Rectangle();
+        computeRegions(param, getWidth(imageIndex), getHeight(imageIndex), destination, srcRegion, dstRegion);
+
+        // Read as CMYK, then convert all pixels in one pass, using the cached lookup table for the color space
+        BufferedImage cmyk = rawType.createBufferedImage(dstRegion.width, dstRegion.height);
+        readImage(imageIndex, param, rawType, cmyk, srcRegion, new Rectangle(dstRegion.width, dstRegion.height), null, null);
+
+        CMYKToRGBConverter converter = ColorSpaces.getCMYKToRGBConverter(rawType.getColorModel().getColorSpace());
+        int[] sourceBands = param != null ? param.getSourceBands() : null;
+        int[] destinationBands = param != null ? param.getDestinationBands() : null;
+
+        if (sourceBands == null && destinationBands == null) {
+            converter.filter(cmyk.getRaster(), destination.getRaster().createWritableChild(dstRegion.x, dstRegion.y, dstRegion.width, dstRegion.height, 0, 0, null));
+        }
+        else {
+            WritableRaster rgb = converter.filter(cmyk.getRaster(), null);
+            destination.getRaster().createWritableChild(dstRegion.x, dstRegion.y, dstRegion.width, dstRegion.height, 0, 0, destinationBands)
+                    .setRect(rgb.createChild(0, 0, rgb.getWidth(), rgb.getHeight(), 0, 0, sourceBands));
+        }
+
+        processImageComplete();
+
+        return destination;
+    }
+
     @Override
     public boolean canReadRaster() {
         return true;
@@ -2547,6 +2848,10 @@ public final class TIFFImageReader extends ImageReaderBase {
 
     @Override
     public BufferedImage readTile(int imageIndex, int tileX, int tileY) throws IOException {
+        if (tileCache != null) {
+            return readTileCached(imageIndex, tileX, tileY);
+        }
+
         ImageReadParam param = getDefaultReadParam();
         param.setSourceRegion(computeTileRegion(imageIndex, tileX, tileY));
 
@@ -2555,12 +2860,299 @@ public final class TIFFImageReader extends ImageReaderBase {
 
     @Override
     public Raster readTileRaster(int imageIndex, int tileX, int tileY) throws IOException {
+        if (tileCache != null) {
+            return readTileCached(imageIndex, tileX, tileY).getRaster();
+        }
+
         ImageReadParam param = getDefaultReadParam();
         param.setSourceRegion(computeTileRegion(imageIndex, tileX, tileY));
 
         return readRaster(imageIndex, param);
     }
 
+    private BufferedImage readTileCached(int imageIndex, int tileX, int tileY) throws IOException {
+        // NOTE: Cache lookup first, as computing the tile region requires parsing the IFD
+        Object input = getInput();
+        BufferedImage tile = tileCache.get(input, imageIndex, tileX, tileY);
+
+        if (tile == null) {
+            ImageReadParam param = getDefaultReadParam();
+            param.setSourceRegion(computeTileRegion(imageIndex, tileX, tileY));
+
+            tile = read(imageIndex, param);
+
+            // Never cache partially read tiles
+            if (!abortRequested()) {
+                tileCache.put(input, imageIndex, tileX, tileY, tile);
+            }
+        }
+
+        return tile;
+    }
+
+    /**
+     * Sets the cache used for decoded tiles, read using {@link #readTile(int, int, int)} or
+     * {@link #readTileRaster(int, int, int)}.
+     * Repeated requests for the same tile from the same input will be served from the cache,
+     * without accessing the stream.
+     * The same cache may be shared between multiple reader instances.
+     *
+     * @param tileCache the tile cache, or {@code null} to disable tile caching (the default).
+     */
+    public void setTileCache(final TIFFTileCache tileCache) {
+        this.tileCache = tileCache;
+    }
+
+    /**
+     * Returns the cache used for decoded tiles.
+     *
+     * @return the tile cache, or {@code null} if tile caching is disabled.
+     */
+    public TIFFTileCache getTileCache() {
+        return tileCache;
+    }
+
+    /// Reduced-resolution subfiles (overviews)
+
+    /**
+     * Returns the number of reduced-resolution subfiles (overviews) of the given image.
+     * <p>
+     * Overviews are either SubIFDs of the image, or the IFDs immediately following it, that are marked as
+     * reduced-resolution versions in the NewSubfileType tag.
+     * Overviews are ordered by decreasing size, overview {@code 0} being the largest.
+     * </p>
+     *
+     * @param imageIndex the index of the full resolution image.
+     * @return the number of overviews, may be {@code 0}.
+     * @throws IOException if an error occurs reading the information from the input source.
+     */
+    public int getNumOverviews(final int imageIndex) throws IOException {
+        return getOverviewIFDs(imageIndex).size();
+    }
+
+    /**
+     * Returns the width of the given reduced-resolution subfile (overview).
+     *
+     * @param imageIndex the index of the full resolution image.
+     * @param overviewIndex the index of the overview.
+     * @return the width of the overview.
+     * @throws IOException if an error occurs reading the information from the input source.
+     * @throws IndexOutOfBoundsException if {@code overviewIndex} is out of bounds.
+     */
+    public int getOverviewWidth(final int imageIndex, final int overviewIndex) throws IOException {
+        return getDimension(getOverviewIFD(imageIndex, overviewIndex), TIFF.TAG_IMAGE_WIDTH);
+    }
+
+    /**
+     * Returns the height of the given reduced-resolution subfile (overview).
+     *
+     * @param imageIndex the index of the full resolution image.
+     * @param overviewIndex the index of the overview.
+     * @return the height of the overview.
+     * @throws IOException if an error occurs reading the information from the input source.
+     * @throws IndexOutOfBoundsException if {@code overviewIndex} is out of bounds.
+     */
+    public int getOverviewHeight(final int imageIndex, final int overviewIndex) throws IOException {
+        return getDimension(getOverviewIFD(imageIndex, overviewIndex), TIFF.TAG_IMAGE_HEIGHT);
+    }
+
+    /**
+     * Reads the given reduced-resolution subfile (overview).
+     * Source region and subsampling in {@code param} are relative to the overview.
+     *
+     * @param imageIndex the index of the full resolution image.
+     * @param overviewIndex the index of the overview.
+     * @param param an {@code ImageReadParam} used to control the reading process, or {@code null}.
+     * @return the overview image.
+     * @throws IOException if an error occurs during reading.
+     * @throws IndexOutOfBoundsException if {@code overviewIndex} is out of bounds.
+     */
+    public BufferedImage readOverview(final int imageIndex, final int overviewIndex, final ImageReadParam param) throws IOException {
+        Directory overview = getOverviewIFD(imageIndex, overviewIndex);
+
+        overviewIFD = overview;
+
+        try {
+            return read(imageIndex, param);
+        }
+        finally {
+            overviewIFD = null;
+            currentIFD = null;
+        }
+    }
+
+    private Directory getOverviewIFD(final int imageIndex, final int overviewIndex) throws IOException {
+        List<Directory> overviews = getOverviewIFDs(imageIndex);
+
+        if (overviewIndex < 0 || overviewIndex >= overviews.size()) {
+            throw new IndexOutOfBoundsException("overviewIndex < 0 || overviewIndex >= numOverviews: " + overviewIndex);
+        }
+
+        return overviews.get(overviewIndex);
+    }
+
+    private List<Directory> getOverviewIFDs(final int imageIndex) throws IOException {
+        readMetadata();
+        checkBounds(imageIndex);
+
+        Directory ifd = IFDs.getDirectory(imageIndex);
+        final int width = getDimension(ifd, TIFF.TAG_IMAGE_WIDTH);
+        final int height = getDimension(ifd, TIFF.TAG_IMAGE_HEIGHT);
+
+        List<Directory> candidates = new ArrayList<>();
+
+        Entry subIFDs = ifd.getEntryById(TIFF.TAG_SUB_IFD);
+        if (subIFDs != null) {
+            Object value = subIFDs.getValue();
+
+            if (value instanceof Directory) {
+                candidates.add((Directory) value);
+            }
+            else if (value instanceof Directory[]) {
+                candidates.addAll(asList((Directory[]) value));
+            }
+        }
+
+        // Reduced-resolution versions stored as separate IFDs, following the full resolution IFD (ie. pyramid TIFF)
+        for (int i = imageIndex + 1; i < IFDs.directoryCount() && isReducedResolution(IFDs.getDirectory(i)); i++) {
+            candidates.add(IFDs.getDirectory(i));
+        }
+
+        List<Directory> overviews = new ArrayList<>(candidates.size());
+
+        for (Directory candidate : candidates) {
+            int overviewWidth = getDimension(candidate, TIFF.TAG_IMAGE_WIDTH);
+            int overviewHeight = getDimension(candidate, TIFF.TAG_IMAGE_HEIGHT);
+
+            if (isReducedResolution(candidate) && overviewWidth > 0 && overviewHeight > 0
+                    && overviewWidth <= width && overviewHeight <= height && (overviewWidth < width || overviewHeight < height)) {
+                overviews.add(candidate);
+            }
+        }
+
+        Collections.sort(overviews, new Comparator<Directory>() {
+            @Override
+            public int compare(final Directory left, final Directory right) {
+                return Long.compare((long) getDimension(right, TIFF.TAG_IMAGE_WIDTH) * getDimension(right, TIFF.TAG_IMAGE_HEIGHT),
+                        (long) getDimension(left, TIFF.TAG_IMAGE_WIDTH) * getDimension(left, TIFF.TAG_IMAGE_HEIGHT));
+            }
+        });
+
+        return overviews;
+    }
+
+    private static boolean isReducedResolution(final Directory ifd) {
+        Entry subFileType = ifd.getEntryById(TIFF.TAG_SUBFILE_TYPE);
+
+        if (subFileType != null && subFileType.getValue() instanceof Number) {
+            int value = ((Number) subFileType.getValue()).intValue();
+
+            return (value & TIFFBaseline.FILETYPE_REDUCEDIMAGE) != 0 && (value & TIFFBaseline.FILETYPE_MASK) == 0;
+        }
+
+        // Deprecated OldSubfileType, value 2 means reduced-resolution image data
+        Entry oldSubFileType = ifd.getEntryById(TIFF.TAG_OLD_SUBFILE_TYPE);
+
+        return oldSubFileType != null && oldSubFileType.getValue() instanceof Number && ((Number) oldSubFileType.getValue()).intValue() == 2;
+    }
+
+    private static int getDimension(final Directory ifd, final int tag) {
+        Entry entry = ifd.getEntryById(tag);
+
+        return entry != null && entry.getValue() instanceof Number ? ((Number) entry.getValue()).intValue() : -1;
+    }
+
+    // Returns the index of the smallest overview that gives the same samples as the full resolution image, or -1
+    private int selectOverview(final int imageIndex, final TIFFImageReadParam param) throws IOException {
+        if (param.getSourceXSubsampling() == 1 && param.getSourceYSubsampling() == 1) {
+            return -1;
+        }
+
+        for (int i = getNumOverviews(imageIndex) - 1; i >= 0; i--) {
+            if (createOverviewParam(imageIndex, i, param) != null) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    // Maps the source region and subsampling to the overview, or returns null if not all samples requested are
+    // present in the overview. That is, unless the integer reduction factor of the overview divides the
+    // subsampling, and the first sample is aligned with the overview.
+    private TIFFImageReadParam createOverviewParam(final int imageIndex, final int overviewIndex, final TIFFImageReadParam param) throws IOException {
+        int width = getWidth(imageIndex);
+        int height = getHeight(imageIndex);
+        int overviewWidth = getOverviewWidth(imageIndex, overviewIndex);
+        int overviewHeight = getOverviewHeight(imageIndex, overviewIndex);
+
+        int xFactor = getReductionFactor(width, overviewWidth);
+        int yFactor = getReductionFactor(height, overviewHeight);
+
+        int xSub = param.getSourceXSubsampling();
+        int ySub = param.getSourceYSubsampling();
+
+        if (xFactor <= 1 || yFactor <= 1 || xSub % xFactor != 0 || ySub % yFactor != 0) {
+            return null;
+        }
+
+        Rectangle region = param.getSourceRegion() != null
+                           ? param.getSourceRegion().intersection(new Rectangle(width, height))
+                           : new Rectangle(width, height);
+
+        // First sample, and number of samples, in full resolution coordinates
+        int x0 = region.x + param.getSubsamplingXOffset();
+        int y0 = region.y + param.getSubsamplingYOffset();
+        int columns = (region.x + region.width - x0 + xSub - 1) / xSub;
+        int rows = (region.y + region.height - y0 + ySub - 1) / ySub;
+
+        if (columns <= 0 || rows <= 0 || x0 % xFactor != 0 || y0 % yFactor != 0) {
+            return null;
+        }
+
+        int overviewXSub = xSub / xFactor;
+        int overviewYSub = ySub / yFactor;
+        Rectangle overviewRegion = new Rectangle(x0 / xFactor, y0 / yFactor, (columns - 1) * overviewXSub + 1, (rows - 1) * overviewYSub + 1);
+
+        if (overviewRegion.x + overviewRegion.width > overviewWidth || overviewRegion.y + overviewRegion.height > overviewHeight) {
+            return null;
+        }
+
+        TIFFImageReadParam overviewParam = new TIFFImageReadParam();
+        overviewParam.setExecutor(param.getExecutor());
+        overviewParam.setSourceRegion(overviewRegion);
+        overviewParam.setSourceSubsampling(overviewXSub, overviewYSub, 0, 0);
+        overviewParam.setSourceBands(param.getSourceBands());
+        overviewParam.setDestinationBands(param.getDestinationBands());
+        overviewParam.setDestinationOffset(param.getDestinationOffset());
+
+        if (param.getDestination() != null) {
+            overviewParam.setDestination(param.getDestination());
+        }
+        else if (param.getDestinationType() != null) {
+            overviewParam.setDestinationType(param.getDestinationType());
+        }
+
+        return overviewParam;
+    }
+
+    // Returns the integer factor the overview dimension is reduced by (rounded up or down), or -1
+    private static int getReductionFactor(final int size, final int reducedSize) {
+        if (reducedSize <= 0) {
+            return -1;
+        }
+
+        int factor = size / reducedSize;
+
+        for (int f = Math.max(1, factor); f <= factor + 1; f++) {
+            if (size / f == reducedSize || (size + f - 1) / f == reducedSize) {
+                return f;
+            }
+        }
+
+        return -1;
+    }
+
     // TODO: Thumbnail support
 
     /// Metadata
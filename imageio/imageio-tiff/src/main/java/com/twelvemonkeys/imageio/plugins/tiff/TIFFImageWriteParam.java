@@ -30,11 +30,18 @@
 
 package com.twelvemonkeys.imageio.plugins.tiff;
 
+import com.twelvemonkeys.lang.Validate;
+
 import javax.imageio.ImageWriteParam;
 import java.util.Locale;
+import java.util.concurrent.Executor;
 
 /**
  * TIFFImageWriteParam
+ * <p>
+ * In addition to the standard write parameters, allows specifying the number of reduced-resolution
+ * versions (overviews) to write, and an {@link Executor} that will be used for compressing strips or tiles concurrently.
+ * </p>
  *
  * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
  * @author last modified by $Author: haraldk$
@@ -46,7 +53,6 @@ public final class TIFFImageWriteParam extends ImageWriteParam {
     // TODO: Support CCITT T.6 (4)
     // TODO: Support JBIG compression via ImageIO plugin/delegate?
     // TODO: Support JPEG2000 compression via ImageIO plugin/delegate?
-    // TODO: Support tiling
     // TODO: Support OPTIONAL predictor. See TIFF 6.0 Specification, Section 14: "Differencing Predictor", page 64.
 
     // DONE:
@@ -55,6 +61,15 @@ public final class TIFFImageWriteParam extends ImageWriteParam {
     // Support PackBits compression (32773)
     // Support LZW compression (5)?
     // Support JPEG compression (7)
+    // Support tiling
+
+    /**
+     * The tile width and height used, when tiling mode is {@link #MODE_DEFAULT}.
+     */
+    static final int DEFAULT_TILE_SIZE = 256;
+
+    private int numOverviews;
+    private Executor executor;
 
     TIFFImageWriteParam() {
         this(Locale.getDefault());
@@ -73,6 +88,67 @@ public final class TIFFImageWriteParam extends ImageWriteParam {
         };
         compressionType = compressionTypes[0];
         canWriteCompressed = true;
+        canWriteTiles = true;
+    }
+
+    /**
+     * Returns the number of reduced-resolution versions (overviews) written in addition to the full resolution image.
+     *
+     * @return the number of overviews, {@code 0} by default.
+     */
+    public int getNumOverviews() {
+        return numOverviews;
+    }
+
+    /**
+     * Sets the number of reduced-resolution versions (overviews) written in addition to the full resolution image.
+     * <p>
+     * Each overview is half the width and height of the previous, and is written in the IFD following it,
+     * using the same tiling and compression as the full resolution image,
+     * and with the {@code NewSubfileType} "reduced-resolution" bit set.
+     * No more overviews are written, once the size of the overview reaches 1x1 pixels.
+     * </p>
+     * <p>
+     * The overviews are created while writing the full resolution image, using a 2x2 box filter
+     * (or nearest neighbour for palette and bi-level images), and are kept in memory until written.
+     * The memory needed for the overviews is about 1/4 of the size of the full resolution image.
+     * </p>
+     *
+     * @param numOverviews the number of overviews, or {@code 0} to write only the full resolution image.
+     * @throws IllegalArgumentException if {@code numOverviews < 0}.
+     */
+    public void setNumOverviews(final int numOverviews) {
+        Validate.isTrue(numOverviews >= 0, numOverviews, "numOverviews must be >= 0: %s");
+
+        this.numOverviews = numOverviews;
+    }
+
+    /**
+     * Returns the executor used for compressing strips or tiles concurrently.
+     *
+     * @return the executor, or {@code null} if strips or tiles are compressed on the calling thread.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor used for compressing strips or tiles concurrently.
+     * <p>
+     * The default value is {@code null}, meaning all strips and tiles are compressed sequentially,
+     * on the calling thread.
+     * The pixel data is still fetched from the source image, and the compressed data written to the output stream,
+     * in file order on the calling thread. The output is identical to the sequentially written output.
+     * The writer will block until all tasks submitted to the executor are completed.
+     * </p>
+     * <p>
+     * Uncompressed and JPEG compressed data is always written on the calling thread.
+     * </p>
+     *
+     * @param executor the executor, or {@code null} to compress on the calling thread.
+     */
+    public void setExecutor(final Executor executor) {
+        this.executor = executor;
     }
 
     @Override
@@ -41,6 +41,7 @@ import com.twelvemonkeys.imageio.metadata.tiff.TIFFWriter;
 import com.twelvemonkeys.imageio.stream.SubImageOutputStream;
 import com.twelvemonkeys.imageio.util.IIOUtil;
 import com.twelvemonkeys.imageio.util.ProgressListenerBase;
+import com.twelvemonkeys.io.FastByteArrayOutputStream;
 import com.twelvemonkeys.io.enc.EncoderStream;
 import com.twelvemonkeys.io.enc.PackBitsEncoder;
 import com.twelvemonkeys.lang.Validate;
@@ -60,6 +61,8 @@ import java.awt.image.*;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
@@ -74,7 +77,6 @@ import static com.twelvemonkeys.imageio.plugins.tiff.TIFFStreamMetadata.configur
  */
 public final class TIFFImageWriter extends ImageWriterBase {
     // Long term
-    // TODO: Support tiling
     // TODO: Support thumbnails
     // TODO: Support JPEG compression of CMYK data (pending JPEGImageWriter CMYK write support)
     // ----
@@ -101,9 +103,17 @@ public final class TIFFImageWriter extends ImageWriterBase {
     // CCITT compressions T.4 and T.6
     // Support storing multiple images in one stream (multi-page TIFF)
     // Support more of the ImageIO metadata (ie. compression from metadata, etc)
+    // Support tiling
+    // Support reduced-resolution versions (overviews)
 
     private static final Rational STANDARD_DPI = new Rational(72);
 
+    // Uncompressed size of each strip, unless the rows are larger
+    private static final int STRIP_SIZE_TARGET = 8192;
+
+    // Max number of strips/tiles (with uncompressed data) in flight, when compressing concurrently
+    private static final int CONCURRENT_STRIP_TILE_BATCH_SIZE = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+
     /**
      * Flag for active sequence writing
      */
@@ -142,7 +152,6 @@ public final class TIFFImageWriter extends ImageWriterBase {
     private long writePage(int imageIndex, IIOImage image, ImageWriteParam param, TIFFWriter tiffWriter, long lastIFDPointerOffset)
             throws IOException {
         RenderedImage renderedImage = image.getRenderedImage();
-        SampleModel sampleModel = renderedImage.getSampleModel();
 
         // Can't use createFromRenderedImage in this case, as it does not consider palette for TYPE_BYTE_BINARY...
         // TODO: Consider writing workaround in ImageTypeSpecifiers
@@ -153,6 +162,49 @@ public final class TIFFImageWriter extends ImageWriterBase {
                                      ? convertImageMetadata(image.getMetadata(), spec, param)
                                      : getDefaultImageMetadata(spec, param);
 
+        Map<Integer, Entry> entries = new LinkedHashMap<>();
+        // Copy metadata to output
+        Directory metadataIFD = metadata.getIFD();
+        for (Entry entry : metadataIFD) {
+            entries.put((Integer) entry.getIdentifier(), entry);
+        }
+
+        int compression = ((Number) entries.get(TIFF.TAG_COMPRESSION).getValue()).intValue();
+        Dimension tileSize = getTileSize(param, compression);
+
+        int numOverviews = param instanceof TIFFImageWriteParam ? ((TIFFImageWriteParam) param).getNumOverviews() : 0;
+        WritableRaster overview = numOverviews > 0 ? createOverviewRaster(renderedImage.getSampleModel(), renderedImage.getWidth(), renderedImage.getHeight()) : null;
+
+        long nextIFDPointerOffset = writeImage(imageIndex, image, param, entries, tileSize, overview, tiffWriter, lastIFDPointerOffset, true);
+
+        // Write overviews as reduced-resolution subfiles, in the IFDs following the full resolution image.
+        // Each level is created from the previous, so the source is only traversed once.
+        ColorModel colorModel = renderedImage.getColorModel();
+        boolean average = isAveragingSupported(colorModel, renderedImage.getSampleModel());
+
+        for (int level = 1; overview != null; level++) {
+            WritableRaster nextOverview = level < numOverviews ? createOverviewRaster(overview.getSampleModel(), overview.getWidth(), overview.getHeight()) : null;
+
+            if (nextOverview != null) {
+                downsample(overview, nextOverview, average);
+            }
+
+            BufferedImage overviewImage = new BufferedImage(colorModel, overview, colorModel.isAlphaPremultiplied(), null);
+            nextIFDPointerOffset = writeImage(imageIndex, new IIOImage(overviewImage, null, null), param, createOverviewEntries(entries),
+                    tileSize, null, tiffWriter, nextIFDPointerOffset, false);
+
+            overview = nextOverview;
+        }
+
+        return nextIFDPointerOffset;
+    }
+
+    private long writeImage(int imageIndex, IIOImage image, ImageWriteParam param, Map<Integer, Entry> entries, Dimension tileSize,
+                            WritableRaster overview, TIFFWriter tiffWriter, long lastIFDPointerOffset, boolean reportProgress)
+            throws IOException {
+        RenderedImage renderedImage = image.getRenderedImage();
+        SampleModel sampleModel = renderedImage.getSampleModel();
+
         int numBands = sampleModel.getNumBands();
         int pixelSize = computePixelSize(sampleModel);
 
@@ -174,39 +226,126 @@ public final class TIFFImageWriter extends ImageWriterBase {
             throw new IllegalArgumentException("Unknown bit/bandOffsets for sample model: " + sampleModel);
         }
 
-        Map<Integer, Entry> entries = new LinkedHashMap<>();
-        // Copy metadata to output
-        Directory metadataIFD = metadata.getIFD();
-        for (Entry entry : metadataIFD) {
-            entries.put((Integer) entry.getIdentifier(), entry);
-        }
-
         entries.put(TIFF.TAG_IMAGE_WIDTH, new TIFFEntry(TIFF.TAG_IMAGE_WIDTH, renderedImage.getWidth()));
         entries.put(TIFF.TAG_IMAGE_HEIGHT, new TIFFEntry(TIFF.TAG_IMAGE_HEIGHT, renderedImage.getHeight()));
 
-        // TODO: RowsPerStrip - can be entire image (or even 2^32 -1), but it's recommended to write "about 8K bytes" per strip
+        int compression = ((Number) entries.get(TIFF.TAG_COMPRESSION).getValue()).intValue();
+
+        if (tileSize != null) {
+            return writeStripsOrTiles(imageIndex, renderedImage, param, entries, tileSize, true, numBands, pixelSize, bandOffsets, bitOffsets,
+                    overview, tiffWriter, lastIFDPointerOffset, reportProgress);
+        }
+        else if (compression != TIFFExtension.COMPRESSION_JPEG) {
+            // Write the image in bands of rows, so that only a single strip of the image needs to be in memory at any time
+            Dimension stripSize = new Dimension(renderedImage.getWidth(), computeRowsPerStrip(renderedImage.getWidth(), renderedImage.getHeight(), pixelSize));
+
+            return writeStripsOrTiles(imageIndex, renderedImage, param, entries, stripSize, false, numBands, pixelSize, bandOffsets, bitOffsets,
+                    overview, tiffWriter, lastIFDPointerOffset, reportProgress);
+        }
+
+        // NOTE: The JPEG writer pulls rows from the image as needed, write it as a single strip
         entries.put(TIFF.TAG_ROWS_PER_STRIP, new TIFFEntry(TIFF.TAG_ROWS_PER_STRIP, renderedImage.getHeight()));
-        // StripByteCounts - for no compression, entire image data...
-        entries.put(TIFF.TAG_STRIP_BYTE_COUNTS, new TIFFEntry(TIFF.TAG_STRIP_BYTE_COUNTS, -1)); // Updated later
-        // StripOffsets - can be offset to single strip only
-        entries.put(TIFF.TAG_STRIP_OFFSETS, new TIFFEntry(TIFF.TAG_STRIP_OFFSETS, -1)); // Updated later
 
-        // TODO: If tiled, write tile indexes etc
-        // Depending on param.getTilingMode
-        long nextIFDPointerOffset = -1;
+        imageOutput.writeInt(0); // Update current IFD pointer later
+
+        long stripOffset = imageOutput.getStreamPosition();
+
+        // TODO: Cache JPEGImageWriter, dispose in dispose() method
+        ImageWriter jpegWriter = createJPEGWriter();
+
+        try {
+            jpegWriter.setOutput(new SubImageOutputStream(imageOutput));
+
+            if (reportProgress) {
+                ListenerDelegate listener = new ListenerDelegate(imageIndex);
+                jpegWriter.addIIOWriteProgressListener(listener);
+                jpegWriter.addIIOWriteWarningListener(listener);
+            }
+
+            jpegWriter.write(null, image, copyParams(param, jpegWriter));
+        }
+        finally {
+            jpegWriter.dispose();
+        }
+
+        if (overview != null) {
+            downsample(renderedImage, overview, isAveragingSupported(renderedImage.getColorModel(), sampleModel));
+        }
+
+        long stripByteCount = imageOutput.getStreamPosition() - stripOffset;
+
+        entries.put(TIFF.TAG_STRIP_OFFSETS, new TIFFEntry(TIFF.TAG_STRIP_OFFSETS, TIFF.TYPE_LONG, stripOffset));
+        entries.put(TIFF.TAG_STRIP_BYTE_COUNTS, new TIFFEntry(TIFF.TAG_STRIP_BYTE_COUNTS, TIFF.TYPE_LONG, stripByteCount));
+
+        return writeIFDAfterData(entries, tiffWriter, lastIFDPointerOffset);
+    }
+
+    private static int computeRowsPerStrip(final int width, final int height, final int pixelSize) {
+        // TIFF 6.0, Section 3: "it is recommended to choose RowsPerStrip such that each strip is about 8K bytes"
+        long bytesPerRow = ((long) width * pixelSize + 7) / 8;
+        int rowsPerStrip = (int) Math.max(1, Math.min(height, STRIP_SIZE_TARGET / Math.max(1, bytesPerRow)));
+
+        // Keep an even number of rows, so that strips start on an even row (needed for creating overviews)
+        return rowsPerStrip < height ? Math.max(2, rowsPerStrip & ~1) : height;
+    }
+
+    private long writeStripsOrTiles(int imageIndex, RenderedImage renderedImage, ImageWriteParam param, Map<Integer, Entry> entries,
+                                    Dimension size, boolean tiled, int numBands, int pixelSize, int[] bandOffsets, int[] bitOffsets,
+                                    WritableRaster overview, TIFFWriter tiffWriter, long lastIFDPointerOffset, boolean reportProgress)
+            throws IOException {
+        int width = renderedImage.getWidth();
+        int height = renderedImage.getHeight();
+        int across = (width + size.width - 1) / size.width;
+        int down = (height + size.height - 1) / size.height;
+
+        long[] offsets = new long[across * down];
+        long[] byteCounts = new long[across * down];
+
+        int offsetsTag;
+        int byteCountsTag;
+
+        if (tiled) {
+            entries.put(TIFF.TAG_TILE_WIDTH, new TIFFEntry(TIFF.TAG_TILE_WIDTH, TIFF.TYPE_LONG, size.width));
+            entries.put(TIFF.TAG_TILE_HEIGTH, new TIFFEntry(TIFF.TAG_TILE_HEIGTH, TIFF.TYPE_LONG, size.height));
+            offsetsTag = TIFF.TAG_TILE_OFFSETS;
+            byteCountsTag = TIFF.TAG_TILE_BYTE_COUNTS;
+        }
+        else {
+            entries.put(TIFF.TAG_ROWS_PER_STRIP, new TIFFEntry(TIFF.TAG_ROWS_PER_STRIP, TIFF.TYPE_LONG, size.height));
+            offsetsTag = TIFF.TAG_STRIP_OFFSETS;
+            byteCountsTag = TIFF.TAG_STRIP_BYTE_COUNTS;
+        }
 
         int compression = ((Number) entries.get(TIFF.TAG_COMPRESSION).getValue()).intValue();
+        ColorModel colorModel = renderedImage.getColorModel();
+        boolean average = isAveragingSupported(colorModel, renderedImage.getSampleModel());
+
+        if (reportProgress) {
+            processImageStarted(imageIndex);
+        }
+
+        // Uncompressed strips have known sizes up front, so we can write the IFD before the image data.
+        // This allows semi-streaming-compatible uncompressed TIFFs.
+        // Otherwise, the IFD is written after the data, when the offsets and byte counts are known.
+        boolean ifdFirst = compression == TIFFBaseline.COMPRESSION_NONE && !tiled;
+        long nextIFDPointerOffset = -1;
+
+        if (ifdFirst) {
+            entries.put(offsetsTag, new TIFFEntry(offsetsTag, TIFF.TYPE_LONG, offsets));
+            entries.put(byteCountsTag, new TIFFEntry(byteCountsTag, TIFF.TYPE_LONG, byteCounts));
 
-        if (compression == TIFFBaseline.COMPRESSION_NONE) {
-            // This implementation, allows semi-streaming-compatible uncompressed TIFFs
             long streamPosition = imageOutput.getStreamPosition();
+            long bytesPerRow = ((long) width * pixelSize + 7) / 8;
+            long dataOffset = streamPosition + 4 + tiffWriter.computeIFDSize(entries.values()) + 4;
 
-            long ifdSize = tiffWriter.computeIFDSize(entries.values());
-            long stripOffset = streamPosition + 4 + ifdSize + 4;
-            long stripByteCount = ((long) renderedImage.getWidth() * renderedImage.getHeight() * pixelSize + 7L) / 8L;
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = dataOffset;
+                byteCounts[i] = bytesPerRow * Math.min(size.height, height - i * size.height);
+                dataOffset += byteCounts[i];
+            }
 
-            entries.put(TIFF.TAG_STRIP_OFFSETS, new TIFFEntry(TIFF.TAG_STRIP_OFFSETS, TIFF.TYPE_LONG, stripOffset));
-            entries.put(TIFF.TAG_STRIP_BYTE_COUNTS, new TIFFEntry(TIFF.TAG_STRIP_BYTE_COUNTS, TIFF.TYPE_LONG, stripByteCount));
+            entries.put(offsetsTag, new TIFFEntry(offsetsTag, TIFF.TYPE_LONG, offsets));
+            entries.put(byteCountsTag, new TIFFEntry(byteCountsTag, TIFF.TYPE_LONG, byteCounts));
 
             long ifdPointer = tiffWriter.writeIFD(entries.values(), imageOutput); // NOTE: Writer takes case of ordering tags
             nextIFDPointerOffset = imageOutput.getStreamPosition();
@@ -224,59 +363,305 @@ public final class TIFFImageWriter extends ImageWriterBase {
             imageOutput.writeInt(0); // Update current IFD pointer later
         }
 
-        long stripOffset = imageOutput.getStreamPosition();
+        ImageWriter jpegWriter = compression == TIFFExtension.COMPRESSION_JPEG ? createJPEGWriter() : null;
 
-        // TODO: Create compressor stream per Tile/Strip
-        // TODO: Cache JPEGImageWriter, dispose in dispose() method
-        if (compression == TIFFExtension.COMPRESSION_JPEG) {
-            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("JPEG");
+        // NOTE: Uncompressed data is written directly, and the JPEG delegate writer isn't thread safe
+        Executor executor = param instanceof TIFFImageWriteParam && jpegWriter == null && compression != TIFFBaseline.COMPRESSION_NONE
+                            ? ((TIFFImageWriteParam) param).getExecutor()
+                            : null;
+        List<Future<byte[]>> tasks = executor != null ? new ArrayList<Future<byte[]>>(CONCURRENT_STRIP_TILE_BATCH_SIZE) : null;
 
-            if (!writers.hasNext()) {
-                // This can only happen if someone deliberately uninstalled it
-                throw new IIOException("No JPEG ImageWriter found!");
-            }
+        try {
+            for (int y = 0; y < down; y++) {
+                for (int x = 0; x < across; x++) {
+                    Rectangle region = new Rectangle(x * size.width, y * size.height, size.width, size.height)
+                            .intersection(new Rectangle(width, height));
 
-            ImageWriter jpegWriter = writers.next();
-            try {
-                jpegWriter.setOutput(new SubImageOutputStream(imageOutput));
-                ListenerDelegate listener = new ListenerDelegate(imageIndex);
-                jpegWriter.addIIOWriteProgressListener(listener);
-                jpegWriter.addIIOWriteWarningListener(listener);
-                jpegWriter.write(null, image, copyParams(param, jpegWriter));
+                    // Get only the data needed for this strip/tile, with coordinates relative to image origin
+                    Raster data = renderedImage.getData(new Rectangle(renderedImage.getMinX() + region.x, renderedImage.getMinY() + region.y, region.width, region.height))
+                                               .createTranslatedChild(region.x, region.y);
+
+                    if (overview != null) {
+                        downsample(data, overview, average);
+                    }
+
+                    // NOTE: Tiles are always full size, tiles on the right and bottom edges are padded
+                    BufferedImage stripTile = createStripTileImage(data, colorModel, tiled ? size : region.getSize());
+
+                    int index = y * across + x;
+
+                    if (executor != null) {
+                        // Compress on the executor, but write in file order on this thread, once a batch is complete
+                        FutureTask<byte[]> task = createCompressorTask(stripTile, param, entries, numBands, bandOffsets, bitOffsets);
+                        executor.execute(task);
+                        tasks.add(task);
+
+                        if (tasks.size() >= CONCURRENT_STRIP_TILE_BATCH_SIZE || index == offsets.length - 1) {
+                            writeCompressedData(tasks, index + 1 - tasks.size(), offsets, byteCounts, reportProgress);
+                        }
+
+                        continue;
+                    }
+
+                    offsets[index] = imageOutput.getStreamPosition();
+
+                    if (jpegWriter != null) {
+                        ImageWriteParam jpegParam = copyParams(param, jpegWriter);
+                        if (jpegParam != null) {
+                            // Region/subsampling is not supported for tiles
+                            jpegParam.setSourceRegion(null);
+                            jpegParam.setSourceSubsampling(1, 1, 0, 0);
+                        }
+
+                        jpegWriter.setOutput(new SubImageOutputStream(imageOutput));
+                        jpegWriter.write(null, new IIOImage(stripTile, null, null), jpegParam);
+                    }
+                    else {
+                        writeImageData(createCompressorStream(stripTile, param, entries, null), stripTile, numBands, bandOffsets, bitOffsets);
+                    }
+
+                    byteCounts[index] = imageOutput.getStreamPosition() - offsets[index];
+
+                    if (reportProgress) {
+                        processImageProgress(100f * (index + 1) / offsets.length);
+                    }
+                }
             }
-            finally {
+        }
+        finally {
+            if (jpegWriter != null) {
                 jpegWriter.dispose();
             }
+
+            if (tasks != null) {
+                // Only non-empty in case of exceptions, make sure we don't leave tasks running
+                for (Future<byte[]> task : tasks) {
+                    task.cancel(false);
+                }
+            }
         }
-        else {
-            // Write image data
-            writeImageData(createCompressorStream(renderedImage, param, entries), imageIndex, renderedImage, numBands, bandOffsets, bitOffsets);
+
+        if (!ifdFirst) {
+            entries.put(offsetsTag, new TIFFEntry(offsetsTag, TIFF.TYPE_LONG, offsets));
+            entries.put(byteCountsTag, new TIFFEntry(byteCountsTag, TIFF.TYPE_LONG, byteCounts));
+
+            nextIFDPointerOffset = writeIFDAfterData(entries, tiffWriter, lastIFDPointerOffset);
         }
 
-        long stripByteCount = imageOutput.getStreamPosition() - stripOffset;
+        if (reportProgress) {
+            processImageComplete();
+        }
 
-        // Update IFD0-pointer, and write IFD
-        if (compression != TIFFBaseline.COMPRESSION_NONE) {
-            entries.put(TIFF.TAG_STRIP_OFFSETS, new TIFFEntry(TIFF.TAG_STRIP_OFFSETS, TIFF.TYPE_LONG, stripOffset));
-            entries.put(TIFF.TAG_STRIP_BYTE_COUNTS, new TIFFEntry(TIFF.TAG_STRIP_BYTE_COUNTS, TIFF.TYPE_LONG, stripByteCount));
+        return nextIFDPointerOffset;
+    }
 
-            long ifdPointer = tiffWriter.writeIFD(entries.values(), imageOutput); // NOTE: Writer takes case of ordering tags
+    private FutureTask<byte[]> createCompressorTask(final BufferedImage stripTile, final ImageWriteParam param, final Map<Integer, Entry> entries,
+                                                    final int numBands, final int[] bandOffsets, final int[] bitOffsets) {
+        return new FutureTask<>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                FastByteArrayOutputStream bytes = new FastByteArrayOutputStream(STRIP_SIZE_TARGET);
+                writeImageData(createCompressorStream(stripTile, param, entries, bytes), stripTile, numBands, bandOffsets, bitOffsets);
 
-            nextIFDPointerOffset = imageOutput.getStreamPosition();
+                return bytes.toByteArray();
+            }
+        });
+    }
+
+    private void writeCompressedData(final List<Future<byte[]>> tasks, final int firstIndex, final long[] offsets, final long[] byteCounts,
+                                     final boolean reportProgress) throws IOException {
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                byte[] data = tasks.get(i).get();
+
+                int index = firstIndex + i;
+                offsets[index] = imageOutput.getStreamPosition();
+                imageOutput.write(data);
+                byteCounts[index] = data.length;
+
+                if (reportProgress) {
+                    processImageProgress(100f * (index + 1) / offsets.length);
+                }
+            }
+
+            tasks.clear();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing strips/tiles");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IIOException("Could not compress strip/tile", cause);
+        }
+    }
 
-            // TODO: This is slightly duped....
-            // However, need to update here, because to the writeIFD method writes the pointer, but at the incorrect offset
-            // TODO: Refactor writeIFD to take an offset
-            imageOutput.seek(lastIFDPointerOffset);
-            imageOutput.writeInt((int) ifdPointer);
-            imageOutput.seek(nextIFDPointerOffset);
+    private static BufferedImage createStripTileImage(final Raster data, final ColorModel colorModel, final Dimension size) {
+        SampleModel sampleModel = data.getSampleModel();
+        WritableRaster raster;
 
-            imageOutput.writeInt(0); // Next IFD pointer updated later
+        if (sampleModel.getWidth() == size.width && sampleModel.getHeight() == size.height
+                && data.getSampleModelTranslateX() == data.getMinX() && data.getSampleModelTranslateY() == data.getMinY()) {
+            // Data covers the entire buffer, use as-is
+            raster = Raster.createWritableRaster(sampleModel, data.getDataBuffer(), null);
         }
+        else {
+            // Copy into new raster, padded with zeros if needed
+            raster = Raster.createWritableRaster(sampleModel.createCompatibleSampleModel(size.width, size.height), null);
+            raster.setRect(-data.getMinX(), -data.getMinY(), data);
+        }
+
+        return new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+    }
+
+    private long writeIFDAfterData(final Map<Integer, Entry> entries, final TIFFWriter tiffWriter, final long lastIFDPointerOffset) throws IOException {
+        long ifdPointer = tiffWriter.writeIFD(entries.values(), imageOutput); // NOTE: Writer takes case of ordering tags
+
+        long nextIFDPointerOffset = imageOutput.getStreamPosition();
+
+        // TODO: This is slightly duped....
+        // However, need to update here, because to the writeIFD method writes the pointer, but at the incorrect offset
+        // TODO: Refactor writeIFD to take an offset
+        imageOutput.seek(lastIFDPointerOffset);
+        imageOutput.writeInt((int) ifdPointer);
+        imageOutput.seek(nextIFDPointerOffset);
+
+        imageOutput.writeInt(0); // Next IFD pointer updated later
 
         return nextIFDPointerOffset;
     }
 
+    private ImageWriter createJPEGWriter() throws IIOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("JPEG");
+
+        if (!writers.hasNext()) {
+            // This can only happen if someone deliberately uninstalled it
+            throw new IIOException("No JPEG ImageWriter found!");
+        }
+
+        return writers.next();
+    }
+
+    private Dimension getTileSize(final ImageWriteParam param, final int compression) {
+        if (param == null || !param.canWriteTiles()) {
+            return null;
+        }
+
+        switch (param.getTilingMode()) {
+            case ImageWriteParam.MODE_EXPLICIT:
+                int tileWidth = param.getTileWidth();
+                int tileHeight = param.getTileHeight();
+
+                // TIFF 6.0, Section 15: "TileWidth must be a multiple of 16", same for TileLength
+                if (tileWidth <= 0 || tileWidth % 16 != 0 || tileHeight <= 0 || tileHeight % 16 != 0) {
+                    throw new IllegalArgumentException(String.format("Tile width and height must be positive multiples of 16: %dx%d", tileWidth, tileHeight));
+                }
+                if (compression == TIFFExtension.COMPRESSION_JPEG && (tileWidth > 65535 || tileHeight > 65535)) {
+                    throw new IllegalArgumentException(String.format("Tile size too large for JPEG: %dx%d", tileWidth, tileHeight));
+                }
+
+                return new Dimension(tileWidth, tileHeight);
+
+            case ImageWriteParam.MODE_DEFAULT:
+                return new Dimension(TIFFImageWriteParam.DEFAULT_TILE_SIZE, TIFFImageWriteParam.DEFAULT_TILE_SIZE);
+
+            default:
+                // Disabled, or copy from metadata (tile tags are never copied from metadata)
+                return null;
+        }
+    }
+
+    private Map<Integer, Entry> createOverviewEntries(final Map<Integer, Entry> entries) {
+        Map<Integer, Entry> overviewEntries = new LinkedHashMap<>(entries);
+
+        // Overviews only describe the pixel data, skip the rest
+        overviewEntries.keySet().removeAll(Arrays.asList(
+                TIFF.TAG_XMP, TIFF.TAG_IPTC, TIFF.TAG_PHOTOSHOP, TIFF.TAG_PHOTOSHOP_IMAGE_SOURCE_DATA, TIFF.TAG_PHOTOSHOP_ANNOTATIONS,
+                TIFF.TAG_EXIF_IFD, TIFF.TAG_GPS_IFD, TIFF.TAG_INTEROP_IFD, TIFF.TAG_OLD_SUBFILE_TYPE,
+                TIFF.TAG_STRIP_OFFSETS, TIFF.TAG_STRIP_BYTE_COUNTS, TIFF.TAG_ROWS_PER_STRIP,
+                TIFF.TAG_TILE_OFFSETS, TIFF.TAG_TILE_BYTE_COUNTS, TIFF.TAG_TILE_WIDTH, TIFF.TAG_TILE_HEIGTH
+        ));
+        overviewEntries.put(TIFF.TAG_SUBFILE_TYPE, new TIFFEntry(TIFF.TAG_SUBFILE_TYPE, TIFF.TYPE_LONG, TIFFBaseline.FILETYPE_REDUCEDIMAGE));
+
+        return overviewEntries;
+    }
+
+    private static WritableRaster createOverviewRaster(final SampleModel sampleModel, final int width, final int height) {
+        if (width <= 1 && height <= 1) {
+            return null;
+        }
+
+        return Raster.createWritableRaster(sampleModel.createCompatibleSampleModel((width + 1) / 2, (height + 1) / 2), null);
+    }
+
+    private static boolean isAveragingSupported(final ColorModel colorModel, final SampleModel sampleModel) {
+        // Averaging palette indexes or bi-level pixels makes no sense, use nearest neighbour
+        return !(colorModel instanceof IndexColorModel) && !(sampleModel instanceof MultiPixelPackedSampleModel);
+    }
+
+    private static void downsample(final RenderedImage image, final WritableRaster overview, final boolean average) {
+        if (image.getTileWidth() % 2 != 0 || image.getTileHeight() % 2 != 0
+                || (image.getTileGridXOffset() - image.getMinX()) % 2 != 0 || (image.getTileGridYOffset() - image.getMinY()) % 2 != 0) {
+            // Tiles does not start on even coordinates, need the entire image
+            downsample(image.getData().createTranslatedChild(0, 0), overview, average);
+
+            return;
+        }
+
+        for (int tileY = image.getMinTileY(); tileY < image.getMinTileY() + image.getNumYTiles(); tileY++) {
+            for (int tileX = image.getMinTileX(); tileX < image.getMinTileX() + image.getNumXTiles(); tileX++) {
+                Raster tile = image.getTile(tileX, tileY);
+                downsample(tile.createTranslatedChild(tile.getMinX() - image.getMinX(), tile.getMinY() - image.getMinY()), overview, average);
+            }
+        }
+    }
+
+    // Reduces the source by a factor 2 in both directions, into the corresponding part of the overview,
+    // using a 2x2 box filter, or nearest neighbour.
+    // NOTE: Source coordinates must be relative to the image origin, and start on even coordinates
+    static void downsample(final Raster source, final WritableRaster overview, final boolean average) {
+        int width = source.getWidth();
+        int minX = source.getMinX();
+        int maxY = source.getMinY() + source.getHeight();
+        int dstWidth = (width + 1) / 2;
+
+        int[] row0 = new int[width];
+        int[] row1 = new int[width];
+        int[] dst = new int[dstWidth];
+
+        for (int b = 0; b < source.getNumBands(); b++) {
+            for (int y = source.getMinY(); y < maxY; y += 2) {
+                source.getSamples(minX, y, width, 1, b, row0);
+                source.getSamples(minX, Math.min(y + 1, maxY - 1), width, 1, b, row1);
+
+                for (int x = 0; x < dstWidth; x++) {
+                    int x0 = x * 2;
+
+                    if (average) {
+                        int x1 = Math.min(x0 + 1, width - 1);
+                        dst[x] = (int) (((long) row0[x0] + row0[x1] + row1[x0] + row1[x1] + 2) / 4);
+                    }
+                    else {
+                        dst[x] = row0[x0];
+                    }
+                }
+
+                overview.setSamples(minX / 2, y / 2, dstWidth, 1, b, dst);
+            }
+        }
+    }
+
     // TODO: Candidate util method
     private ImageWriteParam copyParams(final ImageWriteParam param, final ImageWriter writer) {
         if (param == null) {
@@ -309,7 +694,8 @@ public final class TIFFImageWriter extends ImageWriterBase {
         return size;
     }
 
-    private DataOutput createCompressorStream(final RenderedImage image, final ImageWriteParam param, final Map<Integer, Entry> entries) {
+    private DataOutput createCompressorStream(final RenderedImage image, final ImageWriteParam param, final Map<Integer, Entry> entries,
+                                              final OutputStream output) {
         /*
         36 MB test data:
 
@@ -371,9 +757,9 @@ public final class TIFFImageWriter extends ImageWriterBase {
 
         switch (compression) {
             case TIFFBaseline.COMPRESSION_NONE:
-                return imageOutput;
+                return output != null ? new DataOutputStream(output) : imageOutput;
             case TIFFBaseline.COMPRESSION_PACKBITS:
-                stream = IIOUtil.createStreamAdapter(imageOutput);
+                stream = output != null ? output : IIOUtil.createStreamAdapter(imageOutput);
                 stream = new EncoderStream(stream, new PackBitsEncoder(), true);
                 // NOTE: PackBits + Predictor is possible, but not generally supported, disable it by default
                 // (and probably not even allow it, see http://stackoverflow.com/questions/20337400/tiff-packbits-compression-with-predictor-step)
@@ -399,7 +785,7 @@ public final class TIFFImageWriter extends ImageWriterBase {
                     deflateSetting = Deflater.BEST_COMPRESSION - Math.round((Deflater.BEST_COMPRESSION - 1) * param.getCompressionQuality());
                 }
 
-                stream = IIOUtil.createStreamAdapter(imageOutput);
+                stream = output != null ? output : IIOUtil.createStreamAdapter(imageOutput);
                 stream = new DeflaterOutputStream(stream, new Deflater(deflateSetting), 1024);
                 if (entries.containsKey(TIFF.TAG_PREDICTOR) && entries.get(TIFF.TAG_PREDICTOR).getValue().equals(TIFFExtension.PREDICTOR_HORIZONTAL_DIFFERENCING)) {
                     stream = new HorizontalDifferencingStream(stream, image.getTileWidth(), samplesPerPixel, bitPerSample, imageOutput.getByteOrder());
@@ -408,7 +794,7 @@ public final class TIFFImageWriter extends ImageWriterBase {
                 return new DataOutputStream(stream);
 
             case TIFFExtension.COMPRESSION_LZW:
-                stream = IIOUtil.createStreamAdapter(imageOutput);
+                stream = output != null ? output : IIOUtil.createStreamAdapter(imageOutput);
                 stream = new EncoderStream(stream, new LZWEncoder(((image.getTileWidth() * samplesPerPixel * bitPerSample + 7) / 8) * image.getTileHeight()));
                 if (entries.containsKey(TIFF.TAG_PREDICTOR) && entries.get(TIFF.TAG_PREDICTOR).getValue().equals(TIFFExtension.PREDICTOR_HORIZONTAL_DIFFERENCING)) {
                     stream = new HorizontalDifferencingStream(stream, image.getTileWidth(), samplesPerPixel, bitPerSample, imageOutput.getByteOrder());
@@ -432,7 +818,7 @@ public final class TIFFImageWriter extends ImageWriterBase {
 
                 Entry fillOrderEntry = entries.get(TIFF.TAG_FILL_ORDER);
                 int fillOrder = (int) (fillOrderEntry != null ? fillOrderEntry.getValue() : TIFFBaseline.FILL_LEFT_TO_RIGHT);
-                stream = IIOUtil.createStreamAdapter(imageOutput);
+                stream = output != null ? output : IIOUtil.createStreamAdapter(imageOutput);
                 stream = new CCITTFaxEncoderStream(stream, image.getTileWidth(), image.getTileHeight(), compression, fillOrder, option);
 
                 return new DataOutputStream(stream);
@@ -502,15 +888,13 @@ public final class TIFFImageWriter extends ImageWriterBase {
         return shorts;
     }
 
-    private void writeImageData(DataOutput stream, int imageIndex, RenderedImage renderedImage, int numComponents, int[] bandOffsets, int[] bitOffsets) throws IOException {
+    private void writeImageData(DataOutput stream, RenderedImage renderedImage, int numComponents, int[] bandOffsets, int[] bitOffsets) throws IOException {
         // Store 3BYTE, 4BYTE as is (possibly need to re-arrange to RGB order)
         // Store INT_RGB as 3BYTE, INT_ARGB as 4BYTE?, INT_ABGR must be re-arranged
         // Store IndexColorModel as is
         // Store BYTE_GRAY as is
         // Store USHORT_GRAY as is
 
-        processImageStarted(imageIndex);
-
         final int minTileY = renderedImage.getMinTileY();
         final int maxYTiles = minTileY + renderedImage.getNumYTiles();
         final int minTileX = renderedImage.getMinTileX();
@@ -694,16 +1078,12 @@ public final class TIFFImageWriter extends ImageWriterBase {
                 dataOutputStream.flush();
             }
 
-            // TODO: Report better progress
-            processImageProgress((100f * (yTile + 1)) / maxYTiles);
         }
 
         if (stream instanceof DataOutputStream) {
             DataOutputStream dataOutputStream = (DataOutputStream) stream;
             dataOutputStream.close();
         }
-
-        processImageComplete();
     }
 
     // TODO: Would be better to solve this on stream level... But writers would then have to explicitly flush the buffer before done.
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2020, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.tiff;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.twelvemonkeys.lang.Validate.isTrue;
+
+/**
+ * A bounded cache of decoded tiles, for use with {@link TIFFImageReader#readTile(int, int, int)}
+ * and {@link TIFFImageReader#readTileRaster(int, int, int)}.
+ * <p>
+ * Tiles are keyed by input identity, image index and tile coordinates, and evicted in least recently used order
+ * whenever the total size of the cached tiles exceeds the given size in bytes.
+ * The input is only weakly referenced from the cache, and tiles for inputs no longer in use are removed.
+ * </p>
+ * <p>
+ * A cache instance is thread safe, and may be shared between multiple readers.
+ * </p>
+ *
+ * @see TIFFImageReader#setTileCache(TIFFTileCache)
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: TIFFTileCache.java,v 1.0 18.10.20 haraldk Exp$
+ */
+public final class TIFFTileCache {
+    private final long maxSize;
+    private final Map<Key, BufferedImage> tiles = new LinkedHashMap<>(16, .75f, true);
+    private final ReferenceQueue<Object> staleInputs = new ReferenceQueue<>();
+
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Creates a tile cache.
+     *
+     * @param maxSize the maximum size of the cached tiles, in bytes.
+     */
+    public TIFFTileCache(final long maxSize) {
+        isTrue(maxSize >= 0, maxSize, "maxSize must be >= 0: %s");
+        this.maxSize = maxSize;
+    }
+
+    synchronized BufferedImage get(final Object input, final int imageIndex, final int tileX, final int tileY) {
+        purgeStaleTiles();
+
+        BufferedImage tile = tiles.get(new Key(input, null, imageIndex, tileX, tileY));
+
+        if (tile != null) {
+            hitCount++;
+            return copy(tile);
+        }
+
+        missCount++;
+        return null;
+    }
+
+    synchronized void put(final Object input, final int imageIndex, final int tileX, final int tileY, final BufferedImage tile) {
+        purgeStaleTiles();
+
+        long tileSize = sizeOf(tile);
+
+        if (tileSize > maxSize) {
+            return;
+        }
+
+        BufferedImage old = tiles.put(new Key(input, staleInputs, imageIndex, tileX, tileY), copy(tile));
+        size += tileSize;
+
+        if (old != null) {
+            size -= sizeOf(old);
+        }
+
+        Iterator<BufferedImage> iterator = tiles.values().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= sizeOf(iterator.next());
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Removes all tiles from this cache. Does not reset the statistics.
+     */
+    public synchronized void clear() {
+        tiles.clear();
+        size = 0;
+
+        while (staleInputs.poll() != null) {
+            // Discard, the tiles are already removed
+        }
+    }
+
+    // Removes the tiles of inputs that are no longer referenced, these can never be requested again
+    private void purgeStaleTiles() {
+        Reference<?> key;
+
+        while ((key = staleInputs.poll()) != null) {
+            BufferedImage tile = tiles.remove(key);
+
+            if (tile != null) {
+                size -= sizeOf(tile);
+            }
+        }
+    }
+
+    /**
+     * @return the maximum size of the cached tiles, in bytes.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the current size of the cached tiles, in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of tiles currently in this cache.
+     */
+    public synchronized int getTileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * @return the number of tile requests served from this cache.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of tile requests not found in this cache.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of tiles removed from this cache, to stay within the size limit.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("TIFFTileCache[size: %d/%d bytes, tiles: %d, hits: %d, misses: %d, evictions: %d]",
+                size, maxSize, tiles.size(), hitCount, missCount, evictionCount);
+    }
+
+    private static BufferedImage copy(final BufferedImage tile) {
+        // Never expose the cached instance, as the pixel data would be mutable
+        ColorModel colorModel = tile.getColorModel();
+        WritableRaster raster = tile.getRaster().createCompatibleWritableRaster();
+        raster.setRect(tile.getRaster());
+
+        return new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+    }
+
+    private static long sizeOf(final BufferedImage tile) {
+        DataBuffer buffer = tile.getRaster().getDataBuffer();
+
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    // NOTE: The key is itself the weak reference to the input, to allow removing it from the map once enqueued
+    private static final class Key extends WeakReference<Object> {
+        private final int imageIndex;
+        private final int tileX;
+        private final int tileY;
+        private final int hash;
+
+        Key(final Object input, final ReferenceQueue<Object> queue, final int imageIndex, final int tileX, final int tileY) {
+            super(input, queue);
+            this.imageIndex = imageIndex;
+            this.tileX = tileX;
+            this.tileY = tileY;
+
+            hash = ((System.identityHashCode(input) * 31 + imageIndex) * 31 + tileX) * 31 + tileY;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+
+            if (!(other instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) other;
+            Object referent = get();
+
+            return referent != null && referent == key.get()
+                    && imageIndex == key.imageIndex && tileX == key.tileX && tileY == key.tileY;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -40,6 +40,9 @@ import java.util.Arrays;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * CCITTFaxDecoderStreamTest
@@ -347,4 +350,127 @@ public class CCITTFaxDecoderStreamTest {
         byte[] bytes = new byte[216 * 1168]; // 1728 x 1168 pixel, 1 bpp => 216 bytes * 1168
         new DataInputStream(stream).readFully(bytes);
     }
+
+    @Test
+    public void testReadRunLengthsType4_1D() throws IOException {
+        assertRunLengths(new CCITTFaxDecoderStream(new ByteArrayInputStream(DATA_G3_1D), 6,
+                TIFFExtension.COMPRESSION_CCITT_T4, 1, 0L));
+    }
+
+    @Test
+    public void testReadRunLengthsType4_2D() throws IOException {
+        assertRunLengths(new CCITTFaxDecoderStream(new ByteArrayInputStream(DATA_G3_2D), 6,
+                TIFFExtension.COMPRESSION_CCITT_T4, 1, TIFFExtension.GROUP3OPT_2DENCODING));
+    }
+
+    @Test
+    public void testReadRunLengthsType6() throws IOException {
+        assertRunLengths(new CCITTFaxDecoderStream(new ByteArrayInputStream(DATA_G4), 6,
+                TIFFExtension.COMPRESSION_CCITT_T6, 1, 0L));
+    }
+
+    // Runs of the 6 x 4 test image: 3W|1B|2W for the first three rows, 2W|2B|2W for the last
+    private static void assertRunLengths(final CCITTFaxDecoderStream stream) throws IOException {
+        int[] runLengths = new int[7];
+
+        for (int y = 0; y < 3; y++) {
+            assertEquals(3, stream.readRunLengths(runLengths));
+            assertArrayEquals(new int[] {3, 1, 2}, Arrays.copyOf(runLengths, 3));
+        }
+
+        assertEquals(3, stream.readRunLengths(runLengths));
+        assertArrayEquals(new int[] {2, 2, 2}, Arrays.copyOf(runLengths, 3));
+
+        assertEquals(-1, stream.readRunLengths(runLengths));
+    }
+
+    @Test
+    public void testReadRunLengthsCorruptRow() throws IOException {
+        // 16 columns, 8W|8B, then H 6W|1B followed by VL3, moving back before the previous change
+        byte[] data = {0x33, 0x14, (byte) 0xf2, 0x05};
+
+        CCITTFaxDecoderStream stream = new CCITTFaxDecoderStream(new ByteArrayInputStream(data), 16,
+                TIFFExtension.COMPRESSION_CCITT_T6, 1, 0L);
+        int[] runLengths = new int[17];
+
+        assertEquals(2, stream.readRunLengths(runLengths));
+        assertArrayEquals(new int[] {8, 8}, Arrays.copyOf(runLengths, 2));
+
+        try {
+            stream.readRunLengths(runLengths);
+            fail("Expected IOException");
+        }
+        catch (IOException expected) {
+            assertNotNull(expected.getMessage());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeCorruptRow() throws IOException {
+        byte[] data = {0x33, 0x14, (byte) 0xf2, 0x05};
+
+        InputStream stream = new CCITTFaxDecoderStream(new ByteArrayInputStream(data), 16,
+                TIFFExtension.COMPRESSION_CCITT_T6, 1, 0L);
+
+        new DataInputStream(stream).readFully(new byte[4]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadRunLengthsTooShort() throws IOException {
+        CCITTFaxDecoderStream stream = new CCITTFaxDecoderStream(new ByteArrayInputStream(DATA_G4), 6,
+                TIFFExtension.COMPRESSION_CCITT_T6, 1, 0L);
+
+        stream.readRunLengths(new int[6]);
+    }
+
+    @Test
+    public void testReadRunLengthsEqualsDecodedRows() throws IOException {
+        InputStream inputStream = getClass().getResourceAsStream("/tiff/ccitt/g3aoe.tif");
+
+        // Skip until StripOffsets: 8
+        for (int i = 0; i < 8; i++) {
+            inputStream.read();
+        }
+
+        // Read until StripByteCounts: 20050
+        byte[] data = new byte[20050];
+        new DataInputStream(inputStream).readFully(data);
+
+        DataInputStream packed = new DataInputStream(new CCITTFaxDecoderStream(new ByteArrayInputStream(data),
+                1728, TIFFExtension.COMPRESSION_CCITT_T4, 1, TIFFExtension.GROUP3OPT_FILLBITS));
+        CCITTFaxDecoderStream runs = new CCITTFaxDecoderStream(new ByteArrayInputStream(data),
+                1728, TIFFExtension.COMPRESSION_CCITT_T4, 1, TIFFExtension.GROUP3OPT_FILLBITS);
+
+        byte[] expected = new byte[216];
+        byte[] actual = new byte[216];
+        int[] runLengths = new int[1729];
+
+        for (int y = 0; y < 1168; y++) {
+            packed.readFully(expected);
+
+            int count = runs.readRunLengths(runLengths);
+            assertTrue(count > 0);
+
+            // Expand runs to packed pixels
+            Arrays.fill(actual, (byte) 0);
+            int x = 0;
+
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    assertTrue("Empty run", runLengths[i] > 0);
+                }
+
+                if ((i & 1) == 1) {
+                    for (int j = x; j < x + runLengths[i]; j++) {
+                        actual[j / 8] |= 0x80 >> (j % 8);
+                    }
+                }
+
+                x += runLengths[i];
+            }
+
+            assertEquals(1728, x);
+            assertArrayEquals(String.format("Row %d differs", y), expected, actual);
+        }
+    }
 }
@@ -45,6 +45,7 @@ import java.awt.image.DataBufferByte;
 import java.io.*;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -170,6 +171,61 @@ public class CCITTFaxEncoderStreamTest {
         assertArrayEquals(data, decodedData);
     }
 
+    @Test
+    public void testEncodeDecodeWordBoundaries() throws IOException {
+        Random random = new Random(2480L);
+
+        // Widths around the 64 bit word boundaries used for finding changing elements
+        for (int columns : new int[] {1, 7, 63, 64, 65, 127, 128, 129, 1728}) {
+            int stride = (columns + 7) / 8;
+            int rows = 11;
+            byte[] data = new byte[stride * rows];
+
+            for (int y = 0; y < rows; y++) {
+                for (int x = 0; x < stride; x++) {
+                    // Mix of random pixels, and long runs ending at random positions
+                    data[y * stride + x] = (byte) (y % 3 == 0 ? random.nextInt() : random.nextInt(columns) < x * 8 ? 0xff : 0);
+                }
+
+                // Padding bits should be ignored, set them all
+                data[y * stride + stride - 1] |= 0xff >> (8 - (stride * 8 - columns));
+            }
+
+            for (int type : new int[] {TIFFBaseline.COMPRESSION_CCITT_MODIFIED_HUFFMAN_RLE, TIFFExtension.COMPRESSION_CCITT_T4, TIFFExtension.COMPRESSION_CCITT_T6}) {
+                long options = type == TIFFExtension.COMPRESSION_CCITT_T4 ? TIFFExtension.GROUP3OPT_2DENCODING : 0L;
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (OutputStream stream = new CCITTFaxEncoderStream(bytes, columns, rows, type, 1, options)) {
+                    stream.write(data);
+                }
+
+                // Byte by byte writing should give the same result
+                ByteArrayOutputStream singleBytes = new ByteArrayOutputStream();
+                try (OutputStream stream = new CCITTFaxEncoderStream(singleBytes, columns, rows, type, 1, options)) {
+                    for (byte b : data) {
+                        stream.write(b);
+                    }
+                }
+
+                assertArrayEquals(bytes.toByteArray(), singleBytes.toByteArray());
+
+                byte[] decoded = new byte[data.length];
+                try (CCITTFaxDecoderStream stream = new CCITTFaxDecoderStream(new ByteArrayInputStream(bytes.toByteArray()), columns, type, 1, options)) {
+                    new DataInputStream(stream).readFully(decoded);
+                }
+
+                for (int y = 0; y < rows; y++) {
+                    for (int x = 0; x < columns; x++) {
+                        int expected = (data[y * stride + x / 8] >> (7 - x % 8)) & 1;
+                        int actual = (decoded[y * stride + x / 8] >> (7 - x % 8)) & 1;
+
+                        assertEquals(String.format("Type %d, %d columns: pixel differs at (%d, %d)", type, columns, x, y), expected, actual);
+                    }
+                }
+            }
+        }
+    }
+
     protected URL getClassLoaderResource(final String pName) {
         return getClass().getResource(pName);
     }
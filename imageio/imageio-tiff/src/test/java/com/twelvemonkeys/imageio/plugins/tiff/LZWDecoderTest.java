@@ -30,6 +30,7 @@
 
 package com.twelvemonkeys.imageio.plugins.tiff;
 
+import com.twelvemonkeys.io.FastByteArrayOutputStream;
 import com.twelvemonkeys.io.FileUtil;
 import com.twelvemonkeys.io.enc.Decoder;
 import com.twelvemonkeys.io.enc.DecoderAbstractTest;
@@ -39,9 +40,11 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -101,6 +104,73 @@ public class LZWDecoderTest extends DecoderAbstractTest {
         }
     }
 
+    @Test
+    public void testPaddingAfterEOIIgnored() throws IOException {
+        // CLEAR, 'A', EOI, 5 bits of padding, followed by an extra byte of padding
+        byte[] encoded = {(byte) 0x80, 0x10, 0x60, 0x20, 0x00};
+
+        assertArrayEquals(new byte[] {'A'}, decodeAll(LZWDecoder.create(false), encoded, 1024));
+    }
+
+    @Test
+    public void testRandomStreamsRoundTrip() throws IOException {
+        Random random = new Random(1710247369L);
+
+        for (int i = 0; i < 32; i++) {
+            // Mix of low and high entropy data, to exercise both long strings and table resets
+            byte[] data = new byte[1 + random.nextInt(65536)];
+            int range = 1 + random.nextInt(256);
+
+            for (int j = 0; j < data.length; j++) {
+                data[j] = (byte) random.nextInt(range);
+            }
+
+            FastByteArrayOutputStream stream = new FastByteArrayOutputStream(data.length);
+            new LZWEncoder(data.length).encode(stream, ByteBuffer.wrap(data));
+            byte[] encoded = stream.toByteArray();
+
+            int bufferSize = 1024 + random.nextInt(4096);
+
+            assertArrayEquals(data, decodeAll(LZWDecoder.create(false), encoded, bufferSize));
+        }
+    }
+
+    @Test
+    public void testDecodeToDirectBuffer() throws IOException {
+        byte[] bytes = FileUtil.read(getClass().getResourceAsStream("/lzw/lzw-long.bin"));
+        byte[] expected = FileUtil.read(getClass().getResourceAsStream("/lzw/unpacked-long.bin"));
+
+        Decoder decoder = LZWDecoder.create(false);
+        ByteArrayInputStream input = new ByteArrayInputStream(bytes);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        byte[] actual = new byte[expected.length];
+        int offset = 0;
+
+        while (decoder.decode(input, buffer) > 0) {
+            buffer.flip();
+            int length = buffer.remaining();
+            buffer.get(actual, offset, length);
+            offset += length;
+            buffer.clear();
+        }
+
+        assertEquals(expected.length, offset);
+        assertArrayEquals(expected, actual);
+    }
+
+    private static byte[] decodeAll(final Decoder decoder, final byte[] encoded, final int bufferSize) throws IOException {
+        ByteArrayInputStream input = new ByteArrayInputStream(encoded);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+
+        while (decoder.decode(input, buffer) > 0) {
+            output.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+
+        return output.toByteArray();
+    }
+
     @Override
     public Decoder createDecoder() {
         return LZWDecoder.create(false);
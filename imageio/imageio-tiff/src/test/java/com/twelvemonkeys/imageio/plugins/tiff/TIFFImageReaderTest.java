@@ -31,25 +31,41 @@
 package com.twelvemonkeys.imageio.plugins.tiff;
 
 import com.twelvemonkeys.imageio.color.ColorSpaces;
+import com.twelvemonkeys.imageio.metadata.Directory;
+import com.twelvemonkeys.imageio.metadata.Entry;
+import com.twelvemonkeys.imageio.metadata.tiff.TIFF;
+import com.twelvemonkeys.imageio.metadata.tiff.TIFFEntry;
+import com.twelvemonkeys.imageio.metadata.tiff.TIFFReader;
+import com.twelvemonkeys.imageio.stream.ByteArrayImageInputStream;
 import com.twelvemonkeys.imageio.util.ImageReaderAbstractTest;
 import org.junit.Test;
 
 import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOReadProgressListener;
 import javax.imageio.event.IIOReadWarningListener;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.spi.ImageReaderSpi;
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.*;
 import java.awt.color.ColorSpace;
 import java.awt.image.*;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.hamcrest.CoreMatchers.is;
@@ -841,6 +857,423 @@ public class TIFFImageReaderTest extends ImageReaderAbstractTest<TIFFImageReader
         assertSubsampledImageDataEquals("Subsampled image data does not match expected", image, subsampled, param);
     }
 
+    @Test
+    public void testReadWithExecutorEqualsSequential() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            TIFFImageReader reader = createReader();
+
+            List<String> resources = Arrays.asList(
+                    "/tiff/quad-lzw.tif", // RGB, Old spec (reversed) LZW compressed, tiled
+                    "/tiff/marbles.tif", // RGB, LZW compressed w/predictor
+                    "/tiff/lzw-full-12-bit-table.tif", // Gray, LZW compressed, w/predictor
+                    "/tiff/ycbcr-cat.tif", // YCbCr, LZW compressed
+                    "/tiff/planar-striped-lzw.tif", // RGB 8 bit/sample, planar, LZW compression
+                    "/tiff/depth/flower-minisblack-12.tif", // Gray 12 bit/sample
+                    "/tiff/ccitt/group4.tif", // B/W, CCITT T6 1D
+                    "/tiff/packbits-fillorder-2.tif" // B/W, PackBits, FillOrder 2
+            );
+
+            for (String resource : resources) {
+                try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource(resource))) {
+                    reader.setInput(stream);
+
+                    BufferedImage expected = reader.read(0, null);
+
+                    TIFFImageReadParam param = (TIFFImageReadParam) reader.getDefaultReadParam();
+                    param.setExecutor(executor);
+                    BufferedImage actual = reader.read(0, param);
+
+                    assertRasterEquals(resource, expected.getRaster(), actual.getRaster());
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadWithExecutorSubsampleAndSourceRegion() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/tiff/marbles.tif"))) {
+            TIFFImageReader reader = createReader();
+            reader.setInput(stream);
+
+            TIFFImageReadParam param = (TIFFImageReadParam) reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, 201, 1419, 400));
+            param.setSourceSubsampling(2, 3, 0, 0);
+            BufferedImage expected = reader.read(0, param);
+
+            param.setExecutor(executor);
+            BufferedImage actual = reader.read(0, param);
+
+            assertRasterEquals("", expected.getRaster(), actual.getRaster());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadWithExecutorFailureWaitsForRunningTasks() throws IOException, InterruptedException {
+        byte[] data = createStripedLZW(64, 512, 4);
+
+        // Corrupt the first strip
+        Directory ifd = new TIFFReader().read(new ByteArrayImageInputStream(data));
+        int offset = ((Number) ((Object[]) toObjectArray(ifd.getEntryById(TIFF.TAG_STRIP_OFFSETS).getValue()))[0]).intValue();
+        Arrays.fill(data, offset, offset + 64, (byte) 0xff);
+
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+        // Slow tasks, to make sure some are still running when the first strip fails
+        Executor executor = new Executor() {
+            @Override
+            public void execute(final Runnable task) {
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(5);
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+
+                        task.run();
+                    }
+                });
+            }
+        };
+
+        try (ImageInputStream stream = new ByteArrayImageInputStream(data)) {
+            TIFFImageReader reader = createReader();
+            reader.setInput(stream);
+
+            BufferedImage destination = new BufferedImage(64, 512, BufferedImage.TYPE_BYTE_GRAY);
+            byte[] pixels = ((DataBufferByte) destination.getRaster().getDataBuffer()).getData();
+
+            TIFFImageReadParam param = (TIFFImageReadParam) reader.getDefaultReadParam();
+            param.setDestination(destination);
+            param.setExecutor(executor);
+
+            try {
+                reader.read(0, param);
+                fail("Expected IOException");
+            }
+            catch (IOException expected) {
+                // No task may write to the destination, after read has thrown
+                byte[] snapshot = pixels.clone();
+                Thread.sleep(200);
+                assertArrayEquals(snapshot, pixels);
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Object[] toObjectArray(final Object value) {
+        if (value instanceof long[]) {
+            long[] longs = (long[]) value;
+            Object[] objects = new Object[longs.length];
+
+            for (int i = 0; i < longs.length; i++) {
+                objects[i] = longs[i];
+            }
+
+            return objects;
+        }
+
+        return value.getClass().isArray() ? (Object[]) value : new Object[] {value};
+    }
+
+    // Creates a gray, LZW compressed image with the given number of rows per strip
+    private static byte[] createStripedLZW(final int width, final int height, final int rowsPerStrip) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.getRaster().setSample(x, y, 0, (x * y) & 0xff);
+            }
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("TIFF").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(output);
+
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionType("LZW");
+
+            TIFFImageMetadata metadata = new TIFFImageMetadata(Collections.<Entry>singleton(new TIFFEntry(TIFF.TAG_ROWS_PER_STRIP, TIFF.TYPE_LONG, rowsPerStrip)));
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        }
+        finally {
+            writer.dispose();
+        }
+
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testReadTileEqualsImageRegion() throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/tiff/cramps-tile.tif"))) {
+            TIFFImageReader reader = createReader();
+            reader.setInput(stream);
+
+            BufferedImage image = reader.read(0);
+            int tileWidth = reader.getTileWidth(0);
+            int tileHeight = reader.getTileHeight(0);
+
+            for (int tileY = 0; tileY < 3; tileY++) {
+                for (int tileX = 0; tileX < 4; tileX++) {
+                    Raster tile = reader.readTileRaster(0, tileX, tileY);
+                    Raster expected = image.getRaster().createChild(tileX * tileWidth, tileY * tileHeight, tile.getWidth(), tile.getHeight(), 0, 0, null);
+
+                    assertRasterEquals(String.format("tile %d,%d", tileX, tileY), expected, tile);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReadTileCached() throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/tiff/cramps-tile.tif"))) {
+            TIFFImageReader reader = createReader();
+            reader.setInput(stream);
+
+            TIFFTileCache cache = new TIFFTileCache(1024 * 1024);
+            reader.setTileCache(cache);
+            assertSame(cache, reader.getTileCache());
+
+            BufferedImage tile = reader.readTile(0, 1, 1);
+            assertEquals(0, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+            assertEquals(1, cache.getTileCount());
+
+            BufferedImage cached = reader.readTile(0, 1, 1);
+            assertEquals(1, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+            assertNotSame(tile, cached);
+            assertRasterEquals("", tile.getRaster(), cached.getRaster());
+
+            // Modifying the returned tile must not affect the cache
+            cached.getRaster().setSample(0, 0, 0, ~cached.getRaster().getSample(0, 0, 0));
+            assertRasterEquals("", tile.getRaster(), reader.readTileRaster(0, 1, 1));
+            assertEquals(2, cache.getHitCount());
+
+            reader.setTileCache(null);
+            assertRasterEquals("", reader.readTile(0, 1, 1).getRaster(), tile.getRaster());
+            assertEquals(2, cache.getHitCount());
+        }
+    }
+
+    @Test
+    public void testReadTileCacheEviction() throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/tiff/cramps-tile.tif"))) {
+            TIFFImageReader reader = createReader();
+            reader.setInput(stream);
+
+            BufferedImage tile = reader.readTile(0, 0, 0);
+            DataBuffer buffer = tile.getRaster().getDataBuffer();
+            long tileSize = (long) buffer.getSize() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+
+            // Room for two tiles only
+            TIFFTileCache cache = new TIFFTileCache(2 * tileSize);
+            reader.setTileCache(cache);
+
+            reader.readTile(0, 0, 0);
+            reader.readTile(0, 1, 0);
+            reader.readTile(0, 0, 0);
+            reader.readTile(0, 0, 1); // Evicts 1,0
+
+            assertEquals(2, cache.getTileCount());
+            assertEquals(1, cache.getEvictionCount());
+            assertEquals(1, cache.getHitCount());
+            assertEquals(3, cache.getMissCount());
+            assertTrue(cache.getSize() <= cache.getMaxSize());
+
+            reader.readTile(0, 0, 0);
+            assertEquals(2, cache.getHitCount());
+
+            reader.readTile(0, 1, 0);
+            assertEquals(4, cache.getMissCount());
+        }
+    }
+
+    @Test
+    public void testTileCachePurgesTilesOfUnreferencedInput() throws InterruptedException {
+        TIFFTileCache cache = new TIFFTileCache(1024 * 1024);
+        BufferedImage tile = new BufferedImage(16, 16, BufferedImage.TYPE_BYTE_GRAY);
+
+        Object input = new Object();
+        cache.put(input, 0, 0, 0, tile);
+        cache.put(new Object(), 0, 0, 0, tile);
+        assertEquals(2, cache.getTileCount());
+        assertEquals(512, cache.getSize());
+
+        // Tiles of the unreferenced input are purged on next access, once the input is collected
+        for (int i = 0; i < 100 && cache.getTileCount() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+            cache.get(input, 0, 1, 1);
+        }
+
+        assertEquals(1, cache.getTileCount());
+        assertEquals(256, cache.getSize());
+        assertNotNull(cache.get(input, 0, 0, 0));
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testGetOverviews() throws IOException {
+        try (ImageInputStream stream = new ByteArrayImageInputStream(createPyramid(200, 160, 3))) {
+            TIFFImageReader reader = createReader();
+            reader.setInput(stream);
+
+            assertEquals(3, reader.getNumImages(true));
+            assertEquals(2, reader.getNumOverviews(0));
+            assertEquals(100, reader.getOverviewWidth(0, 0));
+            assertEquals(80, reader.getOverviewHeight(0, 0));
+            assertEquals(50, reader.getOverviewWidth(0, 1));
+            assertEquals(40, reader.getOverviewHeight(0, 1));
+            assertEquals(1, reader.getNumOverviews(1));
+            assertEquals(0, reader.getNumOverviews(2));
+
+            BufferedImage overview = reader.readOverview(0, 1, null);
+            assertEquals(50, overview.getWidth());
+            assertEquals(40, overview.getHeight());
+            assertRasterEquals("overview", reader.read(2).getRaster(), overview.getRaster());
+
+            // Reading the overview does not affect the full resolution image
+            assertEquals(200, reader.getWidth(0));
+            assertEquals(160, reader.getHeight(0));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testReadOverviewOutOfBounds() throws IOException {
+        try (ImageInputStream stream = new ByteArrayImageInputStream(createPyramid(200, 160, 2))) {
+            TIFFImageReader reader = createReader();
+            reader.setInput(stream);
+
+            reader.readOverview(0, 1, null);
+        }
+    }
+
+    @Test
+    public void testReadWithOverviewSelection() throws IOException {
+        try (ImageInputStream stream = new ByteArrayImageInputStream(createPyramid(200, 160, 3))) {
+            TIFFImageReader reader = createReader();
+            reader.setInput(stream);
+
+            TIFFImageReadParam param = (TIFFImageReadParam) reader.getDefaultReadParam();
+            param.setOverviewSelectionEnabled(true);
+
+            // Smallest overview that satisfies the subsampling
+            param.setSourceSubsampling(4, 4, 0, 0);
+            assertRasterEquals("4x4", reader.read(2).getRaster(), reader.read(0, param).getRaster());
+
+            param.setSourceSubsampling(2, 2, 0, 0);
+            assertRasterEquals("2x2", reader.read(1).getRaster(), reader.read(0, param).getRaster());
+
+            // No overview reduction factor divides the subsampling, read from full resolution
+            ImageReadParam fullParam = reader.getDefaultReadParam();
+            fullParam.setSourceSubsampling(3, 3, 0, 0);
+            param.setSourceSubsampling(3, 3, 0, 0);
+            BufferedImage subsampled = reader.read(0, param);
+            assertEquals(67, subsampled.getWidth());
+            assertEquals(54, subsampled.getHeight());
+            assertRasterEquals("3x3", reader.read(0, fullParam).getRaster(), subsampled.getRaster());
+
+            // Subsampling offsets are mapped to the overview
+            param.setSourceSubsampling(4, 4, 2, 2);
+            ImageReadParam offsetParam = reader.getDefaultReadParam();
+            offsetParam.setSourceRegion(new Rectangle(1, 1, 99, 79));
+            offsetParam.setSourceSubsampling(2, 2, 0, 0);
+            assertRasterEquals("4x4 offset", reader.read(1, offsetParam).getRaster(), reader.read(0, param).getRaster());
+
+            // First sample not aligned with any overview, read from full resolution
+            param.setSourceSubsampling(4, 4, 1, 0);
+            fullParam.setSourceSubsampling(4, 4, 1, 0);
+            assertRasterEquals("unaligned", reader.read(0, fullParam).getRaster(), reader.read(0, param).getRaster());
+
+            // Overview region and subsampling
+            param.setSourceSubsampling(8, 8, 0, 0);
+            param.setSourceRegion(new Rectangle(100, 80, 100, 80));
+
+            ImageReadParam expectedParam = reader.getDefaultReadParam();
+            expectedParam.setSourceRegion(new Rectangle(25, 20, 25, 20));
+            expectedParam.setSourceSubsampling(2, 2, 0, 0);
+            assertRasterEquals("region", reader.read(2, expectedParam).getRaster(), reader.read(0, param).getRaster());
+
+            // No overview has enough resolution, read from full resolution
+            param.setSourceRegion(null);
+            param.setSourceSubsampling(1, 1, 0, 0);
+            assertRasterEquals("1x1", reader.read(0).getRaster(), reader.read(0, param).getRaster());
+
+            // Disabled (default), always read from full resolution
+            fullParam.setSourceSubsampling(4, 4, 0, 0);
+            param.setSourceSubsampling(4, 4, 0, 0);
+            param.setOverviewSelectionEnabled(false);
+            assertRasterEquals("disabled", reader.read(0, fullParam).getRaster(), reader.read(0, param).getRaster());
+        }
+    }
+
+    // Creates an image with reduced-resolution versions in the following IFDs
+    private static byte[] createPyramid(final int width, final int height, final int levels) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("TIFF").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(output);
+            writer.prepareWriteSequence(null);
+
+            for (int level = 0; level < levels; level++) {
+                BufferedImage image = new BufferedImage(width >> level, height >> level, BufferedImage.TYPE_3BYTE_BGR);
+
+                for (int y = 0; y < image.getHeight(); y++) {
+                    for (int x = 0; x < image.getWidth(); x++) {
+                        image.setRGB(x, y, (x * 255 / image.getWidth()) << 16 | (y * 255 / image.getHeight()) << 8 | level * 64);
+                    }
+                }
+
+                TIFFImageMetadata metadata = level == 0
+                                             ? null
+                                             : new TIFFImageMetadata(Collections.<Entry>singleton(new TIFFEntry(TIFF.TAG_SUBFILE_TYPE, TIFF.TYPE_LONG, TIFFBaseline.FILETYPE_REDUCEDIMAGE)));
+                writer.writeToSequence(new IIOImage(image, null, metadata), null);
+            }
+
+            writer.endWriteSequence();
+        }
+        finally {
+            writer.dispose();
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static void assertRasterEquals(final String message, final Raster expected, final Raster actual) {
+        assertEquals(message + " width", expected.getWidth(), actual.getWidth());
+        assertEquals(message + " height", expected.getHeight(), actual.getHeight());
+        assertEquals(message + " bands", expected.getNumBands(), actual.getNumBands());
+
+        double[] expectedRow = null;
+        double[] actualRow = null;
+
+        for (int y = 0; y < expected.getHeight(); y++) {
+            expectedRow = expected.getPixels(0, y, expected.getWidth(), 1, expectedRow);
+            actualRow = actual.getPixels(0, y, actual.getWidth(), 1, actualRow);
+
+            assertArrayEquals(message + " row " + y, expectedRow, actualRow, 0);
+        }
+    }
+
     @Test
     public void testReadUnsupported() {
         ImageReader reader = createReader();
@@ -903,6 +1336,131 @@ public class TIFFImageReaderTest extends ImageReaderAbstractTest<TIFFImageReader
         }
     }
 
+    @Test
+    public void testReadCMYKAsRGB() throws IOException {
+        ImageReader reader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/tiff/cmyk_jpeg.tif"))) {
+            reader.setInput(stream);
+
+            BufferedImage cmyk = reader.read(0);
+            assertEquals(ColorSpace.TYPE_CMYK, cmyk.getColorModel().getColorSpace().getType());
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestinationType(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_3BYTE_BGR));
+            BufferedImage rgb = reader.read(0, param);
+
+            assertEquals(BufferedImage.TYPE_3BYTE_BGR, rgb.getType());
+            assertEquals(cmyk.getWidth(), rgb.getWidth());
+            assertEquals(cmyk.getHeight(), rgb.getHeight());
+
+            BufferedImage expected = new BufferedImage(cmyk.getWidth(), cmyk.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+            new ColorConvertOp(cmyk.getColorModel().getColorSpace(), expected.getColorModel().getColorSpace(), null)
+                    .filter(cmyk.getRaster(), expected.getRaster());
+
+            // The lookup table interpolation differs slightly from the CMM
+            for (int y = 0; y < rgb.getHeight(); y++) {
+                for (int x = 0; x < rgb.getWidth(); x++) {
+                    assertRGBEquals(String.format("RGB differ at (%d, %d)", x, y), expected.getRGB(x, y), rgb.getRGB(x, y), 8);
+                }
+            }
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadCMYKAsRGBSourceRegionDestinationOffset() throws IOException {
+        ImageReader reader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/tiff/cmyk_jpeg.tif"))) {
+            reader.setInput(stream);
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestinationType(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB));
+            BufferedImage full = reader.read(0, param);
+
+            param.setSourceRegion(new Rectangle(10, 20, 50, 40));
+            param.setSourceSubsampling(2, 3, 0, 0);
+            param.setDestinationOffset(new Point(3, 2));
+            BufferedImage region = reader.read(0, param);
+
+            assertEquals(BufferedImage.TYPE_INT_RGB, region.getType());
+            assertEquals(28, region.getWidth());
+            assertEquals(16, region.getHeight());
+
+            for (int y = 0; y < 14; y++) {
+                for (int x = 0; x < 25; x++) {
+                    assertEquals(full.getRGB(10 + x * 2, 20 + y * 3), region.getRGB(3 + x, 2 + y));
+                }
+            }
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadCMYKAsRGBProgressEventsOnce() throws IOException {
+        ImageReader reader = createReader();
+        IIOReadProgressListener listener = mock(IIOReadProgressListener.class);
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/tiff/cmyk_jpeg.tif"))) {
+            reader.setInput(stream);
+            reader.addIIOReadProgressListener(listener);
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestinationType(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_3BYTE_BGR));
+            reader.read(0, param);
+
+            verify(listener, times(1)).imageStarted(reader, 0);
+            verify(listener, times(1)).imageComplete(reader);
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadCMYKAsRGBSourceDestinationBands() throws IOException {
+        ImageReader reader = createReader();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getClassLoaderResource("/tiff/cmyk_jpeg.tif"))) {
+            reader.setInput(stream);
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestinationType(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_3BYTE_BGR));
+            Raster full = reader.read(0, param).getRaster();
+
+            // Source bands select from the converted RGB samples
+            param.setSourceBands(new int[] {2, 1, 0});
+            param.setDestinationBands(new int[] {0, 1, 2});
+            Raster swapped = reader.read(0, param).getRaster();
+
+            for (int y = 0; y < full.getHeight(); y++) {
+                for (int x = 0; x < full.getWidth(); x++) {
+                    for (int b = 0; b < 3; b++) {
+                        assertEquals(full.getSample(x, y, 2 - b), swapped.getSample(x, y, b));
+                    }
+                }
+            }
+
+            param.setSourceBands(new int[] {0, 1});
+
+            try {
+                reader.read(0, param);
+                fail("Expected IllegalArgumentException");
+            }
+            catch (IllegalArgumentException expected) {
+                assertNotNull(expected.getMessage());
+            }
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
     @Test
     public void testReadRaster() {
         ImageReader reader = createReader();
@@ -53,6 +53,7 @@ import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.io.*;
 import java.net.URL;
@@ -60,6 +61,10 @@ import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.twelvemonkeys.imageio.plugins.tiff.TIFFImageMetadataTest.createTIFFFieldNode;
 import static com.twelvemonkeys.imageio.util.ImageReaderAbstractTest.assertRGBEquals;
@@ -995,6 +1000,300 @@ public class TIFFImageWriterTest extends ImageWriterAbstractTest {
         }
     }
 
+    @Test
+    public void testWriteTiled() throws IOException {
+        List<URL> testData = Arrays.asList(
+                getClassLoaderResource("/tiff/quad-lzw.tif"),
+                getClassLoaderResource("/tiff/grayscale-alpha.tiff"),
+                getClassLoaderResource("/tiff/depth/flower-palette-04.tif"),
+                getClassLoaderResource("/tiff/depth/flower-minisblack-16.tif")
+        );
+
+        for (URL resource : testData) {
+            BufferedImage original = ImageIO.read(resource);
+
+            for (String compression : new String[] {"None", "LZW", "Deflate", "PackBits"}) {
+                ImageWriter writer = createImageWriter();
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setTiling(64, 48, 0, 0);
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionType(compression);
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+                    writer.setOutput(output);
+                    writer.write(null, new IIOImage(original, null, null), param);
+                }
+
+                try (ImageInputStream input = new ByteArrayImageInputStream(bytes.toByteArray())) {
+                    ImageReader reader = ImageIO.getImageReaders(input).next();
+                    reader.setInput(input);
+
+                    assertTrue(reader.isImageTiled(0));
+                    assertEquals(64, reader.getTileWidth(0));
+                    assertEquals(48, reader.getTileHeight(0));
+
+                    String message = String.format("Tiled %s output differs: %s", compression, resource.getFile());
+                    assertImageEquals(message, original, reader.read(0), 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWriteTiledCCITT() throws IOException {
+        BufferedImage original = ImageIO.read(getClassLoaderResource("/tiff/ccitt/group3_1d.tif"));
+
+        ImageWriter writer = createImageWriter();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setTiling(256, 128, 0, 0);
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionType("CCITT T.6");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(original, null, null), param);
+        }
+
+        BufferedImage tiled = ImageIO.read(new ByteArrayImageInputStream(bytes.toByteArray()));
+        assertImageEquals("Tiled CCITT output differs", original, tiled, 0);
+    }
+
+    @Test
+    public void testWriteTiledJPEG() throws IOException {
+        BufferedImage original = ImageIO.read(getClassLoaderResource("/tiff/quad-lzw.tif"));
+
+        BufferedImage[] results = new BufferedImage[2];
+
+        for (int i = 0; i < results.length; i++) {
+            ImageWriter writer = createImageWriter();
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setTilingMode(i == 0 ? ImageWriteParam.MODE_DISABLED : ImageWriteParam.MODE_DEFAULT);
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionType("JPEG");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+                writer.setOutput(output);
+                writer.write(null, new IIOImage(original, null, null), param);
+            }
+
+            try (ImageInputStream input = new ByteArrayImageInputStream(bytes.toByteArray())) {
+                ImageReader reader = ImageIO.getImageReaders(input).next();
+                reader.setInput(input);
+
+                assertEquals(i != 0, reader.isImageTiled(0));
+                results[i] = reader.read(0);
+            }
+        }
+
+        // Lossy, but tiles are aligned with the JPEG blocks, so should be (almost) identical to the striped version
+        assertImageEquals("Tiled JPEG output differs", results[0], results[1], 8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWriteTiledBadTileSize() throws IOException {
+        ImageWriter writer = createImageWriter();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setTiling(50, 50, 0, 0);
+
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(new NullOutputStream())) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB), null, null), param);
+        }
+    }
+
+    @Test
+    public void testWriteOverviews() throws IOException {
+        BufferedImage original = new BufferedImage(203, 101, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < original.getHeight(); y++) {
+            for (int x = 0; x < original.getWidth(); x++) {
+                original.setRGB(x, y, (x % 2 == 0 ? 0xff0000 : 0) | (y % 2 == 0 ? 0x00ff00 : 0) | x);
+            }
+        }
+
+        for (boolean tiled : new boolean[] {false, true}) {
+            TIFFImageWriteParam param = (TIFFImageWriteParam) createImageWriter().getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionType("LZW");
+            param.setNumOverviews(3);
+
+            if (tiled) {
+                param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setTiling(32, 32, 0, 0);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+                ImageWriter writer = createImageWriter();
+                writer.setOutput(output);
+                writer.write(null, new IIOImage(original, null, null), param);
+            }
+
+            try (ImageInputStream input = new ByteArrayImageInputStream(bytes.toByteArray())) {
+                TIFFImageReader reader = (TIFFImageReader) ImageIO.getImageReaders(input).next();
+                reader.setInput(input);
+
+                assertEquals(4, reader.getNumImages(true));
+                assertEquals(tiled, reader.isImageTiled(0));
+                assertEquals(3, reader.getNumOverviews(0));
+                assertImageEquals("Full resolution differs", original, reader.read(0), 0);
+
+                assertEquals(102, reader.getOverviewWidth(0, 0));
+                assertEquals(51, reader.getOverviewHeight(0, 0));
+                assertEquals(51, reader.getOverviewWidth(0, 1));
+                assertEquals(26, reader.getOverviewHeight(0, 1));
+                assertEquals(26, reader.getOverviewWidth(0, 2));
+                assertEquals(13, reader.getOverviewHeight(0, 2));
+
+                // 2x2 box filter: R and G are 255 in every other column/row, B is the average of x and x + 1
+                BufferedImage overview = reader.readOverview(0, 0, null);
+                assertRGBEquals("Overview differs", 0xff808000 | (10 + 11 + 1) / 2, overview.getRGB(5, 5), 0);
+
+                // Last column/row in odd sized image has no neighbour, average of available samples
+                assertRGBEquals("Overview differs", 0xffff8000 | 202, overview.getRGB(101, 5), 0);
+
+                BufferedImage smallest = reader.readOverview(0, 2, null);
+                assertEquals(26, smallest.getWidth());
+                assertEquals(13, smallest.getHeight());
+            }
+        }
+    }
+
+    @Test
+    public void testWriteStripsStreaming() throws IOException {
+        // An image that only allows access to the data through getData(Rectangle), recording the largest request
+        final Rectangle largest = new Rectangle();
+        BufferedImage original = new BufferedImage(997, 499, BufferedImage.TYPE_3BYTE_BGR) {
+            @Override
+            public Raster getData(final Rectangle rect) {
+                if (rect.width * rect.height > largest.width * largest.height) {
+                    largest.setSize(rect.getSize());
+                }
+
+                return super.getData(rect);
+            }
+
+            @Override
+            public Raster getData() {
+                throw new AssertionError("Entire image data requested");
+            }
+
+            @Override
+            public Raster getTile(final int tileX, final int tileY) {
+                throw new AssertionError("Entire image data requested");
+            }
+        };
+
+        Graphics2D graphics = original.createGraphics();
+        try {
+            graphics.setPaint(new GradientPaint(0, 0, Color.RED, 997, 499, Color.BLUE));
+            graphics.fillRect(0, 0, 997, 499);
+        }
+        finally {
+            graphics.dispose();
+        }
+
+        for (String compression : new String[] {"None", "LZW", "PackBits"}) {
+            largest.setSize(0, 0);
+
+            ImageWriter writer = createImageWriter();
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionType(compression);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+                writer.setOutput(output);
+                writer.write(null, new IIOImage(original, null, null), param);
+            }
+
+            // About 8K bytes per strip
+            assertEquals(compression, 997, largest.width);
+            assertEquals(compression, 2, largest.height);
+
+            try (ImageInputStream input = new ByteArrayImageInputStream(bytes.toByteArray())) {
+                ImageReader reader = ImageIO.getImageReaders(input).next();
+                reader.setInput(input);
+
+                TIFFImageMetadata metadata = (TIFFImageMetadata) reader.getImageMetadata(0);
+                assertEquals(compression, 2, ((Number) metadata.getTIFFField(TIFF.TAG_ROWS_PER_STRIP).getValue()).intValue());
+                assertEquals(compression, 250, ((long[]) metadata.getTIFFField(TIFF.TAG_STRIP_OFFSETS).getValue()).length);
+
+                assertImageEquals(compression + " output differs", original, reader.read(0), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testWriteConcurrentEqualsSequential() throws IOException {
+        BufferedImage original = new BufferedImage(601, 457, BufferedImage.TYPE_3BYTE_BGR);
+
+        Graphics2D graphics = original.createGraphics();
+        try {
+            graphics.setPaint(new GradientPaint(0, 0, Color.GREEN, 601, 457, Color.MAGENTA));
+            graphics.fillRect(0, 0, 601, 457);
+            graphics.setColor(Color.BLACK);
+            graphics.drawString("Concurrent", 20, 40);
+        }
+        finally {
+            graphics.dispose();
+        }
+
+        final ExecutorService threadPool = Executors.newFixedThreadPool(4);
+        final AtomicInteger taskCount = new AtomicInteger();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                taskCount.incrementAndGet();
+                threadPool.execute(command);
+            }
+        };
+
+        try {
+            for (String compression : new String[] {"Deflate", "LZW", "PackBits"}) {
+                for (int tilingMode : new int[] {ImageWriteParam.MODE_DISABLED, ImageWriteParam.MODE_DEFAULT}) {
+                    String message = compression + (tilingMode == ImageWriteParam.MODE_DEFAULT ? " tiled" : " strips");
+
+                    byte[] sequential = writeWithExecutor(original, compression, tilingMode, null);
+                    taskCount.set(0);
+                    byte[] concurrent = writeWithExecutor(original, compression, tilingMode, executor);
+
+                    assertTrue(message + " no tasks executed", taskCount.get() > 1);
+                    assertArrayEquals(message + " output differs", sequential, concurrent);
+                }
+            }
+        }
+        finally {
+            threadPool.shutdown();
+        }
+    }
+
+    private byte[] writeWithExecutor(final BufferedImage image, final String compression, final int tilingMode, final Executor executor) throws IOException {
+        ImageWriter writer = createImageWriter();
+        TIFFImageWriteParam param = (TIFFImageWriteParam) writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionType(compression);
+        param.setTilingMode(tilingMode);
+        param.setNumOverviews(2);
+        param.setExecutor(executor);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        }
+        finally {
+            writer.dispose();
+        }
+
+        return bytes.toByteArray();
+    }
+
     private void assertImageEquals(final String message, final BufferedImage expected, final BufferedImage actual, final int tolerance) {
         assertNotNull(message, expected);
         assertNotNull(message, actual);